@@ -0,0 +1,351 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Ccs.
+
+    Ccs is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Ccs is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Ccs; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+/* ccd_buffer.c
+** low level ccd library
+** $Header$
+*/
+/**
+ * ccd_buffer.c holds a pool of image buffers, owned by the library, that images are read out into.
+ * The pool is allocated when the CCD dimensions and binning are set (CCD_Setup_Dimensions, i.e. on each CONFIG),
+ * and the same buffers are then used by every single exposure (CCD_Exposure_Expose) and by the ccd_writer slots
+ * of every multrun, rather than allocating and freeing a frame per exposure. The buffers are only freed and
+ * reallocated when their size or number changes. Each buffer is touched when it is allocated, so its pages are
+ * faulted in then rather than during a readout, and locked into memory with CCD_Global_Memory_Lock (which
+ * only does anything when the library is compiled with CCD_GLOBAL_READOUT_MLOCK).
+ * Single exposures and multruns are never run at the same time, so they share the buffers.
+ * @author Chris Mottram
+ * @version $Revision$
+ */
+/**
+ * This hash define is needed before including source files give us POSIX.4/IEEE1003.1b-1993 prototypes.
+ */
+#define _POSIX_SOURCE 1
+/**
+ * This hash define is needed before including source files give us POSIX.4/IEEE1003.1b-1993 prototypes.
+ */
+#define _POSIX_C_SOURCE 199309L
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <pthread.h>
+#include "log_udp.h"
+#include "ccd_global.h"
+#include "ccd_buffer.h"
+
+/* data types */
+/**
+ * Structure holding the image buffer pool.
+ * <dl>
+ * <dt>Data_List</dt> <dd>The list of buffers. Entries from Count onwards are NULL.</dd>
+ * <dt>Count</dt> <dd>The number of buffers allocated.</dd>
+ * <dt>Size</dt> <dd>The size of each buffer, in bytes.</dd>
+ * </dl>
+ */
+struct Buffer_Struct
+{
+	void *Data_List[CCD_BUFFER_COUNT_MAX];
+	int Count;
+	size_t Size;
+};
+
+/* internal variables */
+/**
+ * Revision Control System identifier.
+ */
+static char rcsid[] = "$Id$";
+/**
+ * Variable holding error code of last operation performed by ccd_buffer.
+ */
+static int Buffer_Error_Number = 0;
+/**
+ * Local variable holding description of the last error that occured.
+ */
+static char Buffer_Error_String[CCD_GLOBAL_ERROR_STRING_LENGTH] = "";
+/**
+ * The image buffer pool. Initially empty.
+ * @see #Buffer_Struct
+ */
+static struct Buffer_Struct Buffer_Data;
+/**
+ * Mutex protecting Buffer_Data.
+ */
+static pthread_mutex_t Buffer_Mutex = PTHREAD_MUTEX_INITIALIZER;
+
+/* internal functions */
+static void Buffer_Release(int start_index);
+
+/* ----------------------------------------------------------------------------
+** 		external functions
+** ---------------------------------------------------------------------------- */
+/**
+ * Make the pool hold buffer_count buffers of buffer_size bytes. If the buffer size has changed all the buffers
+ * are reallocated, otherwise existing buffers are kept and buffers are only allocated or freed to make up
+ * the number. This must not be called whilst an exposure or multrun is using the buffers.
+ * @param buffer_count The number of buffers, from 1 to CCD_BUFFER_COUNT_MAX.
+ * @param buffer_size The size of each buffer, in bytes.
+ * @return The routine returns TRUE on success and FALSE on failure.
+ * @see #Buffer_Data
+ * @see #Buffer_Release
+ * @see ccd_global.html#CCD_Global_Memory_Lock
+ */
+int CCD_Buffer_Allocate(int buffer_count,size_t buffer_size)
+{
+	int i;
+
+	Buffer_Error_Number = 0;
+	if((buffer_count < 1)||(buffer_count > CCD_BUFFER_COUNT_MAX))
+	{
+		Buffer_Error_Number = 1;
+		sprintf(Buffer_Error_String,"CCD_Buffer_Allocate:Illegal buffer count %d.",buffer_count);
+		return FALSE;
+	}
+	if(buffer_size < 1)
+	{
+		Buffer_Error_Number = 2;
+		sprintf(Buffer_Error_String,"CCD_Buffer_Allocate:Illegal buffer size %lu.",
+			(unsigned long)buffer_size);
+		return FALSE;
+	}
+	pthread_mutex_lock(&Buffer_Mutex);
+	/* if the buffer size has changed, free all the buffers */
+	if(buffer_size != Buffer_Data.Size)
+	{
+		Buffer_Release(0);
+		Buffer_Data.Size = buffer_size;
+	}
+	/* free any buffers we no longer need */
+	if(buffer_count < Buffer_Data.Count)
+		Buffer_Release(buffer_count);
+	/* allocate any new buffers */
+	for(i = Buffer_Data.Count; i < buffer_count; i++)
+	{
+		Buffer_Data.Data_List[i] = malloc(buffer_size);
+		if(Buffer_Data.Data_List[i] == NULL)
+		{
+			pthread_mutex_unlock(&Buffer_Mutex);
+			Buffer_Error_Number = 3;
+			sprintf(Buffer_Error_String,"CCD_Buffer_Allocate:Failed to allocate buffer %d (%lu bytes).",
+				i,(unsigned long)buffer_size);
+			return FALSE;
+		}
+		/* fault the pages in now, rather than during the first readout */
+		memset(Buffer_Data.Data_List[i],0,buffer_size);
+		if(!CCD_Global_Memory_Lock((unsigned short *)(Buffer_Data.Data_List[i]),(int)buffer_size))
+		{
+			free(Buffer_Data.Data_List[i]);
+			Buffer_Data.Data_List[i] = NULL;
+			pthread_mutex_unlock(&Buffer_Mutex);
+			Buffer_Error_Number = 4;
+			sprintf(Buffer_Error_String,"CCD_Buffer_Allocate:Failed to lock buffer %d (%lu bytes).",
+				i,(unsigned long)buffer_size);
+			return FALSE;
+		}
+		Buffer_Data.Count = i+1;
+	}
+	pthread_mutex_unlock(&Buffer_Mutex);
+#if LOGGING > 4
+	CCD_Global_Log_Format(LOG_VERBOSITY_VERBOSE,"CCD_Buffer_Allocate:%d buffers of %lu bytes.",
+			      buffer_count,(unsigned long)buffer_size);
+#endif
+	return TRUE;
+}
+
+/**
+ * Make sure the pool holds at least buffer_count buffers of at least buffer_size bytes. If it already does
+ * nothing is done (so a pool allocated by CONFIG for the largest pixel size is kept), otherwise the pool
+ * is grown with CCD_Buffer_Allocate. This must not be called whilst an exposure or multrun is using the buffers.
+ * @param buffer_count The number of buffers needed, from 1 to CCD_BUFFER_COUNT_MAX.
+ * @param buffer_size The size of each buffer needed, in bytes.
+ * @return The routine returns TRUE on success and FALSE on failure.
+ * @see #Buffer_Data
+ * @see #CCD_Buffer_Allocate
+ */
+int CCD_Buffer_Reserve(int buffer_count,size_t buffer_size)
+{
+	int count;
+	size_t size;
+
+	Buffer_Error_Number = 0;
+	pthread_mutex_lock(&Buffer_Mutex);
+	count = Buffer_Data.Count;
+	size = Buffer_Data.Size;
+	pthread_mutex_unlock(&Buffer_Mutex);
+	if((buffer_count <= count)&&(buffer_size <= size))
+		return TRUE;
+	if(buffer_count < count)
+		buffer_count = count;
+	if(buffer_size < size)
+		buffer_size = size;
+#if LOGGING > 4
+	CCD_Global_Log_Format(LOG_VERBOSITY_VERBOSE,"CCD_Buffer_Reserve:Growing pool from %d x %lu to %d x %lu bytes.",
+			      count,(unsigned long)size,buffer_count,(unsigned long)buffer_size);
+#endif
+	return CCD_Buffer_Allocate(buffer_count,buffer_size);
+}
+
+/**
+ * Free all the buffers in the pool.
+ * @return The routine returns TRUE on success and FALSE on failure.
+ * @see #Buffer_Data
+ * @see #Buffer_Release
+ */
+int CCD_Buffer_Free(void)
+{
+	Buffer_Error_Number = 0;
+	pthread_mutex_lock(&Buffer_Mutex);
+	Buffer_Release(0);
+	Buffer_Data.Size = 0;
+	pthread_mutex_unlock(&Buffer_Mutex);
+	return TRUE;
+}
+
+/**
+ * Get a buffer from the pool.
+ * @param index The index of the buffer, from 0 to CCD_Buffer_Get_Count()-1.
+ * @param data The address of a pointer, set on return to the buffer (CCD_Buffer_Get_Size() bytes).
+ * @return The routine returns TRUE on success and FALSE on failure.
+ * @see #Buffer_Data
+ */
+int CCD_Buffer_Get(int index,void **data)
+{
+	Buffer_Error_Number = 0;
+	if(data == NULL)
+	{
+		Buffer_Error_Number = 5;
+		sprintf(Buffer_Error_String,"CCD_Buffer_Get:data was NULL.");
+		return FALSE;
+	}
+	pthread_mutex_lock(&Buffer_Mutex);
+	if((index < 0)||(index >= Buffer_Data.Count))
+	{
+		pthread_mutex_unlock(&Buffer_Mutex);
+		Buffer_Error_Number = 6;
+		sprintf(Buffer_Error_String,"CCD_Buffer_Get:Illegal index %d (%d buffers).",index,Buffer_Data.Count);
+		return FALSE;
+	}
+	(*data) = Buffer_Data.Data_List[index];
+	pthread_mutex_unlock(&Buffer_Mutex);
+	return TRUE;
+}
+
+/**
+ * Get the number of buffers in the pool.
+ * @return The number of buffers.
+ * @see #Buffer_Data
+ */
+int CCD_Buffer_Get_Count(void)
+{
+	int count;
+
+	pthread_mutex_lock(&Buffer_Mutex);
+	count = Buffer_Data.Count;
+	pthread_mutex_unlock(&Buffer_Mutex);
+	return count;
+}
+
+/**
+ * Get the size of each buffer in the pool.
+ * @return The size of each buffer, in bytes.
+ * @see #Buffer_Data
+ */
+size_t CCD_Buffer_Get_Size(void)
+{
+	size_t size;
+
+	pthread_mutex_lock(&Buffer_Mutex);
+	size = Buffer_Data.Size;
+	pthread_mutex_unlock(&Buffer_Mutex);
+	return size;
+}
+
+/**
+ * Get the current value of the ccd_buffer error number.
+ * @return The current value of the ccd_buffer error number.
+ */
+int CCD_Buffer_Get_Error_Number(void)
+{
+	return Buffer_Error_Number;
+}
+
+/**
+ * The error routine that reports any errors occuring in ccd_buffer in a standard way.
+ * @see ccd_global.html#CCD_Global_Get_Current_Time_String
+ */
+void CCD_Buffer_Error(void)
+{
+	char time_string[32];
+
+	CCD_Global_Get_Current_Time_String(time_string,32);
+	/* if the error number is zero an error message has not been set up
+	** This is in itself an error as we should not be calling this routine
+	** without there being an error to display */
+	if(Buffer_Error_Number == 0)
+		sprintf(Buffer_Error_String,"Logic Error:No Error defined");
+	fprintf(stderr,"%s CCD_Buffer:Error(%d) : %s\n",time_string,Buffer_Error_Number,Buffer_Error_String);
+}
+
+/**
+ * The error routine that reports any errors occuring in ccd_buffer in a standard way. This routine places the
+ * generated error string at the end of a passed in string argument.
+ * @param error_string A string to put the generated error in. This string should be initialised before
+ * being passed to this routine. The routine will try to concatenate it's error string onto the end
+ * of any string already in existance.
+ * @see ccd_global.html#CCD_Global_Get_Current_Time_String
+ */
+void CCD_Buffer_Error_String(char *error_string)
+{
+	char time_string[32];
+
+	CCD_Global_Get_Current_Time_String(time_string,32);
+	if(Buffer_Error_Number == 0)
+		sprintf(Buffer_Error_String,"Logic Error:No Error defined");
+	sprintf(error_string+strlen(error_string),"%s CCD_Buffer:Error(%d) : %s\n",time_string,
+		Buffer_Error_Number,Buffer_Error_String);
+}
+
+/* ----------------------------------------------------------------------------
+** 		internal functions
+** ---------------------------------------------------------------------------- */
+/**
+ * Unlock and free the buffers from start_index to the end of the pool. Buffer_Mutex must be held.
+ * @param start_index The index of the first buffer to free.
+ * @see #Buffer_Data
+ * @see ccd_global.html#CCD_Global_Memory_UnLock
+ */
+static void Buffer_Release(int start_index)
+{
+	int i;
+
+	for(i = start_index; i < Buffer_Data.Count; i++)
+	{
+		if(Buffer_Data.Data_List[i] != NULL)
+		{
+			CCD_Global_Memory_UnLock((unsigned short *)(Buffer_Data.Data_List[i]),(int)Buffer_Data.Size);
+			free(Buffer_Data.Data_List[i]);
+		}
+		Buffer_Data.Data_List[i] = NULL;
+	}
+	if(start_index < Buffer_Data.Count)
+		Buffer_Data.Count = start_index;
+}
+
+/*
+** $Log: not supported by cvs2svn $
+*/
@@ -55,8 +55,10 @@
 #endif
 #include <time.h>
 #include "log_udp.h"
+#include "ccd_buffer.h"
 #include "ccd_exposure.h"
 #include "ccd_setup.h"
+#include "ccd_timing.h"
 #ifdef CFITSIO
 #include "fitsio.h"
 #endif
@@ -68,6 +70,7 @@
 #include "ngat_astro_mjd.h"
 #endif /* NGATASTRO */
 #include "atmcdLXd.h"
+#include "ccd_simulate.h"
 
 /* hash definitions */
 /**
@@ -241,6 +244,8 @@ void CCD_Exposure_Initialise(void)
  * The Exposure_Data.Exposure_Status is changed to reflect the operation being performed on the CCD.
  * If the exposure is aborted at any stage the routine returns. Exposure_Expose_Delete_Fits_Images is
  * called to attempt to delete the blank FITS files, if the routine fails or is aborted.
+ * The exposure is given a ccd_timing record, timestamping when the acquisition started, finished, the image
+ * was retrieved and saved. The median and filename stages do not apply and are left as zero.
  * @param clear_array An integer representing a boolean. This should be set to TRUE if we wish to
  * 	manually clear the array before the exposure starts, FALSE if we do not. This is usually TRUE.
  * @param open_shutter TRUE if the shutter is to be opened over the duration of the exposure, FALSE if the
@@ -265,6 +270,10 @@ void CCD_Exposure_Initialise(void)
  * @see ccd_setup.html#CCD_Setup_Get_Setup_Complete
  * @see ccd_setup.html#CCD_Setup_Get_Window_Flags
  * @see ccd_setup.html#CCD_Setup_Get_Readout_Pixel_Count
+ * @see ccd_buffer.html#CCD_Buffer_Reserve
+ * @see ccd_buffer.html#CCD_Buffer_Get
+ * @see ccd_timing.html#CCD_Timing_Frame_Begin
+ * @see ccd_timing.html#CCD_Timing_Frame_End
  */
 int CCD_Exposure_Expose(int clear_array,int open_shutter,struct timespec start_time,int exposure_time,
 			char **filename_list,int filename_count)
@@ -273,12 +282,14 @@ int CCD_Exposure_Expose(int clear_array,int open_shutter,struct timespec start_t
 #ifndef _POSIX_TIMERS
 	struct timeval gtod_current_time;
 #endif
-	long *exposure_data = NULL; 
+	void *exposure_data = NULL; 
 	unsigned long andor_error = 0;
 	long elapsed_exposure_time = 0;
 	int done;
 	int status,window_flags;
 	int expected_pixel_count;
+	struct timespec acquisition_start_time,frame_available_time;
+	long timing_sequence;
 
 	Exposure_Error_Number = 0;
 #if LOGGING > 0
@@ -459,6 +470,7 @@ int CCD_Exposure_Expose(int clear_array,int open_shutter,struct timespec start_t
 			      exposure_time);
 #endif
 	Exposure_Data.Exposure_Status = CCD_EXPOSURE_STATUS_PRE_READOUT;
+	CCD_Timing_Get_Time(&acquisition_start_time);
 	StartAcquisition();
 	GetStatus(&status);
 
@@ -485,6 +497,7 @@ int CCD_Exposure_Expose(int clear_array,int open_shutter,struct timespec start_t
 		}
 		fflush(stdout);	
 	}
+	CCD_Timing_Get_Time(&frame_available_time);
 	  
 #if LOGGING > 4
 	CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"CCD_Exposure_Expose:Finished Exposure...Andor Status %d",
@@ -502,24 +515,32 @@ int CCD_Exposure_Expose(int clear_array,int open_shutter,struct timespec start_t
 	CCD_Global_Log(LOG_VERBOSITY_INTERMEDIATE,"CCD_Exposure_Expose():Getting reply data.");
 #endif
 
-	/* get data */
-	exposure_data=(long*)malloc(expected_pixel_count*sizeof(long));
-	if (exposure_data==NULL) 
+	/* get data, into the first ccd_buffer image buffer (normally already allocated by CONFIG) */
+	if(!CCD_Buffer_Reserve(1,expected_pixel_count*sizeof(long)))
 	{
+		Exposure_Data.Exposure_Status = CCD_EXPOSURE_STATUS_NONE;
 		Exposure_Error_Number = 4;
-		sprintf(Exposure_Error_String,"CCD_Exposure_Expose:Unable to malloc() memory!");
+		sprintf(Exposure_Error_String,"CCD_Exposure_Expose:Failed to reserve image buffer(%d).",
+			expected_pixel_count);
+		return FALSE; 
+	} 
+	if(!CCD_Buffer_Get(0,&exposure_data))
+	{
+		Exposure_Data.Exposure_Status = CCD_EXPOSURE_STATUS_NONE;
+		Exposure_Error_Number = 73;
+		sprintf(Exposure_Error_String,"CCD_Exposure_Expose:Failed to get image buffer.");
 		return FALSE; 
 	} 
-
 #if LOGGING > 4
-	CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"CCD_Exposure_Expose:malloc'd in array %p",
-		       (void *)exposure_data); 
+	CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"CCD_Exposure_Expose:Reading out into image buffer %p",
+		       exposure_data); 
 #endif
-	andor_error=GetAcquiredData(exposure_data,expected_pixel_count);
+	andor_error=GetAcquiredData((long *)exposure_data,expected_pixel_count);
 #if LOGGING > 4
 	CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"CCD_Exposure_Expose:GetAcquiredData returned %lu",
 			      andor_error);
 #endif
+	timing_sequence = CCD_Timing_Frame_Begin(1,acquisition_start_time,frame_available_time);
 	Exposure_Data.Exposure_Status = CCD_EXPOSURE_STATUS_POST_READOUT;
 /* post-readout processing depends on whether we are windowing or not. */
 #if LOGGING > 4
@@ -532,16 +553,19 @@ int CCD_Exposure_Expose(int clear_array,int open_shutter,struct timespec start_t
 		{
 			/* Do not call Exposure_Expose_Delete_Fits_Images here - we may have saved to disk */
 			Exposure_Data.Exposure_Status = CCD_EXPOSURE_STATUS_NONE;
+			CCD_Timing_Frame_End(timing_sequence,CCD_TIMING_FRAME_STATE_ABANDONED);
 			return FALSE;
 		}
+		CCD_Timing_Frame_End(timing_sequence,CCD_TIMING_FRAME_STATE_SAVED);
 	}
+	else
+		CCD_Timing_Frame_End(timing_sequence,CCD_TIMING_FRAME_STATE_ABANDONED);
 /* reset exposure status */
 	Exposure_Data.Exposure_Status = CCD_EXPOSURE_STATUS_NONE;
 #if LOGGING > 0
 	CCD_Global_Log(LOG_VERBOSITY_INTERMEDIATE,"CCD_Exposure_Expose() returned TRUE.");
 #endif
 	CCD_Exposure_Set_Abort(FALSE);
-	free(exposure_data); 
 	return TRUE;
 }
 
@@ -564,7 +588,8 @@ int CCD_Exposure_Bias(char *filename)
 
 /**
  * This routine aborts an exposure currenly underway, whether it is reading out or not.
- * This routine sets the Abort flag to true by calling CCD_Exposure_Set_Abort(TRUE).
+ * This routine sets the Abort flag to true by calling CCD_Exposure_Set_Abort(TRUE). It then calls CancelWait,
+ * so a multrun blocked waiting for an acquisition event notices the abort straight away.
  * @return Returns TRUE if the abort succeeds  returns FALSE if an error occurs.
  * @see #Exposure_Data
  * @see #CCD_Exposure_Expose
@@ -579,6 +604,7 @@ int CCD_Exposure_Abort(void)
 		       Exposure_Data.Exposure_Status);
 #endif
 	CCD_Exposure_Set_Abort(TRUE);
+	CancelWait();
 #if LOGGING > 0
 	CCD_Global_Log(LOG_VERBOSITY_INTERMEDIATE,"CCD_Exposure_Abort() finished.");
 #endif
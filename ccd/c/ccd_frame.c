@@ -0,0 +1,352 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Ccs.
+
+    Ccs is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Ccs is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Ccs; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+/* ccd_frame.c
+** low level ccd library
+** $Header$
+*/
+/**
+ * ccd_frame.c holds a pool of frame buffers that read out images are delivered into, and a handler that is called
+ * when each frame is ready. The buffers are owned by the caller (normally direct ByteBuffers owned by the Java
+ * layer, registered through the JNI layer), so image data is read straight from the Andor circular buffer into
+ * memory the caller can see, without an intermediate copy. A buffer is acquired by the exposure loop, filled,
+ * handed to the ready handler, and is not reused until the caller releases it.
+ * @author Chris Mottram
+ * @version $Revision$
+ */
+/**
+ * This hash define is needed before including source files give us POSIX.4/IEEE1003.1b-1993 prototypes.
+ */
+#define _POSIX_SOURCE 1
+/**
+ * This hash define is needed before including source files give us POSIX.4/IEEE1003.1b-1993 prototypes.
+ */
+#define _POSIX_C_SOURCE 199309L
+#include <stdio.h>
+#include <string.h>
+#include <time.h>
+#include <pthread.h>
+#include "log_udp.h"
+#include "ccd_global.h"
+#include "ccd_frame.h"
+
+/* data types */
+/**
+ * Structure holding one frame buffer.
+ * <dl>
+ * <dt>Data</dt> <dd>The address of the buffer memory, or NULL if no buffer is registered at this index.</dd>
+ * <dt>Pixel_Count</dt> <dd>The number of unsigned short pixels the buffer can hold.</dd>
+ * <dt>In_Use</dt> <dd>Boolean, TRUE from when the buffer is acquired until it is released.</dd>
+ * </dl>
+ */
+struct Frame_Buffer_Struct
+{
+	unsigned short *Data;
+	size_t Pixel_Count;
+	int In_Use;
+};
+
+/**
+ * Structure holding the frame buffer pool.
+ * <dl>
+ * <dt>Buffer_List</dt> <dd>The list of frame buffers.</dd>
+ * <dt>Buffer_Count</dt> <dd>The number of buffers registered (the highest registered index plus one).</dd>
+ * <dt>Ready_Handler</dt> <dd>The function called when a frame is ready.</dd>
+ * </dl>
+ * @see #Frame_Buffer_Struct
+ */
+struct Frame_Struct
+{
+	struct Frame_Buffer_Struct Buffer_List[CCD_FRAME_BUFFER_COUNT_MAX];
+	int Buffer_Count;
+	void (*Ready_Handler)(int index,long frame_number,struct timespec start_time);
+};
+
+/* internal variables */
+/**
+ * Revision Control System identifier.
+ */
+static char rcsid[] = "$Id$";
+/**
+ * Variable holding error code of last operation performed by ccd_frame.
+ */
+static int Frame_Error_Number = 0;
+/**
+ * Local variable holding description of the last error that occured.
+ */
+static char Frame_Error_String[CCD_GLOBAL_ERROR_STRING_LENGTH] = "";
+/**
+ * The frame buffer pool. Initially empty, with no ready handler.
+ * @see #Frame_Struct
+ */
+static struct Frame_Struct Frame_Data;
+/**
+ * Mutex protecting Frame_Data, buffers are acquired by the exposure thread and released by other threads.
+ */
+static pthread_mutex_t Frame_Mutex = PTHREAD_MUTEX_INITIALIZER;
+
+/* ----------------------------------------------------------------------------
+** 		external functions
+** ---------------------------------------------------------------------------- */
+/**
+ * Register a frame buffer with the pool.
+ * @param index The index in the pool to register the buffer at, from 0 to CCD_FRAME_BUFFER_COUNT_MAX-1.
+ * @param data The address of the buffer. This memory is owned by the caller, and must remain valid until
+ *        CCD_Frame_Buffer_Deregister_All is called.
+ * @param pixel_count The number of unsigned short pixels the buffer can hold.
+ * @return The routine returns TRUE on success and FALSE on failure.
+ * @see #Frame_Data
+ * @see #CCD_FRAME_BUFFER_COUNT_MAX
+ */
+int CCD_Frame_Buffer_Register(int index,unsigned short *data,size_t pixel_count)
+{
+	Frame_Error_Number = 0;
+	if((index < 0)||(index >= CCD_FRAME_BUFFER_COUNT_MAX))
+	{
+		Frame_Error_Number = 1;
+		sprintf(Frame_Error_String,"CCD_Frame_Buffer_Register:Illegal index %d.",index);
+		return FALSE;
+	}
+	if(data == NULL)
+	{
+		Frame_Error_Number = 2;
+		sprintf(Frame_Error_String,"CCD_Frame_Buffer_Register:Buffer %d is NULL.",index);
+		return FALSE;
+	}
+	pthread_mutex_lock(&Frame_Mutex);
+	if(Frame_Data.Buffer_List[index].In_Use)
+	{
+		pthread_mutex_unlock(&Frame_Mutex);
+		Frame_Error_Number = 3;
+		sprintf(Frame_Error_String,"CCD_Frame_Buffer_Register:Buffer %d is in use.",index);
+		return FALSE;
+	}
+	Frame_Data.Buffer_List[index].Data = data;
+	Frame_Data.Buffer_List[index].Pixel_Count = pixel_count;
+	Frame_Data.Buffer_List[index].In_Use = FALSE;
+	if(index >= Frame_Data.Buffer_Count)
+		Frame_Data.Buffer_Count = index+1;
+	pthread_mutex_unlock(&Frame_Mutex);
+#if LOGGING > 4
+	CCD_Global_Log_Format(LOG_VERBOSITY_VERY_VERBOSE,"CCD_Frame_Buffer_Register:Buffer %d:%p,%lu pixels.",
+			      index,(void*)data,(unsigned long)pixel_count);
+#endif
+	return TRUE;
+}
+
+/**
+ * Remove all the frame buffers from the pool. This fails if any buffer is still in use.
+ * @return The routine returns TRUE on success and FALSE on failure.
+ * @see #Frame_Data
+ */
+int CCD_Frame_Buffer_Deregister_All(void)
+{
+	int i;
+
+	Frame_Error_Number = 0;
+	pthread_mutex_lock(&Frame_Mutex);
+	for(i = 0; i < Frame_Data.Buffer_Count; i++)
+	{
+		if(Frame_Data.Buffer_List[i].In_Use)
+		{
+			pthread_mutex_unlock(&Frame_Mutex);
+			Frame_Error_Number = 4;
+			sprintf(Frame_Error_String,"CCD_Frame_Buffer_Deregister_All:Buffer %d is in use.",i);
+			return FALSE;
+		}
+	}
+	for(i = 0; i < Frame_Data.Buffer_Count; i++)
+	{
+		Frame_Data.Buffer_List[i].Data = NULL;
+		Frame_Data.Buffer_List[i].Pixel_Count = 0;
+	}
+	Frame_Data.Buffer_Count = 0;
+	pthread_mutex_unlock(&Frame_Mutex);
+	return TRUE;
+}
+
+/**
+ * Get the number of frame buffers registered.
+ * @return The number of buffers.
+ * @see #Frame_Data
+ */
+int CCD_Frame_Buffer_Get_Count(void)
+{
+	return Frame_Data.Buffer_Count;
+}
+
+/**
+ * Acquire a free frame buffer big enough to hold an image.
+ * @param pixel_count The number of pixels in the image.
+ * @param index The address of an integer, set on return to the index of the acquired buffer, or -1 if all the
+ *        buffers are currently in use.
+ * @param data The address of a pointer, set on return to the acquired buffer, or NULL if all the buffers
+ *        are currently in use.
+ * @return The routine returns TRUE on success (including when all the buffers are in use), and FALSE if no
+ *         buffers are registered, or the registered buffers are too small for the image.
+ * @see #Frame_Data
+ */
+int CCD_Frame_Buffer_Acquire(size_t pixel_count,int *index,unsigned short **data)
+{
+	int i,big_enough;
+
+	Frame_Error_Number = 0;
+	if((index == NULL)||(data == NULL))
+	{
+		Frame_Error_Number = 5;
+		sprintf(Frame_Error_String,"CCD_Frame_Buffer_Acquire:index or data was NULL.");
+		return FALSE;
+	}
+	(*index) = -1;
+	(*data) = NULL;
+	big_enough = FALSE;
+	pthread_mutex_lock(&Frame_Mutex);
+	for(i = 0; i < Frame_Data.Buffer_Count; i++)
+	{
+		if((Frame_Data.Buffer_List[i].Data != NULL)&&(Frame_Data.Buffer_List[i].Pixel_Count >= pixel_count))
+		{
+			big_enough = TRUE;
+			if(Frame_Data.Buffer_List[i].In_Use == FALSE)
+			{
+				Frame_Data.Buffer_List[i].In_Use = TRUE;
+				(*index) = i;
+				(*data) = Frame_Data.Buffer_List[i].Data;
+				break;
+			}
+		}
+	}
+	pthread_mutex_unlock(&Frame_Mutex);
+	if(big_enough == FALSE)
+	{
+		Frame_Error_Number = 6;
+		sprintf(Frame_Error_String,"CCD_Frame_Buffer_Acquire:No registered buffer can hold %lu pixels.",
+			(unsigned long)pixel_count);
+		return FALSE;
+	}
+	return TRUE;
+}
+
+/**
+ * Release a frame buffer, so it can be re-used for another image.
+ * @param index The index of the buffer. This must be the index of a registered buffer.
+ * @return The routine returns TRUE on success and FALSE on failure.
+ * @see #Frame_Data
+ */
+int CCD_Frame_Buffer_Release(int index)
+{
+	Frame_Error_Number = 0;
+	if((index < 0)||(index >= CCD_FRAME_BUFFER_COUNT_MAX))
+	{
+		Frame_Error_Number = 7;
+		sprintf(Frame_Error_String,"CCD_Frame_Buffer_Release:Illegal index %d.",index);
+		return FALSE;
+	}
+	pthread_mutex_lock(&Frame_Mutex);
+	if(index >= Frame_Data.Buffer_Count)
+	{
+		pthread_mutex_unlock(&Frame_Mutex);
+		Frame_Error_Number = 8;
+		sprintf(Frame_Error_String,"CCD_Frame_Buffer_Release:Buffer %d is not registered (%d buffers).",
+			index,Frame_Data.Buffer_Count);
+		return FALSE;
+	}
+	Frame_Data.Buffer_List[index].In_Use = FALSE;
+	pthread_mutex_unlock(&Frame_Mutex);
+	return TRUE;
+}
+
+/**
+ * Set the function called when a frame is ready in a frame buffer.
+ * @param ready_fn The function to call, or NULL to remove the handler.
+ * @see #Frame_Data
+ * @see #CCD_Frame_Ready
+ */
+void CCD_Frame_Set_Ready_Handler_Function(void (*ready_fn)(int index,long frame_number,
+							    struct timespec start_time))
+{
+	Frame_Data.Ready_Handler = ready_fn;
+}
+
+/**
+ * Routine called by the exposure code when a frame has been read into a frame buffer. The ready handler
+ * is called, which then owns the buffer until it calls CCD_Frame_Buffer_Release. If no handler is set, the buffer
+ * is released immediately.
+ * @param index The index of the buffer holding the frame.
+ * @param frame_number The number of the frame in the multrun, starting from one.
+ * @param start_time The time the exposure of this frame started.
+ * @see #Frame_Data
+ * @see #CCD_Frame_Buffer_Release
+ */
+void CCD_Frame_Ready(int index,long frame_number,struct timespec start_time)
+{
+	if(Frame_Data.Ready_Handler != NULL)
+		(*(Frame_Data.Ready_Handler))(index,frame_number,start_time);
+	else
+		CCD_Frame_Buffer_Release(index);
+}
+
+/**
+ * Get the current value of ccd_frame's error number.
+ * @return The current value of ccd_frame's error number.
+ * @see #Frame_Error_Number
+ */
+int CCD_Frame_Get_Error_Number(void)
+{
+	return Frame_Error_Number;
+}
+
+/**
+ * The error routine that reports any errors occuring in ccd_frame in a standard way.
+ * @see ccd_global.html#CCD_Global_Get_Current_Time_String
+ */
+void CCD_Frame_Error(void)
+{
+	char time_string[32];
+
+	CCD_Global_Get_Current_Time_String(time_string,32);
+	/* if the error number is zero an error message has not been set up
+	** This is in itself an error as we should not be calling this routine
+	** without there being an error to display */
+	if(Frame_Error_Number == 0)
+		sprintf(Frame_Error_String,"Logic Error:No Error defined");
+	fprintf(stderr,"%s CCD_Frame:Error(%d) : %s\n",time_string,Frame_Error_Number,Frame_Error_String);
+}
+
+/**
+ * The error routine that reports any errors occuring in ccd_frame in a standard way. This routine places the
+ * generated error string at the end of a passed in string argument.
+ * @param error_string A string to put the generated error in. This string should be initialised before
+ * being passed to this routine. The routine will try to concatenate it's error string onto the end
+ * of any string already in existance.
+ * @see ccd_global.html#CCD_Global_Get_Current_Time_String
+ */
+void CCD_Frame_Error_String(char *error_string)
+{
+	char time_string[32];
+
+	CCD_Global_Get_Current_Time_String(time_string,32);
+	if(Frame_Error_Number == 0)
+		sprintf(Frame_Error_String,"Logic Error:No Error defined");
+	sprintf(error_string+strlen(error_string),"%s CCD_Frame:Error(%d) : %s\n",time_string,
+		Frame_Error_Number,Frame_Error_String);
+}
+
+/*
+** $Log: not supported by cvs2svn $
+*/
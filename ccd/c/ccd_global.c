@@ -61,6 +61,7 @@
 #include <time.h>
 #include <stdarg.h>
 #include <unistd.h>
+#include <pthread.h>
 #if CCD_GLOBAL_READOUT_PRIORITY == 0
 /* include nothing for normal priority readout */
 #elif CCD_GLOBAL_READOUT_PRIORITY == 1
@@ -80,7 +81,11 @@
 #include "ccd_multrun.h"
 #include "ccd_temperature.h"
 #include "ccd_setup.h"
+#include "ccd_frame.h"
+#include "ccd_writer.h"
+#include "ccd_buffer.h"
 #include "atmcdLXd.h"
+#include "ccd_simulate.h"
 
 /* hash definitions */
 /**
@@ -153,6 +158,47 @@ struct Global_Struct
 	int Global_Log_Filter_Level;
 };
 
+/**
+ * Data type holding one message in the log ring.
+ * <dl>
+ * <dt>Sequence</dt> <dd>The slot's sequence number, which says whether the slot is free to be filled, or holds
+ *     a message waiting to be read, for a given ring position. It is stored minus the slot's index, so the
+ *     statically zeroed ring starts with every slot free for the first pass.</dd>
+ * <dt>Level</dt> <dd>The log level of the message.</dd>
+ * <dt>Message</dt> <dd>The message, truncated to CCD_GLOBAL_ERROR_STRING_LENGTH characters.</dd>
+ * </dl>
+ * @see #Global_Log_Ring_Struct
+ */
+struct Global_Log_Ring_Slot_Struct
+{
+	volatile unsigned long Sequence;
+	int Level;
+	char Message[CCD_GLOBAL_ERROR_STRING_LENGTH];
+};
+
+/**
+ * Data type holding the log ring, a bounded lock-free queue of log messages (after D. Vyukov's bounded MPMC
+ * queue). Any number of threads can put messages without taking a lock or making a system call, and a single
+ * consumer (the Java log drainer) takes them. When the ring is full messages are dropped and counted, so logging
+ * never stalls the thread doing the logging.
+ * <dl>
+ * <dt>Slot_List</dt> <dd>The list of message slots.</dd>
+ * <dt>Put_Position</dt> <dd>The ring position the next message will be put at.</dd>
+ * <dt>Get_Position</dt> <dd>The ring position the next message will be got from.</dd>
+ * <dt>Drop_Count</dt> <dd>The number of messages dropped because the ring was full.</dd>
+ * </dl>
+ * @see #CCD_GLOBAL_LOG_RING_SIZE
+ * @see #CCD_Global_Log_Handler_Ring
+ * @see #CCD_Global_Log_Ring_Get
+ */
+struct Global_Log_Ring_Struct
+{
+	struct Global_Log_Ring_Slot_Struct Slot_List[CCD_GLOBAL_LOG_RING_SIZE];
+	volatile unsigned long Put_Position;
+	unsigned long Get_Position;
+	volatile unsigned long Drop_Count;
+};
+
 /* external data */
 /**
  * Declare some config properties to load and retrieve values from the properties file.
@@ -201,6 +247,17 @@ static struct Global_Struct Global_Data =
  * @see #CCD_GLOBAL_ERROR_STRING_LENGTH
  */
 static char Global_Buff[CCD_GLOBAL_ERROR_STRING_LENGTH];
+/**
+ * The log ring. Statically zeroed, which leaves it empty with every slot free.
+ * @see #Global_Log_Ring_Struct
+ */
+static struct Global_Log_Ring_Struct Global_Log_Ring;
+/**
+ * Mutex held whilst getting a message from the log ring, so only one thread consumes at a time.
+ * Threads putting messages do not use it.
+ * @see #CCD_Global_Log_Ring_Get
+ */
+static pthread_mutex_t Global_Log_Ring_Get_Mutex = PTHREAD_MUTEX_INITIALIZER;
 
 /* ----------------------------------------------------------------------------
 ** 		external functions 
@@ -238,6 +295,11 @@ void CCD_Global_Initialise(void)
 #else
 	fprintf(stdout,"CCD_Global_Initialise:Readout memory unlocked:can be swapped to disc.\n");
 #endif
+#ifdef CCD_SIMULATE
+	fprintf(stdout,"CCD_Global_Initialise:Simulated camera available (ccs.libccd.device).\n");
+#else
+	fprintf(stdout,"CCD_Global_Initialise:Simulated camera not compiled in:Andor camera only.\n");
+#endif
 }
 
 /**
@@ -254,6 +316,14 @@ void CCD_Global_Initialise(void)
  * @see ccd_multrun.html#CCD_Multrun_Error
  * @see ccd_temperature.html#CCD_Temperature_Get_Error_Number
  * @see ccd_temperature.html#CCD_Temperature_Error
+ * @see ccd_simulate.html#CCD_Simulate_Get_Error_Number
+ * @see ccd_simulate.html#CCD_Simulate_Error
+ * @see ccd_frame.html#CCD_Frame_Get_Error_Number
+ * @see ccd_frame.html#CCD_Frame_Error
+ * @see ccd_writer.html#CCD_Writer_Get_Error_Number
+ * @see ccd_writer.html#CCD_Writer_Error
+ * @see ccd_buffer.html#CCD_Buffer_Get_Error_Number
+ * @see ccd_buffer.html#CCD_Buffer_Error
  * @see #CCD_Global_Get_Current_Time_String
  * @see #Global_Error_Number
  * @see #Global_Error_String
@@ -284,6 +354,26 @@ void CCD_Global_Error(void)
 		fprintf(stderr,"\t");
 		CCD_Temperature_Error();
 	}
+	if(CCD_Simulate_Get_Error_Number() != 0)
+	{
+		found = TRUE;
+		CCD_Simulate_Error();
+	}
+	if(CCD_Frame_Get_Error_Number() != 0)
+	{
+		found = TRUE;
+		CCD_Frame_Error();
+	}
+	if(CCD_Writer_Get_Error_Number() != 0)
+	{
+		found = TRUE;
+		CCD_Writer_Error();
+	}
+	if(CCD_Buffer_Get_Error_Number() != 0)
+	{
+		found = TRUE;
+		CCD_Buffer_Error();
+	}
 	if(Global_Error_Number != 0)
 	{
 		found = TRUE;
@@ -314,6 +404,14 @@ void CCD_Global_Error(void)
  * @see ccd_multrun.html#CCD_Multrun_Error_String
  * @see ccd_temperature.html#CCD_Temperature_Get_Error_Number
  * @see ccd_temperature.html#CCD_Temperature_Error_String
+ * @see ccd_simulate.html#CCD_Simulate_Get_Error_Number
+ * @see ccd_simulate.html#CCD_Simulate_Error_String
+ * @see ccd_frame.html#CCD_Frame_Get_Error_Number
+ * @see ccd_frame.html#CCD_Frame_Error_String
+ * @see ccd_writer.html#CCD_Writer_Get_Error_Number
+ * @see ccd_writer.html#CCD_Writer_Error_String
+ * @see ccd_buffer.html#CCD_Buffer_Get_Error_Number
+ * @see ccd_buffer.html#CCD_Buffer_Error_String
  * @see #CCD_Global_Get_Current_Time_String
  * @see #Global_Error_Number
  * @see #Global_Error_String
@@ -340,6 +438,22 @@ void CCD_Global_Error_String(char *error_string)
 		strcat(error_string,"\t");
 		CCD_Temperature_Error_String(error_string);
 	}
+	if(CCD_Simulate_Get_Error_Number() != 0)
+	{
+		CCD_Simulate_Error_String(error_string);
+	}
+	if(CCD_Frame_Get_Error_Number() != 0)
+	{
+		CCD_Frame_Error_String(error_string);
+	}
+	if(CCD_Writer_Get_Error_Number() != 0)
+	{
+		CCD_Writer_Error_String(error_string);
+	}
+	if(CCD_Buffer_Get_Error_Number() != 0)
+	{
+		CCD_Buffer_Error_String(error_string);
+	}
 	if(Global_Error_Number != 0)
 	{
 		CCD_Global_Get_Current_Time_String(time_string,32);
@@ -460,6 +574,105 @@ void CCD_Global_Log_Handler_Stdout(int level,char *string)
 	fprintf(stdout,"%s\n",string);
 }
 
+/**
+ * A log handler to be used for the Global_Data.Global_Log_Handler function.
+ * The message is copied into the log ring, to be taken by CCD_Global_Log_Ring_Get from another thread, so the
+ * calling thread never blocks on the eventual log handler. This routine never waits: if the ring is full the
+ * message is dropped and counted.
+ * @param level The log level for this message.
+ * @param string The log message to be logged. Messages longer than CCD_GLOBAL_ERROR_STRING_LENGTH are truncated.
+ * @see #Global_Log_Ring
+ * @see #CCD_Global_Log_Ring_Get
+ * @see #CCD_Global_Log_Ring_Get_Drop_Count
+ */
+void CCD_Global_Log_Handler_Ring(int level,char *string)
+{
+	struct Global_Log_Ring_Slot_Struct *slot = NULL;
+	unsigned long position,index;
+	long difference;
+
+	if(string == NULL)
+		return;
+	/* claim a ring position */
+	position = Global_Log_Ring.Put_Position;
+	while(TRUE)
+	{
+		index = position&(CCD_GLOBAL_LOG_RING_SIZE-1);
+		slot = &(Global_Log_Ring.Slot_List[index]);
+		difference = (long)(slot->Sequence+index-position);
+		if(difference == 0)
+		{
+			/* the slot is free for this position, try to claim it */
+			if(__sync_bool_compare_and_swap(&(Global_Log_Ring.Put_Position),position,position+1))
+				break;
+			position = Global_Log_Ring.Put_Position;
+		}
+		else if(difference < 0)
+		{
+			/* the slot still holds the message from the last time round: the ring is full */
+			__sync_fetch_and_add(&(Global_Log_Ring.Drop_Count),1);
+			return;
+		}
+		else /* another thread claimed this position first */
+			position = Global_Log_Ring.Put_Position;
+	}
+	slot->Level = level;
+	strncpy(slot->Message,string,CCD_GLOBAL_ERROR_STRING_LENGTH-1);
+	slot->Message[CCD_GLOBAL_ERROR_STRING_LENGTH-1] = '\0';
+	/* publish the message */
+	__sync_synchronize();
+	slot->Sequence = position+1-index;
+}
+
+/**
+ * Get the oldest message from the log ring, if there is one. Only one thread gets messages at a time.
+ * @param level The address of an integer, set on return to the message's log level.
+ * @param string A string, set on return to the message.
+ * @param string_length The length of string. The message is truncated if it is longer.
+ * @return The routine returns TRUE if a message was got, and FALSE if the ring was empty.
+ * @see #Global_Log_Ring
+ * @see #Global_Log_Ring_Get_Mutex
+ * @see #CCD_Global_Log_Handler_Ring
+ */
+int CCD_Global_Log_Ring_Get(int *level,char *string,int string_length)
+{
+	struct Global_Log_Ring_Slot_Struct *slot = NULL;
+	unsigned long position,index;
+
+	if((level == NULL)||(string == NULL)||(string_length < 1))
+		return FALSE;
+	pthread_mutex_lock(&Global_Log_Ring_Get_Mutex);
+	position = Global_Log_Ring.Get_Position;
+	index = position&(CCD_GLOBAL_LOG_RING_SIZE-1);
+	slot = &(Global_Log_Ring.Slot_List[index]);
+	if((long)(slot->Sequence+index-(position+1)) < 0)
+	{
+		/* the message for this position has not been published yet: the ring is empty */
+		pthread_mutex_unlock(&Global_Log_Ring_Get_Mutex);
+		return FALSE;
+	}
+	__sync_synchronize();
+	(*level) = slot->Level;
+	strncpy(string,slot->Message,string_length-1);
+	string[string_length-1] = '\0';
+	/* free the slot for the next time round the ring */
+	__sync_synchronize();
+	slot->Sequence = position+CCD_GLOBAL_LOG_RING_SIZE-index;
+	Global_Log_Ring.Get_Position = position+1;
+	pthread_mutex_unlock(&Global_Log_Ring_Get_Mutex);
+	return TRUE;
+}
+
+/**
+ * Get the number of messages CCD_Global_Log_Handler_Ring has dropped because the log ring was full.
+ * @return The number of messages dropped since the library was loaded.
+ * @see #Global_Log_Ring
+ */
+unsigned long CCD_Global_Log_Ring_Get_Drop_Count(void)
+{
+	return Global_Log_Ring.Drop_Count;
+}
+
 /**
  * Routine to set the Global_Data.Global_Log_Filter_Level.
  * @see #Global_Data
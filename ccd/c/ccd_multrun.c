@@ -48,6 +48,7 @@
 #include <sys/types.h>
 #include <sys/stat.h>
 #include <math.h>
+#include <pthread.h>
 #ifndef _POSIX_TIMERS
 #include <sys/time.h>
 #endif
@@ -58,6 +59,9 @@
 #include "ccd_multrun.h"
 #include "ccd_setup.h"
 #include "ccd_temperature.h"
+#include "ccd_frame.h"
+#include "ccd_writer.h"
+#include "ccd_timing.h"
 #ifdef CFITSIO
 #include "fitsio.h"
 #endif
@@ -69,9 +73,70 @@
 #include "ngat_astro_mjd.h"
 #endif /* NGATASTRO */
 #include "atmcdLXd.h"
+#include "ccd_simulate.h"
 #include "estar_config.h"
 
 #define EXPOSURE_READ_TIMEOUT                           30
+/**
+ * The default length of time to block waiting for an Andor acquisition event, in milliseconds, 
+ * if "ccs.libccd.multrun.wait.timeout" is not set. Abort and timeout checks are made at least this often.
+ */
+#define MULTRUN_DEFAULT_WAIT_TIMEOUT			(100)
+/**
+ * The default number of bits per pixel multrun images are read out and saved with,
+ * if "ccs.libccd.multrun.pixel.bits" is not set. 32 reads images with GetOldestImage and saves them as
+ * BITPIX = 32, 16 reads images with GetOldestImage16 and saves them as BITPIX = 16 with BZERO = 32768.
+ */
+#define MULTRUN_DEFAULT_PIXEL_BITS			(32)
+/**
+ * The TTL level passed to the Andor SetShutter to open the shutter (1 means TTL high opens the shutter).
+ * @see #Multrun_Shutter_Set
+ */
+#define MULTRUN_SHUTTER_TYPE				(1)
+/**
+ * The Andor SetShutter mode in which the shutter is opened and closed automatically around each exposure.
+ * @see #Multrun_Shutter_Set
+ */
+#define MULTRUN_SHUTTER_MODE_AUTO			(0)
+/**
+ * The Andor SetShutter mode in which the shutter stays closed, used for darks and biases.
+ * @see #Multrun_Shutter_Set
+ */
+#define MULTRUN_SHUTTER_MODE_CLOSED			(2)
+/**
+ * The file the FITS filename allocator's state (date and last multrun number) is saved in, so that multrun numbers
+ * are not re-used after a restart, even if the images have been moved out of IMAGEDIR. The leading '.' means
+ * load_dir ignores it.
+ * @see #Filename_Allocator_Save
+ * @see #Filename_Allocator_Load
+ */
+#define MULTRUN_FILENAME_STATE_FILENAME		IMAGEDIR"/.ccd_multrun_filename"
+/**
+ * The temporary file the FITS filename allocator's state is written to, before being renamed to
+ * MULTRUN_FILENAME_STATE_FILENAME.
+ * @see #Filename_Allocator_Save
+ */
+#define MULTRUN_FILENAME_STATE_TMP_FILENAME	IMAGEDIR"/.ccd_multrun_filename.tmp"
+/**
+ * The number of FITS cards that change from frame to frame, formatted for each frame by Multrun_Exposure_Save.
+ * @see #Multrun_Exposure_Save
+ */
+#define MULTRUN_HEADER_FRAME_CARD_COUNT		(19)
+/**
+ * The maximum number of FITS cards in the multrun header template.
+ * @see #Multrun_Header_Template
+ */
+#define MULTRUN_HEADER_TEMPLATE_CARD_COUNT_MAX	(72)
+/**
+ * Value of Decimals in Multrun_Header_Template_Card_Struct, meaning the value is a string.
+ * @see #Multrun_Header_Template_Card_Struct
+ */
+#define MULTRUN_HEADER_TYPE_STRING		(-1)
+/**
+ * Value of Decimals in Multrun_Header_Template_Card_Struct, meaning the value is an integer.
+ * @see #Multrun_Header_Template_Card_Struct
+ */
+#define MULTRUN_HEADER_TYPE_INTEGER		(-2)
 /* Header values if not filled */
 #define DUMHEADERSTRING "UNKNOWN" 
 #define DUMHEADERFLOAT -999.9 
@@ -111,6 +176,7 @@ static char Multrun_Error_String[CCD_GLOBAL_ERROR_STRING_LENGTH] = "";
  * <dt>Time_Start</dt> <dd>0</dd>
  * <dt>Max_Time</dt> <dd>0</dd>
  * <dt>Is_Mult_Flat</dt> <dd></dd>
+ * <dt>Frame_Timing_Sequence</dt> <dd>0</dd>
  * </dl>
  * @see #Multrun_Struct
  * @see #CCD_EXPOSURE_STATUS
@@ -136,6 +202,58 @@ static struct Multrun_Struct Multrun_Data =
 	999.0,
 	0,
 	0,
+	0,
+	0L
+};
+
+/**
+ * Sequence number used to give CCD_Multrun_Get_Status_Snapshot a consistent copy of the per-frame
+ * fields of Multrun_Data (Exposure_Number and Exposure_Start_Time) without a lock on the acquisition thread.
+ * It is odd whilst those fields are being updated (see Multrun_Status_Update_Begin/Multrun_Status_Update_End).
+ * @see #Multrun_Data
+ * @see #CCD_Multrun_Get_Status_Snapshot
+ */
+static volatile unsigned long Multrun_Status_Sequence = 0;
+
+/**
+ * Structure holding the state of the in-memory FITS filename allocator used by getNextFilename.
+ * <dl>
+ * <dt>Seeded</dt> <dd>Boolean, whether the allocator has been seeded (from disk) for Date.</dd>
+ * <dt>Date</dt> <dd>The date string (at the start of the night) the multrun and run numbers are for.</dd>
+ * <dt>Multrun_Number</dt> <dd>The last multrun number allocated.</dd>
+ * <dt>Run_Number</dt> <dd>The last run number allocated in Multrun_Number.</dd>
+ * <dt>Multrun_Number_Hint</dt> <dd>The multrun number the Java layer (ngat.fits.FitsFilename) has allocated for
+ *     the next multrun, or 0 if it has not set one.</dd>
+ * </dl>
+ * @see #getNextFilename
+ * @see #CCD_Multrun_Filename_Set_Multrun
+ */
+struct Filename_Allocator_Struct
+{
+	int Seeded;
+	char Date[16];
+	int Multrun_Number;
+	int Run_Number;
+	int Multrun_Number_Hint;
+};
+
+/**
+ * Structure describing a FITS card in the multrun header template, whose value comes from fileHeaders.
+ * <dl>
+ * <dt>Keyword</dt> <dd>The FITS keyword.</dd>
+ * <dt>Value</dt> <dd>The field in fileHeaders holding the value, as a string.</dd>
+ * <dt>Decimals</dt> <dd>The number of decimal places to write a floating point value with, or
+ *     MULTRUN_HEADER_TYPE_STRING or MULTRUN_HEADER_TYPE_INTEGER.</dd>
+ * <dt>Comment</dt> <dd>The FITS comment.</dd>
+ * </dl>
+ * @see #Multrun_Header_Template_Card_List
+ */
+struct Multrun_Header_Template_Card_Struct
+{
+	char *Keyword;
+	char *Value;
+	int Decimals;
+	char *Comment;
 };
 
 /**
@@ -143,30 +261,138 @@ static struct Multrun_Struct Multrun_Data =
  * @see #FitsFilename
  */
 struct FitsFilename ff; 
+/**
+ * The FITS filename allocator. This is seeded from IMAGEDIR (and MULTRUN_FILENAME_STATE_FILENAME) the first
+ * time a filename is needed and when the date changes, and then updated in memory for each filename allocated.
+ * @see #Filename_Allocator_Struct
+ * @see #Filename_Allocator_Seed
+ */
+static struct Filename_Allocator_Struct Filename_Allocator = {FALSE,"",0,0,0};
+/**
+ * Mutex protecting Filename_Allocator, which can be read (via CCD_Multrun_Filename_Get_Multrun)
+ * from a different thread to the one doing the multrun.
+ * @see #Filename_Allocator
+ */
+static pthread_mutex_t Filename_Allocator_Mutex = PTHREAD_MUTEX_INITIALIZER;
 /**
  * FITS header data.
  * @see #Header
  */
 struct Header fileHeaders;
 
+/**
+ * The FITS cards whose values come from fileHeaders, which are the same for every frame in a multrun.
+ * @see #Multrun_Header_Template_Build
+ */
+static struct Multrun_Header_Template_Card_Struct Multrun_Header_Template_Card_List[] =
+{
+	{"OBSTYPE",fileHeaders.obstype,MULTRUN_HEADER_TYPE_STRING,"Observation type"},
+	{"RA",fileHeaders.ra,MULTRUN_HEADER_TYPE_STRING,"Telescope returned RA"},
+	{"DEC",fileHeaders.dec,MULTRUN_HEADER_TYPE_STRING,"Telescope returned DEC"},
+	{"LATITUDE",fileHeaders.latitude,4,"Latitude of telescope"},
+	{"LONGITUD",fileHeaders.longitude,4,"Longitude of telescope"},
+	{"AIRMASS",fileHeaders.airmass,4,"The airmass"},
+	{"TELFOCUS",fileHeaders.telfocus,4,"The focus position of telescope in m"},
+	{"CONFIGID",fileHeaders.configid,MULTRUN_HEADER_TYPE_INTEGER,"Unique configuration ID."},
+	{"ORIGIN",fileHeaders.origin,MULTRUN_HEADER_TYPE_STRING,""},
+	{"INSTATUS",fileHeaders.instatus,MULTRUN_HEADER_TYPE_STRING,"The instrument status."},
+	{"TELESCOP",fileHeaders.telescop,MULTRUN_HEADER_TYPE_STRING,""},
+	{"TELMODE",fileHeaders.telmode,MULTRUN_HEADER_TYPE_STRING,""},
+	{"LST",fileHeaders.lst,MULTRUN_HEADER_TYPE_STRING,"[hours] As retrieved from the TCS"},
+	{"CAT-RA",fileHeaders.catra,MULTRUN_HEADER_TYPE_STRING,"[hours] Source catalogue position"},
+	{"CAT-DEC",fileHeaders.catdec,MULTRUN_HEADER_TYPE_STRING,"[hours] Source catalogue position"},
+	{"TELSTAT",fileHeaders.telstat,MULTRUN_HEADER_TYPE_STRING,"Status of telescope"},
+	{"AUTOGUID",fileHeaders.autoguid,MULTRUN_HEADER_TYPE_STRING,""},
+	{"ROTMODE",fileHeaders.rotmode,MULTRUN_HEADER_TYPE_STRING,"Rotator mode"},
+	{"ROTSKYPA",fileHeaders.rotskypa,7,"[degrees] Turntable position angle"},
+	{"WINDSPEE",fileHeaders.windspee,7,"[m/s] Recorded by WMS, at start of exposure"},
+	{"WMSTEMP",fileHeaders.wmstemp,7,"[Kelvin] Current external temperature"},
+	{"WMSHUMID",fileHeaders.wmshumid,7,"[percent] Current percentage humidity"},
+	{"OBJECT",fileHeaders.object,MULTRUN_HEADER_TYPE_STRING,"Object Name"},
+	{"INSTRUME",fileHeaders.instrument,MULTRUN_HEADER_TYPE_STRING,"Instrument"},
+	{"CONFNAME",fileHeaders.confname,MULTRUN_HEADER_TYPE_STRING,"Config in use"},
+	{"DETECTOR",fileHeaders.detector,MULTRUN_HEADER_TYPE_STRING,"Detector"},
+	{"GAIN",fileHeaders.gain,7,"[unknown]"},
+	{"READNOIS",fileHeaders.readnoise,7,"[unknown]"},
+	{"TAGID",fileHeaders.tagid,MULTRUN_HEADER_TYPE_STRING,"TAG ID"},
+	{"USERID",fileHeaders.userid,MULTRUN_HEADER_TYPE_STRING,"USER ID"},
+	{"PROGID",fileHeaders.progid,MULTRUN_HEADER_TYPE_STRING,"Programme ID"},
+	{"PROPID",fileHeaders.propid,MULTRUN_HEADER_TYPE_STRING,"Proposal ID"},
+	{"GROUPID",fileHeaders.groupid,MULTRUN_HEADER_TYPE_STRING,"Group ID"},
+	{"OBSID",fileHeaders.obsid,MULTRUN_HEADER_TYPE_STRING,"Obs ID"},
+	/* Post 2008-11 header corrections */
+	{"EXPTOTAL",fileHeaders.exptotal,MULTRUN_HEADER_TYPE_INTEGER,
+	 "Total number of exposures requested for this multrun"},
+	{"PRESCAN",fileHeaders.prescan,MULTRUN_HEADER_TYPE_INTEGER,"Columns of prescan"},
+	{"POSTSCAN",fileHeaders.postscan,MULTRUN_HEADER_TYPE_INTEGER,"Columns of postscan"},
+	{"ROTCENTX",fileHeaders.rotcentx,MULTRUN_HEADER_TYPE_INTEGER,"Pixel Coord of mechanical rotator centre"},
+	{"ROTCENTY",fileHeaders.rotcenty,MULTRUN_HEADER_TYPE_INTEGER,"Pixel Coord of mechanical rotator centre"},
+	{"POICENTX",fileHeaders.poicentx,MULTRUN_HEADER_TYPE_INTEGER,
+	 "Pixel of pointing model centre after APERTURE command"},
+	{"POICENTY",fileHeaders.poicenty,MULTRUN_HEADER_TYPE_INTEGER,
+	 "Pixel of pointing model centre after APERTURE command"},
+	{"FILTER1",fileHeaders.filter1,MULTRUN_HEADER_TYPE_STRING,"Name of filter type"},
+	{"FILTERI1",fileHeaders.filteri1,MULTRUN_HEADER_TYPE_STRING,"Filter ID"},
+	{"CCDSCALE",fileHeaders.ccdscale,5,"arcsec/pix unbinned"},
+	{"RADECSYS",fileHeaders.radecsys,MULTRUN_HEADER_TYPE_STRING,"RADEC System"},
+	{"EQUINOX",fileHeaders.equinox,1,"Coordinate system date"},
+	{"GRPTIMNG",fileHeaders.grouptimng,MULTRUN_HEADER_TYPE_STRING,"Group timing constraint class"},
+	{"GRPNUMOB",fileHeaders.groupnumob,0,"Number of Observations in group"},
+	{"GRPUID",fileHeaders.groupuid,0,"Group unique ID"},
+	{"GRPNOMEX",fileHeaders.groupnomex,6,"Group nominal exec time"},
+	{"GRPMONP",fileHeaders.groupmonp,6,"Group monitor period"},
+	{"ROTANGLE",fileHeaders.rotangle,6,"Mount angle at start of Multrun"}
+};
+/**
+ * The FITS cards that are the same for every frame in a multrun, pre-formatted once per multrun by
+ * Multrun_Header_Template_Build and written by Multrun_Exposure_Save. The ccd_writer threads only read this,
+ * and it is only rebuilt when the writer queue is empty (at the start of Expose).
+ * @see #Multrun_Header_Template_Build
+ * @see #Multrun_Exposure_Save
+ */
+static char Multrun_Header_Template[MULTRUN_HEADER_TEMPLATE_CARD_COUNT_MAX][FLEN_CARD];
+/**
+ * The number of cards in Multrun_Header_Template.
+ * @see #Multrun_Header_Template
+ */
+static int Multrun_Header_Template_Count = 0;
+
 /* internal functions */
 static void Multrun_Start_Time_Correction (float exposure);
 static void Multrun_Correct_Start_Time(struct timespec *t);
+static void Multrun_Status_Update_Begin(void);
+static void Multrun_Status_Update_End(void);
+static void Multrun_Counts_Reset(void);
 static unsigned int Expose(float exposure, int width, int height,long nimages,int *recalculate_exposure_length); 
+static unsigned int Expose_Acquire(float exposure, int width, int height,long nimages,
+				   int *recalculate_exposure_length);
+static void Expose_Acquisition_Setup(float exposure,float *kin_exposure_ptr);
+static int Expose_Frames(float exposure,int width,int height,long nimages);
+static void Expose_Wait_For_Image(long buffer_images_remaining,int buffers_busy,struct timespec *poll_time);
+static int Multrun_Shutter_Set(int open_shutter);
 static void Exposure_TimeSpec_To_Date_String(struct timespec time,char *time_string);
 static void Exposure_TimeSpec_To_Date_Obs_String(struct timespec time,char *time_string);
 static void Exposure_TimeSpec_To_UtStart_String(struct timespec time,char *time_string);
 static int Exposure_TimeSpec_To_Mjd(struct timespec time,int leap_second_correction,double *mjd); 
+static int Multrun_Header_Template_Build(void);
+static int Multrun_Header_Card_String(char *keyword,char *value,char *comment,char *card,
+				      int *error_number,char *error_string);
+static int Multrun_Header_Card_Fixed(char *keyword,double value,int decimals,char *comment,char *card,
+				     int *error_number,char *error_string);
 
 void GetParameterFileValues (void);
 int ExpiredStatus ( time_t start, long length );
 int getSquareRegion(const long *inArray, double *sqrArray, int x, int y, int R);
+int getSquareRegion16(const unsigned short *inArray, double *sqrArray, int x, int y, int R);
 int getNtpDriftFile (char *file);
 static int getNextFilename (char *NewFileName, int NewMultRun);
 static char *ConstructNextFilename (struct FitsFilename *ff, int MMR, int MR, int startMR, char *NFN);
-static int Fits_Filename_Lock(char *filename);
-static int Fits_Filename_UnLock(char *filename);
-static int Lock_Filename_Get(char *filename,char *lock_filename);
+static int Filename_Allocator_Seed(char *date_string);
+static int Filename_Allocator_Load(char *date_string,int *multrun_number);
+static int Filename_Allocator_Save(char *date_string,int multrun_number);
+static int Fits_Filename_Lock(char *filename,int *error_number,char *error_string);
+static int Fits_Filename_UnLock(char *filename,int *error_number,char *error_string);
+static int Lock_Filename_Get(char *filename,char *lock_filename,int *error_number,char *error_string);
 static int fexist(char *filename);
 
 /**
@@ -190,6 +416,7 @@ int CCD_Multrun_Expose(int open_shutter, long startTime, int exposure_time, long
 			      open_shutter,startTime,exposure_time,exposures);
 #endif
 	Multrun_Data.Is_Mult_Flat = 0;
+	Multrun_Counts_Reset();
 
 	GetParameterFileValues();	
 	/* Dump out the headers into the structure. These come in ordered RA,DEC,LATITUDE,LONGITUD,OBSTYPE,AIRMASS
@@ -297,6 +524,24 @@ void GetParameterFileValues (void)
 	strncpy(mrParams.ntpDriftFile,tempString,63);
 
 	free(tempString);
+	/* Whether to wait for Andor acquisition events rather than poll for new images, optional */
+	mrParams.frameWaitEvent = FALSE;
+	if(eSTAR_Config_Get_Long(&rProperties,"ccs.libccd.multrun.wait.event",&tempLong))
+		mrParams.frameWaitEvent = (tempLong != 0);
+	mrParams.frameWaitTimeout = MULTRUN_DEFAULT_WAIT_TIMEOUT;
+	if(eSTAR_Config_Get_Long(&rProperties,"ccs.libccd.multrun.wait.timeout",&tempLong))
+		mrParams.frameWaitTimeout = (int)tempLong;
+	/* FITS writer queue size, optional */
+	mrParams.writerSlots = CCD_WRITER_DEFAULT_SLOT_COUNT;
+	if(eSTAR_Config_Get_Long(&rProperties,"ccs.libccd.multrun.writer.slots",&tempLong))
+		mrParams.writerSlots = (int)tempLong;
+	mrParams.writerThreads = CCD_WRITER_DEFAULT_THREAD_COUNT;
+	if(eSTAR_Config_Get_Long(&rProperties,"ccs.libccd.multrun.writer.threads",&tempLong))
+		mrParams.writerThreads = (int)tempLong;
+	/* Bits per pixel to read out and save multrun images with (16 or 32), optional */
+	mrParams.pixelBits = MULTRUN_DEFAULT_PIXEL_BITS;
+	if(eSTAR_Config_Get_Long(&rProperties,"ccs.libccd.multrun.pixel.bits",&tempLong))
+		mrParams.pixelBits = (int)tempLong;
 }
 
 /**
@@ -330,6 +575,7 @@ int CCD_Multflat_Expose(int open_shutter,long startTime,int exposure_time,long e
 #endif
 	/* Get the start time for the multflat run in seconds since the epoch */
 	Multrun_Data.Time_Start = time(NULL);
+	Multrun_Counts_Reset();
 
 	/* Clear Abort Status */
 	CCD_Exposure_Set_Abort(FALSE);
@@ -509,7 +755,60 @@ int CCD_Multflat_Expose(int open_shutter,long startTime,int exposure_time,long e
 }
 
 /**
- * Internal expose routine. Used for both MULTRUN and MULTFLAT exposures.
+ * Do a multrun, delivering each image into a frame buffer registered with ccd_frame, rather than saving it
+ * to disk. Each image is read straight into the next free frame buffer as unsigned 16 bit pixels, and
+ * the ccd_frame ready handler called. If all the frame buffers are still in use, images are left in the Andor
+ * circular buffer until one is released.
+ * @param open_shutter Boolean, whether to open the shutter or not. If FALSE, the shutter is kept closed
+ *        (for a dark or bias), and put back under automatic control afterwards.
+ * @param exposure_time Exposure length in milliseconds.
+ * @param exposures Number of exposures.
+ * @return The routine returns TRUE on success and FALSE on failure.
+ * @see #Multrun_Shutter_Set
+ * @see #Expose_Frames
+ * @see ccd_frame.html#CCD_Frame_Buffer_Register
+ * @see ccd_frame.html#CCD_Frame_Set_Ready_Handler_Function
+ */
+int CCD_Multrun_Expose_Frames(int open_shutter,int exposure_time,long exposures)
+{
+	int retval;
+
+#if LOGGING > 1
+	CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,
+		      "CCD_Multrun_Expose_Frames:Started(open_shutter=%d,exposure_length=%d,number of exposures=%ld).",
+			      open_shutter,exposure_time,exposures);
+#endif
+	if(!CCD_GLOBAL_IS_BOOLEAN(open_shutter))
+	{
+		Multrun_Error_Number = 124;
+		sprintf(Multrun_Error_String,"CCD_Multrun_Expose_Frames:Illegal value:open_shutter = %d.",open_shutter);
+		return FALSE;
+	}
+	Multrun_Data.Is_Mult_Flat = 0;
+	GetParameterFileValues();
+	if(!Multrun_Shutter_Set(open_shutter))
+		return FALSE;
+	retval = Expose_Frames((float)exposure_time/1000.0f,CCD_Setup_Get_NCols(),CCD_Setup_Get_NRows(),exposures);
+	/* put the shutter back under automatic control for the next exposure, keeping any Expose_Frames error */
+	if(!open_shutter)
+	{
+		if(retval)
+			retval = Multrun_Shutter_Set(TRUE);
+		else
+			SetShutter(MULTRUN_SHUTTER_TYPE,MULTRUN_SHUTTER_MODE_AUTO,0,0);
+	}
+#if LOGGING > 1
+	CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"CCD_Multrun_Expose_Frames:Finished with return value %d.",
+			      retval);
+#endif
+	return retval;
+}
+
+/**
+ * Internal expose routine. Used for both MULTRUN and MULTFLAT exposures. The ccd_writer queue is started,
+ * Expose_Acquire called to take the images (queueing each one to be saved by the writer threads),
+ * and then we wait for the queue to drain, so all the images are on disk (and Multrun_Data/fileHeaders can
+ * safely be changed) before returning.
  * @param exposure The exposure length in decimal seconds.
  * @param width Width of image to read out.
  * @param height Height of image to read out.
@@ -517,30 +816,98 @@ int CCD_Multflat_Expose(int open_shutter,long startTime,int exposure_time,long e
  * @param recalculate_exposure_length Address of an integer. Set on return to TRUE if we need to recalculate
  *        the exposure length, and FALSE if we do not.
  * @return Returns TRUE on success and FALSE on failure.
+ * @see #Multrun_Header_Template_Build
+ * @see #Expose_Acquire
+ * @see ccd_writer.html#CCD_Writer_Start
+ * @see ccd_writer.html#CCD_Writer_Drain
  */
 static unsigned int Expose(float exposure, int width, int height,long nimages,int *recalculate_exposure_length)
+{
+	unsigned int retval;
+
+	Multrun_Data.Exposure_Status = CCD_EXPOSURE_STATUS_NONE;
+	if(recalculate_exposure_length == NULL)
+	{
+		Multrun_Error_Number = 1;
+		sprintf(Multrun_Error_String,"Expose:recalculate_exposure_length is NULL.");
+#if LOGGING > 1
+		CCD_Global_Log(LOG_VERBOSITY_INTERMEDIATE,"expose:recalculate_exposure_length is NULL.");
+#endif
+		return FALSE;
+	}
+	(*recalculate_exposure_length) = FALSE;
+#if HEADERS > 0
+	/* the writer queue is empty, so we can safely rebuild the multrun header template */
+	if(!Multrun_Header_Template_Build())
+		return FALSE;
+#endif
+	if(!CCD_Writer_Start(mrParams.writerSlots,mrParams.writerThreads,width,height,mrParams.pixelBits))
+	{
+		Multrun_Error_Number = 2;
+		sprintf(Multrun_Error_String,"Expose:Failed to start FITS writer queue(%d,%d,%d,%d,%d).",
+			mrParams.writerSlots,mrParams.writerThreads,width,height,mrParams.pixelBits);
+#if LOGGING > 1
+		CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"Expose:CCD_Writer_Start failed:Error(%d).",
+				      CCD_Writer_Get_Error_Number());
+#endif
+		return FALSE;
+	}
+	retval = Expose_Acquire(exposure,width,height,nimages,recalculate_exposure_length);
+	/* Wait for the writer threads to save the queued images */
+	if(!CCD_Writer_Drain())
+	{
+		/* report why the first image the writer threads failed to save was not saved */
+		CCD_Writer_Get_Failure(&Multrun_Error_Number,Multrun_Error_String);
+		retval = FALSE;
+	}
+	return retval;
+}
+
+/**
+ * Take the images for Expose. Each image is read from the Andor circular buffer into a free ccd_writer slot,
+ * and queued (with a copy of Multrun_Data and ff) to be saved by the writer threads.
+ * If all the slots are busy the image is left in the Andor buffer until one is free.
+ * For flats the median is calculated here, as it determines whether the exposure length must be recalculated, 
+ * otherwise the writer threads calculate it.
+ * Each image retrieved is given a ccd_timing record, timestamping when the acquisition started, when the image
+ * was seen to be available, retrieved, it's median calculated and it's filename allocated. The writer threads
+ * timestamp the rest. Multrun_Data.Frame_Timing_Sequence passes the record to the writer threads.
+ * @param exposure The exposure length in decimal seconds.
+ * @param width Width of image to read out.
+ * @param height Height of image to read out.
+ * @param nimages Number of images to take.
+ * @param recalculate_exposure_length Address of an integer. Set on return to TRUE if we need to recalculate
+ *        the exposure length.
+ * @return Returns TRUE on success and FALSE on failure.
+ * @see #Expose
+ * @see #Multrun_Exposure_Median
+ * @see ccd_writer.html#CCD_Writer_Slot_Get
+ * @see ccd_writer.html#CCD_Writer_Slot_Queue
+ * @see ccd_timing.html#CCD_Timing_Frame_Begin
+ * @see ccd_timing.html#CCD_Timing_Frame_Stage
+ * @see ccd_timing.html#CCD_Timing_Frame_End
+ */
+static unsigned int Expose_Acquire(float exposure, int width, int height,long nimages,
+				   int *recalculate_exposure_length)
 {	
-	char *pcft,current_filetime[64];
 	char outfile[64],*poutfile=outfile;	
 	char full_filename[128];
-	char *pcomment,comment[80];
 	int status,error;
 	int bin = CCD_Setup_Get_NSBin();
 	long pixels=width*height;
-	long medianPixels = pow((2*mrParams.halfBoxSize+1),2);
-	unsigned long *longarray = NULL;  
-	double *median_array = NULL;
-	int j;
+	void *slot_data = NULL;
+	int slot_index,median_done,slots_busy = FALSE;
 	struct timespec waittime;
 	long lastseries=-1,series=0;
 	long first,last;
 	long images_remaining = nimages-series;
 	long buffer_images_remaining = 0,buffer_images_retrieved=0;
-	float kin_exposure,kin_accumulate,kin_kinetic_ct;
+	float kin_exposure;
 	float TimeSinceLastImage=0;
 	char exposure_start_time_string[64];
-	float speeds[3],tempSpeed; /* Array to store the shift speeds */
-	int maxVShiftIndex=0,maxHShiftIndex=0;
+	struct timespec acquisition_start_time,frame_available_time,exposure_start_time;
+	int frame_available_pending = FALSE;
+	long timing_sequence = 0;
 
 	/* Set the timers for writing the headers */
 	struct timespec mr_current_time;
@@ -549,113 +916,14 @@ static unsigned int Expose(float exposure, int width, int height,long nimages,in
 	CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"Expose started: %.2f s for %ld images.",
 			      exposure,nimages);
 #endif
-	Multrun_Data.Exposure_Status = CCD_EXPOSURE_STATUS_NONE;
-	if(recalculate_exposure_length == NULL)
-	{
-		Multrun_Error_Number = 1;
-		sprintf(Multrun_Error_String,"Expose:recalculate_exposure_length is NULL.");
-#if LOGGING > 1
-		CCD_Global_Log(LOG_VERBOSITY_INTERMEDIATE,"expose:recalculate_exposure_length is NULL.");
-#endif
-		return FALSE;
-	}
-	(*recalculate_exposure_length) = FALSE;
 	/* Reset the number of images taken this cycle */
 	Multrun_Data.Exposure_Number = 0; 
-	
-	/* Allocate the memory for the arrays */ 
-	longarray=(unsigned long*)malloc(pixels*sizeof(unsigned long));	
-	median_array=(double *)malloc(medianPixels*sizeof(double));	
-	
-	/* Check the Allocated memory */
-	if(longarray==NULL || median_array==NULL)
-	{
-#if LOGGING > 1
-		CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,
-				      "Expose:ERROR: Memory allocation error in Expose(%d,%p,%d,%p)",
-				      pixels,longarray,medianPixels,median_array);
-#endif
-		Multrun_Error_Number = 2;
-		sprintf(Multrun_Error_String,"expose:ERROR: Memory allocation error in Expose(%ld,%p,%ld,%p)",
-			pixels,(void*)longarray,medianPixels,(void*)median_array);
-		return FALSE; 
-	}
-
-	pcft = current_filetime;
-	pcomment=comment;
-	/* Get comment for header */
-	sprintf(pcomment,"Test");
-	pcomment=chomp(comment);
-
 	/* Reset the abort flag */
 	CCD_Exposure_Set_Abort(FALSE);
 	Multrun_Error_Number = 0; /* LT extern variable? */ 
 
 	/* Set up exposure */
-	SetAcquisitionMode(5); /* Run til abort */
-        SetFrameTransferMode(1);
-	Multrun_Data.Exposure_Status = CCD_EXPOSURE_STATUS_WAIT_START;
-	SetExposureTime(exposure);
-
-	/* Store the REQUESTED exposure time in the header */
-	Multrun_Data.Requested_Exposure_Length = exposure;
-	SetNumberAccumulations(1); /* Don't add images together */
-
-	/* Get a list of the possible speeds */
-#if LOGGING > 3
-	CCD_Global_Log(LOG_VERBOSITY_INTERMEDIATE,"Expose:Possible H-Shift speeds  ");
-#endif
-	j = 0;
-	while (GetHSSpeed(0,0,j,&tempSpeed) == DRV_SUCCESS && j<10)
-	{
-#if LOGGING > 3
-		CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"Expose:%d:%.2f ",j,tempSpeed);
-#endif
-		j++;
-	}
-	maxHShiftIndex = j;
-#if LOGGING > 3
-	CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"Expose:Possible V-Shift speeds  ");
-#endif
-	j = 0;
-	while (GetVSSpeed(j,&tempSpeed) == DRV_SUCCESS && j<10)
-	{
-#if LOGGING > 3
-		CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"Expose:%d:%.2f ",j,tempSpeed);
-#endif
-		j++;
-	}
-	maxVShiftIndex = j;
-
-	/* Get the verical shift speeds */
-	GetVSSpeed(0,&speeds[0]);
-	GetHSSpeed(0,0,0,&speeds[1]);
-#if LOGGING > 3
-	CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,
-			      "Expose:Two fastest shift speeds are V: %.2f and H: %.2f",
-			      speeds[0],speeds[1]);
-#endif
-	/* Set the shift speeds to the fastest */
-	SetVSSpeed(0);
-	SetHSSpeed(1,0);
-	/* Send the shift speeds to the Multrun_Data structure so that they can be used elsewhere */
-	Multrun_Data.VSspeed = speeds[0];
-	Multrun_Data.HSspeed = speeds[1];
-
-
-	/* Get the driver set acquisition timimgs */
-	GetAcquisitionTimings(&kin_exposure,&kin_accumulate,&kin_kinetic_ct);
-#if LOGGING > 3
-	CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,
-			      "Expose:GetAcquisitionTimings  EXP:%.3f ACC:%.3f KCT:%.3f",
-			      kin_exposure,kin_accumulate,kin_kinetic_ct);
-#endif
-	/* Work out the correction made to the image epoch time */	
-	Multrun_Start_Time_Correction(kin_exposure);
-
-	/* Export value to local structure for other functions */
-	Multrun_Data.Exposure_Length = kin_exposure; 
-	Multrun_Data.Elapsed_Exposure_Time = 0;
+	Expose_Acquisition_Setup(exposure,&kin_exposure);
 #if LOGGING > 3
 	CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"Expose:Image WxH:  %d %d  Binning %dx%d",
 			      width,height,bin,bin);
@@ -689,12 +957,17 @@ static unsigned int Expose(float exposure, int width, int height,long nimages,in
 #endif
 
 	/* Start the acquisition */
+	CCD_Timing_Get_Time(&acquisition_start_time);
 	error = StartAcquisition();
 
-	/* Wait 0.50 seconds */
-	waittime.tv_sec = 0;
-	waittime.tv_nsec = 500000000; 
-	nanosleep(&waittime, NULL); /* Sleep for a bit */
+	/* When polling, wait 0.50 seconds. When waiting on acquisition events, the wait below blocks
+	** until the first image arrives. */
+	if(mrParams.frameWaitEvent == FALSE)
+	{
+		waittime.tv_sec = 0;
+		waittime.tv_nsec = 500000000; 
+		nanosleep(&waittime, NULL); /* Sleep for a bit */
+	}
 #if LOGGING > 1
 	CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"Expose:Acquisition started %s UT  RC: %d",
 			      exposure_start_time_string,error);
@@ -710,7 +983,8 @@ static unsigned int Expose(float exposure, int width, int height,long nimages,in
 	   while(status==DRV_ACQUIRING || buffer_images_remaining>0 || images_remaining >0){ */
 	while( (status==DRV_ACQUIRING && images_remaining >0) || buffer_images_remaining>0 )
 	{
-		nanosleep(&waittime, NULL); /* Sleep for a bit to prevent system hogging */
+		/* Wait for the next image (or sleep for a bit to prevent system hogging) */
+		Expose_Wait_For_Image(buffer_images_remaining,slots_busy,&waittime);
 		clock_gettime(CLOCK_REALTIME,&mr_current_time);
 		TimeSinceLastImage = (mr_current_time.tv_sec + mr_current_time.tv_nsec/1e9) 
 			- (Multrun_Data.Last_Image_Time.tv_sec + Multrun_Data.Last_Image_Time.tv_nsec/1e9);
@@ -749,6 +1023,21 @@ static unsigned int Expose(float exposure, int width, int height,long nimages,in
 
 		GetTotalNumberImagesAcquired(&series); 
 
+		/* Check a writer thread has not failed to save an image */
+		if(CCD_Writer_Get_Failed())
+		{
+			Multrun_Data.Exposure_Status = CCD_EXPOSURE_STATUS_NONE;
+			Multrun_Data.Elapsed_Exposure_Time = 0;
+			error=AbortAcquisition();
+#if LOGGING > 1
+			CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,
+					      "Expose:FITS writer failed to save an image, aborting. RC %d",error);
+#endif
+			/* Expose sets Multrun_Error_Number/Multrun_Error_String from CCD_Writer_Get_Failure,
+			** once the writer threads have drained */
+			return FALSE;
+		}
+
 		if(CCD_Exposure_Get_Abort())
 		{
 			Multrun_Data.Exposure_Status = CCD_EXPOSURE_STATUS_NONE;
@@ -768,14 +1057,45 @@ static unsigned int Expose(float exposure, int width, int height,long nimages,in
 		{
 			buffer_images_remaining = last-first; 
 			images_remaining = nimages-series;
+			/* The image may be left in the Andor buffer if no slot is free, keep the time first seen */
+			if(frame_available_pending == FALSE)
+			{
+				CCD_Timing_Get_Time(&frame_available_time);
+				frame_available_pending = TRUE;
+			}
 #if LOGGING > 1
 			CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,
 			    "Expose:--- Image: %ld of %ld  Left: %ld  Buff: %ld TSLI: %.3f EXP: %.3f ---",
 					      series,nimages,images_remaining,buffer_images_remaining,
 					      TimeSinceLastImage,kin_exposure);
 #endif
-			/* Get the image data and write to file	  */
-			error=GetOldestImage((long*)longarray, pixels);
+			/* Get a free writer slot to read the image into */
+			if(!CCD_Writer_Slot_Get(&slot_index,&slot_data))
+			{
+				Multrun_Data.Exposure_Status = CCD_EXPOSURE_STATUS_NONE;
+				Multrun_Data.Elapsed_Exposure_Time = 0;
+				AbortAcquisition();
+				Multrun_Error_Number = 115;
+				sprintf(Multrun_Error_String,"Expose:Failed to get FITS writer slot.");
+				return FALSE;
+			}
+			slots_busy = (slot_index < 0);
+			if(slots_busy)
+			{
+				/* All the slots are waiting for the disk, leave the image in the Andor buffer */
+#if LOGGING > 9
+				CCD_Global_Log(LOG_VERBOSITY_VERY_VERBOSE,"Expose:All FITS writer slots busy.");
+#endif
+				GetStatus(&status);
+				continue;
+			}
+			/* Get the image data into the slot */
+			if(mrParams.pixelBits == 16)
+				error=GetOldestImage16((unsigned short*)slot_data, pixels);
+			else
+				error=GetOldestImage((long*)slot_data, pixels);
+			if(error!=DRV_SUCCESS)
+				CCD_Writer_Slot_Cancel(slot_index);
 			if(error==20067)
 			{
 				Multrun_Data.Exposure_Status = CCD_EXPOSURE_STATUS_NONE;
@@ -790,6 +1110,10 @@ static unsigned int Expose(float exposure, int width, int height,long nimages,in
 
 			if (error==DRV_SUCCESS)
 			{
+				timing_sequence = CCD_Timing_Frame_Begin(buffer_images_retrieved+1,acquisition_start_time,
+									 frame_available_time);
+				frame_available_pending = FALSE;
+				Multrun_Data.Frame_Timing_Sequence = timing_sequence;
 				/* The first image is the Multrun start time - Need to correct for readout */
 				if(series==1)
 				{
@@ -799,23 +1123,25 @@ static unsigned int Expose(float exposure, int width, int height,long nimages,in
 
 				clock_gettime(CLOCK_REALTIME,&(Multrun_Data.Last_Image_Time));
 				clock_gettime(CLOCK_REALTIME,&(Multrun_Data.Exposure_Epoch_Time));
-				clock_gettime(CLOCK_REALTIME,&(Multrun_Data.Exposure_Start_Time));
-				Multrun_Correct_Start_Time(&(Multrun_Data.Exposure_Start_Time));
-				Exposure_TimeSpec_To_Date_Obs_String(Multrun_Data.Exposure_Start_Time,
+				/* published with the exposure number once the frame is ready to queue */
+				clock_gettime(CLOCK_REALTIME,&exposure_start_time);
+				Multrun_Correct_Start_Time(&exposure_start_time);
+				Exposure_TimeSpec_To_Date_Obs_String(exposure_start_time,
 								     exposure_start_time_string);
 
 				/* Grab the median value from central pixels.  */
 				Multrun_Data.Median_Value=-1.0;
-
-				getSquareRegion((long*)longarray,median_array,floor(mrParams.posBoxX/bin),floor(mrParams.posBoxY/bin),mrParams.halfBoxSize);
-				Multrun_Data.Median_Value=median(median_array,medianPixels);
+				median_done = FALSE;
 
 				if (strcmp(fileHeaders.obstype,"SKYFLAT")==0) 
 				{   /* If we are doing a flat ...*/
+					Multrun_Exposure_Median(slot_data,mrParams.pixelBits,&(Multrun_Data.Median_Value));
+					median_done = TRUE;
+					CCD_Timing_Frame_Stage(timing_sequence,CCD_TIMING_FRAME_STAGE_MEDIAN_DONE);
 #if LOGGING > 3
 					CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,
-						      "Expose:%ld pixel image median: %.2f (target %d)",
-						      medianPixels,Multrun_Data.Median_Value,mrParams.flatTarget*bin);
+						      "Expose:Image median: %.2f (target %d)",
+						      Multrun_Data.Median_Value,mrParams.flatTarget*bin);
 #endif
 					/* Check that the exposure median is within limits. If not, set
 					** recalculate flag and return. */   
@@ -839,18 +1165,13 @@ static unsigned int Expose(float exposure, int width, int height,long nimages,in
 								      Multrun_Data.Median_Value,
 							    mrParams.minFlatCounts*bin,mrParams.maxFlatCounts*bin); 
 #endif
+						CCD_Writer_Slot_Cancel(slot_index);
+						CCD_Timing_Frame_End(timing_sequence,CCD_TIMING_FRAME_STATE_ABANDONED);
 						(*recalculate_exposure_length) = TRUE;
 						return TRUE;
 					}
 				}
-				else /* Else assume normal exposure */
-				{
-#if LOGGING > 3
-					CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,
-							      "Expose:%ld pixel image median: %.2f",
-							      medianPixels,Multrun_Data.Median_Value);
-#endif
-				}
+				/* Else assume normal exposure, the writer thread calculates the median */
 				buffer_images_retrieved++;
 	
 				/* Check if this is the start of a multrun. If it is, get the next MR number */	
@@ -858,6 +1179,8 @@ static unsigned int Expose(float exposure, int width, int height,long nimages,in
 				{
 					if(!getNextFilename(poutfile,1))
 					{
+						CCD_Writer_Slot_Cancel(slot_index);
+						CCD_Timing_Frame_End(timing_sequence,CCD_TIMING_FRAME_STATE_ABANDONED);
 						Multrun_Data.Exposure_Status = CCD_EXPOSURE_STATUS_NONE;
 #if LOGGING > 1
 						CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,
@@ -871,6 +1194,8 @@ static unsigned int Expose(float exposure, int width, int height,long nimages,in
 				{
 					if(!getNextFilename(poutfile,0))
 					{
+						CCD_Writer_Slot_Cancel(slot_index);
+						CCD_Timing_Frame_End(timing_sequence,CCD_TIMING_FRAME_STATE_ABANDONED);
 						Multrun_Data.Exposure_Status = CCD_EXPOSURE_STATUS_NONE;
 						Multrun_Data.Elapsed_Exposure_Time = 0;
 #if LOGGING > 1
@@ -884,27 +1209,37 @@ static unsigned int Expose(float exposure, int width, int height,long nimages,in
 	
 				/* generate the filename */
 				sprintf(full_filename,"%s/%s",IMAGEDIR,poutfile);
+				CCD_Timing_Frame_Stage(timing_sequence,CCD_TIMING_FRAME_STAGE_FILENAME_RESOLVED);
 #if LOGGING > 1
 				CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,
-						      "Expose:Writing out %s  %s to disk",
-					 exposure_start_time_string,full_filename);
+						      "Expose:Queueing %s  %s to be written to disk (queue depth %d)",
+					 exposure_start_time_string,full_filename,CCD_Writer_Get_Queue_Depth());
 #endif
-				if(!Multrun_Exposure_Save(full_filename,longarray,width,height))
+				/* Let other funcs know how many were caught, and when the latest started.
+				** Both are published in one update so a status snapshot cannot see a torn pair,
+				** and before queueing so the writer's copy of Multrun_Data has this start time. */
+				Multrun_Status_Update_Begin();
+				Multrun_Data.Exposure_Start_Time = exposure_start_time;
+				Multrun_Data.Exposure_Number = series;
+				Multrun_Status_Update_End();
+				if(!CCD_Writer_Slot_Queue(slot_index,full_filename,&Multrun_Data,&ff,median_done))
 				{
+					CCD_Writer_Slot_Cancel(slot_index);
+					CCD_Timing_Frame_End(timing_sequence,CCD_TIMING_FRAME_STATE_ABANDONED);
 					Multrun_Data.Exposure_Status = CCD_EXPOSURE_STATUS_NONE;
 					Multrun_Data.Elapsed_Exposure_Time = 0;
+					AbortAcquisition();
+					Multrun_Error_Number = 116;
+					sprintf(Multrun_Error_String,"Expose:Failed to queue %s of dimensions (%d,%d) "
+						"to the FITS writer.",full_filename,width,height);
 #if LOGGING > 1
 					CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,
-				       "Expose:Multrun_Exposure_Save failed to save %s of dimensions (%d,%d) : "
-				       "Error(%d): %s.",full_filename,width,height,
-							      Multrun_Error_Number,Multrun_Error_String);
+				       "Expose:CCD_Writer_Slot_Queue failed to queue %s:Error(%d).",full_filename,
+							      CCD_Writer_Get_Error_Number());
 #endif
 					return FALSE;
 				}
 
-				/* Let other funcs know how many were caught */
-				Multrun_Data.Exposure_Number = series; 
-
 				/* Check that we haven't overran our time. */
 				if (ExpiredStatus(Multrun_Data.Time_Start,Multrun_Data.Max_Time)==1) 
 				{
@@ -930,8 +1265,6 @@ static unsigned int Expose(float exposure, int width, int height,long nimages,in
 	Multrun_Data.Exposure_Status = CCD_EXPOSURE_STATUS_NONE;
 	Multrun_Data.Elapsed_Exposure_Time = 0;
 	nanosleep(&waittime,NULL); /* Wait a bit at end */	
-	free (longarray); 
-	free (median_array); 
 
 #if LOGGING > 1
 	CCD_Global_Log(LOG_VERBOSITY_INTERMEDIATE,"Expose finished.");
@@ -941,21 +1274,318 @@ static unsigned int Expose(float exposure, int width, int height,long nimages,in
 
 
 /**
- * Checks that the current time against the start time. If it is greater than length seconds we return true,
- * otherwise we return false. Also, return expired if taking a flat at the last exposure time +100% will
- * cause overrun.
- * @param start The start time, in seconds since the epoch.
- * @param length The length of time (in seconds) to continue doing flats before we stop.
+ * Set up the Andor camera for a run till abort acquisition, with frame transfer on, at the fastest shift speeds.
+ * The exposure length is set, and the actual exposure length the driver will use retrieved, and used to
+ * work out the image start time correction. Used by both Expose and Expose_Frames.
+ * @param exposure The exposure length in decimal seconds.
+ * @param kin_exposure_ptr The address of a float, set on return to the exposure length the driver will use,
+ *        in decimal seconds.
+ * @see #Multrun_Start_Time_Correction
+ * @see #Multrun_Data
  */
-int ExpiredStatus(time_t start, long length )
+static void Expose_Acquisition_Setup(float exposure,float *kin_exposure_ptr)
 {
+	float kin_exposure,kin_accumulate,kin_kinetic_ct;
+	float speeds[3],tempSpeed; /* Array to store the shift speeds */
+	int maxVShiftIndex=0,maxHShiftIndex=0;
+	int j;
 
-	time_t now = time(NULL);
-	if (Multrun_Data.Is_Mult_Flat == 0) return 0;    /* Not applicable if not multflat */
-	if ( (now-start) > (length-2*Multrun_Data.Exposure_Length) ) return 1;
-	else return 0; 
+	/* Set up exposure */
+	SetAcquisitionMode(5); /* Run til abort */
+        SetFrameTransferMode(1);
+	Multrun_Data.Exposure_Status = CCD_EXPOSURE_STATUS_WAIT_START;
+	SetExposureTime(exposure);
 
-}
+	/* Store the REQUESTED exposure time in the header */
+	Multrun_Data.Requested_Exposure_Length = exposure;
+	SetNumberAccumulations(1); /* Don't add images together */
+
+	/* Get a list of the possible speeds */
+#if LOGGING > 3
+	CCD_Global_Log(LOG_VERBOSITY_INTERMEDIATE,"Expose:Possible H-Shift speeds  ");
+#endif
+	j = 0;
+	while (GetHSSpeed(0,0,j,&tempSpeed) == DRV_SUCCESS && j<10)
+	{
+#if LOGGING > 3
+		CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"Expose:%d:%.2f ",j,tempSpeed);
+#endif
+		j++;
+	}
+	maxHShiftIndex = j;
+#if LOGGING > 3
+	CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"Expose:Possible V-Shift speeds  ");
+#endif
+	j = 0;
+	while (GetVSSpeed(j,&tempSpeed) == DRV_SUCCESS && j<10)
+	{
+#if LOGGING > 3
+		CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"Expose:%d:%.2f ",j,tempSpeed);
+#endif
+		j++;
+	}
+	maxVShiftIndex = j;
+
+	/* Get the verical shift speeds */
+	GetVSSpeed(0,&speeds[0]);
+	GetHSSpeed(0,0,0,&speeds[1]);
+#if LOGGING > 3
+	CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,
+			      "Expose:Two fastest shift speeds are V: %.2f and H: %.2f",
+			      speeds[0],speeds[1]);
+#endif
+	/* Set the shift speeds to the fastest */
+	SetVSSpeed(0);
+	SetHSSpeed(1,0);
+	/* Send the shift speeds to the Multrun_Data structure so that they can be used elsewhere */
+	Multrun_Data.VSspeed = speeds[0];
+	Multrun_Data.HSspeed = speeds[1];
+
+
+	/* Get the driver set acquisition timimgs */
+	GetAcquisitionTimings(&kin_exposure,&kin_accumulate,&kin_kinetic_ct);
+#if LOGGING > 3
+	CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,
+			      "Expose:GetAcquisitionTimings  EXP:%.3f ACC:%.3f KCT:%.3f",
+			      kin_exposure,kin_accumulate,kin_kinetic_ct);
+#endif
+	/* Work out the correction made to the image epoch time */	
+	Multrun_Start_Time_Correction(kin_exposure);
+
+	/* Export value to local structure for other functions */
+	Multrun_Data.Exposure_Length = kin_exposure; 
+	Multrun_Data.Elapsed_Exposure_Time = 0;
+	(*kin_exposure_ptr) = kin_exposure;
+}
+
+/**
+ * Set the Andor shutter mode, so the shutter either opens and closes automatically around each exposure,
+ * or stays closed.
+ * @param open_shutter Boolean, TRUE to put the shutter under automatic control, FALSE to keep it closed.
+ * @return Returns TRUE on success and FALSE on failure.
+ * @see #MULTRUN_SHUTTER_TYPE
+ * @see #MULTRUN_SHUTTER_MODE_AUTO
+ * @see #MULTRUN_SHUTTER_MODE_CLOSED
+ */
+static int Multrun_Shutter_Set(int open_shutter)
+{
+	unsigned int error;
+	int mode;
+
+	if(open_shutter)
+		mode = MULTRUN_SHUTTER_MODE_AUTO;
+	else
+		mode = MULTRUN_SHUTTER_MODE_CLOSED;
+#if LOGGING > 4
+	CCD_Global_Log_Format(LOG_VERBOSITY_VERBOSE,"Multrun_Shutter_Set:Setting shutter mode %d.",mode);
+#endif
+	error = SetShutter(MULTRUN_SHUTTER_TYPE,mode,0,0);
+	if(error != DRV_SUCCESS)
+	{
+		Multrun_Error_Number = 125;
+		sprintf(Multrun_Error_String,"Multrun_Shutter_Set:SetShutter(%d) failed:%s(%u).",mode,
+			CCD_Global_ErrorCode_To_String(error),error);
+		return FALSE;
+	}
+	return TRUE;
+}
+
+/**
+ * Internal expose routine used by CCD_Multrun_Expose_Frames. The acquisition is set up as for Expose, but each
+ * image is read with GetOldestImage16 straight into a frame buffer acquired from ccd_frame, and passed to
+ * CCD_Frame_Ready, instead of being written to disk. If no frame buffer is free, the image is left in the Andor
+ * circular buffer and retrieved on a later pass round the loop. The timeout and abort handling are the same as
+ * Expose.
+ * @param exposure The exposure length in decimal seconds.
+ * @param width Width of image to read out.
+ * @param height Height of image to read out.
+ * @param nimages Number of images to take.
+ * @return Returns TRUE on success and FALSE on failure.
+ * @see #Expose_Acquisition_Setup
+ * @see ccd_frame.html#CCD_Frame_Buffer_Acquire
+ * @see ccd_frame.html#CCD_Frame_Buffer_Release
+ * @see ccd_frame.html#CCD_Frame_Ready
+ */
+static int Expose_Frames(float exposure,int width,int height,long nimages)
+{
+	struct timespec waittime,current_time;
+	unsigned short *frame_data = NULL;
+	unsigned long pixels = (unsigned long)(width*height);
+	long first,last,frames_retrieved = 0;
+	float kin_exposure,time_since_last_image;
+	long buffer_images_remaining = 0;
+	unsigned int error;
+	int frame_index,buffers_busy = FALSE;
+
+	Multrun_Data.Exposure_Status = CCD_EXPOSURE_STATUS_NONE;
+	Multrun_Data.Exposure_Number = 0;
+	Multrun_Error_Number = 0;
+	if(CCD_Frame_Buffer_Get_Count() < 1)
+	{
+		Multrun_Error_Number = 108;
+		sprintf(Multrun_Error_String,"Expose_Frames:No frame buffers registered.");
+		return FALSE;
+	}
+	CCD_Exposure_Set_Abort(FALSE);
+	Expose_Acquisition_Setup(exposure,&kin_exposure);
+	Multrun_Data.Exposure_Status = CCD_EXPOSURE_STATUS_PRE_READOUT;
+	clock_gettime(CLOCK_REALTIME,&(Multrun_Data.Last_Image_Time));
+	/* Temperature cannot be probed during an Andor acquisition */
+	CCD_Temperature_Get(&(Multrun_Data.Temperature));
+	error = StartAcquisition();
+	if(error != DRV_SUCCESS)
+	{
+		Multrun_Data.Exposure_Status = CCD_EXPOSURE_STATUS_NONE;
+		Multrun_Error_Number = 109;
+		sprintf(Multrun_Error_String,"Expose_Frames:StartAcquisition failed:%s(%u).",
+			CCD_Global_ErrorCode_To_String(error),error);
+		return FALSE;
+	}
+	waittime.tv_sec = 0;
+	waittime.tv_nsec = 50000000;
+	while(frames_retrieved < nimages)
+	{
+		Expose_Wait_For_Image(buffer_images_remaining,buffers_busy,&waittime);
+		clock_gettime(CLOCK_REALTIME,&current_time);
+		time_since_last_image = (current_time.tv_sec + current_time.tv_nsec/1e9)
+			- (Multrun_Data.Last_Image_Time.tv_sec + Multrun_Data.Last_Image_Time.tv_nsec/1e9);
+		Multrun_Data.Elapsed_Exposure_Time = (int)(time_since_last_image*(float)CCD_GLOBAL_ONE_SECOND_MS);
+		if(CCD_Exposure_Get_Abort())
+		{
+			error = AbortAcquisition();
+			FreeInternalMemory();
+			Multrun_Data.Exposure_Status = CCD_EXPOSURE_STATUS_NONE;
+			Multrun_Data.Elapsed_Exposure_Time = 0;
+			Multrun_Error_Number = 110;
+			sprintf(Multrun_Error_String,"Expose_Frames:Aborted: return code %u.",error);
+			return FALSE;
+		}
+		if(time_since_last_image > (EXPOSURE_READ_TIMEOUT + kin_exposure))
+		{
+			error = AbortAcquisition();
+			Multrun_Data.Exposure_Status = CCD_EXPOSURE_STATUS_NONE;
+			Multrun_Data.Elapsed_Exposure_Time = 0;
+			Multrun_Error_Number = 111;
+			sprintf(Multrun_Error_String,"Expose_Frames:Acquisition timed out, %.2f > %d + %.2f, error = %u",
+				time_since_last_image,EXPOSURE_READ_TIMEOUT,kin_exposure,error);
+			return FALSE;
+		}
+		if(GetNumberNewImages(&first,&last) != DRV_SUCCESS)
+		{
+			buffer_images_remaining = 0;
+			continue;
+		}
+		buffer_images_remaining = last-first;
+		if(!CCD_Frame_Buffer_Acquire(pixels,&frame_index,&frame_data))
+		{
+			AbortAcquisition();
+			Multrun_Data.Exposure_Status = CCD_EXPOSURE_STATUS_NONE;
+			Multrun_Data.Elapsed_Exposure_Time = 0;
+			Multrun_Error_Number = 112;
+			sprintf(Multrun_Error_String,"Expose_Frames:Failed to acquire frame buffer.");
+			return FALSE;
+		}
+		/* all the frame buffers are in use, leave the image in the Andor circular buffer */
+		buffers_busy = (frame_index < 0);
+		if(buffers_busy)
+			continue;
+		error = GetOldestImage16(frame_data,pixels);
+		if(error != DRV_SUCCESS)
+		{
+			CCD_Frame_Buffer_Release(frame_index);
+			if(error == DRV_P2INVALID)
+			{
+				AbortAcquisition();
+				Multrun_Data.Exposure_Status = CCD_EXPOSURE_STATUS_NONE;
+				Multrun_Data.Elapsed_Exposure_Time = 0;
+				Multrun_Error_Number = 113;
+				sprintf(Multrun_Error_String,"Expose_Frames:Array size not valid(%lu).",pixels);
+				return FALSE;
+			}
+			continue;
+		}
+		frames_retrieved++;
+		clock_gettime(CLOCK_REALTIME,&(Multrun_Data.Last_Image_Time));
+		Multrun_Data.Exposure_Epoch_Time = Multrun_Data.Last_Image_Time;
+		Multrun_Status_Update_Begin();
+		Multrun_Data.Exposure_Start_Time = Multrun_Data.Last_Image_Time;
+		Multrun_Correct_Start_Time(&(Multrun_Data.Exposure_Start_Time));
+		Multrun_Data.Exposure_Number = frames_retrieved;
+		Multrun_Status_Update_End();
+		if(frames_retrieved == 1)
+			Multrun_Data.Multrun_Start_Time = Multrun_Data.Exposure_Start_Time;
+#if LOGGING > 3
+		CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,
+				      "Expose_Frames:Image %ld of %ld in frame buffer %d (%ld left in Andor buffer).",
+				      frames_retrieved,nimages,frame_index,last-first);
+#endif
+		CCD_Frame_Ready(frame_index,frames_retrieved,Multrun_Data.Exposure_Start_Time);
+	}
+	AbortAcquisition();
+	Multrun_Data.Exposure_Status = CCD_EXPOSURE_STATUS_NONE;
+	Multrun_Data.Elapsed_Exposure_Time = 0;
+#if LOGGING > 1
+	CCD_Global_Log(LOG_VERBOSITY_INTERMEDIATE,"Expose_Frames finished.");
+#endif
+	return TRUE;
+}
+
+/**
+ * Wait for the next image during an acquisition, used by Expose_Acquire and Expose_Frames.
+ * <ul>
+ * <li>If mrParams.frameWaitEvent is FALSE (polling), or all the writer slots/frame buffers are busy (so we cannot
+ *     read the images already in the Andor buffer), we just sleep for poll_time.
+ * <li>Otherwise, if there are more images in the Andor buffer we return straight away.
+ * <li>Otherwise we block in WaitForAcquisitionTimeOut until the SDK signals an acquisition event, or
+ *     mrParams.frameWaitTimeout milliseconds pass (so the caller's abort and timeout checks are still made
+ *     regularly). CCD_Exposure_Abort calls CancelWait, so an abort ends the wait immediately.
+ * </ul>
+ * @param buffer_images_remaining The number of images left in the Andor buffer after the last one was retrieved.
+ * @param buffers_busy Boolean, TRUE if the last image could not be retrieved because there was nowhere to put it.
+ * @param poll_time The time to sleep for when polling.
+ * @see #mrParams
+ * @see ccd_exposure.html#CCD_Exposure_Abort
+ */
+static void Expose_Wait_For_Image(long buffer_images_remaining,int buffers_busy,struct timespec *poll_time)
+{
+	unsigned int retval;
+
+	if((mrParams.frameWaitEvent == FALSE)||buffers_busy)
+	{
+		nanosleep(poll_time,NULL);
+		return;
+	}
+	if(buffer_images_remaining > 0)
+		return;
+	retval = WaitForAcquisitionTimeOut(mrParams.frameWaitTimeout);
+	/* DRV_NO_NEW_DATA means the wait timed out or was cancelled. Anything else is an error, 
+	** sleep so we do not spin round the caller's loop. */
+	if((retval != DRV_SUCCESS)&&(retval != DRV_NO_NEW_DATA))
+	{
+#if LOGGING > 4
+		CCD_Global_Log_Format(LOG_VERBOSITY_VERBOSE,"Expose_Wait_For_Image:WaitForAcquisitionTimeOut failed:"
+				      "%s(%u).",CCD_Global_ErrorCode_To_String(retval),retval);
+#endif
+		nanosleep(poll_time,NULL);
+	}
+}
+
+/**
+ * Checks that the current time against the start time. If it is greater than length seconds we return true,
+ * otherwise we return false. Also, return expired if taking a flat at the last exposure time +100% will
+ * cause overrun.
+ * @param start The start time, in seconds since the epoch.
+ * @param length The length of time (in seconds) to continue doing flats before we stop.
+ */
+int ExpiredStatus(time_t start, long length )
+{
+
+	time_t now = time(NULL);
+	if (Multrun_Data.Is_Mult_Flat == 0) return 0;    /* Not applicable if not multflat */
+	if ( (now-start) > (length-2*Multrun_Data.Exposure_Length) ) return 1;
+	else return 0; 
+
+}
 
 
 /**
@@ -1102,1155 +1732,232 @@ float getNewExposureTime( double oldCounts, float oldExposure){
 		newtime = 10.0;
 #if LOGGING > 1
 		CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,
-				      "getNewExposureTime:Close to bias level, trying 10.0 seconds");
-#endif
-	}
- 
-	return (newtime);
-}
-
-
-/**
- * This routine takes some image data and saves it in a file on disc. It also updates the 
- * DATE-OBS FITS keyword to the value saved just before the SEX command was sent to the controller.
- * @param filename The filename to save the data into.
- * @param exposure_data The data to save.
- * @param ncols The number of columns in the image data.
- * @param nrows The number of rows in the image data.
- * @return Returns TRUE if the image is saved successfully, FALSE if it fails.
- * @see #Exposure_TimeSpec_To_Date_String
- * @see #Exposure_TimeSpec_To_Date_Obs_String
- * @see #Exposure_TimeSpec_To_UtStart_String
- * @see #Exposure_TimeSpec_To_Mjd
- * @see #Fits_Filename_Lock
- * @see #Fits_Filename_UnLock
- */
-int Multrun_Exposure_Save(char *filename, unsigned long *exposure_data,int ncols,int nrows)
-{
-	fitsfile *fp = NULL;
-	int retval=0,status=0;
-	char buff[32]; /* fits_get_errstatus returns 30 chars max */
-	long naxes[2];
-	char exposure_start_time_string[64];
-	char exposure_epoch_time_string[64];
-	double mjd;
-
-#if LOGGING > 4
-	CCD_Global_Log(LOG_VERBOSITY_INTERMEDIATE,"Exposure_Save:Started.");
-#endif
-	naxes[0] = (long)ncols; naxes[1] = (long)nrows;
-
-	/* lock FITS filename */
-	if(!Fits_Filename_Lock(filename))
-		return FALSE;
-	/* create new FITS file */
-	retval = fits_create_file(&fp, filename, &status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 53;
-		sprintf(Multrun_Error_String,"Exposure_Save: File open failed(%s,%d,%s).",filename,status,buff);
-		return FALSE;
-	}
-
-	retval = fits_create_img(fp, LONG_IMG, 2, naxes, &status);
-
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 5;
-		sprintf(Multrun_Error_String,"Exposure_Save: Create image failed(%s,%d,%s).",filename,status,buff);
-		return FALSE;
-	}
-	
-	/* write the data */
-	retval = fits_write_img(fp,TULONG,1,ncols*nrows,exposure_data,&status); 
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 54;
-		sprintf(Multrun_Error_String,"Exposure_Save: File write failed(%s,%d,%s).",filename,status,buff);
-		return FALSE;
-	}
-	
-#if HEADERS > 0
-	/*  Write out the headers... this will be LONG! */
-
-	/* Add comments noting that most headers will be static at start of multrun  */
-
-	/* update COMMENT keyword  */
-	retval = fits_update_key(fp,TSTRING,"COMMENT1","Most headers are only updated at the start of the multrun",
-				 "",&status);
-	retval = fits_update_key(fp,TSTRING,"COMMENT2","MR based headers and EXPOSED are updated per exposure",
-				 "",&status);
-	retval = fits_update_key(fp,TSTRING,"COMMENT2","Telescope pointing, status and CCDATEMP etc are static at MULTRUN start.", "",&status);
-
-
-	/* update DATE keyword */
-	Exposure_TimeSpec_To_Date_String(Multrun_Data.Exposure_Start_Time,exposure_start_time_string);
-	retval = fits_update_key(fp,TSTRING,"DATE",exposure_start_time_string,"Exposure start",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 55;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating DATE failed(%s,%d,%s).",filename,status,buff);
-		return FALSE;
-	}
-
-	/* update DATE-OBS keyword */
-	Exposure_TimeSpec_To_Date_Obs_String(Multrun_Data.Exposure_Start_Time,exposure_start_time_string);
-	retval = fits_update_key(fp,TSTRING,"DATE-OBS",exposure_start_time_string,"Date of observation",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 56;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating DATE-OBS failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-	/* update UTSTART keyword */
-	Exposure_TimeSpec_To_UtStart_String(Multrun_Data.Exposure_Start_Time,exposure_start_time_string);
-	retval = fits_update_key(fp,TSTRING,"UTSTART",exposure_start_time_string,"Start of observation",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 57;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating UTSTART failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-	/* update MJD keyword 
-	** note leap second correction not implemented yet (always FALSE). */
-	Exposure_TimeSpec_To_Mjd(Multrun_Data.Exposure_Start_Time,FALSE,&mjd);
-	retval = fits_update_key_fixdbl(fp,"MJD",mjd,6,NULL,&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 58;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating MJD failed(%.2f,%s,%d,%s).",mjd,filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update MRSTART keyword, defining the start time of the multrun cycle */
-	Exposure_TimeSpec_To_Date_Obs_String(Multrun_Data.Multrun_Start_Time,exposure_start_time_string);
-	retval = fits_update_key(fp,TSTRING,"MRSTART",exposure_start_time_string,"Time of start of Multrun",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 28;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating MRSTART failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update CCDATEMP keyword  */
-#if LOGGING > 5
-	CCD_Global_Log_Format(LOG_VERBOSITY_VERY_VERBOSE,"Exposure_Save:Setting CCDATEMP to %.2f C.",
-			      Multrun_Data.Temperature);
-#endif
-	retval = fits_update_key_fixdbl(fp,"CCDATEMP",Multrun_Data.Temperature,3,"CCD Temperature at START of multrun",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 62;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating CCDATEMP failed(%.2f,%s,%d,%s).",
-			Multrun_Data.Temperature,filename, status,buff);
-		return FALSE;
-	}
-
-	/* update FILENAME keyword  */
-	if(filename!=NULL) 
-		retval = fits_update_key(fp,TSTRING,"FILENAME",filename,"Current filename",&status);
-	else
-		retval = fits_update_key(fp,TSTRING,"FILENAME","UNKNOWN","Current filename",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 63;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating FILENAME failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update EXPTIME keyword  */
-	retval = fits_update_key_fixdbl(fp,"EXPTIME",Multrun_Data.Exposure_Length,4,"Andor Corrected (true) exposure time ",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 29;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating EXPTIME failed(%.2f,%s,%d,%s).",
-			Multrun_Data.Exposure_Length,filename, status,buff);
-		return FALSE;
-	}
-
-	/* update REQEXP keyword  */
-	retval = fits_update_key_fixdbl(fp,"REQEXP",Multrun_Data.Requested_Exposure_Length,4,"Exposure time requested by user",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 30;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating EXPTIME failed(%.2f,%s,%d,%s).",
-			Multrun_Data.Exposure_Length,filename, status,buff);
-		return FALSE;
-	}
-
-	/* update MEDIAN keyword  */
-	retval = fits_update_key_fixdbl(fp,"MEDIAN",Multrun_Data.Median_Value,6,"The approx median of the centre values",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 64;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating MEDIAN failed(%.2f,%s,%d,%s).",
-			Multrun_Data.Median_Value,filename, status,buff);
-		return FALSE;
-	}
-
-	/* update TIMECORR keyword  */
-	retval = fits_update_key_fixdbl(fp,"TIMECORR",Multrun_Data.Time_Correction,0,"Time correction in ns for readout, FT and exposure",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 65;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating TIMECORR failed(%.2f,%s,%d,%s).",
-			Multrun_Data.Time_Correction,filename, status,buff);
-		return FALSE;
-	}
-
-	/* update EXPEPOCH keyword, defining the start time of the multrun cycle */
-	Exposure_TimeSpec_To_Date_Obs_String(Multrun_Data.Exposure_Epoch_Time,exposure_epoch_time_string);
-	retval = fits_update_key(fp,TSTRING,"EXPEPOCH",exposure_epoch_time_string,"Actual end of exposure time",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 60;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating EXPEPOCH failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update CCDXBIN keyword  */
-	retval = fits_update_key_fixdbl(fp,"CCDXBIN",(float)CCD_Setup_Get_NSBin(),0,"Column binning",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 31;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating CCDXBIN failed(%.2f,%s,%d,%s).",
-			(float)CCD_Setup_Get_NSBin(),filename, status,buff);
-		return FALSE;
-	}
-
-	/* update CCDYBIN keyword  */
-	retval = fits_update_key_fixdbl(fp,"CCDYBIN",(float)CCD_Setup_Get_NPBin(),0,"Row binning",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 32;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating CCDYBIN failed(%.2f,%s,%d,%s).",
-			(float)CCD_Setup_Get_NSBin(),filename, status,buff);
-		return FALSE;
-	}
-
-	/* update OBSTYPE keyword  */
-	retval = fits_update_key(fp,TSTRING,"OBSTYPE",fileHeaders.obstype,"Observation type",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 33;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating OBSTYPE failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update RUNNUM keyword  */
-	retval = fits_update_key_fixdbl(fp,"RUNNUM",(float)(ff.multRunNumber),0,"Multrun Number",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 34;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating RUNNUM failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update EXPNUM keyword  */
-	retval = fits_update_key_fixdbl(fp,"EXPNUM",(float)(ff.runNumber),0,"Number of exposure in Multrun",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 35;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating EXPNUM failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update RA keyword  */
-	retval = fits_update_key(fp,TSTRING,"RA",fileHeaders.ra,"Telescope returned RA",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 36;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating RA failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update DEC keyword  */
-	retval = fits_update_key(fp,TSTRING,"DEC",fileHeaders.dec,"Telescope returned DEC",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 37;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating DEC failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update LATITUDE keyword  */
-	retval = fits_update_key_fixdbl(fp,"LATITUDE",atof(fileHeaders.latitude),4,"Latitude of telescope",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 38;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating LATITUDE failed(%.2f,%s,%d,%s).",
-			atof(fileHeaders.latitude),filename, status,buff);
-		return FALSE;
-	}
-
-	/* update LONGITUDE keyword  */
-	retval = fits_update_key_fixdbl(fp,"LONGITUD",atof(fileHeaders.longitude),4,"Longitude of telescope",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 39;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating LONGITUD failed(%.2f,%s,%d,%s).",
-			atof(fileHeaders.longitude),filename, status,buff);
-		return FALSE;
-	}
-
-	/* update NTPTIME keyword  */
-	retval = fits_update_key(fp,TSTRING,"NTPTIME",Multrun_Data.NTP_Time,"Last time NTP status was checked",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 40;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating NTPTIME failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update NTPSERVE keyword  */
-	retval = fits_update_key(fp,TSTRING,"NTPSERVE",Multrun_Data.NTP_Server,"Address of ntp server",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 41;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating NTPSERVE failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-	/* update NTPERROR keyword  */
-	retval = fits_update_key_fixdbl(fp,"NTPERROR",Multrun_Data.NTP_Drift,3,"Uncertainty in ntp time in msec",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 42;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating NTPERROR failed(%.2f,%s,%d,%s).",
-			Multrun_Data.Temperature,filename, status,buff);
-		return FALSE;
-	}
-	/* update AIRMASS keyword  */
-	retval = fits_update_key_fixdbl(fp,"AIRMASS",atof(fileHeaders.airmass),4,"The airmass",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 43;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating AIRMASS failed(%.2f,%s,%d,%s).",
-			atof(fileHeaders.airmass),filename, status,buff);
-		return FALSE;
-	}
-	/* update TELFOCUS keyword  */
-	retval = fits_update_key_fixdbl(fp,"TELFOCUS",atof(fileHeaders.telfocus),4,"The focus position of telescope in m",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 44;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating TELFOCUS failed(%.2f,%s,%d,%s).",
-			atof(fileHeaders.telfocus),filename, status,buff);
-		return FALSE;
-	}
-	/* update VSSPEED keyword  */
-	retval = fits_update_key_fixdbl(fp,"VSSPEED",Multrun_Data.VSspeed,1,"Andor Verical Shift speed in us per pixel",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 45;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating VSSPEED failed(%.2f,%s,%d,%s).",
-			Multrun_Data.VSspeed,filename, status,buff);
-		return FALSE;
-	}
-	/* update HSSPEED keyword  */
-	retval = fits_update_key_fixdbl(fp,"HSSPEED",Multrun_Data.HSspeed,1,"Andor Horizontal Shift speed in us per pixel",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 46;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating HSSPEED failed(%.2f,%s,%d,%s).",
-			Multrun_Data.HSspeed,filename, status,buff);
-		return FALSE;
-	}
-	/* update CONFIGID keyword  */
-	retval = fits_update_key_fixdbl(fp,"CONFIGID",atoi(fileHeaders.configid),0,"Unique configuration ID.",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 66;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating CONFIGID failed(%d,%s,%d,%s).",
-			atoi(fileHeaders.configid),filename, status,buff);
-		return FALSE;
-	}
-
-	/* update ORIGIN keyword  */
-	retval = fits_update_key(fp,TSTRING,"ORIGIN",fileHeaders.origin,"",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 47;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating ORIGIN failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update INSTATUS keyword  */
-	retval = fits_update_key(fp,TSTRING,"INSTATUS",fileHeaders.instatus,"The instrument status.",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 48;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating ORIGIN failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update TELESCOP keyword  */
-	retval = fits_update_key(fp,TSTRING,"TELESCOP",fileHeaders.telescop,"",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 49;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating TELESCOP failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update TELMODE keyword  */
-	retval = fits_update_key(fp,TSTRING,"TELMODE",fileHeaders.telmode,"",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 50;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating TELMODE failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update LST keyword  */
-	retval = fits_update_key(fp,TSTRING,"LST",fileHeaders.lst,"[hours] As retrieved from the TCS",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 51;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating LST failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update CAT-RA keyword  */
-	retval = fits_update_key(fp,TSTRING,"CAT-RA",fileHeaders.catra,"[hours] Source catalogue position",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 52;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating CAT-RA failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update CAT-DEC keyword  */
-	retval = fits_update_key(fp,TSTRING,"CAT-DEC",fileHeaders.catdec,"[hours] Source catalogue position",&status);
-
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 61;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating CAT-DEC failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update TELSTAT keyword  */
-	retval = fits_update_key(fp,TSTRING,"TELSTAT",fileHeaders.telstat,"Status of telescope",&status);
-
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 67;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating CAT-DEC failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update AUTOGUID keyword  */
-	retval = fits_update_key(fp,TSTRING,"AUTOGUID",fileHeaders.autoguid,"",&status);
-
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 68;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating AUTOGUID failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update ROTMODE keyword  */
-	retval = fits_update_key(fp,TSTRING,"ROTMODE",fileHeaders.rotmode,"Rotator mode",&status);
-
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 69;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating ROTMODE failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update ROTSKYPA keyword  */
-	retval = fits_update_key_fixdbl(fp,"ROTSKYPA",atof(fileHeaders.rotskypa),7,"[degrees] Turntable position angle",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 70;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating ROTSKYPA failed(%.2f,%s,%d,%s).",
-			atof(fileHeaders.rotskypa),filename, status,buff);
-		return FALSE;
-	}
-
-	/* update WINDSPEE keyword  */
-	retval = fits_update_key_fixdbl(fp,"WINDSPEE",atof(fileHeaders.windspee),7,
-					"[m/s] Recorded by WMS, at start of exposure",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 71;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating WINDSPEE failed(%.2f,%s,%d,%s).",
-			atof(fileHeaders.windspee),filename, status,buff);
-		return FALSE;
-	}
-
-	/* update REFTEMP keyword  */
-	retval = fits_update_key_fixdbl(fp,"WMSTEMP",atof(fileHeaders.wmstemp),7,
-					"[Kelvin] Current external temperature",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 72;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating WMSTEMP failed(%.2f,%s,%d,%s).",
-			atof(fileHeaders.wmstemp),filename, status,buff);
-		return FALSE;
-	}
-
-	/* update WMSHUMID keyword  */
-	retval = fits_update_key_fixdbl(fp,"WMSHUMID",atof(fileHeaders.wmshumid),7,
-					"[percent] Current percentage humidity",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 73;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating WMSHUMID failed(%.2f,%s,%d,%s).",
-			atof(fileHeaders.wmshumid),filename, status,buff);
-		return FALSE;
-	}
-
-	/* update OBJECT keyword  */
-	retval = fits_update_key(fp,TSTRING,"OBJECT",fileHeaders.object,"Object Name",&status);
-
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 74;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating OBJECT failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update INSTRUME keyword  */
-	retval = fits_update_key(fp,TSTRING,"INSTRUME",fileHeaders.instrument,"Instrument",&status);
-
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 75;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating INSTRUME failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update CONFNAME keyword  */
-	retval = fits_update_key(fp,TSTRING,"CONFNAME",fileHeaders.confname,"Config in use",&status);
-
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 76;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating CONFNAME failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update DETECTOR keyword  */
-	retval = fits_update_key(fp,TSTRING,"DETECTOR",fileHeaders.detector,"Detector",&status);
-
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 77;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating CONFNAME failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update GAIN keyword  */
-	retval = fits_update_key_fixdbl(fp,"GAIN",atof(fileHeaders.gain),7,
-					"[unknown]",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 78;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating GAIN failed(%.2f,%s,%d,%s).",
-			atof(fileHeaders.gain),filename, status,buff);
-		return FALSE;
-	}
-
-	/* update READNOIS keyword  */
-	retval = fits_update_key_fixdbl(fp,"READNOIS",atof(fileHeaders.readnoise),7,
-					"[unknown]",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 79;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating READNOIS failed(%.2f,%s,%d,%s).",
-			atof(fileHeaders.readnoise),filename, status,buff);
-		return FALSE;
-	}
-
-	/* update TAGID keyword  */
-	retval = fits_update_key(fp,TSTRING,"TAGID",fileHeaders.tagid,"TAG ID",&status);
-
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 80;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating TAGID failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update USERID keyword  */
-	retval = fits_update_key(fp,TSTRING,"USERID",fileHeaders.userid,"USER ID",&status);
-
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 81;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating USERID failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update PROGID keyword  */
-	retval = fits_update_key(fp,TSTRING,"PROGID",fileHeaders.progid,"Programme ID",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 4;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating PROGID failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update PROPID keyword  */
-	retval = fits_update_key(fp,TSTRING,"PROPID",fileHeaders.propid,"Proposal ID",&status);
-
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 82;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating PROPID failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-	/* update GROUPID keyword  */
-	retval = fits_update_key(fp,TSTRING,"GROUPID",fileHeaders.groupid,"Group ID",&status);
-
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 83;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating GROUPID failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update OBSID keyword  */
-	retval = fits_update_key(fp,TSTRING,"OBSID",fileHeaders.obsid,"Obs ID",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 84;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating OBSID failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* Post 2008-11 header corrections */
-
-	/* update EXPTOTAL keyword  */
-	retval = fits_update_key_fixdbl(fp,"EXPTOTAL",atoi(fileHeaders.exptotal),0,"Total number of exposures requested for this multrun",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 85;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating EXPTOTAL failed(%d,%s,%d,%s).",
-			atoi(fileHeaders.exptotal),filename, status,buff);
-		return FALSE;
-	}
-
-	/* update PRESCAN keyword  */
-	retval = fits_update_key_fixdbl(fp,"PRESCAN",atoi(fileHeaders.prescan),0,"Columns of prescan",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 86;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating PRESCAN failed(%d,%s,%d,%s).",
-			atoi(fileHeaders.prescan),filename, status,buff);
-		return FALSE;
-	}
-
-	/* update POSTSCAN keyword  */
-	retval = fits_update_key_fixdbl(fp,"POSTSCAN",atoi(fileHeaders.postscan),0,"Columns of postscan",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 87;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating POSTSCAN failed(%d,%s,%d,%s).",
-			atoi(fileHeaders.postscan),filename, status,buff);
-		return FALSE;
-	}
-
-	/* update ROTCENTX keyword  */
-	retval = fits_update_key_fixdbl(fp,"ROTCENTX",atoi(fileHeaders.rotcentx),0,"Pixel Coord of mechanical rotator centre",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 88;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating ROTCENTX failed(%d,%s,%d,%s).",
-			atoi(fileHeaders.rotcentx),filename, status,buff);
-		return FALSE;
-	}
-
-	/* update ROTCENTY keyword  */
-	retval = fits_update_key_fixdbl(fp,"ROTCENTY",atoi(fileHeaders.rotcenty),0,"Pixel Coord of mechanical rotator centre",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 89;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating ROTCENTY failed(%d,%s,%d,%s).",
-			atoi(fileHeaders.rotcenty),filename, status,buff);
-		return FALSE;
-	}
-
-
-	/* update POICENTX keyword  */
-	retval = fits_update_key_fixdbl(fp,"POICENTX",atoi(fileHeaders.poicentx),0,"Pixel of pointing model centre after APERTURE command",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 90;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating POICENTX failed(%d,%s,%d,%s).",
-			atoi(fileHeaders.poicentx),filename, status,buff);
-		return FALSE;
-	}
-
-	/* update POICENTY keyword  */
-	retval = fits_update_key_fixdbl(fp,"POICENTY",atoi(fileHeaders.poicenty),0,"Pixel of pointing model centre after APERTURE command",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 91;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating POICENTY failed(%d,%s,%d,%s).",
-			atoi(fileHeaders.poicenty),filename, status,buff);
-		return FALSE;
-	}
-
-	/* update FILTER1 keyword  */
-	retval = fits_update_key(fp,TSTRING,"FILTER1",fileHeaders.filter1,"Name of filter type",&status);
-
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 92;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating FILTER1 failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-	/* update FILTERI1 keyword  */
-	retval = fits_update_key(fp,TSTRING,"FILTERI1",fileHeaders.filteri1,"Filter ID",&status);
-
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 93;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating FILTERI1 failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-
-	/* update CCDSCALE keyword  */
-	retval = fits_update_key_fixdbl(fp,"CCDSCALE",atof(fileHeaders.ccdscale),5,"arcsec/pix unbinned",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 94;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating CCDSCALE failed(%.5f,%s,%d,%s).",
-			atof(fileHeaders.ccdscale),filename, status,buff);
-		return FALSE;
-	}
-
-
-	/* update RADECSYS keyword  */
-	retval = fits_update_key(fp,TSTRING,"RADECSYS",fileHeaders.radecsys,"RADEC System",&status);
-
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 95;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating RADECSYS failed(%s,%d,%s).",filename,
-			status,buff);
-		return FALSE;
-	}
-
-
-	/* update EQUINOX keyword  */
-	retval = fits_update_key_fixdbl(fp,"EQUINOX",atof(fileHeaders.equinox),1,"Coordinate system date",&status);
-	if(retval)
-	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 96;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating EQUINOX failed(%.5f,%s,%d,%s).",
-			atof(fileHeaders.equinox),filename, status,buff);
-		return FALSE;
+				      "getNewExposureTime:Close to bias level, trying 10.0 seconds");
+#endif
 	}
+ 
+	return (newtime);
+}
 
 
-	/* update GRPTIMNG keyword  */
-	retval = fits_update_key(fp,TSTRING,"GRPTIMNG",fileHeaders.grouptimng,"Group timing constraint class",&status);
+/**
+ * Routine to calculate the approximate median of the central pixels of an image. A box of side 
+ * (2*mrParams.halfBoxSize+1) pixels, centred on (mrParams.posBoxX,mrParams.posBoxY) (unbinned), is used.
+ * This is called from the Expose loop for flats (where the median decides whether to recalculate the exposure
+ * length), and otherwise from the ccd_writer threads.
+ * @param exposure_data The image data, of CCD_Setup_Get_NCols() columns.
+ * @param pixel_bits The number of bits per pixel in exposure_data, 16 (unsigned short) or 32 (unsigned long).
+ * @param median_value The address of a double, set on return to the median value, or -1.0 on failure.
+ * @return Returns TRUE if the median was calculated, FALSE if it fails.
+ * @see #getSquareRegion
+ * @see #getSquareRegion16
+ * @see #median
+ */
+int Multrun_Exposure_Median(void *exposure_data,int pixel_bits,double *median_value)
+{
+	double *median_array = NULL;
+	long medianPixels = pow((2*mrParams.halfBoxSize+1),2);
+	int bin = CCD_Setup_Get_NSBin();
 
-	if(retval)
+	(*median_value) = -1.0;
+	median_array = (double *)malloc(medianPixels*sizeof(double));
+	if(median_array == NULL)
 	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 97;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating GRPTIMNG failed(%s,%d,%s).",filename,
-			status,buff);
+		Multrun_Error_Number = 114;
+		sprintf(Multrun_Error_String,"Multrun_Exposure_Median:Failed to allocate median array(%ld).",
+			medianPixels);
 		return FALSE;
 	}
-
-	/* update GRPNUMOB keyword  */
-	retval = fits_update_key_fixdbl(fp,"GRPNUMOB",atof(fileHeaders.groupnumob),0,"Number of Observations in group",&status);
-	if(retval)
+	if(pixel_bits == 16)
 	{
-		fits_get_errstatus(status,buff);
-		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 98;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating GRPNUMOB failed(%.5f,%s,%d,%s).",
-			atof(fileHeaders.groupnumob),filename, status,buff);
-		return FALSE;
+		getSquareRegion16((unsigned short*)exposure_data,median_array,floor(mrParams.posBoxX/bin),
+				  floor(mrParams.posBoxY/bin),mrParams.halfBoxSize);
+	}
+	else
+	{
+		getSquareRegion((long*)exposure_data,median_array,floor(mrParams.posBoxX/bin),
+				floor(mrParams.posBoxY/bin),mrParams.halfBoxSize);
 	}
+	(*median_value) = median(median_array,medianPixels);
+	free(median_array);
+	return TRUE;
+}
+
+/**
+ * This routine takes some image data and saves it in a file on disc. It also updates the 
+ * DATE-OBS FITS keyword to the value saved just before the SEX command was sent to the controller.
+ * This is called from the ccd_writer threads, so the per-frame multrun data and FITS filename data are passed
+ * in (a copy taken when the frame was read out), rather than read from Multrun_Data and ff.
+ * The per-frame FITS cards are formatted, then the file is created and the header (the per-frame cards followed
+ * by the multrun's pre-formatted Multrun_Header_Template) is written, and then the data, in one sequential pass.
+ * 16 bit images are saved as USHORT_IMG, which cfitsio writes as BITPIX = 16 with BZERO = 32768 (as
+ * fits16_signed_to_unsigned produces), 32 bit images as BITPIX = 32.
+ * @param filename The filename to save the data into.
+ * @param exposure_data The data to save.
+ * @param pixel_bits The number of bits per pixel in exposure_data, 16 (unsigned short) or 32 (unsigned long).
+ * @param ncols The number of columns in the image data.
+ * @param nrows The number of rows in the image data.
+ * @param multrun_data The multrun data (timestamps, temperature, median etc) to write into the FITS headers.
+ * @param fits_filename The FITS filename data (multrun and run number) to write into the FITS headers.
+ * @param error_number The address of an integer, set to the error number if the save fails. As several writer
+ *        threads can be saving at once, the error is returned here rather than in Multrun_Error_Number.
+ * @param error_string A string of at least CCD_GLOBAL_ERROR_STRING_LENGTH characters, set to the error
+ *        message if the save fails.
+ * @return Returns TRUE if the image is saved successfully, FALSE if it fails.
+ * @see #Exposure_TimeSpec_To_Date_String
+ * @see #Exposure_TimeSpec_To_Date_Obs_String
+ * @see #Exposure_TimeSpec_To_UtStart_String
+ * @see #Exposure_TimeSpec_To_Mjd
+ * @see #Fits_Filename_Lock
+ * @see #Fits_Filename_UnLock
+ * @see #Multrun_Header_Card_String
+ * @see #Multrun_Header_Card_Fixed
+ * @see #Multrun_Header_Template
+ * @see #MULTRUN_HEADER_FRAME_CARD_COUNT
+ */
+int Multrun_Exposure_Save(char *filename, void *exposure_data,int pixel_bits,int ncols,int nrows,
+			  struct Multrun_Struct *multrun_data,struct FitsFilename *fits_filename,
+			  int *error_number,char *error_string)
+{
+	fitsfile *fp = NULL;
+	char card_list[MULTRUN_HEADER_FRAME_CARD_COUNT][FLEN_CARD];
+	int retval=0,status=0,card_count = 0,i;
+	char buff[32]; /* fits_get_errstatus returns 30 chars max */
+	long naxes[2];
+	char exposure_start_time_string[64];
+	double mjd;
 
-	/* update GRPUID keyword  */
-	retval = fits_update_key_fixdbl(fp,"GRPUID",atof(fileHeaders.groupuid),0,"Group unique ID",&status);
+#if LOGGING > 4
+	CCD_Global_Log(LOG_VERBOSITY_INTERMEDIATE,"Exposure_Save:Started.");
+#endif
+	naxes[0] = (long)ncols; naxes[1] = (long)nrows;
+#if HEADERS > 0
+	/* format the per-frame cards, before we create the file */
+	Exposure_TimeSpec_To_Date_String(multrun_data->Exposure_Start_Time,exposure_start_time_string);
+	retval = Multrun_Header_Card_String("DATE",exposure_start_time_string,"Exposure start",
+					    card_list[card_count++],error_number,error_string);
+	Exposure_TimeSpec_To_Date_Obs_String(multrun_data->Exposure_Start_Time,exposure_start_time_string);
+	retval &= Multrun_Header_Card_String("DATE-OBS",exposure_start_time_string,"Date of observation",
+					     card_list[card_count++],error_number,error_string);
+	Exposure_TimeSpec_To_UtStart_String(multrun_data->Exposure_Start_Time,exposure_start_time_string);
+	retval &= Multrun_Header_Card_String("UTSTART",exposure_start_time_string,"Start of observation",
+					     card_list[card_count++],error_number,error_string);
+	/* note leap second correction not implemented yet (always FALSE). */
+	Exposure_TimeSpec_To_Mjd(multrun_data->Exposure_Start_Time,FALSE,&mjd);
+	retval &= Multrun_Header_Card_Fixed("MJD",mjd,6,"",card_list[card_count++],error_number,error_string);
+	Exposure_TimeSpec_To_Date_Obs_String(multrun_data->Multrun_Start_Time,exposure_start_time_string);
+	retval &= Multrun_Header_Card_String("MRSTART",exposure_start_time_string,"Time of start of Multrun",
+					     card_list[card_count++],error_number,error_string);
+	retval &= Multrun_Header_Card_Fixed("CCDATEMP",multrun_data->Temperature,3,
+					    "CCD Temperature at START of multrun",card_list[card_count++],
+					    error_number,error_string);
+	if(filename!=NULL) 
+		retval &= Multrun_Header_Card_String("FILENAME",filename,"Current filename",card_list[card_count++],
+						     error_number,error_string);
+	else
+		retval &= Multrun_Header_Card_String("FILENAME","UNKNOWN","Current filename",card_list[card_count++],
+						     error_number,error_string);
+	retval &= Multrun_Header_Card_Fixed("EXPTIME",multrun_data->Exposure_Length,4,
+					    "Andor Corrected (true) exposure time ",card_list[card_count++],
+					    error_number,error_string);
+	retval &= Multrun_Header_Card_Fixed("REQEXP",multrun_data->Requested_Exposure_Length,4,
+					    "Exposure time requested by user",card_list[card_count++],
+					    error_number,error_string);
+	retval &= Multrun_Header_Card_Fixed("MEDIAN",multrun_data->Median_Value,6,
+					    "The approx median of the centre values",card_list[card_count++],
+					    error_number,error_string);
+	retval &= Multrun_Header_Card_Fixed("TIMECORR",multrun_data->Time_Correction,0,
+					    "Time correction in ns for readout, FT and exposure",card_list[card_count++],
+					    error_number,error_string);
+	Exposure_TimeSpec_To_Date_Obs_String(multrun_data->Exposure_Epoch_Time,exposure_start_time_string);
+	retval &= Multrun_Header_Card_String("EXPEPOCH",exposure_start_time_string,"Actual end of exposure time",
+					     card_list[card_count++],error_number,error_string);
+	retval &= Multrun_Header_Card_Fixed("RUNNUM",(float)(fits_filename->multRunNumber),0,"Multrun Number",
+					    card_list[card_count++],error_number,error_string);
+	retval &= Multrun_Header_Card_Fixed("EXPNUM",(float)(fits_filename->runNumber),0,
+					    "Number of exposure in Multrun",card_list[card_count++],
+					    error_number,error_string);
+	retval &= Multrun_Header_Card_String("NTPTIME",multrun_data->NTP_Time,"Last time NTP status was checked",
+					     card_list[card_count++],error_number,error_string);
+	retval &= Multrun_Header_Card_String("NTPSERVE",multrun_data->NTP_Server,"Address of ntp server",
+					     card_list[card_count++],error_number,error_string);
+	retval &= Multrun_Header_Card_Fixed("NTPERROR",multrun_data->NTP_Drift,3,"Uncertainty in ntp time in msec",
+					    card_list[card_count++],error_number,error_string);
+	retval &= Multrun_Header_Card_Fixed("VSSPEED",multrun_data->VSspeed,1,
+					    "Andor Verical Shift speed in us per pixel",card_list[card_count++],
+					    error_number,error_string);
+	retval &= Multrun_Header_Card_Fixed("HSSPEED",multrun_data->HSspeed,1,
+					    "Andor Horizontal Shift speed in us per pixel",card_list[card_count++],
+					    error_number,error_string);
+	if(!retval)
+		return FALSE;
+#endif
+	/* lock FITS filename */
+	if(!Fits_Filename_Lock(filename,error_number,error_string))
+		return FALSE;
+	/* create new FITS file */
+	retval = fits_create_file(&fp, filename, &status);
 	if(retval)
 	{
 		fits_get_errstatus(status,buff);
 		fits_report_error(stderr,status);
-		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 99;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating GRPUID failed(%.5f,%s,%d,%s).",
-			atof(fileHeaders.groupuid),filename, status,buff);
+		Fits_Filename_UnLock(filename,error_number,error_string);
+		(*error_number) = 53;
+		sprintf(error_string,"Exposure_Save: File open failed(%s,%d,%s).",filename,status,buff);
 		return FALSE;
 	}
 
-	/* update GRPNOMEX keyword  */
-	retval = fits_update_key_fixdbl(fp,"GRPNOMEX",atof(fileHeaders.groupnomex),6,"Group nominal exec time",&status);
+	if(pixel_bits == 16)
+		retval = fits_create_img(fp, USHORT_IMG, 2, naxes, &status);
+	else
+		retval = fits_create_img(fp, LONG_IMG, 2, naxes, &status);
+
 	if(retval)
 	{
 		fits_get_errstatus(status,buff);
 		fits_report_error(stderr,status);
 		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 100;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating GRPNOMEX failed(%.5f,%s,%d,%s).",
-			atof(fileHeaders.groupnomex),filename, status,buff);
+		Fits_Filename_UnLock(filename,error_number,error_string);
+		(*error_number) = 5;
+		sprintf(error_string,"Exposure_Save: Create image failed(%s,%d,%s).",filename,status,buff);
 		return FALSE;
 	}
-
-	/* update GRPMONP keyword  */
-	retval = fits_update_key_fixdbl(fp,"GRPMONP",atof(fileHeaders.groupmonp),6,"Group monitor period",&status);
-	if(retval)
+#if HEADERS > 0
+	/* Write the header before the data, so cfitsio never has to shift the data to make room for it. 
+	** The cards are appended in order (no keyword searches), the multrun template after the per-frame cards. */
+	for(i=0;(i < card_count)&&(status == 0);i++)
+		fits_write_record(fp,card_list[i],&status);
+	for(i=0;(i < Multrun_Header_Template_Count)&&(status == 0);i++)
+		fits_write_record(fp,Multrun_Header_Template[i],&status);
+	if(status)
 	{
+		retval = status;
 		fits_get_errstatus(status,buff);
 		fits_report_error(stderr,status);
+		status = 0;
 		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 101;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating GRPMONP failed(%.5f,%s,%d,%s).",
-			atof(fileHeaders.groupmonp),filename, status,buff);
+		Fits_Filename_UnLock(filename,error_number,error_string);
+		(*error_number) = 55;
+		sprintf(error_string,"Exposure_Save: Writing FITS header failed(%s,%d,%s).",filename,
+			retval,buff);
 		return FALSE;
 	}
-
-	/* update ROTANGLE keyword  */
-	retval = fits_update_key_fixdbl(fp,"ROTANGLE",atof(fileHeaders.rotangle),6,"Mount angle at start of Multrun",&status);
+#endif
+	/* write the data */
+	if(pixel_bits == 16)
+		retval = fits_write_img(fp,TUSHORT,1,ncols*nrows,exposure_data,&status);
+	else
+		retval = fits_write_img(fp,TULONG,1,ncols*nrows,exposure_data,&status);
 	if(retval)
 	{
 		fits_get_errstatus(status,buff);
 		fits_report_error(stderr,status);
 		fits_close_file(fp,&status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 102;
-		sprintf(Multrun_Error_String,"Exposure_Save: Updating ROTANGLE failed(%.5f,%s,%d,%s).",
-			atof(fileHeaders.rotangle),filename, status,buff);
+		Fits_Filename_UnLock(filename,error_number,error_string);
+		(*error_number) = 54;
+		sprintf(error_string,"Exposure_Save: File write failed(%s,%d,%s).",filename,status,buff);
 		return FALSE;
 	}
-
-	/* Finished writing headers! */
-
-#endif
   	/* nanosleep(&waittime,NULL);	*/
 	/* close file */
 	retval = fits_close_file(fp,&status);
@@ -2258,13 +1965,13 @@ int Multrun_Exposure_Save(char *filename, unsigned long *exposure_data,int ncols
 	{
 		fits_get_errstatus(status,buff);
 		fits_report_error(stderr,status);
-		Fits_Filename_UnLock(filename);
-		Multrun_Error_Number = 59;
-		sprintf(Multrun_Error_String,"Exposure_Save: File close failed(%s,%d,%s).",filename,status,buff);
+		Fits_Filename_UnLock(filename,error_number,error_string);
+		(*error_number) = 59;
+		sprintf(error_string,"Exposure_Save: File close failed(%s,%d,%s).",filename,status,buff);
 		return FALSE;
 	}
 	/* unlock FITS file lock */
-	if(!Fits_Filename_UnLock(filename))
+	if(!Fits_Filename_UnLock(filename,error_number,error_string))
 		return FALSE;
 #if LOGGING > 4
 	CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"Exposure_Save:Finished, CFITSIO status %d",status);
@@ -2333,88 +2040,294 @@ static void Multrun_Correct_Start_Time(struct timespec *t)
 	}
 }
 
+/**
+ * Start updating the per-frame fields of Multrun_Data. Makes Multrun_Status_Sequence odd, so
+ * CCD_Multrun_Get_Status_Snapshot will not use a copy taken before Multrun_Status_Update_End is called.
+ * @see #Multrun_Status_Sequence
+ * @see #Multrun_Status_Update_End
+ */
+static void Multrun_Status_Update_Begin(void)
+{
+	__sync_fetch_and_add(&Multrun_Status_Sequence,1);
+}
+
+/**
+ * Finish updating the per-frame fields of Multrun_Data. Makes Multrun_Status_Sequence even again.
+ * @see #Multrun_Status_Sequence
+ * @see #Multrun_Status_Update_Begin
+ */
+static void Multrun_Status_Update_End(void)
+{
+	__sync_fetch_and_add(&Multrun_Status_Sequence,1);
+}
+
+/**
+ * Reset the exposure number and the writer's frame count at the start of a multrun/multflat. Both are
+ * otherwise only reset once the acquisition starts, so a run that fails before then would leave the previous
+ * run's counts for CCD_Multrun_Get_Exposure_Number / CCD_Writer_Get_Frame_Count to report.
+ * @see #Multrun_Data
+ * @see #Multrun_Status_Update_Begin
+ * @see #Multrun_Status_Update_End
+ * @see ccd_writer.html#CCD_Writer_Reset_Frame_Count
+ */
+static void Multrun_Counts_Reset(void)
+{
+	Multrun_Status_Update_Begin();
+	Multrun_Data.Exposure_Number = 0;
+	Multrun_Status_Update_End();
+	CCD_Writer_Reset_Frame_Count();
+}
+
 
 
 /* Start of FitsFilename.cpp */
 
+/**
+ * Generate the next FITS filename. The multrun and run numbers come from the in-memory Filename_Allocator, 
+ * which is only seeded from disk (Filename_Allocator_Seed) the first time this is called, and when the
+ * date (at the start of the night) changes, rather than scanning IMAGEDIR for every frame.
+ * When a new multrun is started, the multrun number is the larger of the last one allocated plus one and
+ * any number set by the Java layer (CCD_Multrun_Filename_Set_Multrun), and is saved to
+ * MULTRUN_FILENAME_STATE_FILENAME before it is used.
+ * @param NewFileName A string to put the generated filename (without a directory) into.
+ * @param NewMultRun If 1, start a new multrun, otherwise the next run in the current multrun.
+ * @return The routine returns TRUE on success and FALSE on failure.
+ * @see #ff
+ * @see #Filename_Allocator
+ * @see #Filename_Allocator_Mutex
+ * @see #Filename_Allocator_Seed
+ * @see #Filename_Allocator_Save
+ * @see #ConstructNextFilename
+ */
 static int getNextFilename (char *NewFileName, int NewMultRun)
 {
-	/* Define this externally! */
-	/* struct FitsFilename ff; */
+	char date_string[16];
+	int multrun_number;
+
+	/* Initialise with sane values */
+	FitsFilename_init(&ff);
+	/* Get today's date */
+	getDateString(date_string);
+	pthread_mutex_lock(&Filename_Allocator_Mutex);
+	if((Filename_Allocator.Seeded == FALSE)||(strcmp(date_string,Filename_Allocator.Date) != 0))
+	{
+		if(!Filename_Allocator_Seed(date_string))
+		{
+			pthread_mutex_unlock(&Filename_Allocator_Mutex);
+			return FALSE;
+		}
+	}
+	strcpy(ff.date,Filename_Allocator.Date);
+	multrun_number = Filename_Allocator.Multrun_Number;
+	if((NewMultRun == 1)&&(Filename_Allocator.Multrun_Number_Hint > (multrun_number+1)))
+		multrun_number = Filename_Allocator.Multrun_Number_Hint-1;
+	ConstructNextFilename (&ff, multrun_number, Filename_Allocator.Run_Number, NewMultRun, NewFileName); 
+	if(NewMultRun == 1)
+	{
+		if(!Filename_Allocator_Save(ff.date,ff.multRunNumber))
+		{
+			pthread_mutex_unlock(&Filename_Allocator_Mutex);
+			return FALSE;
+		}
+		Filename_Allocator.Multrun_Number_Hint = 0;
+	}
+	Filename_Allocator.Multrun_Number = ff.multRunNumber;
+	Filename_Allocator.Run_Number = ff.runNumber;
+	pthread_mutex_unlock(&Filename_Allocator_Mutex);
+#if FF_DEBUG == 1
+ 	CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"getNextFilename:Next_Filename: %s",NewFileName);
+#endif
+	return TRUE;
+}
+
+/**
+ * Seed the Filename_Allocator for a new date. IMAGEDIR is scanned for the largest multrun number
+ * (and the largest run number within it) for the date. If MULTRUN_FILENAME_STATE_FILENAME records a larger
+ * multrun number for the same date (the images have been moved out of IMAGEDIR), that is used instead.
+ * Filename_Allocator_Mutex should be locked when this is called.
+ * @param date_string The date string (at the start of the night) to seed the allocator for.
+ * @return The routine returns TRUE on success and FALSE on failure.
+ * @see #Filename_Allocator
+ * @see #Filename_Allocator_Load
+ * @see #load_dir
+ * @see #FilterFilename
+ * @see #getLargestMultrunNumber
+ * @see #getLargestRunNumber
+ */
+static int Filename_Allocator_Seed(char *date_string)
+{
 	struct DirList *srclist=NULL;
 	struct DirList *FilteredList=NULL;
-
 	int srclistLength, FilteredListSize;
-	int MaxRun,MaxMultRun;
+	int MaxRun,MaxMultRun,state_multrun_number;
 
 	/* Allocate enough memory for the dir listing */
 	srclist = (struct DirList*) malloc(MAXLIST_SIZE*sizeof(*srclist));	
 	if (srclist == NULL) 
 	{
 		Multrun_Error_Number = 105;
-		sprintf(Multrun_Error_String,"getNextFilename:Malloc error on line %d",(__LINE__-2)); 
+		sprintf(Multrun_Error_String,"Filename_Allocator_Seed:Malloc error on line %d",(__LINE__-2)); 
 		return FALSE; 
 	}
-
-	/* Initialise with sane values */
-	FitsFilename_init(&ff);
-
-	/* Get today's date, and load the image dir */
-	getDateString(ff.date);   
-	load_dir(ff.directory,srclist,&srclistLength);
+	/* Load the image dir */
+	load_dir(IMAGEDIR,srclist,&srclistLength);
 	/* Shrink to fit */
 	srclist = (struct DirList*) realloc(srclist,(srclistLength+1)*sizeof(*srclist));	
 	if (srclist == NULL) 
 	{
 		Multrun_Error_Number = 106;
-		sprintf(Multrun_Error_String,"getNextFilename:Realloc error on line %d",(__LINE__-2)); 
+		sprintf(Multrun_Error_String,"Filename_Allocator_Seed:Realloc error on line %d",(__LINE__-2)); 
 		return FALSE; 
 	}
 	/* Create a new structured array for the filtered data, at least as large as
  	 * the unfiltered one. */
-	FilteredList = (struct DirList*) realloc(FilteredList,(srclistLength+1)*sizeof(*FilteredList));	
+	FilteredList = (struct DirList*) malloc((srclistLength+1)*sizeof(*FilteredList));	
 	if (FilteredList == NULL) 
 	{
+		free(srclist);
 		Multrun_Error_Number = 107;
-		sprintf(Multrun_Error_String,"getNextFilename:Realloc error on line %d",(__LINE__-2)); 
+		sprintf(Multrun_Error_String,"Filename_Allocator_Seed:Malloc error on line %d",(__LINE__-3)); 
 		return FALSE; 
 	}
-
-#if FF_DEBUG == 1
-	CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"getNextFilename:date %s",ff.date);
-	CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"getNextFilename:directory %s",ff.directory);
-#endif
 	/* Filter the dates based on today's date */
-    	FilterFilename (srclist, FilteredList, srclistLength, &FilteredListSize, ff.date);
+    	FilterFilename (srclist, FilteredList, srclistLength, &FilteredListSize, date_string);
+	MaxMultRun=getLargestMultrunNumber (FilteredList, FilteredListSize);
+	MaxRun= getLargestRunNumber(FilteredList, FilteredListSize, MaxMultRun);
+	free(srclist); 
+	free(FilteredList);
+	/* Don't re-use multrun numbers of images that are no longer in the directory */
+	if(Filename_Allocator_Load(date_string,&state_multrun_number)&&(state_multrun_number > MaxMultRun))
+	{
+		MaxMultRun = state_multrun_number;
+		MaxRun = 0;
+	}
+	strcpy(Filename_Allocator.Date,date_string);
+	Filename_Allocator.Multrun_Number = MaxMultRun;
+	Filename_Allocator.Run_Number = MaxRun;
+	Filename_Allocator.Seeded = TRUE;
+#if LOGGING > 1
+	CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"Filename_Allocator_Seed:Date %s:"
+			      "%d directory entries:Largest Multrun %d:Largest run %d.",date_string,
+			      srclistLength,MaxMultRun,MaxRun);
+#endif
+	return TRUE;
+}
 
-#if FF_DEBUG == 1
-	CCD_Global_Log(LOG_VERBOSITY_INTERMEDIATE,"getNextFilename:Unfiltered:");
-	for(i=0;i<srclistLength;i++)
+/**
+ * Load the multrun number saved in MULTRUN_FILENAME_STATE_FILENAME. 
+ * @param date_string The date string the multrun number is wanted for.
+ * @param multrun_number The address of an integer to store the saved multrun number.
+ * @return The routine returns TRUE if a multrun number for date_string was loaded, and FALSE if the file
+ *         does not exist, cannot be parsed, or is for a different date.
+ * @see #MULTRUN_FILENAME_STATE_FILENAME
+ */
+static int Filename_Allocator_Load(char *date_string,int *multrun_number)
+{
+	FILE *fp = NULL;
+	char state_date_string[16];
+	int retval;
+
+	fp = fopen(MULTRUN_FILENAME_STATE_FILENAME,"r");
+	if(fp == NULL)
+		return FALSE;
+	retval = fscanf(fp,"%15s %d",state_date_string,multrun_number);
+	fclose(fp);
+	if(retval != 2)
+		return FALSE;
+	return (strcmp(state_date_string,date_string) == 0);
+}
+
+/**
+ * Save the date and multrun number to MULTRUN_FILENAME_STATE_FILENAME. This is only done once per multrun.
+ * The state is written to MULTRUN_FILENAME_STATE_TMP_FILENAME and renamed, so a crash whilst writing
+ * cannot leave a truncated state file.
+ * @param date_string The date string.
+ * @param multrun_number The multrun number.
+ * @return The routine returns TRUE on success and FALSE on failure.
+ * @see #MULTRUN_FILENAME_STATE_FILENAME
+ * @see #MULTRUN_FILENAME_STATE_TMP_FILENAME
+ */
+static int Filename_Allocator_Save(char *date_string,int multrun_number)
+{
+	FILE *fp = NULL;
+	int retval;
+
+	fp = fopen(MULTRUN_FILENAME_STATE_TMP_FILENAME,"w");
+	if(fp == NULL)
 	{
-		CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"getNextFilename:%s \t\t%d",
-				      srclist[i].file,srclist[i].fnlength);
+		Multrun_Error_Number = 117;
+		sprintf(Multrun_Error_String,"Filename_Allocator_Save:Failed to open '%s' (%d).",
+			MULTRUN_FILENAME_STATE_TMP_FILENAME,errno);
+		return FALSE;
 	}
-	CCD_Global_Log(LOG_VERBOSITY_INTERMEDIATE,"getNextFilename:Filtered:");
-	for(i=0;i<FilteredListSize;i++) 
+	retval = fprintf(fp,"%s %d\n",date_string,multrun_number);
+	if((fclose(fp) != 0)||(retval < 0))
 	{
-		CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"getNextFilename:%s \t\t%d",
-				      FilteredList[i].file,FilteredList[i].fnlength);
+		Multrun_Error_Number = 118;
+		sprintf(Multrun_Error_String,"Filename_Allocator_Save:Failed to write '%s' (%d).",
+			MULTRUN_FILENAME_STATE_TMP_FILENAME,errno);
+		return FALSE;
 	}
-#endif
-	MaxMultRun=getLargestMultrunNumber (FilteredList, FilteredListSize);
-	MaxRun= getLargestRunNumber(FilteredList, FilteredListSize, MaxMultRun);
-	ConstructNextFilename (&ff, MaxMultRun, MaxRun, NewMultRun, NewFileName); 
-#if FF_DEBUG == 1
-	CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"getNextFilename:Largest Multrun: %d",MaxMultRun);
-	CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"getNextFilename: |__ Largest run: %d",MaxRun);
- 	CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"getNextFilename:Next_Filename: %s",NewFileName);
-#endif
-	free(srclist); 
-	free(FilteredList);
+	if(rename(MULTRUN_FILENAME_STATE_TMP_FILENAME,MULTRUN_FILENAME_STATE_FILENAME) != 0)
+	{
+		Multrun_Error_Number = 119;
+		sprintf(Multrun_Error_String,"Filename_Allocator_Save:Failed to rename '%s' to '%s' (%d).",
+			MULTRUN_FILENAME_STATE_TMP_FILENAME,MULTRUN_FILENAME_STATE_FILENAME,errno);
+		return FALSE;
+	}
+	return TRUE;
+}
+
+/**
+ * Set the multrun number the Java layer (ngat.fits.FitsFilename) has allocated for the next multrun, so that
+ * the C layer uses the same number (unless it has already used a larger one).
+ * @param multrun_number The multrun number.
+ * @return The routine returns TRUE.
+ * @see #Filename_Allocator
+ * @see #getNextFilename
+ */
+int CCD_Multrun_Filename_Set_Multrun(int multrun_number)
+{
+	Multrun_Error_Number = 0;
+	pthread_mutex_lock(&Filename_Allocator_Mutex);
+	Filename_Allocator.Multrun_Number_Hint = multrun_number;
+	pthread_mutex_unlock(&Filename_Allocator_Mutex);
 	return TRUE;
 }
 
+/**
+ * Get the last multrun number allocated by the C layer, for today's date. The allocator is seeded if necessary.
+ * The Java layer uses this to keep its ngat.fits.FitsFilename in step.
+ * @param multrun_number The address of an integer to store the multrun number.
+ * @return The routine returns TRUE on success and FALSE on failure.
+ * @see #Filename_Allocator
+ * @see #Filename_Allocator_Seed
+ */
+int CCD_Multrun_Filename_Get_Multrun(int *multrun_number)
+{
+	char date_string[16];
 
+	Multrun_Error_Number = 0;
+	if(multrun_number == NULL)
+	{
+		Multrun_Error_Number = 120;
+		sprintf(Multrun_Error_String,"CCD_Multrun_Filename_Get_Multrun:multrun_number was NULL.");
+		return FALSE;
+	}
+	getDateString(date_string);
+	pthread_mutex_lock(&Filename_Allocator_Mutex);
+	if((Filename_Allocator.Seeded == FALSE)||(strcmp(date_string,Filename_Allocator.Date) != 0))
+	{
+		if(!Filename_Allocator_Seed(date_string))
+		{
+			pthread_mutex_unlock(&Filename_Allocator_Mutex);
+			return FALSE;
+		}
+	}
+	(*multrun_number) = Filename_Allocator.Multrun_Number;
+	pthread_mutex_unlock(&Filename_Allocator_Mutex);
+	return TRUE;
+}
 
 static char *ConstructNextFilename (struct FitsFilename *ff, int MMR, int MR, int startMR, char *NFN) 
 {
@@ -2626,9 +2539,142 @@ char *chomp (char *string)
 
 
 
+/**
+ * Build the multrun header template, the pre-formatted FITS cards that are the same for every frame
+ * in the multrun: the multrun comments, the binning, and the cards in Multrun_Header_Template_Card_List
+ * (from fileHeaders). This must only be called when the ccd_writer queue is empty.
+ * @return The routine returns TRUE on success and FALSE on failure.
+ * @see #Multrun_Header_Template
+ * @see #Multrun_Header_Template_Count
+ * @see #Multrun_Header_Template_Card_List
+ * @see #fileHeaders
+ * @see #Multrun_Header_Card_String
+ * @see #Multrun_Header_Card_Fixed
+ */
+static int Multrun_Header_Template_Build(void)
+{
+	struct Multrun_Header_Template_Card_Struct *template_card = NULL;
+	int i,card_count,list_count,retval;
+
+	Multrun_Header_Template_Count = 0;
+	list_count = sizeof(Multrun_Header_Template_Card_List)/sizeof(Multrun_Header_Template_Card_List[0]);
+	if((list_count+4) > MULTRUN_HEADER_TEMPLATE_CARD_COUNT_MAX)
+	{
+		Multrun_Error_Number = 123;
+		sprintf(Multrun_Error_String,"Multrun_Header_Template_Build:Too many cards(%d > %d).",
+			list_count+4,MULTRUN_HEADER_TEMPLATE_CARD_COUNT_MAX);
+		return FALSE;
+	}
+	card_count = 0;
+	/* Add comments noting that most headers will be static at start of multrun  */
+	retval = Multrun_Header_Card_String("COMMENT1","Most headers are only updated at the start of the multrun",
+					    "",Multrun_Header_Template[card_count++],
+					    &Multrun_Error_Number,Multrun_Error_String);
+	retval &= Multrun_Header_Card_String("COMMENT2",
+				     "Telescope pointing, status and CCDATEMP etc are static at MULTRUN start.","",
+					     Multrun_Header_Template[card_count++],
+					     &Multrun_Error_Number,Multrun_Error_String);
+	retval &= Multrun_Header_Card_Fixed("CCDXBIN",(float)CCD_Setup_Get_NSBin(),0,"Column binning",
+					    Multrun_Header_Template[card_count++],
+					    &Multrun_Error_Number,Multrun_Error_String);
+	retval &= Multrun_Header_Card_Fixed("CCDYBIN",(float)CCD_Setup_Get_NPBin(),0,"Row binning",
+					    Multrun_Header_Template[card_count++],
+					    &Multrun_Error_Number,Multrun_Error_String);
+	for(i=0;i < list_count;i++)
+	{
+		template_card = &(Multrun_Header_Template_Card_List[i]);
+		if(template_card->Decimals == MULTRUN_HEADER_TYPE_STRING)
+		{
+			retval &= Multrun_Header_Card_String(template_card->Keyword,template_card->Value,
+							     template_card->Comment,
+							     Multrun_Header_Template[card_count++],
+							     &Multrun_Error_Number,Multrun_Error_String);
+		}
+		else if(template_card->Decimals == MULTRUN_HEADER_TYPE_INTEGER)
+		{
+			retval &= Multrun_Header_Card_Fixed(template_card->Keyword,atoi(template_card->Value),0,
+							    template_card->Comment,
+							    Multrun_Header_Template[card_count++],
+							    &Multrun_Error_Number,Multrun_Error_String);
+		}
+		else
+		{
+			retval &= Multrun_Header_Card_Fixed(template_card->Keyword,atof(template_card->Value),
+							    template_card->Decimals,template_card->Comment,
+							    Multrun_Header_Template[card_count++],
+							    &Multrun_Error_Number,Multrun_Error_String);
+		}
+	}
+	if(!retval)
+		return FALSE;
+	Multrun_Header_Template_Count = card_count;
+#if LOGGING > 4
+	CCD_Global_Log_Format(LOG_VERBOSITY_VERBOSE,"Multrun_Header_Template_Build:Built %d cards.",card_count);
+#endif
+	return TRUE;
+}
+
+/**
+ * Format a FITS card with a string value, as fits_update_key(TSTRING) would write it.
+ * @param keyword The FITS keyword.
+ * @param value The string value.
+ * @param comment The FITS comment.
+ * @param card A string of at least FLEN_CARD characters to put the formatted card into.
+ * @param error_number The address of an integer, set to the error number if the routine fails.
+ * @param error_string A string of at least CCD_GLOBAL_ERROR_STRING_LENGTH characters, set to the error
+ *        message if the routine fails.
+ * @return The routine returns TRUE on success and FALSE on failure.
+ */
+static int Multrun_Header_Card_String(char *keyword,char *value,char *comment,char *card,
+				      int *error_number,char *error_string)
+{
+	char value_string[FLEN_VALUE];
+	int status = 0;
+
+	ffs2c(value,value_string,&status);
+	fits_make_key(keyword,value_string,comment,card,&status);
+	if(status)
+	{
+		(*error_number) = 121;
+		sprintf(error_string,"Multrun_Header_Card_String:Formatting %s failed(%d).",keyword,status);
+		return FALSE;
+	}
+	return TRUE;
+}
+
+/**
+ * Format a FITS card with a fixed point value, as fits_update_key_fixdbl would write it.
+ * @param keyword The FITS keyword.
+ * @param value The value.
+ * @param decimals The number of decimal places.
+ * @param comment The FITS comment.
+ * @param card A string of at least FLEN_CARD characters to put the formatted card into.
+ * @param error_number The address of an integer, set to the error number if the routine fails.
+ * @param error_string A string of at least CCD_GLOBAL_ERROR_STRING_LENGTH characters, set to the error
+ *        message if the routine fails.
+ * @return The routine returns TRUE on success and FALSE on failure.
+ */
+static int Multrun_Header_Card_Fixed(char *keyword,double value,int decimals,char *comment,char *card,
+				     int *error_number,char *error_string)
+{
+	char value_string[FLEN_VALUE];
+	int status = 0;
+
+	ffd2f(value,decimals,value_string,&status);
+	fits_make_key(keyword,value_string,comment,card,&status);
+	if(status)
+	{
+		(*error_number) = 122;
+		sprintf(error_string,"Multrun_Header_Card_Fixed:Formatting %s (%.2f) failed(%d).",keyword,
+			value,status);
+		return FALSE;
+	}
+	return TRUE;
+}
+
 /**
  * Routine to convert a timespec structure to a DATE sytle string to put into a FITS header.
- * This uses gmtime and strftime to format the string. The resultant string is of the form:
+ * This uses gmtime_r and strftime to format the string. The resultant string is of the form:
  * <b>CCYY-MM-DD</b>, which is equivalent to %Y-%m-%d passed to strftime.
  * @param time The time to convert.
  * @param time_string The string to put the time representation in. The string must be at least
@@ -2636,15 +2682,15 @@ char *chomp (char *string)
  */
 static void Exposure_TimeSpec_To_Date_String(struct timespec time,char *time_string)
 {
-	struct tm *tm_time = NULL;
+	struct tm tm_time;
 
-	tm_time = gmtime(&(time.tv_sec));
-	strftime(time_string,12,"%Y-%m-%d",tm_time);
+	gmtime_r(&(time.tv_sec),&tm_time);
+	strftime(time_string,12,"%Y-%m-%d",&tm_time);
 }
 
 /**
  * Routine to convert a timespec structure to a DATE-OBS sytle string to put into a FITS header.
- * This uses gmtime and strftime to format most of the string, and tags the milliseconds on the end.
+ * This uses gmtime_r and strftime to format most of the string, and tags the milliseconds on the end.
  * The resultant form of the string is <b>CCYY-MM-DDTHH:MM:SS.sss</b>.
  * @param time The time to convert.
  * @param time_string The string to put the time representation in. The string must be at least
@@ -2653,19 +2699,19 @@ static void Exposure_TimeSpec_To_Date_String(struct timespec time,char *time_str
  */
 static void Exposure_TimeSpec_To_Date_Obs_String(struct timespec time,char *time_string)
 {
-	struct tm *tm_time = NULL;
+	struct tm tm_time;
 	char buff[32];
 	int milliseconds;
 
-	tm_time = gmtime(&(time.tv_sec));
-	strftime(buff,32,"%Y-%m-%dT%H:%M:%S.",tm_time);
+	gmtime_r(&(time.tv_sec),&tm_time);
+	strftime(buff,32,"%Y-%m-%dT%H:%M:%S.",&tm_time);
 	milliseconds = (((double)time.tv_nsec)/((double)CCD_GLOBAL_ONE_MILLISECOND_NS));
 	sprintf(time_string,"%s%03d",buff,milliseconds);
 }
 
 /**
  * Routine to convert a timespec structure to a UTSTART sytle string to put into a FITS header.
- * This uses gmtime and strftime to format most of the string, and tags the milliseconds on the end.
+ * This uses gmtime_r and strftime to format most of the string, and tags the milliseconds on the end.
  * @param time The time to convert.
  * @param time_string The string to put the time representation in. The string must be at least
  * 	14 characters long.
@@ -2673,12 +2719,12 @@ static void Exposure_TimeSpec_To_Date_Obs_String(struct timespec time,char *time
  */
 static void Exposure_TimeSpec_To_UtStart_String(struct timespec time,char *time_string)
 {
-	struct tm *tm_time = NULL;
+	struct tm tm_time;
 	char buff[16];
 	int milliseconds;
 
-	tm_time = gmtime(&(time.tv_sec));
-	strftime(buff,16,"%H:%M:%S.",tm_time);
+	gmtime_r(&(time.tv_sec),&tm_time);
+	strftime(buff,16,"%H:%M:%S.",&tm_time);
 	milliseconds = (((double)time.tv_nsec)/((double)CCD_GLOBAL_ONE_MILLISECOND_NS));
 	sprintf(time_string,"%s%03d",buff,milliseconds);
 }
@@ -2826,6 +2872,23 @@ int getSquareRegion(const long *inArray, double *sqrArray, int x, int y, int R){
 	return(0);
 }
 
+int getSquareRegion16(const unsigned short *inArray, double *sqrArray, int x, int y, int R){ 
+	/* As getSquareRegion, for 16 bit images (mrParams.pixelBits = 16). */
+	long i,j,arrayCount=0;
+	long XcPixelNumber=0;
+	int ncols = CCD_Setup_Get_NCols();
+
+	for(i=-R; i<=R; i++){
+		XcPixelNumber = ( (y+i) * ncols ) + x;
+		for(j=(XcPixelNumber-R); j<=(XcPixelNumber+R); j++){
+			sqrArray[arrayCount]=(double)inArray[j];
+			arrayCount++; 
+		}
+	}
+
+	return(0);
+}
+
 
 /**
  * Get the current value of the ccd_multrun error number.
@@ -2880,11 +2943,14 @@ void CCD_Multrun_Error_String(char *error_string)
  * This allows interaction with the data transfer processes, so the FITS image will not be
  * data transferred until the lock file is removed.
  * @param filename The filename of the '.fits' FITS filename.
+ * @param error_number The address of an integer, set to the error number if the routine fails.
+ * @param error_string A string of at least CCD_GLOBAL_ERROR_STRING_LENGTH characters, set to the error
+ *        message if the routine fails.
  * @return The routine returns TRUE on success and FALSE on failure.
  * @see #Lock_Filename_Get
  * @see #CCD_GLOBAL_ERROR_STRING_LENGTH
  */
-static int Fits_Filename_Lock(char *filename)
+static int Fits_Filename_Lock(char *filename,int *error_number,char *error_string)
 {
 	char lock_filename[CCD_GLOBAL_ERROR_STRING_LENGTH];
 	int fd,open_errno;
@@ -2892,19 +2958,19 @@ static int Fits_Filename_Lock(char *filename)
 	/* check arguments */
 	if(filename == NULL)
 	{
-		Multrun_Error_Number = 6;
-		sprintf(Multrun_Error_String,"Fits_Filename_Lock:filename was NULL.");
+		(*error_number) = 6;
+		sprintf(error_string,"Fits_Filename_Lock:filename was NULL.");
 		return FALSE;
 	}
 	if(strlen(filename) >= CCD_GLOBAL_ERROR_STRING_LENGTH)
 	{
-		Multrun_Error_Number = 7;
-		sprintf(Multrun_Error_String,"Fits_Filename_Lock:FITS filename was too long(%d).",
+		(*error_number) = 7;
+		sprintf(error_string,"Fits_Filename_Lock:FITS filename was too long(%d).",
 			strlen(filename));
 		return FALSE;
 	}
 	/* get lock filename */
-	if(!Lock_Filename_Get(filename,lock_filename))
+	if(!Lock_Filename_Get(filename,lock_filename,error_number,error_string))
 		return FALSE;
 	/* try to open lock file. */
 	/* O_CREAT|O_WRONLY|O_EXCL : create file, O_EXCL means the call will fail if the file already exists. 
@@ -2913,8 +2979,8 @@ static int Fits_Filename_Lock(char *filename)
 	if(fd == -1)
 	{
 		open_errno = errno;
-		Multrun_Error_Number = 8;
-		sprintf(Multrun_Error_String,
+		(*error_number) = 8;
+		sprintf(error_string,
 			"Fits_Filename_Lock:Failed to create lock filename(%s):error %d.",
 			lock_filename,open_errno);
 		return FALSE;
@@ -2929,11 +2995,14 @@ static int Fits_Filename_Lock(char *filename)
  * This allows interaction with the data transfer processes, so the FITS image will not be
  * data transferred until the lock file is removed.
  * @param filename The filename of the '.fits' FITS filename.
+ * @param error_number The address of an integer, set to the error number if the routine fails.
+ * @param error_string A string of at least CCD_GLOBAL_ERROR_STRING_LENGTH characters, set to the error
+ *        message if the routine fails.
  * @return The routine returns TRUE on success and FALSE on failure.
  * @see #Lock_Filename_Get
  * @see #fexist
  */
-static int Fits_Filename_UnLock(char *filename)
+static int Fits_Filename_UnLock(char *filename,int *error_number,char *error_string)
 {
 	char lock_filename[CCD_GLOBAL_ERROR_STRING_LENGTH];
 	int retval,remove_errno;
@@ -2941,19 +3010,19 @@ static int Fits_Filename_UnLock(char *filename)
 	/* check arguments */
 	if(filename == NULL)
 	{
-		Multrun_Error_Number = 9;
-		sprintf(Multrun_Error_String,"Fits_Filename_UnLock:filename was NULL.");
+		(*error_number) = 9;
+		sprintf(error_string,"Fits_Filename_UnLock:filename was NULL.");
 		return FALSE;
 	}
 	if(strlen(filename) >= CCD_GLOBAL_ERROR_STRING_LENGTH)
 	{
-		Multrun_Error_Number = 10;
-		sprintf(Multrun_Error_String,"Fits_Filename_UnLock:FITS filename was too long(%d).",
+		(*error_number) = 10;
+		sprintf(error_string,"Fits_Filename_UnLock:FITS filename was too long(%d).",
 			strlen(filename));
 		return FALSE;
 	}
 	/* get lock filename */
-	if(!Lock_Filename_Get(filename,lock_filename))
+	if(!Lock_Filename_Get(filename,lock_filename,error_number,error_string))
 		return FALSE;
 	/* check existence */
 	if(fexist(lock_filename))
@@ -2963,8 +3032,8 @@ static int Fits_Filename_UnLock(char *filename)
 		if(retval == -1)
 		{
 			remove_errno = errno;
-			Multrun_Error_Number = 11;
-			sprintf(Multrun_Error_String,
+			(*error_number) = 11;
+			sprintf(error_string,
 				"Fits_Filename_UnLock:Failed to unlock filename '%s':(%d,%d).",
 				lock_filename,retval,remove_errno);
 			return FALSE;
@@ -2977,23 +3046,26 @@ static int Fits_Filename_UnLock(char *filename)
  * Given a FITS filename derive a suitable '.lock' filename.
  * @param filename The FITS filename.
  * @param lock_filename A buffer. On return, this is filled with a suitable lock filename for the FITS image.
+ * @param error_number The address of an integer, set to the error number if the routine fails.
+ * @param error_string A string of at least CCD_GLOBAL_ERROR_STRING_LENGTH characters, set to the error
+ *        message if the routine fails.
  * @return Returns TRUE if the routine succeeds and returns FALSE if an error occurs.
  * @see #CCD_GLOBAL_ERROR_STRING_LENGTH
  */
-static int Lock_Filename_Get(char *filename,char *lock_filename)
+static int Lock_Filename_Get(char *filename,char *lock_filename,int *error_number,char *error_string)
 {
 	char *ch_ptr = NULL;
 
 	if(filename == NULL)
 	{
-		Multrun_Error_Number = 12;
-		sprintf(Multrun_Error_String,"Lock_Filename_Get:filename was NULL.");
+		(*error_number) = 12;
+		sprintf(error_string,"Lock_Filename_Get:filename was NULL.");
 		return FALSE;
 	}
 	if(strlen(filename) >= CCD_GLOBAL_ERROR_STRING_LENGTH)
 	{
-		Multrun_Error_Number = 13;
-		sprintf(Multrun_Error_String,"Lock_Filename_Get:FITS filename was too long(%d).",
+		(*error_number) = 13;
+		sprintf(error_string,"Lock_Filename_Get:FITS filename was too long(%d).",
 			strlen(filename));
 		return FALSE;
 	}
@@ -3005,8 +3077,8 @@ static int Lock_Filename_Get(char *filename,char *lock_filename)
 	ch_ptr = strstr(lock_filename,".fits");
 	if(ch_ptr == NULL)
 	{
-		Multrun_Error_Number = 14;
-		sprintf(Multrun_Error_String,"Lock_Filename_Get:'.fits' not found in filename %s.",
+		(*error_number) = 14;
+		sprintf(error_string,"Lock_Filename_Get:'.fits' not found in filename %s.",
 			filename);
 		return FALSE;
 	}
@@ -3099,6 +3171,57 @@ double CCD_Multrun_Get_Cached_Temperature(void)
 	return Multrun_Data.Temperature;
 }
 
+/**
+ * Get a copy of the status data GET_STATUS reports, in one call. The per-frame multrun fields are
+ * re-read until the copy was not taken whilst the acquisition thread was updating them, so the exposure number
+ * and exposure start time always come from the same frame. The setup and FITS writer data are copied alongside.
+ * @param status The address of a structure to fill in with the status data.
+ * @see #Multrun_Data
+ * @see #Multrun_Status_Sequence
+ * @see ccd_setup.html#CCD_Setup_Get_NCols
+ * @see ccd_setup.html#CCD_Setup_Get_NRows
+ * @see ccd_setup.html#CCD_Setup_Get_NSBin
+ * @see ccd_setup.html#CCD_Setup_Get_NPBin
+ * @see ccd_setup.html#CCD_Setup_Get_Window_Flags
+ * @see ccd_setup.html#CCD_Setup_Get_Setup_Complete
+ * @see ccd_setup.html#CCD_Setup_Get_Setup_In_Progress
+ * @see ccd_writer.html#CCD_Writer_Get_Queue_Depth
+ * @see ccd_writer.html#CCD_Writer_Get_Queue_Depth_Peak
+ * @see ccd_writer.html#CCD_Writer_Get_Latency_Last
+ * @see ccd_writer.html#CCD_Writer_Get_Latency_Max
+ * @see ccd_writer.html#CCD_Writer_Get_Frame_Count
+ */
+void CCD_Multrun_Get_Status_Snapshot(struct CCD_Multrun_Status_Struct *status)
+{
+	unsigned long sequence;
+
+	do
+	{
+		sequence = Multrun_Status_Sequence;
+		__sync_synchronize();
+		status->Exposure_Status = Multrun_Data.Exposure_Status;
+		status->Exposure_Number = Multrun_Data.Exposure_Number;
+		/* Exposure_Length is in decimal seconds, we want this in milliseconds. */
+		status->Exposure_Length = (int)(Multrun_Data.Exposure_Length*1000.0f);
+		status->Exposure_Start_Time = Multrun_Data.Exposure_Start_Time;
+		status->Elapsed_Exposure_Time = Multrun_Data.Elapsed_Exposure_Time;
+		__sync_synchronize();
+	}
+	while((sequence & 1)||(sequence != Multrun_Status_Sequence));
+	status->NCols = CCD_Setup_Get_NCols();
+	status->NRows = CCD_Setup_Get_NRows();
+	status->NSBin = CCD_Setup_Get_NSBin();
+	status->NPBin = CCD_Setup_Get_NPBin();
+	status->Window_Flags = CCD_Setup_Get_Window_Flags();
+	status->Setup_Complete = CCD_Setup_Get_Setup_Complete();
+	status->Setup_In_Progress = CCD_Setup_Get_Setup_In_Progress();
+	status->Writer_Queue_Depth = CCD_Writer_Get_Queue_Depth();
+	status->Writer_Queue_Depth_Peak = CCD_Writer_Get_Queue_Depth_Peak();
+	status->Writer_Latency_Last = CCD_Writer_Get_Latency_Last();
+	status->Writer_Latency_Max = CCD_Writer_Get_Latency_Max();
+	status->Writer_Frame_Count = CCD_Writer_Get_Frame_Count();
+}
+
 /*
 ** $Log: not supported by cvs2svn $
 ** Revision 1.5  2010/03/26 14:39:49  cjm
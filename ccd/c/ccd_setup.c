@@ -48,11 +48,14 @@
 #include <sys/time.h>
 #endif
 #include "log_udp.h"
+#include "ccd_buffer.h"
 #include "ccd_exposure.h"
 #include "ccd_global.h"
 #include "ccd_temperature.h"
 #include "ccd_setup.h"
+#include "ccd_writer.h"
 #include "atmcdLXd.h"
+#include "ccd_simulate.h"
 
 /**
  * Revision Control System identifier.
@@ -167,6 +170,7 @@ int CCD_Setup_Startup(double target_temperature)
 	unsigned long error;
 	int andorTargetTemp=(int)target_temperature; /* ANDOR function takes an int! */
 	long lCameraHandle;
+	long temp_long;
 
 	Setup_Error_Number = 0;
 #if LOGGING > 0
@@ -182,6 +186,18 @@ int CCD_Setup_Startup(double target_temperature)
 	eSTAR_Config_Parse_File("ccs.properties",&rProperties);	
 	eSTAR_Config_Print_Error();
 	eSTAR_Config_Get_Int(&rProperties,"ccs.libccd.cooling",&(mrParams.ccdCool));
+	/* the number of image buffers CCD_Setup_Dimensions allocates is the multrun writer queue size */
+	mrParams.writerSlots = CCD_WRITER_DEFAULT_SLOT_COUNT;
+	if(eSTAR_Config_Get_Long(&rProperties,"ccs.libccd.multrun.writer.slots",&temp_long))
+		mrParams.writerSlots = (int)temp_long;
+	/* decide whether to talk to the Andor camera or the simulated camera */
+	if(!CCD_Simulate_Configure())
+	{
+		Setup_Data.Setup_In_Progress = FALSE;
+		Setup_Error_Number = 81;
+		sprintf(Setup_Error_String,"CCD_Setup_Startup:Failed to configure device.");
+		return FALSE;
+	}
 	
 	GetAvailableCameras(&lNumCameras);
  
@@ -270,6 +286,8 @@ int CCD_Setup_Startup(double target_temperature)
  * <li>Entering a loop, calling GetTemperature until the temperature is greater than the shutdown temperature (0).
  * <li>Turning the cooler off using CoolerOFF.
  * <li>Calling ShutDown to close the connection to the Andor camera.
+ * <li>Stopping the writer threads (CCD_Writer_Stop), so none is still saving from the image buffers.
+ * <li>Freeing the image buffers (CCD_Buffer_Free).
  * </ul>
  * It then just remains to close the connection to the astro device driver.
  * @see #CCD_Setup_Startup
@@ -305,7 +323,10 @@ int CCD_Setup_Shutdown(void)
 #if LOGGING > 0
 	CCD_Global_Log(LOG_VERBOSITY_VERBOSE,"CCD_Setup_Shutdown: Sent ShutDown() to CCD");
 #endif
+	if(!CCD_Writer_Stop())
+		CCD_Writer_Error();
 	eSTAR_Config_Destroy_Properties(&rProperties);
+	CCD_Buffer_Free();
 
 	return TRUE;
 }
@@ -332,6 +353,7 @@ int CCD_Setup_Shutdown(void)
  * @see #Setup_Window_List
  * @see #CCD_Setup_Abort
  * @see #CCD_Setup_Window_Struct
+ * @see ccd_buffer.html#CCD_Buffer_Allocate
  */
 int CCD_Setup_Dimensions(int ncols,int nrows,int nsbin,int npbin,
 			 int window_flags,struct CCD_Setup_Window_Struct window_list[])
@@ -422,6 +444,16 @@ int CCD_Setup_Dimensions(int ncols,int nrows,int nsbin,int npbin,
 		Setup_Data.Setup_In_Progress = FALSE;
 		return FALSE;
 	}
+/* allocate the image buffers for these dimensions now, so exposures and multruns do not have to.
+** They are sized for the largest pixel size multruns use (ccs.libccd.multrun.pixel.bits). */
+	if(!CCD_Buffer_Allocate(mrParams.writerSlots,Setup_Data.NCols*Setup_Data.NRows*sizeof(unsigned long)))
+	{
+		Setup_Data.Setup_In_Progress = FALSE;
+		Setup_Error_Number = 82;
+		sprintf(Setup_Error_String,"CCD_Setup_Dimensions:Failed to allocate %d image buffers (%d x %d).",
+			mrParams.writerSlots,Setup_Data.NCols,Setup_Data.NRows);
+		return FALSE;
+	}
 /* reset in progress information */
 	Setup_Data.Setup_In_Progress = FALSE;
 #if LOGGING > 0
@@ -0,0 +1,1648 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Ccs.
+
+    Ccs is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Ccs is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Ccs; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+/* ccd_simulate.c
+** low level ccd library
+** $Header$
+*/
+/**
+ * ccd_simulate.c contains a software simulation of the Andor camera, so that librise_ccd (and the Ccs above it)
+ * can be run and tested without the camera hardware. Each Andor SDK routine used by the library has an equivalent
+ * CCD_Simulate_ routine. When the library is compiled with CCD_SIMULATE, ccd_simulate.h routes the
+ * Andor SDK calls in the other modules through these routines, which either call the real Andor SDK
+ * or the simulated camera depending on the "ccs.libccd.device" property (read in CCD_Simulate_Configure).
+ * The simulated camera models the acquisition timing (exposure length, readout and frame transfer times derived
+ * from the selected horizontal and vertical shift speeds), the Andor circular image buffer, and the CCD
+ * temperature/cooler. Image data is synthesised: a bias level, read noise, a sky background with a gradient
+ * across the chip and a field of gaussian stars, with photon noise added.
+ * @author Chris Mottram
+ * @version $Revision$
+ */
+/**
+ * This hash define is needed before including source files give us POSIX.4/IEEE1003.1b-1993 prototypes.
+ */
+#define _POSIX_SOURCE 1
+/**
+ * This hash define is needed before including source files give us POSIX.4/IEEE1003.1b-1993 prototypes.
+ */
+#define _POSIX_C_SOURCE 199309L
+/**
+ * This module calls the real Andor SDK routines, so ccd_simulate.h must not re-map them.
+ */
+#define CCD_SIMULATE_C
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <math.h>
+#include <time.h>
+#include <pthread.h>
+#include "log_udp.h"
+#include "ccd_global.h"
+#include "atmcdLXd.h"
+#include "ccd_simulate.h"
+
+/* hash definitions */
+/**
+ * The maximum number of stars in the simulated star field.
+ */
+#define SIMULATE_MAX_STAR_COUNT			(1000)
+/**
+ * The number of images the simulated Andor circular buffer can hold, before the oldest images are overwritten.
+ */
+#define SIMULATE_BUFFER_IMAGE_COUNT		(32)
+/**
+ * The maximum value a pixel can take (16 bit ADC).
+ */
+#define SIMULATE_PIXEL_MAX			(65535)
+/**
+ * The difference between the CCD temperature and target temperature, in degrees centigrade, below which
+ * the simulated temperature is reported as stabilised.
+ */
+#define SIMULATE_TEMPERATURE_STABLE_DELTA	(0.5)
+/**
+ * Two pi, used by the Box-Muller transform (M_PI is not defined under _POSIX_C_SOURCE).
+ */
+#define SIMULATE_TWO_PI				(6.283185307179586)
+/**
+ * Number of horizontal shift speeds in Simulate_HS_Speed_List.
+ */
+#define SIMULATE_HS_SPEED_COUNT			(4)
+/**
+ * Number of vertical shift speeds in Simulate_VS_Speed_List.
+ */
+#define SIMULATE_VS_SPEED_COUNT			(4)
+/**
+ * How often, in nanoseconds, a thread blocked in CCD_Simulate_WaitForAcquisitionTimeOut re-checks the simulated
+ * acquisition for new images (10 ms).
+ */
+#define SIMULATE_WAIT_POLL_NS			(10000000)
+/**
+ * The largest shutter mode accepted by CCD_Simulate_SetShutter (0 fully auto, 1 permanently open,
+ * 2 permanently closed).
+ */
+#define SIMULATE_SHUTTER_MODE_MAX		(2)
+/**
+ * The shutter mode (passed to SetShutter) in which the shutter stays closed, so no light reaches the detector.
+ */
+#define SIMULATE_SHUTTER_MODE_CLOSED		(2)
+
+/* data types */
+/**
+ * Structure holding the position and brightness of one simulated star.
+ * <dl>
+ * <dt>X</dt> <dd>The X position of the star on the (unbinned) detector, in pixels.</dd>
+ * <dt>Y</dt> <dd>The Y position of the star on the (unbinned) detector, in pixels.</dd>
+ * <dt>Peak_Rate</dt> <dd>The count rate of the brightest (unbinned) pixel of the star, in ADU/s.</dd>
+ * </dl>
+ */
+struct Simulate_Star_Struct
+{
+	double X;
+	double Y;
+	double Peak_Rate;
+};
+
+/**
+ * Structure holding the state of the simulated Andor camera.
+ * <dl>
+ * <dt>Enabled</dt> <dd>Boolean, TRUE if the simulated camera is in use, FALSE if the Andor SDK is called.</dd>
+ * <dt>Initialised</dt> <dd>Boolean, whether Initialize has been called on the simulated camera.</dd>
+ * <dt>Detector_Width</dt> <dd>The number of (unbinned) columns on the simulated detector.</dd>
+ * <dt>Detector_Height</dt> <dd>The number of (unbinned) rows on the simulated detector.</dd>
+ * <dt>Read_Mode</dt> <dd>The read mode set by SetReadMode.</dd>
+ * <dt>Acquisition_Mode</dt> <dd>The acquisition mode set by SetAcquisitionMode (1 single scan, 5 run till
+ *     abort).</dd>
+ * <dt>Frame_Transfer</dt> <dd>Boolean, whether frame transfer mode is on.</dd>
+ * <dt>HBin</dt> <dd>The horizontal binning set by SetImage.</dd>
+ * <dt>VBin</dt> <dd>The vertical binning set by SetImage.</dd>
+ * <dt>HStart</dt> <dd>The first column (1 based) set by SetImage.</dd>
+ * <dt>VStart</dt> <dd>The first row (1 based) set by SetImage.</dd>
+ * <dt>Image_Width</dt> <dd>The number of binned columns in a read out image.</dd>
+ * <dt>Image_Height</dt> <dd>The number of binned rows in a read out image.</dd>
+ * <dt>Exposure_Length</dt> <dd>The exposure length set by SetExposureTime, in seconds.</dd>
+ * <dt>HS_Speed_Index</dt> <dd>The index into Simulate_HS_Speed_List set by SetHSSpeed.</dd>
+ * <dt>VS_Speed_Index</dt> <dd>The index into Simulate_VS_Speed_List set by SetVSSpeed.</dd>
+ * <dt>Shutter_Mode</dt> <dd>The shutter mode set by SetShutter (0 fully auto, 1 permanently open,
+ *     2 permanently closed).</dd>
+ * <dt>Acquiring</dt> <dd>Boolean, whether an acquisition is in progress.</dd>
+ * <dt>Acquisition_Start_Time</dt> <dd>When StartAcquisition was called.</dd>
+ * <dt>Images_Acquired</dt> <dd>The number of images acquired since StartAcquisition was called.</dd>
+ * <dt>Images_Retrieved</dt> <dd>The index of the last image retrieved from (or lost off the end of) the
+ *     circular buffer.</dd>
+ * <dt>Wait_Image_Count</dt> <dd>The number of images acquired when WaitForAcquisition last returned an
+ *     acquisition event.</dd>
+ * <dt>Wait_Cancelled</dt> <dd>Boolean, set by CancelWait to end the current WaitForAcquisition.</dd>
+ * <dt>Cooler_On</dt> <dd>Boolean, whether the cooler is on.</dd>
+ * <dt>Target_Temperature</dt> <dd>The target temperature set by SetTemperature, in degrees centigrade.</dd>
+ * <dt>Temperature</dt> <dd>The current simulated CCD temperature, in degrees centigrade.</dd>
+ * <dt>Temperature_Time</dt> <dd>When the Temperature was last updated.</dd>
+ * <dt>Ambient_Temperature</dt> <dd>The temperature the CCD warms up to when the cooler is off.</dd>
+ * <dt>Temperature_Time_Constant</dt> <dd>The time constant, in seconds, of the CCD temperature's
+ *     exponential approach to the target (or ambient) temperature.</dd>
+ * <dt>Bias</dt> <dd>The bias level in ADU.</dd>
+ * <dt>Read_Noise</dt> <dd>The read noise in ADU.</dd>
+ * <dt>Sky_Rate</dt> <dd>The sky background in ADU/s per unbinned pixel.</dd>
+ * <dt>Sky_Gradient</dt> <dd>The fractional change in sky background from one corner of the chip to
+ *     the opposite corner.</dd>
+ * <dt>Star_Count</dt> <dd>The number of stars in the simulated field.</dd>
+ * <dt>Star_Peak_Rate</dt> <dd>The peak count rate of the brightest star, in ADU/s.</dd>
+ * <dt>Star_FWHM</dt> <dd>The full width half maximum of the stars, in unbinned pixels.</dd>
+ * <dt>Star_Jitter</dt> <dd>The RMS frame to frame movement of the star field, in unbinned pixels.</dd>
+ * <dt>Seed</dt> <dd>The seed used to generate the star field and image noise.</dd>
+ * <dt>Random_State</dt> <dd>The current state of the random number generator.</dd>
+ * <dt>Star_List</dt> <dd>The list of simulated stars.</dd>
+ * </dl>
+ */
+struct Simulate_Struct
+{
+	int Enabled;
+	int Initialised;
+	int Detector_Width;
+	int Detector_Height;
+	int Read_Mode;
+	int Acquisition_Mode;
+	int Frame_Transfer;
+	int HBin;
+	int VBin;
+	int HStart;
+	int VStart;
+	int Image_Width;
+	int Image_Height;
+	float Exposure_Length;
+	int HS_Speed_Index;
+	int VS_Speed_Index;
+	int Shutter_Mode;
+	int Acquiring;
+	struct timespec Acquisition_Start_Time;
+	long Images_Acquired;
+	long Images_Retrieved;
+	long Wait_Image_Count;
+	int Wait_Cancelled;
+	int Cooler_On;
+	double Target_Temperature;
+	double Temperature;
+	struct timespec Temperature_Time;
+	double Ambient_Temperature;
+	double Temperature_Time_Constant;
+	double Bias;
+	double Read_Noise;
+	double Sky_Rate;
+	double Sky_Gradient;
+	int Star_Count;
+	double Star_Peak_Rate;
+	double Star_FWHM;
+	double Star_Jitter;
+	int Seed;
+	unsigned int Random_State;
+	struct Simulate_Star_Struct Star_List[SIMULATE_MAX_STAR_COUNT];
+};
+
+/* internal variables */
+/**
+ * Revision Control System identifier.
+ */
+static char rcsid[] = "$Id$";
+/**
+ * Variable holding error code of last operation performed by ccd_simulate.
+ */
+static int Simulate_Error_Number = 0;
+/**
+ * Local variable holding description of the last error that occured.
+ */
+static char Simulate_Error_String[CCD_GLOBAL_ERROR_STRING_LENGTH] = "";
+/**
+ * The simulated camera state. The simulation is disabled by default, the simulated detector is
+ * 1024x1024, with an ambient temperature of 20 degrees centigrade. The image properties are
+ * set to sensible defaults, and can be overridden in the properties file.
+ * @see #Simulate_Struct
+ * @see #CCD_Simulate_Configure
+ */
+static struct Simulate_Struct Simulate_Data;
+/**
+ * Mutex used to protect Simulate_Data, as the Andor routines can be called from more than one thread
+ * (e.g. a status thread calling GetTemperature whilst a multrun is in progress).
+ */
+static pthread_mutex_t Simulate_Mutex = PTHREAD_MUTEX_INITIALIZER;
+/**
+ * Condition variable (used with Simulate_Mutex) signalled by AbortAcquisition and CancelWait, to wake
+ * threads blocked in WaitForAcquisition.
+ * @see #CCD_Simulate_WaitForAcquisitionTimeOut
+ */
+static pthread_cond_t Simulate_Wait_Condition = PTHREAD_COND_INITIALIZER;
+/**
+ * The simulated horizontal shift speeds, in MHz, fastest first.
+ */
+static float Simulate_HS_Speed_List[SIMULATE_HS_SPEED_COUNT] = {2.5f,1.0f,0.5f,0.05f};
+/**
+ * The simulated vertical shift speeds, in microseconds per row, fastest first.
+ */
+static float Simulate_VS_Speed_List[SIMULATE_VS_SPEED_COUNT] = {3.3f,6.5f,12.9f,25.7f};
+
+/**
+ * Scratch image used to synthesise images for the 16 bit retrieval routines, grown as necessary.
+ * @see #Simulate_Get_Image_Buffer
+ */
+static long *Simulate_Image_Buffer = NULL;
+/**
+ * The number of pixels allocated in Simulate_Image_Buffer.
+ */
+static size_t Simulate_Image_Buffer_Length = 0;
+
+/* internal functions */
+static void Simulate_Set_Defaults(void);
+static void Simulate_Get_Property_Int(char *keyword,int *value);
+static void Simulate_Get_Property_Double(char *keyword,double *value);
+static void Simulate_Update(void);
+static double Simulate_Readout_Time(void);
+static double Simulate_Frame_Transfer_Time(void);
+static double Simulate_Kinetic_Cycle_Time(void);
+static void Simulate_Create_Star_Field(void);
+static void Simulate_Generate_Image(long *array);
+static long *Simulate_Get_Image_Buffer(size_t pixel_count);
+static double Simulate_Random_Uniform(void);
+static double Simulate_Random_Gaussian(void);
+static double Simulate_Time_Difference(struct timespec start_time,struct timespec end_time);
+
+/* ----------------------------------------------------------------------------
+** 		external functions
+** ---------------------------------------------------------------------------- */
+/**
+ * Routine to decide whether the Andor camera or the simulated camera is to be used, and configure the simulation.
+ * This should be called after the properties file has been loaded into rProperties, and before any other
+ * Andor routines have been called (i.e. at the start of CCD_Setup_Startup). The "ccs.libccd.device" property
+ * is read: CCD_SIMULATE_DEVICE_SIMULATE_STRING enables the simulation, any other value (normally
+ * CCD_SIMULATE_DEVICE_ANDOR_STRING, but the old CCD_INTERFACE_DEVICE_PCI value is also accepted) or a missing
+ * property selects the real camera. When the simulation is selected, the following optional
+ * properties configure it:
+ * <ul>
+ * <li><b>ccs.libccd.simulate.ncols/nrows</b> The detector size in pixels.
+ * <li><b>ccs.libccd.simulate.bias</b> The bias level in ADU.
+ * <li><b>ccs.libccd.simulate.read_noise</b> The read noise in ADU.
+ * <li><b>ccs.libccd.simulate.sky.rate</b> The sky background in ADU/s/pixel.
+ * <li><b>ccs.libccd.simulate.sky.gradient</b> The fractional change in sky across the chip.
+ * <li><b>ccs.libccd.simulate.star.count</b> The number of stars.
+ * <li><b>ccs.libccd.simulate.star.peak_rate</b> The peak count rate of the brightest star in ADU/s.
+ * <li><b>ccs.libccd.simulate.star.fwhm</b> The FWHM of the stars in pixels.
+ * <li><b>ccs.libccd.simulate.star.jitter</b> The RMS frame to frame star field movement in pixels.
+ * <li><b>ccs.libccd.simulate.temperature.ambient</b> The CCD temperature with the cooler off.
+ * <li><b>ccs.libccd.simulate.temperature.time_constant</b> The cooling time constant in seconds.
+ * <li><b>ccs.libccd.simulate.seed</b> The random number seed.
+ * </ul>
+ * @return The routine returns TRUE if it succeeds, and FALSE if the simulation is requested but has not been
+ *         compiled into the library, or the simulated detector size is illegal.
+ * @see #Simulate_Data
+ * @see #CCD_SIMULATE_DEVICE_ANDOR_STRING
+ * @see #CCD_SIMULATE_DEVICE_SIMULATE_STRING
+ * @see ccd_global.html#rProperties
+ */
+int CCD_Simulate_Configure(void)
+{
+	char *device_string = NULL;
+	int enabled;
+
+	Simulate_Error_Number = 0;
+	enabled = FALSE;
+	if(eSTAR_Config_Get_String(&rProperties,"ccs.libccd.device",&device_string))
+	{
+		if(strcmp(device_string,CCD_SIMULATE_DEVICE_SIMULATE_STRING) == 0)
+			enabled = TRUE;
+		free(device_string);
+	}
+#ifndef CCD_SIMULATE
+	if(enabled)
+	{
+		Simulate_Error_Number = 1;
+		sprintf(Simulate_Error_String,"CCD_Simulate_Configure:Simulated device requested, "
+			"but librise_ccd was not compiled with CCD_SIMULATE.");
+		return FALSE;
+	}
+#endif
+	pthread_mutex_lock(&Simulate_Mutex);
+	Simulate_Set_Defaults();
+	Simulate_Data.Enabled = enabled;
+	if(enabled)
+	{
+		Simulate_Get_Property_Int("ccs.libccd.simulate.ncols",&(Simulate_Data.Detector_Width));
+		Simulate_Get_Property_Int("ccs.libccd.simulate.nrows",&(Simulate_Data.Detector_Height));
+		Simulate_Get_Property_Double("ccs.libccd.simulate.bias",&(Simulate_Data.Bias));
+		Simulate_Get_Property_Double("ccs.libccd.simulate.read_noise",&(Simulate_Data.Read_Noise));
+		Simulate_Get_Property_Double("ccs.libccd.simulate.sky.rate",&(Simulate_Data.Sky_Rate));
+		Simulate_Get_Property_Double("ccs.libccd.simulate.sky.gradient",&(Simulate_Data.Sky_Gradient));
+		Simulate_Get_Property_Int("ccs.libccd.simulate.star.count",&(Simulate_Data.Star_Count));
+		Simulate_Get_Property_Double("ccs.libccd.simulate.star.peak_rate",&(Simulate_Data.Star_Peak_Rate));
+		Simulate_Get_Property_Double("ccs.libccd.simulate.star.fwhm",&(Simulate_Data.Star_FWHM));
+		Simulate_Get_Property_Double("ccs.libccd.simulate.star.jitter",&(Simulate_Data.Star_Jitter));
+		Simulate_Get_Property_Double("ccs.libccd.simulate.temperature.ambient",
+					     &(Simulate_Data.Ambient_Temperature));
+		Simulate_Get_Property_Double("ccs.libccd.simulate.temperature.time_constant",
+					     &(Simulate_Data.Temperature_Time_Constant));
+		Simulate_Get_Property_Int("ccs.libccd.simulate.seed",&(Simulate_Data.Seed));
+		if(Simulate_Data.Star_Count > SIMULATE_MAX_STAR_COUNT)
+			Simulate_Data.Star_Count = SIMULATE_MAX_STAR_COUNT;
+		if(Simulate_Data.Star_Count < 0)
+			Simulate_Data.Star_Count = 0;
+		if(Simulate_Data.Temperature_Time_Constant <= 0.0)
+			Simulate_Data.Temperature_Time_Constant = 1.0;
+		if((Simulate_Data.Detector_Width <= 0)||(Simulate_Data.Detector_Height <= 0))
+		{
+			pthread_mutex_unlock(&Simulate_Mutex);
+			Simulate_Error_Number = 2;
+			sprintf(Simulate_Error_String,"CCD_Simulate_Configure:Illegal detector size %dx%d.",
+				Simulate_Data.Detector_Width,Simulate_Data.Detector_Height);
+			return FALSE;
+		}
+		Simulate_Data.Image_Width = Simulate_Data.Detector_Width;
+		Simulate_Data.Image_Height = Simulate_Data.Detector_Height;
+		Simulate_Data.Temperature = Simulate_Data.Ambient_Temperature;
+	}
+	pthread_mutex_unlock(&Simulate_Mutex);
+#if LOGGING > 0
+	if(enabled)
+	{
+		CCD_Global_Log_Format(LOG_VERBOSITY_VERBOSE,"CCD_Simulate_Configure:Using SIMULATED Andor camera "
+				      "(%dx%d,bias=%.1f,read noise=%.1f,sky=%.1f ADU/s,%d stars).",
+				      Simulate_Data.Detector_Width,Simulate_Data.Detector_Height,Simulate_Data.Bias,
+				      Simulate_Data.Read_Noise,Simulate_Data.Sky_Rate,Simulate_Data.Star_Count);
+	}
+	else
+		CCD_Global_Log(LOG_VERBOSITY_VERBOSE,"CCD_Simulate_Configure:Using Andor camera.");
+#endif
+	return TRUE;
+}
+
+/**
+ * Routine to return whether the simulated camera is in use.
+ * @return TRUE if the simulated camera is in use, FALSE if the Andor SDK is being called.
+ * @see #Simulate_Data
+ */
+int CCD_Simulate_Get_Enabled(void)
+{
+	return Simulate_Data.Enabled;
+}
+
+/**
+ * Get the current value of ccd_simulate's error number.
+ * @return The current value of ccd_simulate's error number.
+ * @see #Simulate_Error_Number
+ */
+int CCD_Simulate_Get_Error_Number(void)
+{
+	return Simulate_Error_Number;
+}
+
+/**
+ * The error routine that reports any errors occuring in ccd_simulate in a standard way.
+ * @see ccd_global.html#CCD_Global_Get_Current_Time_String
+ */
+void CCD_Simulate_Error(void)
+{
+	char time_string[32];
+
+	CCD_Global_Get_Current_Time_String(time_string,32);
+	/* if the error number is zero an error message has not been set up
+	** This is in itself an error as we should not be calling this routine
+	** without there being an error to display */
+	if(Simulate_Error_Number == 0)
+		sprintf(Simulate_Error_String,"Logic Error:No Error defined");
+	fprintf(stderr,"%s CCD_Simulate:Error(%d) : %s\n",time_string,Simulate_Error_Number,Simulate_Error_String);
+}
+
+/**
+ * The error routine that reports any errors occuring in ccd_simulate in a standard way. This routine places the
+ * generated error string at the end of a passed in string argument.
+ * @param error_string A string to put the generated error in. This string should be initialised before
+ * being passed to this routine. The routine will try to concatenate it's error string onto the end
+ * of any string already in existance.
+ * @see ccd_global.html#CCD_Global_Get_Current_Time_String
+ */
+void CCD_Simulate_Error_String(char *error_string)
+{
+	char time_string[32];
+
+	CCD_Global_Get_Current_Time_String(time_string,32);
+	if(Simulate_Error_Number == 0)
+		sprintf(Simulate_Error_String,"Logic Error:No Error defined");
+	sprintf(error_string+strlen(error_string),"%s CCD_Simulate:Error(%d) : %s\n",time_string,
+		Simulate_Error_Number,Simulate_Error_String);
+}
+
+/* ----------------------------------------------------------------------------
+** 		Andor SDK entry points
+** ---------------------------------------------------------------------------- */
+/**
+ * Simulated version of the Andor SDK GetAvailableCameras. The simulation has one camera.
+ * @param total_cameras The address of a long to store the number of cameras in.
+ * @return An Andor SDK error code.
+ */
+unsigned int CCD_Simulate_GetAvailableCameras(long *total_cameras)
+{
+	if(!Simulate_Data.Enabled)
+		return GetAvailableCameras(total_cameras);
+	(*total_cameras) = 1;
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK GetCameraHandle.
+ * @param camera_index The index of the camera.
+ * @param camera_handle The address of a long to store the camera handle in.
+ * @return An Andor SDK error code.
+ */
+unsigned int CCD_Simulate_GetCameraHandle(long camera_index,long *camera_handle)
+{
+	if(!Simulate_Data.Enabled)
+		return GetCameraHandle(camera_index,camera_handle);
+	if(camera_index != 0)
+		return DRV_P1INVALID;
+	(*camera_handle) = 100;
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK SetCurrentCamera.
+ * @param camera_handle The camera handle.
+ * @return An Andor SDK error code.
+ */
+unsigned int CCD_Simulate_SetCurrentCamera(long camera_handle)
+{
+	if(!Simulate_Data.Enabled)
+		return SetCurrentCamera(camera_handle);
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK Initialize. The simulated star field is created, and the image area reset
+ * to the full unbinned detector.
+ * @param directory The directory containing the Andor configuration files (unused by the simulation).
+ * @return An Andor SDK error code.
+ * @see #Simulate_Create_Star_Field
+ */
+unsigned int CCD_Simulate_Initialize(char *directory)
+{
+	if(!Simulate_Data.Enabled)
+		return Initialize(directory);
+	pthread_mutex_lock(&Simulate_Mutex);
+	Simulate_Data.Initialised = TRUE;
+	Simulate_Data.Acquiring = FALSE;
+	Simulate_Data.Images_Acquired = 0;
+	Simulate_Data.Images_Retrieved = 0;
+	Simulate_Data.HBin = 1;
+	Simulate_Data.VBin = 1;
+	Simulate_Data.HStart = 1;
+	Simulate_Data.VStart = 1;
+	Simulate_Data.Image_Width = Simulate_Data.Detector_Width;
+	Simulate_Data.Image_Height = Simulate_Data.Detector_Height;
+	clock_gettime(CLOCK_REALTIME,&(Simulate_Data.Temperature_Time));
+	Simulate_Create_Star_Field();
+	pthread_mutex_unlock(&Simulate_Mutex);
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK ShutDown.
+ * @return An Andor SDK error code.
+ */
+unsigned int CCD_Simulate_ShutDown(void)
+{
+	if(!Simulate_Data.Enabled)
+		return ShutDown();
+	pthread_mutex_lock(&Simulate_Mutex);
+	Simulate_Data.Initialised = FALSE;
+	Simulate_Data.Acquiring = FALSE;
+	pthread_cond_broadcast(&Simulate_Wait_Condition);
+	pthread_mutex_unlock(&Simulate_Mutex);
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK WaitForAcquisition. Waits (indefinitely) until an image has been acquired
+ * since the last acquisition event was returned, the acquisition is stopped, or CancelWait is called.
+ * @return An Andor SDK error code, DRV_NO_NEW_DATA if the wait was cancelled or the acquisition stopped.
+ * @see #CCD_Simulate_WaitForAcquisitionTimeOut
+ */
+unsigned int CCD_Simulate_WaitForAcquisition(void)
+{
+	unsigned int retval;
+
+	if(!Simulate_Data.Enabled)
+		return WaitForAcquisition();
+	do
+	{
+		retval = CCD_Simulate_WaitForAcquisitionTimeOut(1000);
+	}
+	while((retval == DRV_NO_NEW_DATA)&&Simulate_Data.Acquiring&&(!Simulate_Data.Wait_Cancelled));
+	return retval;
+}
+
+/**
+ * Simulated version of the Andor SDK WaitForAcquisitionTimeOut. Waits until an image has been acquired
+ * since the last acquisition event was returned, the acquisition is stopped, CancelWait is called, or
+ * timeout_ms milliseconds have passed. The simulated acquisition is re-checked every SIMULATE_WAIT_POLL_NS
+ * (the simulation has no readout thread to signal image arrival), but aborts and cancels wake the
+ * waiting thread immediately.
+ * @param timeout_ms The maximum time to wait, in milliseconds.
+ * @return An Andor SDK error code, DRV_SUCCESS if an image was acquired, DRV_NO_NEW_DATA if the wait
+ *         timed out, was cancelled, or the acquisition stopped.
+ * @see #Simulate_Update
+ * @see #Simulate_Wait_Condition
+ * @see #SIMULATE_WAIT_POLL_NS
+ */
+unsigned int CCD_Simulate_WaitForAcquisitionTimeOut(int timeout_ms)
+{
+	struct timespec current_time,deadline_time,wake_time;
+
+	if(!Simulate_Data.Enabled)
+		return WaitForAcquisitionTimeOut(timeout_ms);
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	clock_gettime(CLOCK_REALTIME,&deadline_time);
+	deadline_time.tv_sec += timeout_ms/CCD_GLOBAL_ONE_SECOND_MS;
+	deadline_time.tv_nsec += (timeout_ms%CCD_GLOBAL_ONE_SECOND_MS)*CCD_GLOBAL_ONE_MILLISECOND_NS;
+	if(deadline_time.tv_nsec >= CCD_GLOBBAL_ONE_SECOND_NS)
+	{
+		deadline_time.tv_sec++;
+		deadline_time.tv_nsec -= CCD_GLOBBAL_ONE_SECOND_NS;
+	}
+	pthread_mutex_lock(&Simulate_Mutex);
+	Simulate_Data.Wait_Cancelled = FALSE;
+	while(TRUE)
+	{
+		Simulate_Update();
+		if(Simulate_Data.Images_Acquired > Simulate_Data.Wait_Image_Count)
+		{
+			Simulate_Data.Wait_Image_Count = Simulate_Data.Images_Acquired;
+			pthread_mutex_unlock(&Simulate_Mutex);
+			return DRV_SUCCESS;
+		}
+		if((!Simulate_Data.Acquiring)||Simulate_Data.Wait_Cancelled)
+			break;
+		clock_gettime(CLOCK_REALTIME,&current_time);
+		if(Simulate_Time_Difference(current_time,deadline_time) <= 0.0)
+			break;
+		wake_time = current_time;
+		wake_time.tv_nsec += SIMULATE_WAIT_POLL_NS;
+		if(wake_time.tv_nsec >= CCD_GLOBBAL_ONE_SECOND_NS)
+		{
+			wake_time.tv_sec++;
+			wake_time.tv_nsec -= CCD_GLOBBAL_ONE_SECOND_NS;
+		}
+		if(Simulate_Time_Difference(wake_time,deadline_time) < 0.0)
+			wake_time = deadline_time;
+		pthread_cond_timedwait(&Simulate_Wait_Condition,&Simulate_Mutex,&wake_time);
+	}
+	pthread_mutex_unlock(&Simulate_Mutex);
+	return DRV_NO_NEW_DATA;
+}
+
+/**
+ * Simulated version of the Andor SDK CancelWait. Wakes any thread blocked in WaitForAcquisition, which then
+ * returns DRV_NO_NEW_DATA.
+ * @return An Andor SDK error code.
+ * @see #Simulate_Wait_Condition
+ */
+unsigned int CCD_Simulate_CancelWait(void)
+{
+	if(!Simulate_Data.Enabled)
+		return CancelWait();
+	pthread_mutex_lock(&Simulate_Mutex);
+	Simulate_Data.Wait_Cancelled = TRUE;
+	pthread_cond_broadcast(&Simulate_Wait_Condition);
+	pthread_mutex_unlock(&Simulate_Mutex);
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK GetDetector.
+ * @param xpixels The address of an integer to store the number of detector columns.
+ * @param ypixels The address of an integer to store the number of detector rows.
+ * @return An Andor SDK error code.
+ */
+unsigned int CCD_Simulate_GetDetector(int *xpixels,int *ypixels)
+{
+	if(!Simulate_Data.Enabled)
+		return GetDetector(xpixels,ypixels);
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	(*xpixels) = Simulate_Data.Detector_Width;
+	(*ypixels) = Simulate_Data.Detector_Height;
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK SetReadMode.
+ * @param mode The read mode (4 is image).
+ * @return An Andor SDK error code.
+ */
+unsigned int CCD_Simulate_SetReadMode(int mode)
+{
+	if(!Simulate_Data.Enabled)
+		return SetReadMode(mode);
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	if(Simulate_Data.Acquiring)
+		return DRV_ACQUIRING;
+	Simulate_Data.Read_Mode = mode;
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK SetAcquisitionMode. Mode 5 (run till abort) is simulated as a
+ * continuous series of images, all other modes are simulated as a single scan.
+ * @param mode The acquisition mode.
+ * @return An Andor SDK error code.
+ */
+unsigned int CCD_Simulate_SetAcquisitionMode(int mode)
+{
+	if(!Simulate_Data.Enabled)
+		return SetAcquisitionMode(mode);
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	if(Simulate_Data.Acquiring)
+		return DRV_ACQUIRING;
+	if((mode < 1)||(mode > 5))
+		return DRV_P1INVALID;
+	Simulate_Data.Acquisition_Mode = mode;
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK SetFrameTransferMode.
+ * @param mode 1 to turn on frame transfer, 0 to turn it off.
+ * @return An Andor SDK error code.
+ */
+unsigned int CCD_Simulate_SetFrameTransferMode(int mode)
+{
+	if(!Simulate_Data.Enabled)
+		return SetFrameTransferMode(mode);
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	if(Simulate_Data.Acquiring)
+		return DRV_ACQUIRING;
+	if((mode != 0)&&(mode != 1))
+		return DRV_P1INVALID;
+	Simulate_Data.Frame_Transfer = mode;
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK SetNumberAccumulations. Only one accumulation is simulated.
+ * @param number The number of accumulations.
+ * @return An Andor SDK error code.
+ */
+unsigned int CCD_Simulate_SetNumberAccumulations(int number)
+{
+	if(!Simulate_Data.Enabled)
+		return SetNumberAccumulations(number);
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	if(number != 1)
+		return DRV_P1INVALID;
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK SetImage.
+ * @param hbin The horizontal binning.
+ * @param vbin The vertical binning.
+ * @param hstart The first column to read out (1 based).
+ * @param hend The last column to read out (inclusive).
+ * @param vstart The first row to read out (1 based).
+ * @param vend The last row to read out (inclusive).
+ * @return An Andor SDK error code.
+ */
+unsigned int CCD_Simulate_SetImage(int hbin,int vbin,int hstart,int hend,int vstart,int vend)
+{
+	if(!Simulate_Data.Enabled)
+		return SetImage(hbin,vbin,hstart,hend,vstart,vend);
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	if(Simulate_Data.Acquiring)
+		return DRV_ACQUIRING;
+	if((hbin < 1)||(hbin > Simulate_Data.Detector_Width))
+		return DRV_P1INVALID;
+	if((vbin < 1)||(vbin > Simulate_Data.Detector_Height))
+		return DRV_P2INVALID;
+	if((hstart < 1)||(hstart > Simulate_Data.Detector_Width))
+		return DRV_P3INVALID;
+	if((hend < hstart)||(hend > Simulate_Data.Detector_Width))
+		return DRV_P4INVALID;
+	if((vstart < 1)||(vstart > Simulate_Data.Detector_Height))
+		return DRV_P5INVALID;
+	if((vend < vstart)||(vend > Simulate_Data.Detector_Height))
+		return DRV_P6INVALID;
+	pthread_mutex_lock(&Simulate_Mutex);
+	Simulate_Data.HBin = hbin;
+	Simulate_Data.VBin = vbin;
+	Simulate_Data.HStart = hstart;
+	Simulate_Data.VStart = vstart;
+	Simulate_Data.Image_Width = (hend-hstart+1)/hbin;
+	Simulate_Data.Image_Height = (vend-vstart+1)/vbin;
+	pthread_mutex_unlock(&Simulate_Mutex);
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK SetExposureTime.
+ * @param time The exposure length in seconds.
+ * @return An Andor SDK error code.
+ */
+unsigned int CCD_Simulate_SetExposureTime(float time)
+{
+	if(!Simulate_Data.Enabled)
+		return SetExposureTime(time);
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	if(Simulate_Data.Acquiring)
+		return DRV_ACQUIRING;
+	if(time < 0.0f)
+		return DRV_P1INVALID;
+	Simulate_Data.Exposure_Length = time;
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK SetShutter. Only the mode is simulated: when the shutter is permanently
+ * closed, images contain only bias and read noise.
+ * @param typ The TTL level used to open the shutter.
+ * @param mode The shutter mode, 0 fully auto, 1 permanently open or 2 permanently closed.
+ * @param closingtime The time taken to close the shutter, in milliseconds.
+ * @param openingtime The time taken to open the shutter, in milliseconds.
+ * @return An Andor SDK error code.
+ * @see #SIMULATE_SHUTTER_MODE_MAX
+ */
+unsigned int CCD_Simulate_SetShutter(int typ,int mode,int closingtime,int openingtime)
+{
+	if(!Simulate_Data.Enabled)
+		return SetShutter(typ,mode,closingtime,openingtime);
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	if(Simulate_Data.Acquiring)
+		return DRV_ACQUIRING;
+	if((typ < 0)||(typ > 1))
+		return DRV_P1INVALID;
+	if((mode < 0)||(mode > SIMULATE_SHUTTER_MODE_MAX))
+		return DRV_P2INVALID;
+	Simulate_Data.Shutter_Mode = mode;
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK SetHSSpeed.
+ * @param type The output amplifier type.
+ * @param index The index into the list of horizontal shift speeds.
+ * @return An Andor SDK error code.
+ * @see #Simulate_HS_Speed_List
+ */
+unsigned int CCD_Simulate_SetHSSpeed(int type,int index)
+{
+	if(!Simulate_Data.Enabled)
+		return SetHSSpeed(type,index);
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	if(Simulate_Data.Acquiring)
+		return DRV_ACQUIRING;
+	if((index < 0)||(index >= SIMULATE_HS_SPEED_COUNT))
+		return DRV_P2INVALID;
+	Simulate_Data.HS_Speed_Index = index;
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK SetVSSpeed.
+ * @param index The index into the list of vertical shift speeds.
+ * @return An Andor SDK error code.
+ * @see #Simulate_VS_Speed_List
+ */
+unsigned int CCD_Simulate_SetVSSpeed(int index)
+{
+	if(!Simulate_Data.Enabled)
+		return SetVSSpeed(index);
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	if(Simulate_Data.Acquiring)
+		return DRV_ACQUIRING;
+	if((index < 0)||(index >= SIMULATE_VS_SPEED_COUNT))
+		return DRV_P1INVALID;
+	Simulate_Data.VS_Speed_Index = index;
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK GetHSSpeed.
+ * @param channel The AD channel.
+ * @param type The output amplifier type.
+ * @param index The index into the list of horizontal shift speeds.
+ * @param speed The address of a float to store the speed in, in MHz.
+ * @return An Andor SDK error code.
+ * @see #Simulate_HS_Speed_List
+ */
+unsigned int CCD_Simulate_GetHSSpeed(int channel,int type,int index,float *speed)
+{
+	if(!Simulate_Data.Enabled)
+		return GetHSSpeed(channel,type,index,speed);
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	if((index < 0)||(index >= SIMULATE_HS_SPEED_COUNT))
+		return DRV_P3INVALID;
+	(*speed) = Simulate_HS_Speed_List[index];
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK GetVSSpeed.
+ * @param index The index into the list of vertical shift speeds.
+ * @param speed The address of a float to store the speed in, in microseconds per row shift.
+ * @return An Andor SDK error code.
+ * @see #Simulate_VS_Speed_List
+ */
+unsigned int CCD_Simulate_GetVSSpeed(int index,float *speed)
+{
+	if(!Simulate_Data.Enabled)
+		return GetVSSpeed(index,speed);
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	if((index < 0)||(index >= SIMULATE_VS_SPEED_COUNT))
+		return DRV_P1INVALID;
+	(*speed) = Simulate_VS_Speed_List[index];
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK GetAcquisitionTimings. The kinetic cycle time is derived from the
+ * exposure length, readout time and frame transfer setting.
+ * @param exposure The address of a float to store the actual exposure length in, in seconds.
+ * @param accumulate The address of a float to store the accumulation cycle time in, in seconds.
+ * @param kinetic The address of a float to store the kinetic cycle time in, in seconds.
+ * @return An Andor SDK error code.
+ * @see #Simulate_Kinetic_Cycle_Time
+ */
+unsigned int CCD_Simulate_GetAcquisitionTimings(float *exposure,float *accumulate,float *kinetic)
+{
+	if(!Simulate_Data.Enabled)
+		return GetAcquisitionTimings(exposure,accumulate,kinetic);
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	pthread_mutex_lock(&Simulate_Mutex);
+	(*exposure) = Simulate_Data.Exposure_Length;
+	(*kinetic) = (float)Simulate_Kinetic_Cycle_Time();
+	(*accumulate) = (*kinetic);
+	pthread_mutex_unlock(&Simulate_Mutex);
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK SetTemperature.
+ * @param temperature The target temperature in degrees centigrade.
+ * @return An Andor SDK error code.
+ */
+unsigned int CCD_Simulate_SetTemperature(int temperature)
+{
+	if(!Simulate_Data.Enabled)
+		return SetTemperature(temperature);
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	pthread_mutex_lock(&Simulate_Mutex);
+	Simulate_Update();
+	Simulate_Data.Target_Temperature = (double)temperature;
+	pthread_mutex_unlock(&Simulate_Mutex);
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK GetTemperature.
+ * @param temperature The address of an integer to store the temperature in, in degrees centigrade.
+ * @return An Andor SDK error code, DRV_TEMPERATURE_OFF, DRV_TEMPERATURE_NOT_REACHED or
+ *         DRV_TEMPERATURE_STABILIZED, or DRV_ACQUIRING if an acquisition is underway.
+ * @see #CCD_Simulate_GetTemperatureF
+ */
+unsigned int CCD_Simulate_GetTemperature(int *temperature)
+{
+	unsigned int retval;
+	float temperature_f;
+
+	if(!Simulate_Data.Enabled)
+		return GetTemperature(temperature);
+	retval = CCD_Simulate_GetTemperatureF(&temperature_f);
+	if(retval != DRV_ACQUIRING)
+		(*temperature) = (int)floor(temperature_f+0.5f);
+	return retval;
+}
+
+/**
+ * Simulated version of the Andor SDK GetTemperatureF.
+ * @param temperature The address of a float to store the temperature in, in degrees centigrade.
+ * @return An Andor SDK error code, DRV_TEMPERATURE_OFF, DRV_TEMPERATURE_NOT_REACHED or
+ *         DRV_TEMPERATURE_STABILIZED, or DRV_ACQUIRING if an acquisition is underway.
+ * @see #Simulate_Update
+ */
+unsigned int CCD_Simulate_GetTemperatureF(float *temperature)
+{
+	unsigned int retval;
+
+	if(!Simulate_Data.Enabled)
+		return GetTemperatureF(temperature);
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	pthread_mutex_lock(&Simulate_Mutex);
+	Simulate_Update();
+	if(Simulate_Data.Acquiring)
+	{
+		pthread_mutex_unlock(&Simulate_Mutex);
+		return DRV_ACQUIRING;
+	}
+	(*temperature) = (float)Simulate_Data.Temperature;
+	if(!Simulate_Data.Cooler_On)
+		retval = DRV_TEMPERATURE_OFF;
+	else if(fabs(Simulate_Data.Temperature-Simulate_Data.Target_Temperature) < SIMULATE_TEMPERATURE_STABLE_DELTA)
+		retval = DRV_TEMPERATURE_STABILIZED;
+	else
+		retval = DRV_TEMPERATURE_NOT_REACHED;
+	pthread_mutex_unlock(&Simulate_Mutex);
+	return retval;
+}
+
+/**
+ * Simulated version of the Andor SDK CoolerON.
+ * @return An Andor SDK error code.
+ */
+unsigned int CCD_Simulate_CoolerON(void)
+{
+	if(!Simulate_Data.Enabled)
+		return CoolerON();
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	pthread_mutex_lock(&Simulate_Mutex);
+	Simulate_Update();
+	Simulate_Data.Cooler_On = TRUE;
+	pthread_mutex_unlock(&Simulate_Mutex);
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK CoolerOFF.
+ * @return An Andor SDK error code.
+ */
+unsigned int CCD_Simulate_CoolerOFF(void)
+{
+	if(!Simulate_Data.Enabled)
+		return CoolerOFF();
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	pthread_mutex_lock(&Simulate_Mutex);
+	Simulate_Update();
+	Simulate_Data.Cooler_On = FALSE;
+	pthread_mutex_unlock(&Simulate_Mutex);
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK GetStatus.
+ * @param status The address of an integer to store the camera status in, DRV_ACQUIRING or DRV_IDLE.
+ * @return An Andor SDK error code.
+ * @see #Simulate_Update
+ */
+unsigned int CCD_Simulate_GetStatus(int *status)
+{
+	if(!Simulate_Data.Enabled)
+		return GetStatus(status);
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	pthread_mutex_lock(&Simulate_Mutex);
+	Simulate_Update();
+	if(Simulate_Data.Acquiring)
+		(*status) = DRV_ACQUIRING;
+	else
+		(*status) = DRV_IDLE;
+	pthread_mutex_unlock(&Simulate_Mutex);
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK StartAcquisition. The image buffer is emptied and the acquisition
+ * start time recorded. Images then become available as simulated time passes (see Simulate_Update).
+ * @return An Andor SDK error code.
+ * @see #Simulate_Update
+ */
+unsigned int CCD_Simulate_StartAcquisition(void)
+{
+	if(!Simulate_Data.Enabled)
+		return StartAcquisition();
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	pthread_mutex_lock(&Simulate_Mutex);
+	Simulate_Update();
+	if(Simulate_Data.Acquiring)
+	{
+		pthread_mutex_unlock(&Simulate_Mutex);
+		return DRV_ACQUIRING;
+	}
+	Simulate_Data.Images_Acquired = 0;
+	Simulate_Data.Images_Retrieved = 0;
+	Simulate_Data.Wait_Image_Count = 0;
+	Simulate_Data.Acquiring = TRUE;
+	clock_gettime(CLOCK_REALTIME,&(Simulate_Data.Acquisition_Start_Time));
+	pthread_mutex_unlock(&Simulate_Mutex);
+#if LOGGING > 4
+	CCD_Global_Log_Format(LOG_VERBOSITY_VERY_VERBOSE,"CCD_Simulate_StartAcquisition:mode %d,%dx%d,"
+			      "exposure %.3f s,readout %.3f s,cycle %.3f s.",Simulate_Data.Acquisition_Mode,
+			      Simulate_Data.Image_Width,Simulate_Data.Image_Height,Simulate_Data.Exposure_Length,
+			      Simulate_Readout_Time(),Simulate_Kinetic_Cycle_Time());
+#endif
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK AbortAcquisition. Images already acquired remain in the buffer.
+ * Any thread blocked in WaitForAcquisition is woken.
+ * @return An Andor SDK error code, DRV_IDLE if no acquisition was in progress.
+ * @see #Simulate_Wait_Condition
+ */
+unsigned int CCD_Simulate_AbortAcquisition(void)
+{
+	if(!Simulate_Data.Enabled)
+		return AbortAcquisition();
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	pthread_mutex_lock(&Simulate_Mutex);
+	Simulate_Update();
+	if(!Simulate_Data.Acquiring)
+	{
+		pthread_mutex_unlock(&Simulate_Mutex);
+		return DRV_IDLE;
+	}
+	Simulate_Data.Acquiring = FALSE;
+	/* wake any WaitForAcquisition, which sees the acquisition has stopped */
+	pthread_cond_broadcast(&Simulate_Wait_Condition);
+	pthread_mutex_unlock(&Simulate_Mutex);
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK GetTotalNumberImagesAcquired.
+ * @param index The address of a long to store the number of images acquired since StartAcquisition.
+ * @return An Andor SDK error code.
+ */
+unsigned int CCD_Simulate_GetTotalNumberImagesAcquired(long *index)
+{
+	if(!Simulate_Data.Enabled)
+		return GetTotalNumberImagesAcquired(index);
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	pthread_mutex_lock(&Simulate_Mutex);
+	Simulate_Update();
+	(*index) = Simulate_Data.Images_Acquired;
+	pthread_mutex_unlock(&Simulate_Mutex);
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK GetNumberNewImages.
+ * @param first The address of a long to store the (1 based) index of the oldest unretrieved image.
+ * @param last The address of a long to store the index of the newest image.
+ * @return An Andor SDK error code, DRV_NO_NEW_DATA if there are no unretrieved images.
+ */
+unsigned int CCD_Simulate_GetNumberNewImages(long *first,long *last)
+{
+	if(!Simulate_Data.Enabled)
+		return GetNumberNewImages(first,last);
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	pthread_mutex_lock(&Simulate_Mutex);
+	Simulate_Update();
+	if(Simulate_Data.Images_Retrieved >= Simulate_Data.Images_Acquired)
+	{
+		pthread_mutex_unlock(&Simulate_Mutex);
+		return DRV_NO_NEW_DATA;
+	}
+	(*first) = Simulate_Data.Images_Retrieved+1;
+	(*last) = Simulate_Data.Images_Acquired;
+	pthread_mutex_unlock(&Simulate_Mutex);
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK GetOldestImage. The oldest unretrieved image is synthesised into the array.
+ * @param array The array to fill with image data.
+ * @param size The number of pixels in the array, which must match the image size set by SetImage.
+ * @return An Andor SDK error code, DRV_P2INVALID if the size is wrong, DRV_NO_NEW_DATA if there are no
+ *         unretrieved images.
+ * @see #Simulate_Generate_Image
+ */
+unsigned int CCD_Simulate_GetOldestImage(long *array,unsigned long size)
+{
+	if(!Simulate_Data.Enabled)
+		return GetOldestImage(array,size);
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	if(array == NULL)
+		return DRV_P1INVALID;
+	pthread_mutex_lock(&Simulate_Mutex);
+	if(size != (unsigned long)(Simulate_Data.Image_Width*Simulate_Data.Image_Height))
+	{
+		pthread_mutex_unlock(&Simulate_Mutex);
+		return DRV_P2INVALID;
+	}
+	Simulate_Update();
+	if(Simulate_Data.Images_Retrieved >= Simulate_Data.Images_Acquired)
+	{
+		pthread_mutex_unlock(&Simulate_Mutex);
+		return DRV_NO_NEW_DATA;
+	}
+	Simulate_Generate_Image(array);
+	Simulate_Data.Images_Retrieved++;
+	pthread_mutex_unlock(&Simulate_Mutex);
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK GetOldestImage16. The oldest unretrieved image is synthesised, and
+ * returned as unsigned 16 bit pixels.
+ * @param array The array to fill with image data.
+ * @param size The number of pixels in the array, which must match the image size set by SetImage.
+ * @return An Andor SDK error code, DRV_P2INVALID if the size is wrong, DRV_NO_NEW_DATA if there are no
+ *         unretrieved images.
+ * @see #Simulate_Generate_Image
+ * @see #Simulate_Get_Image_Buffer
+ */
+unsigned int CCD_Simulate_GetOldestImage16(unsigned short *array,unsigned long size)
+{
+	long *image_buffer = NULL;
+	unsigned long i;
+
+	if(!Simulate_Data.Enabled)
+		return GetOldestImage16(array,size);
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	if(array == NULL)
+		return DRV_P1INVALID;
+	pthread_mutex_lock(&Simulate_Mutex);
+	if(size != (unsigned long)(Simulate_Data.Image_Width*Simulate_Data.Image_Height))
+	{
+		pthread_mutex_unlock(&Simulate_Mutex);
+		return DRV_P2INVALID;
+	}
+	Simulate_Update();
+	if(Simulate_Data.Images_Retrieved >= Simulate_Data.Images_Acquired)
+	{
+		pthread_mutex_unlock(&Simulate_Mutex);
+		return DRV_NO_NEW_DATA;
+	}
+	image_buffer = Simulate_Get_Image_Buffer(size);
+	if(image_buffer == NULL)
+	{
+		pthread_mutex_unlock(&Simulate_Mutex);
+		return DRV_ERROR_ACK;
+	}
+	Simulate_Generate_Image(image_buffer);
+	for(i = 0; i < size; i++)
+		array[i] = (unsigned short)image_buffer[i];
+	Simulate_Data.Images_Retrieved++;
+	pthread_mutex_unlock(&Simulate_Mutex);
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK GetAcquiredData. The most recently acquired image is synthesised into the
+ * array.
+ * @param array The array to fill with image data.
+ * @param size The number of pixels in the array, which must match the image size set by SetImage.
+ * @return An Andor SDK error code, DRV_ACQUIRING if the acquisition has not finished, DRV_P2INVALID if the
+ *         size is wrong, DRV_NO_NEW_DATA if no image has been acquired.
+ * @see #Simulate_Generate_Image
+ */
+unsigned int CCD_Simulate_GetAcquiredData(long *array,unsigned long size)
+{
+	if(!Simulate_Data.Enabled)
+		return GetAcquiredData(array,size);
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	if(array == NULL)
+		return DRV_P1INVALID;
+	pthread_mutex_lock(&Simulate_Mutex);
+	Simulate_Update();
+	if(Simulate_Data.Acquiring)
+	{
+		pthread_mutex_unlock(&Simulate_Mutex);
+		return DRV_ACQUIRING;
+	}
+	if(size != (unsigned long)(Simulate_Data.Image_Width*Simulate_Data.Image_Height))
+	{
+		pthread_mutex_unlock(&Simulate_Mutex);
+		return DRV_P2INVALID;
+	}
+	if(Simulate_Data.Images_Acquired < 1)
+	{
+		pthread_mutex_unlock(&Simulate_Mutex);
+		return DRV_NO_NEW_DATA;
+	}
+	Simulate_Generate_Image(array);
+	Simulate_Data.Images_Retrieved = Simulate_Data.Images_Acquired;
+	pthread_mutex_unlock(&Simulate_Mutex);
+	return DRV_SUCCESS;
+}
+
+/**
+ * Simulated version of the Andor SDK FreeInternalMemory. Any unretrieved images are discarded.
+ * @return An Andor SDK error code.
+ */
+unsigned int CCD_Simulate_FreeInternalMemory(void)
+{
+	if(!Simulate_Data.Enabled)
+		return FreeInternalMemory();
+	if(!Simulate_Data.Initialised)
+		return DRV_NOT_INITIALIZED;
+	pthread_mutex_lock(&Simulate_Mutex);
+	Simulate_Update();
+	Simulate_Data.Images_Retrieved = Simulate_Data.Images_Acquired;
+	pthread_mutex_unlock(&Simulate_Mutex);
+	return DRV_SUCCESS;
+}
+
+/* ----------------------------------------------------------------------------
+** 		internal functions
+** ---------------------------------------------------------------------------- */
+/**
+ * Reset Simulate_Data to it's default values. Should be called with Simulate_Mutex locked.
+ * @see #Simulate_Data
+ */
+static void Simulate_Set_Defaults(void)
+{
+	Simulate_Data.Enabled = FALSE;
+	Simulate_Data.Initialised = FALSE;
+	Simulate_Data.Detector_Width = 1024;
+	Simulate_Data.Detector_Height = 1024;
+	Simulate_Data.Read_Mode = 4;
+	Simulate_Data.Acquisition_Mode = 1;
+	Simulate_Data.Frame_Transfer = 0;
+	Simulate_Data.HBin = 1;
+	Simulate_Data.VBin = 1;
+	Simulate_Data.HStart = 1;
+	Simulate_Data.VStart = 1;
+	Simulate_Data.Image_Width = Simulate_Data.Detector_Width;
+	Simulate_Data.Image_Height = Simulate_Data.Detector_Height;
+	Simulate_Data.Exposure_Length = 0.0f;
+	Simulate_Data.HS_Speed_Index = 0;
+	Simulate_Data.VS_Speed_Index = 0;
+	Simulate_Data.Shutter_Mode = 0;
+	Simulate_Data.Acquiring = FALSE;
+	Simulate_Data.Acquisition_Start_Time.tv_sec = 0;
+	Simulate_Data.Acquisition_Start_Time.tv_nsec = 0;
+	Simulate_Data.Images_Acquired = 0;
+	Simulate_Data.Images_Retrieved = 0;
+	Simulate_Data.Cooler_On = FALSE;
+	Simulate_Data.Target_Temperature = 20.0;
+	Simulate_Data.Ambient_Temperature = 20.0;
+	Simulate_Data.Temperature = Simulate_Data.Ambient_Temperature;
+	clock_gettime(CLOCK_REALTIME,&(Simulate_Data.Temperature_Time));
+	Simulate_Data.Temperature_Time_Constant = 30.0;
+	Simulate_Data.Bias = 1000.0;
+	Simulate_Data.Read_Noise = 8.0;
+	Simulate_Data.Sky_Rate = 20.0;
+	Simulate_Data.Sky_Gradient = 0.1;
+	Simulate_Data.Star_Count = 50;
+	Simulate_Data.Star_Peak_Rate = 5000.0;
+	Simulate_Data.Star_FWHM = 3.0;
+	Simulate_Data.Star_Jitter = 0.5;
+	Simulate_Data.Seed = 1;
+	Simulate_Data.Random_State = 1;
+}
+
+/**
+ * Get an integer property from rProperties. If the property does not exist, the value is left unchanged.
+ * @param keyword The property keyword.
+ * @param value The address of an integer, on entry containing the default value.
+ * @see ccd_global.html#rProperties
+ */
+static void Simulate_Get_Property_Int(char *keyword,int *value)
+{
+	int property_value;
+
+	if(eSTAR_Config_Get_Int(&rProperties,keyword,&property_value))
+		(*value) = property_value;
+}
+
+/**
+ * Get a double property from rProperties. If the property does not exist, the value is left unchanged.
+ * @param keyword The property keyword.
+ * @param value The address of a double, on entry containing the default value.
+ * @see ccd_global.html#rProperties
+ */
+static void Simulate_Get_Property_Double(char *keyword,double *value)
+{
+	double property_value;
+
+	if(eSTAR_Config_Get_Double(&rProperties,keyword,&property_value))
+		(*value) = property_value;
+}
+
+/**
+ * Bring the simulated camera up to date with the current time. Should be called with Simulate_Mutex locked.
+ * <ul>
+ * <li>The CCD temperature approaches the target temperature (cooler on) or the ambient temperature (cooler off)
+ *     exponentially with time constant Temperature_Time_Constant.
+ * <li>If an acquisition is in progress, the number of images acquired is calculated from the time since
+ *     the acquisition started and the kinetic cycle time. A single scan acquisition finishes after one image.
+ *     If more images have been acquired than fit in the circular buffer, the oldest are lost.
+ * </ul>
+ * @see #Simulate_Data
+ * @see #Simulate_Kinetic_Cycle_Time
+ * @see #Simulate_Readout_Time
+ */
+static void Simulate_Update(void)
+{
+	struct timespec current_time;
+	double elapsed_time,goal_temperature,cycle_time,first_image_time;
+	long images_acquired;
+
+	clock_gettime(CLOCK_REALTIME,&current_time);
+	/* temperature */
+	elapsed_time = Simulate_Time_Difference(Simulate_Data.Temperature_Time,current_time);
+	if(elapsed_time > 0.0)
+	{
+		if(Simulate_Data.Cooler_On)
+			goal_temperature = Simulate_Data.Target_Temperature;
+		else
+			goal_temperature = Simulate_Data.Ambient_Temperature;
+		Simulate_Data.Temperature = goal_temperature+((Simulate_Data.Temperature-goal_temperature)*
+					    exp(-elapsed_time/Simulate_Data.Temperature_Time_Constant));
+		Simulate_Data.Temperature_Time = current_time;
+	}
+	/* acquisition */
+	if(Simulate_Data.Acquiring == FALSE)
+		return;
+	elapsed_time = Simulate_Time_Difference(Simulate_Data.Acquisition_Start_Time,current_time);
+	cycle_time = Simulate_Kinetic_Cycle_Time();
+	if(Simulate_Data.Acquisition_Mode == 5)
+	{
+		/* In frame transfer mode the next exposure starts whilst the last image is read out, so the
+		** first image arrives one readout after the first cycle, and then every cycle after that. */
+		if(Simulate_Data.Frame_Transfer)
+			first_image_time = cycle_time+Simulate_Readout_Time();
+		else
+			first_image_time = cycle_time;
+		if(elapsed_time < first_image_time)
+			images_acquired = 0;
+		else
+			images_acquired = 1+(long)floor((elapsed_time-first_image_time)/cycle_time);
+		Simulate_Data.Images_Acquired = images_acquired;
+		if((Simulate_Data.Images_Acquired-Simulate_Data.Images_Retrieved) > SIMULATE_BUFFER_IMAGE_COUNT)
+			Simulate_Data.Images_Retrieved = Simulate_Data.Images_Acquired-SIMULATE_BUFFER_IMAGE_COUNT;
+	}
+	else
+	{
+		if(elapsed_time >= (Simulate_Data.Exposure_Length+Simulate_Frame_Transfer_Time()+
+				    Simulate_Readout_Time()))
+		{
+			Simulate_Data.Images_Acquired = 1;
+			Simulate_Data.Acquiring = FALSE;
+		}
+	}
+}
+
+/**
+ * Calculate the time taken to read out one image, from the image size, binning and the selected horizontal and
+ * vertical shift speeds. Every detector row is shifted, and every (binned) pixel is digitised.
+ * @return The readout time in seconds.
+ * @see #Simulate_HS_Speed_List
+ * @see #Simulate_VS_Speed_List
+ */
+static double Simulate_Readout_Time(void)
+{
+	double pixel_time,row_time;
+
+	pixel_time = ((double)Simulate_Data.Image_Width*(double)Simulate_Data.Image_Height)/
+		((double)Simulate_HS_Speed_List[Simulate_Data.HS_Speed_Index]*1.0E6);
+	row_time = ((double)Simulate_Data.Image_Height*(double)Simulate_Data.VBin)*
+		((double)Simulate_VS_Speed_List[Simulate_Data.VS_Speed_Index]*1.0E-6);
+	return pixel_time+row_time;
+}
+
+/**
+ * Calculate the time taken to shift the image area into the storage area, when in frame transfer mode.
+ * @return The frame transfer time in seconds, or zero if frame transfer mode is off.
+ * @see #Simulate_VS_Speed_List
+ */
+static double Simulate_Frame_Transfer_Time(void)
+{
+	if(!Simulate_Data.Frame_Transfer)
+		return 0.0;
+	return (double)Simulate_Data.Detector_Height*
+		((double)Simulate_VS_Speed_List[Simulate_Data.VS_Speed_Index]*1.0E-6);
+}
+
+/**
+ * Calculate the kinetic cycle time, the time between successive images in run till abort mode.
+ * In frame transfer mode the exposure and readout overlap, so the cycle time is the longer of the two, plus
+ * the frame transfer time. Otherwise it is the exposure length plus the readout time.
+ * @return The kinetic cycle time in seconds.
+ * @see #Simulate_Readout_Time
+ * @see #Simulate_Frame_Transfer_Time
+ */
+static double Simulate_Kinetic_Cycle_Time(void)
+{
+	double readout_time,exposure_length;
+
+	readout_time = Simulate_Readout_Time();
+	exposure_length = (double)Simulate_Data.Exposure_Length;
+	if(Simulate_Data.Frame_Transfer)
+	{
+		if(exposure_length > readout_time)
+			return exposure_length+Simulate_Frame_Transfer_Time();
+		return readout_time+Simulate_Frame_Transfer_Time();
+	}
+	return exposure_length+readout_time;
+}
+
+/**
+ * Create the simulated star field. The random number generator is re-seeded from Simulate_Data.Seed, so the
+ * same star field (and noise) is created each time the camera is initialised. Stars are placed uniformly over the
+ * detector, with peak count rates distributed logarithmically over two decades below Star_Peak_Rate.
+ * Should be called with Simulate_Mutex locked.
+ * @see #Simulate_Data
+ */
+static void Simulate_Create_Star_Field(void)
+{
+	int i;
+
+	Simulate_Data.Random_State = (unsigned int)Simulate_Data.Seed;
+	if(Simulate_Data.Random_State == 0)
+		Simulate_Data.Random_State = 1;
+	for(i = 0; i < Simulate_Data.Star_Count; i++)
+	{
+		Simulate_Data.Star_List[i].X = Simulate_Random_Uniform()*(double)Simulate_Data.Detector_Width;
+		Simulate_Data.Star_List[i].Y = Simulate_Random_Uniform()*(double)Simulate_Data.Detector_Height;
+		Simulate_Data.Star_List[i].Peak_Rate = Simulate_Data.Star_Peak_Rate*
+			pow(10.0,-2.0*Simulate_Random_Uniform());
+	}
+}
+
+/**
+ * Synthesise one image into array, using the current exposure length, binning and image area.
+ * The noise free signal (sky with gradient plus stars) is calculated first, then the bias, read noise and
+ * photon noise (assuming a gain of one electron per ADU) are added, and the result clipped to a 16 bit range.
+ * The star field is shifted by a random amount (Star_Jitter) each image.
+ * Should be called with Simulate_Mutex locked.
+ * @param array The array to fill, of Image_Width*Image_Height pixels.
+ * @see #Simulate_Data
+ */
+static void Simulate_Generate_Image(long *array)
+{
+	double exposure_length,pixel_area,sky,sky_x,sky_y,signal,value;
+	double sigma,x_offset,y_offset,star_x,star_y,dx,dy,radius;
+	int width,height,x,y,i,x_min,x_max,y_min,y_max;
+
+	width = Simulate_Data.Image_Width;
+	height = Simulate_Data.Image_Height;
+	exposure_length = (double)Simulate_Data.Exposure_Length;
+	/* no light reaches the detector with the shutter closed */
+	if(Simulate_Data.Shutter_Mode == SIMULATE_SHUTTER_MODE_CLOSED)
+		exposure_length = 0.0;
+	pixel_area = (double)(Simulate_Data.HBin*Simulate_Data.VBin);
+	/* sky background, with a linear gradient across the chip */
+	sky = Simulate_Data.Sky_Rate*exposure_length*pixel_area;
+	for(y = 0; y < height; y++)
+	{
+		sky_y = ((double)y+0.5)/(double)height-0.5;
+		for(x = 0; x < width; x++)
+		{
+			sky_x = ((double)x+0.5)/(double)width-0.5;
+			array[(y*width)+x] = (long)(sky*(1.0+(Simulate_Data.Sky_Gradient*(sky_x+sky_y))));
+		}
+	}
+	/* stars, in binned pixel coordinates */
+	sigma = Simulate_Data.Star_FWHM/2.3548;
+	x_offset = Simulate_Random_Gaussian()*Simulate_Data.Star_Jitter;
+	y_offset = Simulate_Random_Gaussian()*Simulate_Data.Star_Jitter;
+	radius = 4.0*sigma;
+	for(i = 0; i < Simulate_Data.Star_Count; i++)
+	{
+		star_x = (Simulate_Data.Star_List[i].X+x_offset-(double)(Simulate_Data.HStart-1))/
+			(double)Simulate_Data.HBin;
+		star_y = (Simulate_Data.Star_List[i].Y+y_offset-(double)(Simulate_Data.VStart-1))/
+			(double)Simulate_Data.VBin;
+		x_min = (int)floor(star_x-(radius/(double)Simulate_Data.HBin));
+		x_max = (int)ceil(star_x+(radius/(double)Simulate_Data.HBin));
+		y_min = (int)floor(star_y-(radius/(double)Simulate_Data.VBin));
+		y_max = (int)ceil(star_y+(radius/(double)Simulate_Data.VBin));
+		if(x_min < 0)
+			x_min = 0;
+		if(y_min < 0)
+			y_min = 0;
+		if(x_max > width-1)
+			x_max = width-1;
+		if(y_max > height-1)
+			y_max = height-1;
+		for(y = y_min; y <= y_max; y++)
+		{
+			dy = (((double)y+0.5)-star_y)*(double)Simulate_Data.VBin;
+			for(x = x_min; x <= x_max; x++)
+			{
+				dx = (((double)x+0.5)-star_x)*(double)Simulate_Data.HBin;
+				array[(y*width)+x] += (long)(Simulate_Data.Star_List[i].Peak_Rate*exposure_length*
+							     pixel_area*exp(-((dx*dx)+(dy*dy))/(2.0*sigma*sigma)));
+			}
+		}
+	}
+	/* bias and noise */
+	for(i = 0; i < width*height; i++)
+	{
+		signal = (double)array[i];
+		value = Simulate_Data.Bias+signal+(Simulate_Random_Gaussian()*
+			sqrt((Simulate_Data.Read_Noise*Simulate_Data.Read_Noise)+signal));
+		if(value < 0.0)
+			value = 0.0;
+		if(value > (double)SIMULATE_PIXEL_MAX)
+			value = (double)SIMULATE_PIXEL_MAX;
+		array[i] = (long)value;
+	}
+}
+
+/**
+ * Return a scratch image buffer of at least pixel_count pixels, (re)allocating Simulate_Image_Buffer if
+ * necessary. Should be called with Simulate_Mutex locked.
+ * @param pixel_count The number of pixels needed.
+ * @return The buffer, or NULL if the allocation failed.
+ * @see #Simulate_Image_Buffer
+ * @see #Simulate_Image_Buffer_Length
+ */
+static long *Simulate_Get_Image_Buffer(size_t pixel_count)
+{
+	long *new_buffer = NULL;
+
+	if(pixel_count > Simulate_Image_Buffer_Length)
+	{
+		new_buffer = (long *)realloc(Simulate_Image_Buffer,pixel_count*sizeof(long));
+		if(new_buffer == NULL)
+			return NULL;
+		Simulate_Image_Buffer = new_buffer;
+		Simulate_Image_Buffer_Length = pixel_count;
+	}
+	return Simulate_Image_Buffer;
+}
+
+/**
+ * Return a uniformly distributed random number, using a xorshift generator on Simulate_Data.Random_State.
+ * This is used rather than rand, so that the simulation does not disturb (and is not disturbed by) other users
+ * of the C library random number generator.
+ * @return A random number in the range 0 (inclusive) to 1 (exclusive).
+ */
+static double Simulate_Random_Uniform(void)
+{
+	unsigned int x;
+
+	x = Simulate_Data.Random_State;
+	x ^= x << 13;
+	x ^= x >> 17;
+	x ^= x << 5;
+	Simulate_Data.Random_State = x;
+	return (double)(x & 0xffffff)/(double)0x1000000;
+}
+
+/**
+ * Return a normally distributed random number (mean zero, standard deviation one), using the Box-Muller method.
+ * @return A random number.
+ * @see #Simulate_Random_Uniform
+ */
+static double Simulate_Random_Gaussian(void)
+{
+	double u1,u2;
+
+	do
+	{
+		u1 = Simulate_Random_Uniform();
+	} while(u1 <= 0.0);
+	u2 = Simulate_Random_Uniform();
+	return sqrt(-2.0*log(u1))*cos(SIMULATE_TWO_PI*u2);
+}
+
+/**
+ * Return the difference between two times, in seconds.
+ * @param start_time The earlier time.
+ * @param end_time The later time.
+ * @return The time difference in seconds.
+ */
+static double Simulate_Time_Difference(struct timespec start_time,struct timespec end_time)
+{
+	return ((double)(end_time.tv_sec-start_time.tv_sec))+
+		(((double)(end_time.tv_nsec-start_time.tv_nsec))/((double)CCD_GLOBBAL_ONE_SECOND_NS));
+}
+
+/*
+** $Log: not supported by cvs2svn $
+*/
@@ -45,6 +45,7 @@
 #include "ccd_multrun.h"
 #include "ccd_temperature.h"
 #include "atmcdLXd.h"
+#include "ccd_simulate.h"
 
 
 /**
@@ -0,0 +1,239 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Ccs.
+
+    Ccs is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Ccs is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Ccs; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+/* ccd_timing.c
+** low level ccd library
+** $Header$
+*/
+/**
+ * ccd_timing.c keeps per-frame timing records, so the dead time between frames can be broken down into the
+ * stages of acquiring and saving each frame. Each frame is given a record when it is retrieved from the
+ * Andor buffer (CCD_Timing_Frame_Begin), the later stages are timestamped as they happen (CCD_Timing_Frame_Stage),
+ * possibly on a FITS writer thread, and the record is ended when the frame is saved or abandoned
+ * (CCD_Timing_Frame_End). Timestamps are taken from CLOCK_MONOTONIC, so they are not affected by NTP
+ * adjustments of the system clock.
+ * The records are kept in a fixed size ring of CCD_TIMING_FRAME_RING_SIZE records, the oldest being overwritten.
+ * A stage timestamp for a record that has already been overwritten is ignored. The records are copied out
+ * (oldest first) with CCD_Timing_Frame_Get_Records. Access to the ring is protected by a mutex, held only
+ * whilst a record is updated or copied.
+ * @author Chris Mottram
+ * @version $Revision$
+ */
+/**
+ * This hash define is needed before including source files give us POSIX.4/IEEE1003.1b-1993 prototypes.
+ */
+#define _POSIX_SOURCE 1
+/**
+ * This hash define is needed before including source files give us POSIX.4/IEEE1003.1b-1993 prototypes.
+ */
+#define _POSIX_C_SOURCE 199309L
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <pthread.h>
+#include "log_udp.h"
+#include "ccd_global.h"
+#include "ccd_timing.h"
+
+/* internal variables */
+/**
+ * Revision Control System identifier.
+ */
+static char rcsid[] = "$Id$";
+/**
+ * The ring of frame timing records. The record with sequence number s is at index (s-1) % CCD_TIMING_FRAME_RING_SIZE.
+ * @see #CCD_TIMING_FRAME_RING_SIZE
+ */
+static struct CCD_Timing_Frame_Struct Timing_Frame_Ring[CCD_TIMING_FRAME_RING_SIZE];
+/**
+ * The sequence number the next frame timing record will be given. Sequence numbers start at 1.
+ */
+static long Timing_Frame_Sequence_Next = 1;
+/**
+ * Mutex protecting Timing_Frame_Ring and Timing_Frame_Sequence_Next.
+ */
+static pthread_mutex_t Timing_Mutex = PTHREAD_MUTEX_INITIALIZER;
+
+/* internal functions */
+static long long Timing_TimeSpec_To_NS(struct timespec time);
+static struct CCD_Timing_Frame_Struct *Timing_Frame_Get(long sequence);
+
+/* ----------------------------------------------------------------------------
+** 		external functions
+** ---------------------------------------------------------------------------- */
+/**
+ * Get the current time from the clock the frame timing records use (CLOCK_MONOTONIC).
+ * @param time The address of a timespec to fill in with the current time.
+ */
+void CCD_Timing_Get_Time(struct timespec *time)
+{
+	clock_gettime(CLOCK_MONOTONIC,time);
+}
+
+/**
+ * Start a timing record for a frame that has just been retrieved from the Andor buffer. The record's
+ * IMAGE_RETRIEVED stage is set to the current time. The oldest record in the ring is overwritten.
+ * @param frame_number The frame's number in it's multrun.
+ * @param acquisition_start When the acquisition containing the frame was started, from CCD_Timing_Get_Time.
+ * @param frame_available When the frame was first seen to be available, from CCD_Timing_Get_Time.
+ * @return The sequence number of the new record, used to timestamp the rest of the frame's stages.
+ * @see #Timing_Frame_Ring
+ * @see #Timing_Frame_Sequence_Next
+ * @see #CCD_Timing_Get_Time
+ */
+long CCD_Timing_Frame_Begin(long frame_number,struct timespec acquisition_start,struct timespec frame_available)
+{
+	struct CCD_Timing_Frame_Struct *record = NULL;
+	struct timespec current_time;
+	long sequence;
+	int i;
+
+	CCD_Timing_Get_Time(&current_time);
+	pthread_mutex_lock(&Timing_Mutex);
+	sequence = Timing_Frame_Sequence_Next++;
+	record = &(Timing_Frame_Ring[(sequence-1)%CCD_TIMING_FRAME_RING_SIZE]);
+	record->Sequence = sequence;
+	record->Frame_Number = frame_number;
+	record->State = CCD_TIMING_FRAME_STATE_IN_PROGRESS;
+	for(i = 0; i < CCD_TIMING_FRAME_STAGE_COUNT; i++)
+		record->Stage_Time[i] = 0;
+	record->Stage_Time[CCD_TIMING_FRAME_STAGE_ACQUISITION_START] = Timing_TimeSpec_To_NS(acquisition_start);
+	record->Stage_Time[CCD_TIMING_FRAME_STAGE_FRAME_AVAILABLE] = Timing_TimeSpec_To_NS(frame_available);
+	record->Stage_Time[CCD_TIMING_FRAME_STAGE_IMAGE_RETRIEVED] = Timing_TimeSpec_To_NS(current_time);
+	pthread_mutex_unlock(&Timing_Mutex);
+	return sequence;
+}
+
+/**
+ * Timestamp a stage of a frame with the current time. Nothing is done if the sequence number is not
+ * positive, or the record has already been overwritten.
+ * @param sequence The sequence number of the frame's record, as returned by CCD_Timing_Frame_Begin.
+ * @param stage The stage the frame has reached.
+ * @see #Timing_Frame_Get
+ */
+void CCD_Timing_Frame_Stage(long sequence,enum CCD_TIMING_FRAME_STAGE stage)
+{
+	struct CCD_Timing_Frame_Struct *record = NULL;
+	struct timespec current_time;
+
+	if((sequence < 1)||(stage < 0)||(stage >= CCD_TIMING_FRAME_STAGE_COUNT))
+		return;
+	CCD_Timing_Get_Time(&current_time);
+	pthread_mutex_lock(&Timing_Mutex);
+	record = Timing_Frame_Get(sequence);
+	if(record != NULL)
+		record->Stage_Time[stage] = Timing_TimeSpec_To_NS(current_time);
+	pthread_mutex_unlock(&Timing_Mutex);
+}
+
+/**
+ * End a frame's timing record. If the frame was saved, the SAVE_DONE stage is set to the current time.
+ * Nothing is done if the sequence number is not positive, or the record has already been overwritten.
+ * @param sequence The sequence number of the frame's record, as returned by CCD_Timing_Frame_Begin.
+ * @param state The final state of the record, CCD_TIMING_FRAME_STATE_SAVED or CCD_TIMING_FRAME_STATE_ABANDONED.
+ * @see #Timing_Frame_Get
+ */
+void CCD_Timing_Frame_End(long sequence,enum CCD_TIMING_FRAME_STATE state)
+{
+	struct CCD_Timing_Frame_Struct *record = NULL;
+	struct timespec current_time;
+
+	if(sequence < 1)
+		return;
+	CCD_Timing_Get_Time(&current_time);
+	pthread_mutex_lock(&Timing_Mutex);
+	record = Timing_Frame_Get(sequence);
+	if(record != NULL)
+	{
+		if(state == CCD_TIMING_FRAME_STATE_SAVED)
+			record->Stage_Time[CCD_TIMING_FRAME_STAGE_SAVE_DONE] = Timing_TimeSpec_To_NS(current_time);
+		record->State = state;
+	}
+	pthread_mutex_unlock(&Timing_Mutex);
+#if LOGGING > 9
+	CCD_Global_Log_Format(LOG_VERBOSITY_VERY_VERBOSE,"CCD_Timing_Frame_End:Frame timing record %ld ended (%d).",
+			      sequence,state);
+#endif
+}
+
+/**
+ * Copy the most recent frame timing records, oldest first.
+ * @param record_list The list of records to copy into.
+ * @param record_count The number of records in record_list.
+ * @return The number of records copied. This is the smaller of record_count, CCD_TIMING_FRAME_RING_SIZE and
+ *         the number of frames started since the library was loaded.
+ * @see #Timing_Frame_Ring
+ * @see #Timing_Frame_Sequence_Next
+ */
+int CCD_Timing_Frame_Get_Records(struct CCD_Timing_Frame_Struct *record_list,int record_count)
+{
+	long sequence,count;
+	int i;
+
+	if((record_list == NULL)||(record_count < 1))
+		return 0;
+	pthread_mutex_lock(&Timing_Mutex);
+	count = Timing_Frame_Sequence_Next-1;
+	if(count > CCD_TIMING_FRAME_RING_SIZE)
+		count = CCD_TIMING_FRAME_RING_SIZE;
+	if(count > record_count)
+		count = record_count;
+	sequence = Timing_Frame_Sequence_Next-count;
+	for(i = 0; i < count; i++)
+	{
+		record_list[i] = Timing_Frame_Ring[(sequence-1)%CCD_TIMING_FRAME_RING_SIZE];
+		sequence++;
+	}
+	pthread_mutex_unlock(&Timing_Mutex);
+	return (int)count;
+}
+
+/* ----------------------------------------------------------------------------
+** 		internal functions
+** ---------------------------------------------------------------------------- */
+/**
+ * Convert a timespec to nanoseconds.
+ * @param time The time.
+ * @return The time in nanoseconds.
+ */
+static long long Timing_TimeSpec_To_NS(struct timespec time)
+{
+	return (((long long)time.tv_sec)*((long long)CCD_GLOBBAL_ONE_SECOND_NS))+((long long)time.tv_nsec);
+}
+
+/**
+ * Get the record with the specified sequence number. Timing_Mutex must be held.
+ * @param sequence The sequence number.
+ * @return The record, or NULL if it has been overwritten (or not started).
+ * @see #Timing_Frame_Ring
+ */
+static struct CCD_Timing_Frame_Struct *Timing_Frame_Get(long sequence)
+{
+	struct CCD_Timing_Frame_Struct *record = NULL;
+
+	record = &(Timing_Frame_Ring[(sequence-1)%CCD_TIMING_FRAME_RING_SIZE]);
+	if(record->Sequence != sequence)
+		return NULL;
+	return record;
+}
+
+/*
+** $Log: not supported by cvs2svn $
+*/
@@ -0,0 +1,792 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Ccs.
+
+    Ccs is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Ccs is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Ccs; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+/* ccd_writer.c
+** low level ccd library
+** $Header$
+*/
+/**
+ * ccd_writer.c is a bounded queue of image slots, drained by one or more writer threads that save each image
+ * to disk with Multrun_Exposure_Save. The multrun acquisition loop reads each image from the Andor circular buffer
+ * straight into a free slot, queues it with a copy of the per-frame multrun data, and goes back to draining the
+ * camera, so the loop is not held up by cfitsio and the disk. The writer threads are created when first needed
+ * and live for the life of the library. The queue depth and the latency from queueing an image to it being
+ * on disk are recorded, so a disk bottleneck can be seen.
+ * @author Chris Mottram
+ * @version $Revision$
+ */
+/**
+ * This hash define is needed before including source files give us POSIX.4/IEEE1003.1b-1993 prototypes.
+ */
+#define _POSIX_SOURCE 1
+/**
+ * This hash define is needed before including source files give us POSIX.4/IEEE1003.1b-1993 prototypes.
+ */
+#define _POSIX_C_SOURCE 199309L
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <pthread.h>
+#include "log_udp.h"
+#include "ccd_global.h"
+#include "ccd_buffer.h"
+#include "ccd_multrun.h"
+#include "ccd_writer.h"
+#include "ccd_timing.h"
+
+/* data types */
+/**
+ * The state of an image slot.
+ * <dl>
+ * <dt>WRITER_SLOT_FREE</dt> <dd>The slot is free to be filled.</dd>
+ * <dt>WRITER_SLOT_FILLING</dt> <dd>The slot has been given to the acquisition loop to read an image into.</dd>
+ * <dt>WRITER_SLOT_QUEUED</dt> <dd>The slot is waiting in the queue for a writer thread.</dd>
+ * <dt>WRITER_SLOT_WRITING</dt> <dd>A writer thread is saving the slot to disk.</dd>
+ * </dl>
+ */
+enum WRITER_SLOT_STATE
+{
+	WRITER_SLOT_FREE=0,WRITER_SLOT_FILLING=1,WRITER_SLOT_QUEUED=2,WRITER_SLOT_WRITING=3
+};
+
+/**
+ * Structure holding one image slot.
+ * <dl>
+ * <dt>State</dt> <dd>The state of the slot.</dd>
+ * <dt>Data</dt> <dd>The image data, NCols x NRows pixels, each Pixel_Bits wide (unsigned short or unsigned long).
+ *     This is a buffer from the ccd_buffer pool.</dd>
+ * <dt>Filename</dt> <dd>The FITS filename to save the image to.</dd>
+ * <dt>Median_Done</dt> <dd>Boolean, whether Multrun_Data.Median_Value has already been calculated. If not,
+ *     the writer thread calculates it before saving.</dd>
+ * <dt>Multrun_Data</dt> <dd>A copy of the multrun data (timestamps, temperature etc) for this image.</dd>
+ * <dt>Fits_Filename</dt> <dd>A copy of the FITS filename data (multrun and run number) for this image.</dd>
+ * <dt>Queue_Time</dt> <dd>When the slot was queued.</dd>
+ * </dl>
+ * @see #WRITER_SLOT_STATE
+ */
+struct Writer_Slot_Struct
+{
+	enum WRITER_SLOT_STATE State;
+	void *Data;
+	char Filename[128];
+	int Median_Done;
+	struct Multrun_Struct Multrun_Data;
+	struct FitsFilename Fits_Filename;
+	struct timespec Queue_Time;
+};
+
+/**
+ * Structure holding the writer queue.
+ * <dl>
+ * <dt>Slot_List</dt> <dd>The list of image slots.</dd>
+ * <dt>Slot_Count</dt> <dd>The number of image slots.</dd>
+ * <dt>NCols</dt> <dd>The number of columns in each slot's image.</dd>
+ * <dt>NRows</dt> <dd>The number of rows in each slot's image.</dd>
+ * <dt>Pixel_Bits</dt> <dd>The number of bits per pixel in each slot's image, 16 (unsigned short) or
+ *     32 (unsigned long).</dd>
+ * <dt>Queue</dt> <dd>A circular list of slot indexes waiting to be written, in the order they were queued.</dd>
+ * <dt>Queue_Head</dt> <dd>The index in Queue of the next slot to write.</dd>
+ * <dt>Queue_Count</dt> <dd>The number of slots in Queue.</dd>
+ * <dt>Writing_Count</dt> <dd>The number of slots being written by writer threads.</dd>
+ * <dt>Thread_Count</dt> <dd>The number of writer threads running.</dd>
+ * <dt>Thread_List</dt> <dd>The writer threads running, so CCD_Writer_Stop can join them.</dd>
+ * <dt>Stopping</dt> <dd>Boolean, set to TRUE by CCD_Writer_Stop to make the writer threads exit once the queue
+ *     is empty.</dd>
+ * <dt>Failed</dt> <dd>Boolean, set to TRUE if a slot failed to save since CCD_Writer_Start.</dd>
+ * <dt>Failed_Error_Number</dt> <dd>The ccd_multrun error number of the first slot that failed to save since
+ *     CCD_Writer_Start, or zero.</dd>
+ * <dt>Failed_Error_String</dt> <dd>The ccd_multrun error message of the first slot that failed to save since
+ *     CCD_Writer_Start.</dd>
+ * <dt>Queue_Depth_Peak</dt> <dd>The largest number of slots queued or being written since CCD_Writer_Start.</dd>
+ * <dt>Frame_Count</dt> <dd>The number of slots saved successfully since CCD_Writer_Start. Slots that failed to
+ *     save are not counted.</dd>
+ * <dt>Latency_Last</dt> <dd>The time from queueing to saved, of the last slot written, in milliseconds.</dd>
+ * <dt>Latency_Max</dt> <dd>The largest time from queueing to saved since CCD_Writer_Start, in milliseconds.</dd>
+ * <dt>Latency_Total</dt> <dd>The total time from queueing to saved since CCD_Writer_Start, in milliseconds.</dd>
+ * </dl>
+ * @see #Writer_Slot_Struct
+ */
+struct Writer_Struct
+{
+	struct Writer_Slot_Struct Slot_List[CCD_WRITER_SLOT_COUNT_MAX];
+	int Slot_Count;
+	int NCols;
+	int NRows;
+	int Pixel_Bits;
+	int Queue[CCD_WRITER_SLOT_COUNT_MAX];
+	int Queue_Head;
+	int Queue_Count;
+	int Writing_Count;
+	int Thread_Count;
+	pthread_t Thread_List[CCD_WRITER_THREAD_COUNT_MAX];
+	int Stopping;
+	int Failed;
+	int Failed_Error_Number;
+	char Failed_Error_String[CCD_GLOBAL_ERROR_STRING_LENGTH];
+	int Queue_Depth_Peak;
+	int Frame_Count;
+	int Latency_Last;
+	int Latency_Max;
+	double Latency_Total;
+};
+
+/* internal variables */
+/**
+ * Revision Control System identifier.
+ */
+static char rcsid[] = "$Id$";
+/**
+ * Variable holding error code of last operation performed by ccd_writer.
+ */
+static int Writer_Error_Number = 0;
+/**
+ * Local variable holding description of the last error that occured.
+ */
+static char Writer_Error_String[CCD_GLOBAL_ERROR_STRING_LENGTH] = "";
+/**
+ * The writer queue. Initially empty, with no threads running.
+ * @see #Writer_Struct
+ */
+static struct Writer_Struct Writer_Data;
+/**
+ * Mutex protecting Writer_Data, which is used by the acquisition loop and the writer threads.
+ */
+static pthread_mutex_t Writer_Mutex = PTHREAD_MUTEX_INITIALIZER;
+/**
+ * Condition signalled when a slot is queued.
+ */
+static pthread_cond_t Writer_Queued_Condition = PTHREAD_COND_INITIALIZER;
+/**
+ * Condition signalled when a slot has been written.
+ */
+static pthread_cond_t Writer_Written_Condition = PTHREAD_COND_INITIALIZER;
+
+/* internal functions */
+static void *Writer_Thread(void *user_arg);
+static int Writer_Slot_Write(int index);
+
+/* ----------------------------------------------------------------------------
+** 		external functions
+** ---------------------------------------------------------------------------- */
+/**
+ * Get the writer queue ready for a multrun. The image slots use the first slot_count buffers of the ccd_buffer
+ * pool (which is grown if it is too small), and writer threads are started until thread_count are running.
+ * The queue must be empty (i.e. CCD_Writer_Drain called after the last multrun). The failure flag and
+ * statistics are reset.
+ * @param slot_count The number of image slots, from 1 to CCD_WRITER_SLOT_COUNT_MAX.
+ * @param thread_count The number of writer threads, from 1 to CCD_WRITER_THREAD_COUNT_MAX. Threads are only
+ *        stopped by CCD_Writer_Stop, so if more than thread_count are already running they are all used.
+ * @param ncols The number of columns in each image.
+ * @param nrows The number of rows in each image.
+ * @param pixel_bits The number of bits per pixel, 16 (images are stored as unsigned short) or 32 (images are
+ *        stored as unsigned long).
+ * @return The routine returns TRUE on success and FALSE on failure.
+ * @see #Writer_Data
+ * @see #Writer_Thread
+ * @see ccd_buffer.html#CCD_Buffer_Reserve
+ * @see ccd_buffer.html#CCD_Buffer_Get
+ */
+int CCD_Writer_Start(int slot_count,int thread_count,int ncols,int nrows,int pixel_bits)
+{
+	pthread_t thread;
+	size_t pixel_size;
+	int i,retval;
+
+	Writer_Error_Number = 0;
+	if((slot_count < 1)||(slot_count > CCD_WRITER_SLOT_COUNT_MAX))
+	{
+		Writer_Error_Number = 1;
+		sprintf(Writer_Error_String,"CCD_Writer_Start:Illegal slot count %d.",slot_count);
+		return FALSE;
+	}
+	if((thread_count < 1)||(thread_count > CCD_WRITER_THREAD_COUNT_MAX))
+	{
+		Writer_Error_Number = 2;
+		sprintf(Writer_Error_String,"CCD_Writer_Start:Illegal thread count %d.",thread_count);
+		return FALSE;
+	}
+	if((ncols < 1)||(nrows < 1))
+	{
+		Writer_Error_Number = 3;
+		sprintf(Writer_Error_String,"CCD_Writer_Start:Illegal image size %d x %d.",ncols,nrows);
+		return FALSE;
+	}
+	if(pixel_bits == 16)
+		pixel_size = sizeof(unsigned short);
+	else if(pixel_bits == 32)
+		pixel_size = sizeof(unsigned long);
+	else
+	{
+		Writer_Error_Number = 13;
+		sprintf(Writer_Error_String,"CCD_Writer_Start:Illegal pixel bits %d.",pixel_bits);
+		return FALSE;
+	}
+	pthread_mutex_lock(&Writer_Mutex);
+	for(i = 0; i < Writer_Data.Slot_Count; i++)
+	{
+		if(Writer_Data.Slot_List[i].State != WRITER_SLOT_FREE)
+		{
+			pthread_mutex_unlock(&Writer_Mutex);
+			Writer_Error_Number = 4;
+			sprintf(Writer_Error_String,"CCD_Writer_Start:Slot %d is still in use (state %d).",i,
+				Writer_Data.Slot_List[i].State);
+			return FALSE;
+		}
+	}
+	/* the slot images live in the ccd_buffer pool, normally already allocated by CONFIG */
+	if(!CCD_Buffer_Reserve(slot_count,ncols*nrows*pixel_size))
+	{
+		pthread_mutex_unlock(&Writer_Mutex);
+		Writer_Error_Number = 5;
+		sprintf(Writer_Error_String,"CCD_Writer_Start:Failed to reserve %d image buffers (%d x %d x %d bits).",
+			slot_count,ncols,nrows,pixel_bits);
+		return FALSE;
+	}
+	for(i = 0; i < slot_count; i++)
+	{
+		if(!CCD_Buffer_Get(i,&(Writer_Data.Slot_List[i].Data)))
+		{
+			pthread_mutex_unlock(&Writer_Mutex);
+			Writer_Error_Number = 14;
+			sprintf(Writer_Error_String,"CCD_Writer_Start:Failed to get image buffer %d.",i);
+			return FALSE;
+		}
+		Writer_Data.Slot_List[i].State = WRITER_SLOT_FREE;
+	}
+	Writer_Data.NCols = ncols;
+	Writer_Data.NRows = nrows;
+	Writer_Data.Pixel_Bits = pixel_bits;
+	Writer_Data.Slot_Count = slot_count;
+	Writer_Data.Queue_Head = 0;
+	Writer_Data.Queue_Count = 0;
+	Writer_Data.Failed = FALSE;
+	Writer_Data.Failed_Error_Number = 0;
+	Writer_Data.Failed_Error_String[0] = '\0';
+	Writer_Data.Queue_Depth_Peak = 0;
+	Writer_Data.Frame_Count = 0;
+	Writer_Data.Latency_Last = 0;
+	Writer_Data.Latency_Max = 0;
+	Writer_Data.Latency_Total = 0.0;
+	/* start any extra writer threads */
+	while(Writer_Data.Thread_Count < thread_count)
+	{
+		retval = pthread_create(&thread,NULL,Writer_Thread,NULL);
+		if(retval != 0)
+		{
+			pthread_mutex_unlock(&Writer_Mutex);
+			Writer_Error_Number = 6;
+			sprintf(Writer_Error_String,"CCD_Writer_Start:Failed to create writer thread %d (%d).",
+				Writer_Data.Thread_Count,retval);
+			return FALSE;
+		}
+		Writer_Data.Thread_List[Writer_Data.Thread_Count] = thread;
+		Writer_Data.Thread_Count++;
+	}
+	pthread_mutex_unlock(&Writer_Mutex);
+#if LOGGING > 4
+	CCD_Global_Log_Format(LOG_VERBOSITY_VERBOSE,"CCD_Writer_Start:%d slots of %d x %d x %d bits, %d threads.",
+			      slot_count,ncols,nrows,pixel_bits,Writer_Data.Thread_Count);
+#endif
+	return TRUE;
+}
+
+/**
+ * Get a free image slot to read an image into. This routine does not block, if all the slots are queued or being
+ * written index is set to -1, and the caller should leave the image in the camera buffer and try again later.
+ * @param index The address of an integer, set on return to the index of the slot, or -1 if none are free.
+ * @param data The address of a pointer, set on return to the slot's image data (NCols x NRows pixels, of the
+ *        pixel_bits passed to CCD_Writer_Start), or NULL if none are free.
+ * @return The routine returns TRUE on success (even if no slot is free) and FALSE on failure.
+ * @see #Writer_Data
+ */
+int CCD_Writer_Slot_Get(int *index,void **data)
+{
+	int i;
+
+	Writer_Error_Number = 0;
+	if((index == NULL)||(data == NULL))
+	{
+		Writer_Error_Number = 7;
+		sprintf(Writer_Error_String,"CCD_Writer_Slot_Get:NULL argument (%p,%p).",(void*)index,(void*)data);
+		return FALSE;
+	}
+	(*index) = -1;
+	(*data) = NULL;
+	pthread_mutex_lock(&Writer_Mutex);
+	for(i = 0; i < Writer_Data.Slot_Count; i++)
+	{
+		if(Writer_Data.Slot_List[i].State == WRITER_SLOT_FREE)
+		{
+			Writer_Data.Slot_List[i].State = WRITER_SLOT_FILLING;
+			(*index) = i;
+			(*data) = Writer_Data.Slot_List[i].Data;
+			break;
+		}
+	}
+	pthread_mutex_unlock(&Writer_Mutex);
+	return TRUE;
+}
+
+/**
+ * Return a slot got with CCD_Writer_Slot_Get to the free list, without writing it (e.g. reading the image
+ * failed).
+ * @param index The index of the slot.
+ * @return The routine returns TRUE on success and FALSE on failure.
+ * @see #Writer_Data
+ */
+int CCD_Writer_Slot_Cancel(int index)
+{
+	Writer_Error_Number = 0;
+	pthread_mutex_lock(&Writer_Mutex);
+	if((index < 0)||(index >= Writer_Data.Slot_Count)||
+	   (Writer_Data.Slot_List[index].State != WRITER_SLOT_FILLING))
+	{
+		pthread_mutex_unlock(&Writer_Mutex);
+		Writer_Error_Number = 8;
+		sprintf(Writer_Error_String,"CCD_Writer_Slot_Cancel:Slot %d is not being filled.",index);
+		return FALSE;
+	}
+	Writer_Data.Slot_List[index].State = WRITER_SLOT_FREE;
+	pthread_mutex_unlock(&Writer_Mutex);
+	return TRUE;
+}
+
+/**
+ * Queue a filled slot to be written to disk by a writer thread.
+ * @param index The index of the slot, as returned by CCD_Writer_Slot_Get.
+ * @param filename The FITS filename to save the image to.
+ * @param multrun_data The multrun data to use for this image's FITS headers. A copy is taken.
+ * @param fits_filename The FITS filename data to use for this image's FITS headers. A copy is taken.
+ * @param median_done Boolean, whether multrun_data's Median_Value has already been calculated for this image.
+ *        If FALSE, the writer thread calculates it (Multrun_Exposure_Median).
+ * @return The routine returns TRUE on success and FALSE on failure.
+ * @see #Writer_Data
+ */
+int CCD_Writer_Slot_Queue(int index,char *filename,struct Multrun_Struct *multrun_data,
+			  struct FitsFilename *fits_filename,int median_done)
+{
+	struct Writer_Slot_Struct *slot = NULL;
+	int depth;
+
+	Writer_Error_Number = 0;
+	if((filename == NULL)||(multrun_data == NULL)||(fits_filename == NULL))
+	{
+		Writer_Error_Number = 9;
+		sprintf(Writer_Error_String,"CCD_Writer_Slot_Queue:NULL argument (%p,%p,%p).",(void*)filename,
+			(void*)multrun_data,(void*)fits_filename);
+		return FALSE;
+	}
+	if(strlen(filename) >= sizeof(slot->Filename))
+	{
+		Writer_Error_Number = 10;
+		sprintf(Writer_Error_String,"CCD_Writer_Slot_Queue:Filename too long (%lu).",
+			(unsigned long)strlen(filename));
+		return FALSE;
+	}
+	pthread_mutex_lock(&Writer_Mutex);
+	if((index < 0)||(index >= Writer_Data.Slot_Count)||
+	   (Writer_Data.Slot_List[index].State != WRITER_SLOT_FILLING))
+	{
+		pthread_mutex_unlock(&Writer_Mutex);
+		Writer_Error_Number = 11;
+		sprintf(Writer_Error_String,"CCD_Writer_Slot_Queue:Slot %d is not being filled.",index);
+		return FALSE;
+	}
+	slot = &(Writer_Data.Slot_List[index]);
+	strcpy(slot->Filename,filename);
+	slot->Multrun_Data = (*multrun_data);
+	slot->Fits_Filename = (*fits_filename);
+	slot->Median_Done = median_done;
+	clock_gettime(CLOCK_REALTIME,&(slot->Queue_Time));
+	slot->State = WRITER_SLOT_QUEUED;
+	Writer_Data.Queue[(Writer_Data.Queue_Head+Writer_Data.Queue_Count)%CCD_WRITER_SLOT_COUNT_MAX] = index;
+	Writer_Data.Queue_Count++;
+	depth = Writer_Data.Queue_Count+Writer_Data.Writing_Count;
+	if(depth > Writer_Data.Queue_Depth_Peak)
+		Writer_Data.Queue_Depth_Peak = depth;
+	pthread_cond_signal(&Writer_Queued_Condition);
+	pthread_mutex_unlock(&Writer_Mutex);
+#if LOGGING > 9
+	CCD_Global_Log_Format(LOG_VERBOSITY_VERY_VERBOSE,"CCD_Writer_Slot_Queue:Queued %s in slot %d (depth %d).",
+			      filename,index,depth);
+#endif
+	return TRUE;
+}
+
+/**
+ * Return whether a slot has failed to save since CCD_Writer_Start. The acquisition loop should stop if
+ * this is TRUE, the reason is returned by CCD_Writer_Get_Failure.
+ * @return TRUE if a slot failed to save, FALSE otherwise.
+ * @see #Writer_Data
+ */
+int CCD_Writer_Get_Failed(void)
+{
+	int failed;
+
+	pthread_mutex_lock(&Writer_Mutex);
+	failed = Writer_Data.Failed;
+	pthread_mutex_unlock(&Writer_Mutex);
+	return failed;
+}
+
+/**
+ * Get the ccd_multrun error of the first slot that failed to save since CCD_Writer_Start. Only the first
+ * failure is kept, as later ones are often a consequence of it, and several writer threads can fail at once.
+ * @param error_number The address of an integer, set on return to the error number, or zero if no slot failed.
+ * @param error_string A string of at least CCD_GLOBAL_ERROR_STRING_LENGTH characters, set on return to the
+ *        error message.
+ * @see #Writer_Data
+ */
+void CCD_Writer_Get_Failure(int *error_number,char *error_string)
+{
+	pthread_mutex_lock(&Writer_Mutex);
+	(*error_number) = Writer_Data.Failed_Error_Number;
+	strcpy(error_string,Writer_Data.Failed_Error_String);
+	pthread_mutex_unlock(&Writer_Mutex);
+}
+
+/**
+ * Wait until all the queued slots have been written. This should be called at the end of each multrun,
+ * before the multrun data and FITS headers are changed for the next one.
+ * @return The routine returns TRUE if all the slots written since CCD_Writer_Start were saved, and FALSE if
+ *         any of them failed.
+ * @see #Writer_Data
+ */
+int CCD_Writer_Drain(void)
+{
+	int failed;
+
+	pthread_mutex_lock(&Writer_Mutex);
+	while((Writer_Data.Queue_Count > 0)||(Writer_Data.Writing_Count > 0))
+		pthread_cond_wait(&Writer_Written_Condition,&Writer_Mutex);
+	failed = Writer_Data.Failed;
+#if LOGGING > 1
+	CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"CCD_Writer_Drain:%d frames written: peak depth %d of %d: "
+			      "latency mean %.1f ms, max %d ms.",Writer_Data.Frame_Count,Writer_Data.Queue_Depth_Peak,
+			      Writer_Data.Slot_Count,(Writer_Data.Frame_Count > 0) ?
+			      Writer_Data.Latency_Total/(double)Writer_Data.Frame_Count : 0.0,Writer_Data.Latency_Max);
+#endif
+	pthread_mutex_unlock(&Writer_Mutex);
+	return (failed == FALSE);
+}
+
+/**
+ * Get the number of slots currently queued or being written.
+ * @return The queue depth.
+ * @see #Writer_Data
+ */
+int CCD_Writer_Get_Queue_Depth(void)
+{
+	int depth;
+
+	pthread_mutex_lock(&Writer_Mutex);
+	depth = Writer_Data.Queue_Count+Writer_Data.Writing_Count;
+	pthread_mutex_unlock(&Writer_Mutex);
+	return depth;
+}
+
+/**
+ * Get the largest number of slots queued or being written at once since CCD_Writer_Start. If this
+ * reaches the slot count the acquisition loop has been waiting on the disk.
+ * @return The peak queue depth.
+ * @see #Writer_Data
+ */
+int CCD_Writer_Get_Queue_Depth_Peak(void)
+{
+	int peak;
+
+	pthread_mutex_lock(&Writer_Mutex);
+	peak = Writer_Data.Queue_Depth_Peak;
+	pthread_mutex_unlock(&Writer_Mutex);
+	return peak;
+}
+
+/**
+ * Get the time between queueing and being saved to disk, of the last slot written.
+ * @return The latency in milliseconds.
+ * @see #Writer_Data
+ */
+int CCD_Writer_Get_Latency_Last(void)
+{
+	int latency;
+
+	pthread_mutex_lock(&Writer_Mutex);
+	latency = Writer_Data.Latency_Last;
+	pthread_mutex_unlock(&Writer_Mutex);
+	return latency;
+}
+
+/**
+ * Get the largest time between queueing and being saved to disk, since CCD_Writer_Start.
+ * @return The latency in milliseconds.
+ * @see #Writer_Data
+ */
+int CCD_Writer_Get_Latency_Max(void)
+{
+	int latency;
+
+	pthread_mutex_lock(&Writer_Mutex);
+	latency = Writer_Data.Latency_Max;
+	pthread_mutex_unlock(&Writer_Mutex);
+	return latency;
+}
+
+/**
+ * Get the number of slots saved successfully since CCD_Writer_Start. Slots that failed to save are not counted.
+ * @return The number of slots.
+ * @see #Writer_Data
+ */
+int CCD_Writer_Get_Frame_Count(void)
+{
+	int count;
+
+	pthread_mutex_lock(&Writer_Mutex);
+	count = Writer_Data.Frame_Count;
+	pthread_mutex_unlock(&Writer_Mutex);
+	return count;
+}
+
+/**
+ * Reset the number of slots written to zero. Called at the start of a multrun/multflat, so a run that fails
+ * before CCD_Writer_Start is reached does not report the previous run's frame count.
+ * @see #Writer_Data
+ * @see #Writer_Mutex
+ */
+void CCD_Writer_Reset_Frame_Count(void)
+{
+	pthread_mutex_lock(&Writer_Mutex);
+	Writer_Data.Frame_Count = 0;
+	pthread_mutex_unlock(&Writer_Mutex);
+}
+
+/**
+ * Stop the writer threads. Any slots still queued are written first, then the threads exit and are joined, so
+ * no thread is still saving from the ccd_buffer pool when it is freed. This should be called on shutdown,
+ * before CCD_Buffer_Free. CCD_Writer_Start starts new threads if it is called afterwards.
+ * @return The routine returns TRUE on success and FALSE on failure.
+ * @see #Writer_Data
+ * @see #Writer_Thread
+ * @see ccd_buffer.html#CCD_Buffer_Free
+ */
+int CCD_Writer_Stop(void)
+{
+	pthread_t thread_list[CCD_WRITER_THREAD_COUNT_MAX];
+	int i,thread_count,retval,join_failed;
+
+	Writer_Error_Number = 0;
+	pthread_mutex_lock(&Writer_Mutex);
+	Writer_Data.Stopping = TRUE;
+	thread_count = Writer_Data.Thread_Count;
+	for(i = 0; i < thread_count; i++)
+		thread_list[i] = Writer_Data.Thread_List[i];
+	pthread_cond_broadcast(&Writer_Queued_Condition);
+	pthread_mutex_unlock(&Writer_Mutex);
+	join_failed = FALSE;
+	for(i = 0; i < thread_count; i++)
+	{
+		retval = pthread_join(thread_list[i],NULL);
+		if((retval != 0)&&(join_failed == FALSE))
+		{
+			join_failed = TRUE;
+			Writer_Error_Number = 15;
+			sprintf(Writer_Error_String,"CCD_Writer_Stop:Failed to join writer thread %d (%d).",i,retval);
+		}
+	}
+	pthread_mutex_lock(&Writer_Mutex);
+	Writer_Data.Thread_Count = 0;
+	Writer_Data.Stopping = FALSE;
+	pthread_mutex_unlock(&Writer_Mutex);
+#if LOGGING > 4
+	CCD_Global_Log_Format(LOG_VERBOSITY_VERBOSE,"CCD_Writer_Stop:%d writer threads stopped.",thread_count);
+#endif
+	return (join_failed == FALSE);
+}
+
+/**
+ * Get the current value of ccd_writer's error number.
+ * @return The current value of ccd_writer's error number.
+ * @see #Writer_Error_Number
+ */
+int CCD_Writer_Get_Error_Number(void)
+{
+	return Writer_Error_Number;
+}
+
+/**
+ * The error routine that reports any errors occuring in ccd_writer in a standard way.
+ * @see ccd_global.html#CCD_Global_Get_Current_Time_String
+ */
+void CCD_Writer_Error(void)
+{
+	char time_string[32];
+
+	CCD_Global_Get_Current_Time_String(time_string,32);
+	/* if the error number is zero an error message has not been set up
+	** This is in itself an error as we should not be calling this routine
+	** without there being an error to display */
+	if(Writer_Error_Number == 0)
+		sprintf(Writer_Error_String,"Logic Error:No Error defined");
+	fprintf(stderr,"%s CCD_Writer:Error(%d) : %s\n",time_string,Writer_Error_Number,Writer_Error_String);
+}
+
+/**
+ * The error routine that reports any errors occuring in ccd_writer in a standard way. This routine places the
+ * generated error string at the end of a passed in string argument.
+ * @param error_string A string to put the generated error in. This string should be initialised before
+ * being passed to this routine. The routine will try to concatenate it's error string onto the end
+ * of any string already in existance.
+ * @see ccd_global.html#CCD_Global_Get_Current_Time_String
+ */
+void CCD_Writer_Error_String(char *error_string)
+{
+	char time_string[32];
+
+	CCD_Global_Get_Current_Time_String(time_string,32);
+	if(Writer_Error_Number == 0)
+		sprintf(Writer_Error_String,"Logic Error:No Error defined");
+	sprintf(error_string+strlen(error_string),"%s CCD_Writer:Error(%d) : %s\n",time_string,
+		Writer_Error_Number,Writer_Error_String);
+}
+
+/* ----------------------------------------------------------------------------
+** 		internal functions
+** ---------------------------------------------------------------------------- */
+/**
+ * Writer thread. Waits for a slot to be queued, writes it with Writer_Slot_Write, and frees it.
+ * If the write succeeds, the frame count is incremented and the time from queueing to saved is added to the
+ * statistics. If the write fails, the Failed flag is set instead, so failed frames are not counted as written.
+ * The thread exits when CCD_Writer_Stop has been called and the queue is empty.
+ * @param user_arg Unused.
+ * @return NULL.
+ * @see #CCD_Writer_Stop
+ * @see #Writer_Data
+ * @see #Writer_Slot_Write
+ */
+static void *Writer_Thread(void *user_arg)
+{
+	struct timespec written_time;
+	struct Writer_Slot_Struct *slot = NULL;
+	int index,retval,latency;
+
+	while(TRUE)
+	{
+		pthread_mutex_lock(&Writer_Mutex);
+		while((Writer_Data.Queue_Count == 0)&&(Writer_Data.Stopping == FALSE))
+			pthread_cond_wait(&Writer_Queued_Condition,&Writer_Mutex);
+		if(Writer_Data.Queue_Count == 0)
+		{
+			pthread_mutex_unlock(&Writer_Mutex);
+			break;
+		}
+		index = Writer_Data.Queue[Writer_Data.Queue_Head];
+		Writer_Data.Queue_Head = (Writer_Data.Queue_Head+1)%CCD_WRITER_SLOT_COUNT_MAX;
+		Writer_Data.Queue_Count--;
+		Writer_Data.Writing_Count++;
+		slot = &(Writer_Data.Slot_List[index]);
+		slot->State = WRITER_SLOT_WRITING;
+		pthread_mutex_unlock(&Writer_Mutex);
+		/* write the slot without holding the mutex */
+		retval = Writer_Slot_Write(index);
+		clock_gettime(CLOCK_REALTIME,&written_time);
+		latency = (int)(((written_time.tv_sec-slot->Queue_Time.tv_sec)*CCD_GLOBAL_ONE_SECOND_MS)+
+				((written_time.tv_nsec-slot->Queue_Time.tv_nsec)/CCD_GLOBAL_ONE_MILLISECOND_NS));
+		pthread_mutex_lock(&Writer_Mutex);
+		if(retval == FALSE)
+			Writer_Data.Failed = TRUE;
+		else
+		{
+			Writer_Data.Frame_Count++;
+			Writer_Data.Latency_Last = latency;
+			if(latency > Writer_Data.Latency_Max)
+				Writer_Data.Latency_Max = latency;
+			Writer_Data.Latency_Total += (double)latency;
+		}
+		slot->State = WRITER_SLOT_FREE;
+		Writer_Data.Writing_Count--;
+		pthread_cond_broadcast(&Writer_Written_Condition);
+		pthread_mutex_unlock(&Writer_Mutex);
+#if LOGGING > 4
+		CCD_Global_Log_Format(LOG_VERBOSITY_VERBOSE,"Writer_Thread:Slot %d written (%d) in %d ms.",index,
+				      retval,latency);
+#endif
+	}
+	return NULL;
+}
+
+/**
+ * Write a slot to disk. The slot's median is calculated (if not already done) and the slot saved with
+ * Multrun_Exposure_Save, using the slot's copy of the multrun data. The median and save stages are timestamped
+ * in the frame's ccd_timing record, and the record ended. Multrun_Exposure_Save returns it's error into local
+ * variables, as other writer threads may be saving at the same time. If this is the first slot to fail since
+ * CCD_Writer_Start, the error is kept (for CCD_Writer_Get_Failure) and the ccd_writer error set.
+ * @param index The index of the slot.
+ * @return The routine returns TRUE on success and FALSE on failure.
+ * @see #Writer_Data
+ * @see ccd_multrun.html#Multrun_Exposure_Median
+ * @see ccd_multrun.html#Multrun_Exposure_Save
+ * @see #CCD_Writer_Get_Failure
+ * @see ccd_timing.html#CCD_Timing_Frame_Stage
+ * @see ccd_timing.html#CCD_Timing_Frame_End
+ */
+static int Writer_Slot_Write(int index)
+{
+	struct Writer_Slot_Struct *slot = NULL;
+	char save_error_string[CCD_GLOBAL_ERROR_STRING_LENGTH];
+	int save_error_number = 0;
+
+	slot = &(Writer_Data.Slot_List[index]);
+	save_error_string[0] = '\0';
+	if(slot->Median_Done == FALSE)
+	{
+		Multrun_Exposure_Median(slot->Data,Writer_Data.Pixel_Bits,&(slot->Multrun_Data.Median_Value));
+		CCD_Timing_Frame_Stage(slot->Multrun_Data.Frame_Timing_Sequence,CCD_TIMING_FRAME_STAGE_MEDIAN_DONE);
+#if LOGGING > 3
+		CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"Writer_Slot_Write:%s median: %.2f",
+				      slot->Filename,slot->Multrun_Data.Median_Value);
+#endif
+	}
+	if(!Multrun_Exposure_Save(slot->Filename,slot->Data,Writer_Data.Pixel_Bits,Writer_Data.NCols,
+				  Writer_Data.NRows,&(slot->Multrun_Data),&(slot->Fits_Filename),
+				  &save_error_number,save_error_string))
+	{
+		CCD_Timing_Frame_End(slot->Multrun_Data.Frame_Timing_Sequence,CCD_TIMING_FRAME_STATE_ABANDONED);
+		pthread_mutex_lock(&Writer_Mutex);
+		if(Writer_Data.Failed_Error_Number == 0)
+		{
+			Writer_Data.Failed_Error_Number = save_error_number;
+			strcpy(Writer_Data.Failed_Error_String,save_error_string);
+			Writer_Error_Number = 12;
+			sprintf(Writer_Error_String,"Writer_Slot_Write:Multrun_Exposure_Save failed to save slot %d "
+				"to %s (ccd_multrun error %d).",index,slot->Filename,save_error_number);
+		}
+		pthread_mutex_unlock(&Writer_Mutex);
+#if LOGGING > 1
+		CCD_Global_Log_Format(LOG_VERBOSITY_INTERMEDIATE,"Writer_Slot_Write:Multrun_Exposure_Save failed "
+				      "to save %s:Error(%d):%s.",slot->Filename,save_error_number,save_error_string);
+#endif
+		return FALSE;
+	}
+	CCD_Timing_Frame_End(slot->Multrun_Data.Frame_Timing_Sequence,CCD_TIMING_FRAME_STATE_SAVED);
+	return TRUE;
+}
+
+/*
+** $Log: not supported by cvs2svn $
+*/
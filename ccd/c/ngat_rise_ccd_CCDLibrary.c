@@ -45,9 +45,12 @@
 #include <time.h>
 #include "ccd_global.h"
 #include "ccd_exposure.h"
+#include "ccd_frame.h"
 #include "ccd_multrun.h"
 #include "ccd_setup.h"
 #include "ccd_temperature.h"
+#include "ccd_timing.h"
+#include "ccd_writer.h"
 #include "ngat_rise_ccd_CCDLibrary.h"
 
 /* hash definitions */
@@ -78,11 +81,36 @@ static jobject logger = NULL;
  * @see #logger
  */
 static jmethodID log_method_id = NULL;
+/**
+ * Global reference to the CCDLibrary instance currently calling CCD_Multrun_Expose_Frames, used to tell the
+ * Java layer a frame is ready.
+ * @see #CCDLibrary_Frame_Ready_Handler
+ */
+static jobject frame_library = NULL;
+/**
+ * Cached reference to the "ngat.rise.ccd.CCDLibrary" class's frameReady(int index,long frameNumber,long startTime)
+ * method. Used in conjunction with frame_library.
+ * @see #frame_library
+ */
+static jmethodID frame_ready_method_id = NULL;
+/**
+ * Global references to the direct ByteBuffers registered as frame buffers, so they cannot be garbage collected
+ * whilst the C layer holds their addresses.
+ * @see ccd_frame.html#CCD_FRAME_BUFFER_COUNT_MAX
+ */
+static jobject frame_buffer_list[CCD_FRAME_BUFFER_COUNT_MAX];
+/**
+ * The number of global references in frame_buffer_list.
+ * @see #frame_buffer_list
+ */
+static int frame_buffer_count = 0;
 
 /* internal routines */
 static void CCDLibrary_Throw_Exception(JNIEnv *env,jobject obj,char *function_name);
 static void CCDLibrary_Throw_Exception_String(JNIEnv *env,jobject obj,char *function_name,char *error_string);
 static void CCDLibrary_Log_Handler(int level,char *string);
+static void CCDLibrary_Frame_Ready_Handler(int index,long frame_number,struct timespec start_time);
+static int CCDLibrary_Frame_Buffer_Deregister_All(JNIEnv *env);
 static int CCDLibrary_Java_String_List_To_C_List(JNIEnv *env,jobject obj,jobject java_list,
 						 jstring **jni_jstring_list,int *jni_jstring_count,
 						 char ***c_list,int *c_list_count);
@@ -400,6 +428,85 @@ JNIEXPORT jstring JNICALL Java_ngat_rise_ccd_CCDLibrary_CCD_1Global_1Error_1Stri
 	return (*env)->NewStringUTF(env,error_string);
 }
 
+/**
+ * Class:     ngat_rise_ccd_CCDLibrary<br>
+ * Method:    CCD_Global_Log_Ring_Enable<br>
+ * Signature: (Z)V<br>
+ * Java Native Interface routine to select how librise_ccd log messages reach the Java layer.
+ * If enable is true the log handler is set to 
+ * <a href="ccd_global.html#CCD_Global_Log_Handler_Ring">CCD_Global_Log_Handler_Ring</a>, which queues each
+ * message in the C log ring, to be drained by CCD_Global_Log_Ring_Drain from a Java thread. Otherwise the log
+ * handler is set back to CCDLibrary_Log_Handler, which calls the Java logger on the thread doing the logging.
+ * @param env The JNI environment pointer.
+ * @param obj The instance of CCDLibrary that called this routine.
+ * @param enable Whether to log through the log ring.
+ * @see ccd_global.html#CCD_Global_Set_Log_Handler_Function
+ * @see ccd_global.html#CCD_Global_Log_Handler_Ring
+ * @see #CCDLibrary_Log_Handler
+ */
+JNIEXPORT void JNICALL Java_ngat_rise_ccd_CCDLibrary_CCD_1Global_1Log_1Ring_1Enable(JNIEnv *env,jobject obj,
+										      jboolean enable)
+{
+	if(enable)
+		CCD_Global_Set_Log_Handler_Function(CCD_Global_Log_Handler_Ring);
+	else
+		CCD_Global_Set_Log_Handler_Function(CCDLibrary_Log_Handler);
+}
+
+/**
+ * Class:     ngat_rise_ccd_CCDLibrary<br>
+ * Method:    CCD_Global_Log_Ring_Drain<br>
+ * Signature: ([I[Ljava/lang/String;)I<br>
+ * Java Native Interface routine to take a batch of messages from the C log ring. Messages are taken with
+ * <a href="ccd_global.html#CCD_Global_Log_Ring_Get">CCD_Global_Log_Ring_Get</a> until the ring is empty or
+ * the arrays are full.
+ * @param env The JNI environment pointer.
+ * @param obj The instance of CCDLibrary that called this routine.
+ * @param level_list An array, filled on return with the log levels of the messages taken.
+ * @param message_list An array (the same length as level_list), filled on return with the messages taken.
+ * @return The number of messages taken.
+ * @see ccd_global.html#CCD_Global_Log_Ring_Get
+ */
+JNIEXPORT jint JNICALL Java_ngat_rise_ccd_CCDLibrary_CCD_1Global_1Log_1Ring_1Drain(JNIEnv *env,jobject obj,
+							jintArray level_list,jobjectArray message_list)
+{
+	char message[CCD_GLOBAL_ERROR_STRING_LENGTH];
+	jstring java_string = NULL;
+	jint java_level;
+	int level,count,max_count;
+
+	max_count = (*env)->GetArrayLength(env,level_list);
+	if((*env)->GetArrayLength(env,message_list) < max_count)
+		max_count = (*env)->GetArrayLength(env,message_list);
+	count = 0;
+	while((count < max_count)&&CCD_Global_Log_Ring_Get(&level,message,CCD_GLOBAL_ERROR_STRING_LENGTH))
+	{
+		java_level = (jint)level;
+		(*env)->SetIntArrayRegion(env,level_list,count,1,&java_level);
+		java_string = (*env)->NewStringUTF(env,message);
+		(*env)->SetObjectArrayElement(env,message_list,count,java_string);
+		(*env)->DeleteLocalRef(env,java_string);
+		count++;
+	}
+	return count;
+}
+
+/**
+ * Class:     ngat_rise_ccd_CCDLibrary<br>
+ * Method:    CCD_Global_Log_Ring_Get_Drop_Count<br>
+ * Signature: ()J<br>
+ * Java Native Interface routine to get the number of log messages dropped because the C log ring was full.
+ * @param env The JNI environment pointer.
+ * @param obj The instance of CCDLibrary that called this routine.
+ * @return The number of messages dropped.
+ * @see ccd_global.html#CCD_Global_Log_Ring_Get_Drop_Count
+ */
+JNIEXPORT jlong JNICALL Java_ngat_rise_ccd_CCDLibrary_CCD_1Global_1Log_1Ring_1Get_1Drop_1Count(JNIEnv *env,
+											       jobject obj)
+{
+	return (jlong)CCD_Global_Log_Ring_Get_Drop_Count();
+}
+
 /* ------------------------------------------------------------------------------
 ** 		ccd_multrun.c
 ** ------------------------------------------------------------------------------ */
@@ -569,6 +676,262 @@ JNIEXPORT jint JNICALL Java_ngat_rise_ccd_CCDLibrary_CCD_1Multrun_1Get_1Elapsed_
 	return CCD_Multrun_Get_Elapsed_Exposure_Time();
 }
 
+/**
+ * Class:     ngat_rise_ccd_CCDLibrary<br>
+ * Method:    CCD_Multrun_Get_Status_Snapshot<br>
+ * Signature: ([J)V<br>
+ * Java Native Interface routine to copy the status data GET_STATUS reports into a Java array, in one call.
+ * The data is copied into the array with one SetLongArrayRegion call. The array indices are the
+ * CCD_MULTRUN_STATUS_SNAPSHOT constants in CCDLibrary.java (via the generated header). The exposure start time
+ * is converted to milliseconds since the EPOCH.
+ * @param env The JNI environment pointer.
+ * @param obj The instance of CCDLibrary that called this routine.
+ * @param snapshot An array of at least CCD_MULTRUN_STATUS_SNAPSHOT_COUNT longs, filled on return with the
+ *        status data.
+ * @see ccd_multrun.html#CCD_Multrun_Get_Status_Snapshot
+ * @see #CCDLibrary_Throw_Exception_String
+ */
+JNIEXPORT void JNICALL Java_ngat_rise_ccd_CCDLibrary_CCD_1Multrun_1Get_1Status_1Snapshot(JNIEnv *env,jobject obj,
+											  jlongArray snapshot)
+{
+	struct CCD_Multrun_Status_Struct status;
+	jlong java_snapshot[ngat_rise_ccd_CCDLibrary_CCD_MULTRUN_STATUS_SNAPSHOT_COUNT];
+
+	if((*env)->GetArrayLength(env,snapshot) < ngat_rise_ccd_CCDLibrary_CCD_MULTRUN_STATUS_SNAPSHOT_COUNT)
+	{
+		CCDLibrary_Throw_Exception_String(env,obj,"CCD_Multrun_Get_Status_Snapshot",
+						  "Snapshot array too short.");
+		return;
+	}
+	CCD_Multrun_Get_Status_Snapshot(&status);
+	java_snapshot[ngat_rise_ccd_CCDLibrary_CCD_MULTRUN_STATUS_SNAPSHOT_EXPOSURE_STATUS] =
+		(jlong)status.Exposure_Status;
+	java_snapshot[ngat_rise_ccd_CCDLibrary_CCD_MULTRUN_STATUS_SNAPSHOT_EXPOSURE_NUMBER] =
+		(jlong)status.Exposure_Number;
+	java_snapshot[ngat_rise_ccd_CCDLibrary_CCD_MULTRUN_STATUS_SNAPSHOT_EXPOSURE_LENGTH] =
+		(jlong)status.Exposure_Length;
+	java_snapshot[ngat_rise_ccd_CCDLibrary_CCD_MULTRUN_STATUS_SNAPSHOT_EXPOSURE_START_TIME] =
+		(((jlong)status.Exposure_Start_Time.tv_sec)*((jlong)1000L))+
+		(((jlong)status.Exposure_Start_Time.tv_nsec)/((jlong)1000000L));
+	java_snapshot[ngat_rise_ccd_CCDLibrary_CCD_MULTRUN_STATUS_SNAPSHOT_ELAPSED_EXPOSURE_TIME] =
+		(jlong)status.Elapsed_Exposure_Time;
+	java_snapshot[ngat_rise_ccd_CCDLibrary_CCD_MULTRUN_STATUS_SNAPSHOT_NCOLS] = (jlong)status.NCols;
+	java_snapshot[ngat_rise_ccd_CCDLibrary_CCD_MULTRUN_STATUS_SNAPSHOT_NROWS] = (jlong)status.NRows;
+	java_snapshot[ngat_rise_ccd_CCDLibrary_CCD_MULTRUN_STATUS_SNAPSHOT_NSBIN] = (jlong)status.NSBin;
+	java_snapshot[ngat_rise_ccd_CCDLibrary_CCD_MULTRUN_STATUS_SNAPSHOT_NPBIN] = (jlong)status.NPBin;
+	java_snapshot[ngat_rise_ccd_CCDLibrary_CCD_MULTRUN_STATUS_SNAPSHOT_WINDOW_FLAGS] = (jlong)status.Window_Flags;
+	java_snapshot[ngat_rise_ccd_CCDLibrary_CCD_MULTRUN_STATUS_SNAPSHOT_SETUP_COMPLETE] =
+		(jlong)status.Setup_Complete;
+	java_snapshot[ngat_rise_ccd_CCDLibrary_CCD_MULTRUN_STATUS_SNAPSHOT_SETUP_IN_PROGRESS] =
+		(jlong)status.Setup_In_Progress;
+	java_snapshot[ngat_rise_ccd_CCDLibrary_CCD_MULTRUN_STATUS_SNAPSHOT_WRITER_QUEUE_DEPTH] =
+		(jlong)status.Writer_Queue_Depth;
+	java_snapshot[ngat_rise_ccd_CCDLibrary_CCD_MULTRUN_STATUS_SNAPSHOT_WRITER_QUEUE_DEPTH_PEAK] =
+		(jlong)status.Writer_Queue_Depth_Peak;
+	java_snapshot[ngat_rise_ccd_CCDLibrary_CCD_MULTRUN_STATUS_SNAPSHOT_WRITER_LATENCY_LAST] =
+		(jlong)status.Writer_Latency_Last;
+	java_snapshot[ngat_rise_ccd_CCDLibrary_CCD_MULTRUN_STATUS_SNAPSHOT_WRITER_LATENCY_MAX] =
+		(jlong)status.Writer_Latency_Max;
+	java_snapshot[ngat_rise_ccd_CCDLibrary_CCD_MULTRUN_STATUS_SNAPSHOT_WRITER_FRAME_COUNT] =
+		(jlong)status.Writer_Frame_Count;
+	(*env)->SetLongArrayRegion(env,snapshot,0,ngat_rise_ccd_CCDLibrary_CCD_MULTRUN_STATUS_SNAPSHOT_COUNT,
+				   java_snapshot);
+}
+
+/**
+ * Class:     ngat_rise_ccd_CCDLibrary<br>
+ * Method:    CCD_Multrun_Expose_Frames<br>
+ * Signature: (ZIJ)V<br>
+ * Java Native Interface routine to do a multrun, delivering each frame into the registered frame buffers.
+ * The frame ready handler is set to CCDLibrary_Frame_Ready_Handler for the duration of the call, and a
+ * global reference to obj kept so the handler can call its frameReady method.
+ * <a href="ccd_multrun.html#CCD_Multrun_Expose_Frames">CCD_Multrun_Expose_Frames</a> is called to perform
+ * the exposures. If an error occurs a CCDLibraryNativeException is thrown.
+ * @param env The JNI environment pointer.
+ * @param obj The instance of CCDLibrary that called this routine.
+ * @param open_shutter Whether to open the shutter or not.
+ * @param exposureTime The length of exposure to do, in milliseconds.
+ * @param exposures The number of exposures to carry out.
+ * @see ccd_multrun.html#CCD_Multrun_Expose_Frames
+ * @see ccd_frame.html#CCD_Frame_Set_Ready_Handler_Function
+ * @see #CCDLibrary_Frame_Ready_Handler
+ * @see #frame_library
+ * @see #frame_ready_method_id
+ * @see #CCDLibrary_Throw_Exception
+ */
+JNIEXPORT void JNICALL Java_ngat_rise_ccd_CCDLibrary_CCD_1Multrun_1Expose_1Frames(JNIEnv *env,jobject obj,
+     jboolean open_shutter,jint exposureTime,jlong exposures)
+{
+	jclass cls = NULL;
+	int retval;
+
+	cls = (*env)->GetObjectClass(env,obj);
+	frame_ready_method_id = (*env)->GetMethodID(env,cls,"frameReady","(IJJ)V");
+	if(frame_ready_method_id == NULL)
+	{
+		/* One of the following exceptions has been thrown:
+		** NoSuchMethodError, ExceptionInInitializerError, OutOfMemoryError */
+		return;
+	}
+	frame_library = (*env)->NewGlobalRef(env,obj);
+	CCD_Frame_Set_Ready_Handler_Function(CCDLibrary_Frame_Ready_Handler);
+	retval = CCD_Multrun_Expose_Frames(open_shutter,exposureTime,exposures);
+	CCD_Frame_Set_Ready_Handler_Function(NULL);
+	(*env)->DeleteGlobalRef(env,frame_library);
+	frame_library = NULL;
+	/* if an error occured throw an exception. */
+	if(retval == FALSE)
+	{
+		CCDLibrary_Throw_Exception(env,obj,"CCD_Multrun_Expose_Frames");
+	}
+}
+
+/**
+ * Class:     ngat_rise_ccd_CCDLibrary<br>
+ * Method:    CCD_Multrun_Filename_Set_Multrun<br>
+ * Signature: (I)V<br>
+ * Java Native Interface routine to set the multrun number the Java layer has allocated for the next multrun.
+ * @param env The JNI environment pointer.
+ * @param obj The instance of CCDLibrary that called this routine.
+ * @param multrunNumber The multrun number.
+ * @see ccd_multrun.html#CCD_Multrun_Filename_Set_Multrun
+ */
+JNIEXPORT void JNICALL Java_ngat_rise_ccd_CCDLibrary_CCD_1Multrun_1Filename_1Set_1Multrun(JNIEnv *env,jobject obj,
+											jint multrunNumber)
+{
+	CCD_Multrun_Filename_Set_Multrun(multrunNumber);
+}
+
+/**
+ * Class:     ngat_rise_ccd_CCDLibrary<br>
+ * Method:    CCD_Multrun_Filename_Get_Multrun<br>
+ * Signature: ()I<br>
+ * Java Native Interface routine to get the last multrun number allocated by the C layer.
+ * If an error occurs a CCDLibraryNativeException is thrown.
+ * @param env The JNI environment pointer.
+ * @param obj The instance of CCDLibrary that called this routine.
+ * @return The multrun number.
+ * @see ccd_multrun.html#CCD_Multrun_Filename_Get_Multrun
+ * @see #CCDLibrary_Throw_Exception
+ */
+JNIEXPORT jint JNICALL Java_ngat_rise_ccd_CCDLibrary_CCD_1Multrun_1Filename_1Get_1Multrun(JNIEnv *env,jobject obj)
+{
+	int multrun_number = 0;
+
+	if(!CCD_Multrun_Filename_Get_Multrun(&multrun_number))
+		CCDLibrary_Throw_Exception(env,obj,"CCD_Multrun_Filename_Get_Multrun");
+	return multrun_number;
+}
+
+/* ------------------------------------------------------------------------------
+** 		ccd_frame.c
+** ------------------------------------------------------------------------------ */
+/**
+ * Class:     ngat_rise_ccd_CCDLibrary<br>
+ * Method:    CCD_Frame_Buffer_Register<br>
+ * Signature: ([Ljava/nio/ByteBuffer;)V<br>
+ * Java Native Interface routine to register a list of direct ByteBuffers as the frame buffer pool.
+ * Any previously registered buffers are deregistered first. The address of each buffer is retrieved with
+ * GetDirectBufferAddress and passed to
+ * <a href="ccd_frame.html#CCD_Frame_Buffer_Register">CCD_Frame_Buffer_Register</a>, and a global reference
+ * kept to the buffer so it stays valid. If an error occurs a CCDLibraryNativeException is thrown, and any buffers
+ * registered by this call are deregistered again.
+ * @param env The JNI environment pointer.
+ * @param obj The instance of CCDLibrary that called this routine.
+ * @param buffers An array of direct ByteBuffers.
+ * @see ccd_frame.html#CCD_Frame_Buffer_Deregister_All
+ * @see ccd_frame.html#CCD_Frame_Buffer_Register
+ * @see #frame_buffer_list
+ * @see #frame_buffer_count
+ * @see #CCDLibrary_Frame_Buffer_Deregister_All
+ * @see #CCDLibrary_Throw_Exception
+ * @see #CCDLibrary_Throw_Exception_String
+ */
+JNIEXPORT void JNICALL Java_ngat_rise_ccd_CCDLibrary_CCD_1Frame_1Buffer_1Register(JNIEnv *env,jobject obj,
+										  jobjectArray buffers)
+{
+	char error_string[CCD_GLOBAL_ERROR_STRING_LENGTH];
+	jobject buffer = NULL;
+	void *buffer_address = NULL;
+	jlong buffer_capacity;
+	int i,count;
+
+	if(!CCDLibrary_Frame_Buffer_Deregister_All(env))
+	{
+		CCDLibrary_Throw_Exception(env,obj,"CCD_Frame_Buffer_Register");
+		return;
+	}
+	if(buffers == NULL)
+		return;
+	count = (*env)->GetArrayLength(env,buffers);
+	if(count > CCD_FRAME_BUFFER_COUNT_MAX)
+	{
+		sprintf(error_string,"Too many frame buffers (%d > %d).",count,CCD_FRAME_BUFFER_COUNT_MAX);
+		CCDLibrary_Throw_Exception_String(env,obj,"CCD_Frame_Buffer_Register",error_string);
+		return;
+	}
+	for(i = 0; i < count; i++)
+	{
+		buffer = (*env)->GetObjectArrayElement(env,buffers,i);
+		buffer_address = (*env)->GetDirectBufferAddress(env,buffer);
+		buffer_capacity = (*env)->GetDirectBufferCapacity(env,buffer);
+		if((buffer_address == NULL)||(buffer_capacity < 0))
+		{
+			sprintf(error_string,"Frame buffer %d is not a direct buffer.",i);
+			CCDLibrary_Throw_Exception_String(env,obj,"CCD_Frame_Buffer_Register",error_string);
+			(*env)->DeleteLocalRef(env,buffer);
+			CCDLibrary_Frame_Buffer_Deregister_All(env);
+			return;
+		}
+		if(!CCD_Frame_Buffer_Register(i,(unsigned short *)buffer_address,
+					      (size_t)(buffer_capacity/sizeof(unsigned short))))
+		{
+			/* throw first, so the exception has ccd_frame's error, then deregister the earlier buffers */
+			CCDLibrary_Throw_Exception(env,obj,"CCD_Frame_Buffer_Register");
+			(*env)->DeleteLocalRef(env,buffer);
+			CCDLibrary_Frame_Buffer_Deregister_All(env);
+			return;
+		}
+		frame_buffer_list[i] = (*env)->NewGlobalRef(env,buffer);
+		frame_buffer_count = i+1;
+		(*env)->DeleteLocalRef(env,buffer);
+	}
+}
+
+/**
+ * Class:     ngat_rise_ccd_CCDLibrary<br>
+ * Method:    CCD_Frame_Buffer_Release<br>
+ * Signature: (I)V<br>
+ * Java Native Interface routine to release a frame buffer back to the pool, once the Java layer has finished
+ * with the frame in it.
+ * <a href="ccd_frame.html#CCD_Frame_Buffer_Release">CCD_Frame_Buffer_Release</a> is called.
+ * If an error occurs a CCDLibraryNativeException is thrown.
+ * @param env The JNI environment pointer.
+ * @param obj The instance of CCDLibrary that called this routine.
+ * @param index The index of the frame buffer to release.
+ * @see ccd_frame.html#CCD_Frame_Buffer_Release
+ * @see #CCDLibrary_Throw_Exception
+ */
+JNIEXPORT void JNICALL Java_ngat_rise_ccd_CCDLibrary_CCD_1Frame_1Buffer_1Release(JNIEnv *env,jobject obj,jint index)
+{
+	if(!CCD_Frame_Buffer_Release(index))
+	{
+		CCDLibrary_Throw_Exception(env,obj,"CCD_Frame_Buffer_Release");
+	}
+}
+
+/**
+ * Class:     ngat_rise_ccd_CCDLibrary<br>
+ * Method:    CCD_Frame_Get_Error_Number<br>
+ * Signature: ()I<br>
+ * Java Native Interface routine to get the error number for ccd_frame.
+ * @see ccd_frame.html#CCD_Frame_Get_Error_Number
+ */
+JNIEXPORT jint JNICALL Java_ngat_rise_ccd_CCDLibrary_CCD_1Frame_1Get_1Error_1Number(JNIEnv *env,jobject obj)
+{
+	return CCD_Frame_Get_Error_Number();
+}
+
 /* ------------------------------------------------------------------------------
 ** 		ccd_setup.c
 ** ------------------------------------------------------------------------------ */
@@ -1055,6 +1418,159 @@ JNIEXPORT jint JNICALL Java_ngat_rise_ccd_CCDLibrary_CCD_1Temperature_1Get_1Erro
 	return CCD_Temperature_Get_Error_Number();
 }
 
+/* ------------------------------------------------------------------------------
+** 		ccd_writer.c
+** ------------------------------------------------------------------------------ */
+/**
+ * Class:     ngat_rise_ccd_CCDLibrary<br>
+ * Method:    CCD_Writer_Get_Queue_Depth<br>
+ * Signature: ()I<br>
+ * Java Native Interface routine to get the number of images currently queued or being written by the FITS writer threads.
+ * @return The queue depth.
+ * @see ccd_writer.html#CCD_Writer_Get_Queue_Depth
+ */
+JNIEXPORT jint JNICALL Java_ngat_rise_ccd_CCDLibrary_CCD_1Writer_1Get_1Queue_1Depth(JNIEnv *env, jobject obj)
+{
+	return CCD_Writer_Get_Queue_Depth();
+}
+
+/**
+ * Class:     ngat_rise_ccd_CCDLibrary<br>
+ * Method:    CCD_Writer_Get_Queue_Depth_Peak<br>
+ * Signature: ()I<br>
+ * Java Native Interface routine to get the largest number of images queued or being written at once, during the last multrun.
+ * @return The peak queue depth.
+ * @see ccd_writer.html#CCD_Writer_Get_Queue_Depth_Peak
+ */
+JNIEXPORT jint JNICALL Java_ngat_rise_ccd_CCDLibrary_CCD_1Writer_1Get_1Queue_1Depth_1Peak(JNIEnv *env, jobject obj)
+{
+	return CCD_Writer_Get_Queue_Depth_Peak();
+}
+
+/**
+ * Class:     ngat_rise_ccd_CCDLibrary<br>
+ * Method:    CCD_Writer_Get_Latency_Last<br>
+ * Signature: ()I<br>
+ * Java Native Interface routine to get the time between queueing and being saved to disk of the last image written.
+ * @return The latency in milliseconds.
+ * @see ccd_writer.html#CCD_Writer_Get_Latency_Last
+ */
+JNIEXPORT jint JNICALL Java_ngat_rise_ccd_CCDLibrary_CCD_1Writer_1Get_1Latency_1Last(JNIEnv *env, jobject obj)
+{
+	return CCD_Writer_Get_Latency_Last();
+}
+
+/**
+ * Class:     ngat_rise_ccd_CCDLibrary<br>
+ * Method:    CCD_Writer_Get_Latency_Max<br>
+ * Signature: ()I<br>
+ * Java Native Interface routine to get the largest time between queueing and being saved to disk, during the last multrun.
+ * @return The latency in milliseconds.
+ * @see ccd_writer.html#CCD_Writer_Get_Latency_Max
+ */
+JNIEXPORT jint JNICALL Java_ngat_rise_ccd_CCDLibrary_CCD_1Writer_1Get_1Latency_1Max(JNIEnv *env, jobject obj)
+{
+	return CCD_Writer_Get_Latency_Max();
+}
+
+/**
+ * Class:     ngat_rise_ccd_CCDLibrary<br>
+ * Method:    CCD_Writer_Get_Frame_Count<br>
+ * Signature: ()I<br>
+ * Java Native Interface routine to get the number of images written by the FITS writer threads during the last multrun.
+ * @return The number of images.
+ * @see ccd_writer.html#CCD_Writer_Get_Frame_Count
+ */
+JNIEXPORT jint JNICALL Java_ngat_rise_ccd_CCDLibrary_CCD_1Writer_1Get_1Frame_1Count(JNIEnv *env, jobject obj)
+{
+	return CCD_Writer_Get_Frame_Count();
+}
+
+/**
+ * Class:     ngat_rise_ccd_CCDLibrary<br>
+ * Method:    CCD_Writer_Get_Error_Number<br>
+ * Signature: ()I<br>
+ * Java Native Interface routine to get the error number for the ccd_writer part of the library.
+ * @return The current error number of ccd_writer. A zero error number means an error has not occured.
+ * @see ccd_writer.html#CCD_Writer_Get_Error_Number
+ */
+JNIEXPORT jint JNICALL Java_ngat_rise_ccd_CCDLibrary_CCD_1Writer_1Get_1Error_1Number(JNIEnv *env, jobject obj)
+{
+	return CCD_Writer_Get_Error_Number();
+}
+
+/* ------------------------------------------------------------------------------
+** 		ccd_timing.c
+** ------------------------------------------------------------------------------ */
+/**
+ * Class:     ngat_rise_ccd_CCDLibrary<br>
+ * Method:    CCD_Timing_Frame_Get_Records<br>
+ * Signature: ([J)I<br>
+ * Java Native Interface routine to copy the most recent frame timing records into a Java array, in one call.
+ * Each record takes CCD_TIMING_FRAME_FIELD_COUNT longs, indexed by the CCD_TIMING_FRAME_FIELD constants
+ * in CCDLibrary.java (via the generated header), oldest record first. As many records are copied as will fit
+ * in the array. The records are copied into the array with one SetLongArrayRegion call.
+ * @param env The JNI environment pointer.
+ * @param obj The instance of CCDLibrary that called this routine.
+ * @param record_list An array of longs, to fill with the records.
+ * @return The number of records copied.
+ * @see ccd_timing.html#CCD_Timing_Frame_Get_Records
+ * @see #CCDLibrary_Throw_Exception_String
+ */
+JNIEXPORT jint JNICALL Java_ngat_rise_ccd_CCDLibrary_CCD_1Timing_1Frame_1Get_1Records(JNIEnv *env,jobject obj,
+										       jlongArray record_list)
+{
+	struct CCD_Timing_Frame_Struct *c_record_list = NULL;
+	jlong *java_record_list = NULL;
+	jlong *java_record = NULL;
+	int record_count,i,j;
+
+	record_count = (*env)->GetArrayLength(env,record_list)/ngat_rise_ccd_CCDLibrary_CCD_TIMING_FRAME_FIELD_COUNT;
+	if(record_count < 1)
+	{
+		CCDLibrary_Throw_Exception_String(env,obj,"CCD_Timing_Frame_Get_Records","Record array too short.");
+		return 0;
+	}
+	if(record_count > CCD_TIMING_FRAME_RING_SIZE)
+		record_count = CCD_TIMING_FRAME_RING_SIZE;
+	c_record_list = (struct CCD_Timing_Frame_Struct *)malloc(record_count*sizeof(struct CCD_Timing_Frame_Struct));
+	java_record_list = (jlong *)malloc(record_count*ngat_rise_ccd_CCDLibrary_CCD_TIMING_FRAME_FIELD_COUNT*
+					   sizeof(jlong));
+	if((c_record_list == NULL)||(java_record_list == NULL))
+	{
+		if(c_record_list != NULL)
+			free(c_record_list);
+		if(java_record_list != NULL)
+			free(java_record_list);
+		CCDLibrary_Throw_Exception_String(env,obj,"CCD_Timing_Frame_Get_Records",
+						  "Failed to allocate record lists.");
+		return 0;
+	}
+	record_count = CCD_Timing_Frame_Get_Records(c_record_list,record_count);
+	for(i = 0; i < record_count; i++)
+	{
+		java_record = java_record_list+(i*ngat_rise_ccd_CCDLibrary_CCD_TIMING_FRAME_FIELD_COUNT);
+		java_record[ngat_rise_ccd_CCDLibrary_CCD_TIMING_FRAME_FIELD_SEQUENCE] = (jlong)c_record_list[i].Sequence;
+		java_record[ngat_rise_ccd_CCDLibrary_CCD_TIMING_FRAME_FIELD_FRAME_NUMBER] =
+			(jlong)c_record_list[i].Frame_Number;
+		java_record[ngat_rise_ccd_CCDLibrary_CCD_TIMING_FRAME_FIELD_STATE] = (jlong)c_record_list[i].State;
+		for(j = 0; j < CCD_TIMING_FRAME_STAGE_COUNT; j++)
+		{
+			java_record[ngat_rise_ccd_CCDLibrary_CCD_TIMING_FRAME_FIELD_STAGE_TIME+j] =
+				(jlong)c_record_list[i].Stage_Time[j];
+		}
+	}
+	if(record_count > 0)
+	{
+		(*env)->SetLongArrayRegion(env,record_list,0,
+					   record_count*ngat_rise_ccd_CCDLibrary_CCD_TIMING_FRAME_FIELD_COUNT,
+					   java_record_list);
+	}
+	free(c_record_list);
+	free(java_record_list);
+	return record_count;
+}
+
 /* ------------------------------------------------------------------------------
 ** 		CCDLibrary C layer initialisation
 ** ------------------------------------------------------------------------------ */
@@ -1253,6 +1769,72 @@ static void CCDLibrary_Log_Handler(int level,char *string)
 	(*env)->CallVoidMethod(env,logger,log_method_id,(jint)level,java_string);
 }
 
+/**
+ * librise_ccd frame ready handler for the Java layer interface. This calls the frameReady(int index,
+ * long frameNumber,long startTime) method of the CCDLibrary instance that called CCD_Multrun_Expose_Frames,
+ * which hands the frame buffer to the Java frame listener. Any exception thrown by the Java method is
+ * described and cleared, so the C exposure loop can continue.
+ * @param index The index of the frame buffer holding the frame.
+ * @param frame_number The number of the frame in the multrun, starting from one.
+ * @param start_time The time the exposure of this frame started, converted to milliseconds since the epoch.
+ * @see #java_vm
+ * @see #frame_library
+ * @see #frame_ready_method_id
+ */
+static void CCDLibrary_Frame_Ready_Handler(int index,long frame_number,struct timespec start_time)
+{
+	JNIEnv *env = NULL;
+	jlong start_time_ms;
+
+	if((frame_library == NULL)||(frame_ready_method_id == NULL)||(java_vm == NULL))
+	{
+		fprintf(stderr,"CCDLibrary_Frame_Ready_Handler:frame_library/frame_ready_method_id/java_vm was NULL"
+			" (%d,%ld).\n",index,frame_number);
+		CCD_Frame_Buffer_Release(index);
+		return;
+	}
+/* get java env for this thread */
+	(*java_vm)->AttachCurrentThread(java_vm,(void**)&env,NULL);
+	if(env == NULL)
+	{
+		fprintf(stderr,"CCDLibrary_Frame_Ready_Handler:env was NULL (%d,%ld).\n",index,frame_number);
+		CCD_Frame_Buffer_Release(index);
+		return;
+	}
+	start_time_ms = ((jlong)start_time.tv_sec)*((jlong)1000L)+((jlong)(start_time.tv_nsec/1000000L));
+	(*env)->CallVoidMethod(env,frame_library,frame_ready_method_id,(jint)index,(jlong)frame_number,
+			       start_time_ms);
+	if((*env)->ExceptionCheck(env))
+	{
+		(*env)->ExceptionDescribe(env);
+		(*env)->ExceptionClear(env);
+	}
+}
+
+/**
+ * Deregister all the frame buffers from the C layer, and delete the global references kept to them.
+ * The global references are only deleted if the C layer deregisters the buffers (none are in use).
+ * @param env The JNI environment pointer.
+ * @return The routine returns TRUE on success and FALSE on failure (ccd_frame's error is set).
+ * @see ccd_frame.html#CCD_Frame_Buffer_Deregister_All
+ * @see #frame_buffer_list
+ * @see #frame_buffer_count
+ */
+static int CCDLibrary_Frame_Buffer_Deregister_All(JNIEnv *env)
+{
+	int i;
+
+	if(!CCD_Frame_Buffer_Deregister_All())
+		return FALSE;
+	for(i = 0; i < frame_buffer_count; i++)
+	{
+		(*env)->DeleteGlobalRef(env,frame_buffer_list[i]);
+		frame_buffer_list[i] = NULL;
+	}
+	frame_buffer_count = 0;
+	return TRUE;
+}
+
 /**
  * This routine creates a re-allocatable c list of strings, from a jobject of class java.util.List
  * containing java.lang.String s. Note the c list of strings will need freeing in the same JNI routine.
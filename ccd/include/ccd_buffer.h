@@ -0,0 +1,47 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Ccs.
+
+    Ccs is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Ccs is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Ccs; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+/* ccd_buffer.h
+** $Header$
+*/
+#ifndef CCD_BUFFER_H
+#define CCD_BUFFER_H
+#include <stddef.h>
+
+/* hash defines */
+/**
+ * The maximum number of image buffers in the pool. This must be at least CCD_WRITER_SLOT_COUNT_MAX.
+ */
+#define CCD_BUFFER_COUNT_MAX			(64)
+
+/* external functions */
+extern int CCD_Buffer_Allocate(int buffer_count,size_t buffer_size);
+extern int CCD_Buffer_Reserve(int buffer_count,size_t buffer_size);
+extern int CCD_Buffer_Free(void);
+extern int CCD_Buffer_Get(int index,void **data);
+extern int CCD_Buffer_Get_Count(void);
+extern size_t CCD_Buffer_Get_Size(void);
+extern int CCD_Buffer_Get_Error_Number(void);
+extern void CCD_Buffer_Error(void);
+extern void CCD_Buffer_Error_String(char *error_string);
+
+/*
+** $Log: not supported by cvs2svn $
+*/
+#endif
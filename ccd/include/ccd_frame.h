@@ -0,0 +1,50 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Ccs.
+
+    Ccs is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Ccs is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Ccs; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+/* ccd_frame.h
+** $Header$
+*/
+#ifndef CCD_FRAME_H
+#define CCD_FRAME_H
+#include <stddef.h>
+#include <time.h>
+
+/* hash defines */
+/**
+ * The maximum number of frame buffers that can be registered.
+ */
+#define CCD_FRAME_BUFFER_COUNT_MAX		(16)
+
+/* external functions */
+extern int CCD_Frame_Buffer_Register(int index,unsigned short *data,size_t pixel_count);
+extern int CCD_Frame_Buffer_Deregister_All(void);
+extern int CCD_Frame_Buffer_Get_Count(void);
+extern int CCD_Frame_Buffer_Acquire(size_t pixel_count,int *index,unsigned short **data);
+extern int CCD_Frame_Buffer_Release(int index);
+extern void CCD_Frame_Set_Ready_Handler_Function(void (*ready_fn)(int index,long frame_number,
+								   struct timespec start_time));
+extern void CCD_Frame_Ready(int index,long frame_number,struct timespec start_time);
+extern int CCD_Frame_Get_Error_Number(void);
+extern void CCD_Frame_Error(void);
+extern void CCD_Frame_Error_String(char *error_string);
+
+/*
+** $Log: not supported by cvs2svn $
+*/
+#endif
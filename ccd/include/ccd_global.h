@@ -49,6 +49,11 @@ extern eSTAR_Config_Properties_t rProperties;
  * This is the length of error string of modules in the library.
  */
 #define CCD_GLOBAL_ERROR_STRING_LENGTH	256
+/**
+ * The number of messages the log ring (see CCD_Global_Log_Handler_Ring) can hold. This must be a power of two.
+ * Each message is up to CCD_GLOBAL_ERROR_STRING_LENGTH characters long.
+ */
+#define CCD_GLOBAL_LOG_RING_SIZE	1024
 /**
  * This is the number of bytes used to represent one pixel on the CCD. Currently the SDSU CCD Controller
  * returns 16 bit values for pixels, which is 2 bytes. The library will currently only compile when this
@@ -87,6 +92,9 @@ extern void CCD_Global_Log(int level,char *string);
 extern void CCD_Global_Set_Log_Handler_Function(void (*log_fn)(int level,char *string));
 extern void CCD_Global_Set_Log_Filter_Function(int (*filter_fn)(int level,char *string));
 extern void CCD_Global_Log_Handler_Stdout(int level,char *string);
+extern void CCD_Global_Log_Handler_Ring(int level,char *string);
+extern int CCD_Global_Log_Ring_Get(int *level,char *string,int string_length);
+extern unsigned long CCD_Global_Log_Ring_Get_Drop_Count(void);
 extern void CCD_Global_Set_Log_Filter_Level(int level);
 extern int CCD_Global_Log_Filter_Level_Absolute(int level,char *string);
 extern int CCD_Global_Log_Filter_Level_Bitwise(int level,char *string);
@@ -117,6 +125,11 @@ struct MultrunParameters
   int posBoxY;
   char ntpDriftFile[64];
   int ccdCool;
+  int writerSlots;
+  int writerThreads;
+  int frameWaitEvent;
+  int frameWaitTimeout;
+  int pixelBits;
 } mrParams;
 
 
@@ -205,8 +205,11 @@ struct Header {
  * <dt>Time_Start</dt> <dd>Seconds since the epoch when the Multflat was started.</dd>
  * <dt>Max_Time</dt> <dd>Maximum length of time to attempt flats, in seconds.</dd>
  * <dt>Is_Mult_Flat</dt> <dd>Boolean, true if we are attempting flats.</dd>
+ * <dt>Frame_Timing_Sequence</dt> <dd>The sequence number of the current frame's ccd_timing record,
+ *     so the FITS writer threads can timestamp the stages they do.</dd>
  * </dl>
  * @see ccd_exposure.html#CCD_EXPOSURE_STATUS
+ * @see ccd_timing.html#CCD_Timing_Frame_Begin
  */
 struct Multrun_Struct 
 {
@@ -230,13 +233,65 @@ struct Multrun_Struct
 	time_t Time_Start;
 	long Max_Time;
 	int Is_Mult_Flat;
+	long Frame_Timing_Sequence;
+};
+
+/**
+ * Structure holding a consistent copy of the status data GET_STATUS reports, filled in by
+ * CCD_Multrun_Get_Status_Snapshot. Fields are:
+ * <dl>
+ * <dt>Exposure_Status</dt> <dd>Whether an operation is being performed to CLEAR, EXPOSE or READOUT the CCD.</dd>
+ * <dt>Exposure_Number</dt> <dd>Which exposure in the multrun we are currently taking.</dd>
+ * <dt>Exposure_Length</dt> <dd>The exposure length of each frame of the multrun, in milliseconds.</dd>
+ * <dt>Exposure_Start_Time</dt> <dd>The start time of the current frame of the multrun.</dd>
+ * <dt>Elapsed_Exposure_Time</dt> <dd>The time the current exposure has been underway, in milliseconds.</dd>
+ * <dt>NCols</dt> <dd>The number of unbinned columns setup on the CCD.</dd>
+ * <dt>NRows</dt> <dd>The number of unbinned rows setup on the CCD.</dd>
+ * <dt>NSBin</dt> <dd>The column binning factor.</dd>
+ * <dt>NPBin</dt> <dd>The row binning factor.</dd>
+ * <dt>Window_Flags</dt> <dd>Which windows are in effect.</dd>
+ * <dt>Setup_Complete</dt> <dd>Whether the CCD has been setup sufficiently for exposures to be taken.</dd>
+ * <dt>Setup_In_Progress</dt> <dd>Whether a setup operation is underway.</dd>
+ * <dt>Writer_Queue_Depth</dt> <dd>The number of images waiting to be (or being) written to disk.</dd>
+ * <dt>Writer_Queue_Depth_Peak</dt> <dd>The largest writer queue depth during the last multrun.</dd>
+ * <dt>Writer_Latency_Last</dt> <dd>The time taken to get the last image onto disk, in milliseconds.</dd>
+ * <dt>Writer_Latency_Max</dt> <dd>The largest writer latency during the last multrun, in milliseconds.</dd>
+ * <dt>Writer_Frame_Count</dt> <dd>The number of images written during the last multrun.</dd>
+ * </dl>
+ * @see #CCD_Multrun_Get_Status_Snapshot
+ */
+struct CCD_Multrun_Status_Struct
+{
+	enum CCD_EXPOSURE_STATUS Exposure_Status;
+	long Exposure_Number;
+	int Exposure_Length;
+	struct timespec Exposure_Start_Time;
+	int Elapsed_Exposure_Time;
+	int NCols;
+	int NRows;
+	int NSBin;
+	int NPBin;
+	int Window_Flags;
+	int Setup_Complete;
+	int Setup_In_Progress;
+	int Writer_Queue_Depth;
+	int Writer_Queue_Depth_Peak;
+	int Writer_Latency_Last;
+	int Writer_Latency_Max;
+	int Writer_Frame_Count;
 };
 
 /* external function declarations */
 
 extern int CCD_Multrun_Expose (int open_shutter, long startTime, int exposure_time, long exposures, char **headers);
 extern int CCD_Multflat_Expose (int open_shutter, long startTime, int exposure_time, long exposures, char **headers);
-extern int Multrun_Exposure_Save(char *filename, unsigned long *exposure_data,int ncols,int nrows);
+extern int CCD_Multrun_Expose_Frames(int open_shutter,int exposure_time,long exposures);
+extern int CCD_Multrun_Filename_Set_Multrun(int multrun_number);
+extern int CCD_Multrun_Filename_Get_Multrun(int *multrun_number);
+extern int Multrun_Exposure_Median(void *exposure_data,int pixel_bits,double *median_value);
+extern int Multrun_Exposure_Save(char *filename, void *exposure_data,int pixel_bits,int ncols,int nrows,
+				 struct Multrun_Struct *multrun_data,struct FitsFilename *fits_filename,
+				 int *error_number,char *error_string);
 extern void FitsFilename_init(struct FitsFilename *f);
 extern void getDateString(char *p);
 extern void load_dir(char *dir, struct DirList *f, int *count);
@@ -258,6 +313,7 @@ extern int CCD_Multrun_Get_Exposure_Length(void);
 extern struct timespec CCD_Multrun_Get_Exposure_Start_Time(void);
 extern int CCD_Multrun_Get_Elapsed_Exposure_Time(void);
 extern double CCD_Multrun_Get_Cached_Temperature(void);
+extern void CCD_Multrun_Get_Status_Snapshot(struct CCD_Multrun_Status_Struct *status);
 extern int CCD_Multrun_Get_Error_Number(void);
 extern void CCD_Multrun_Error(void);
 extern void CCD_Multrun_Error_String(char *error_string);
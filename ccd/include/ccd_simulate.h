@@ -0,0 +1,127 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Ccs.
+
+    Ccs is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Ccs is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Ccs; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+/* ccd_simulate.h
+** $Header$
+*/
+#ifndef CCD_SIMULATE_H
+#define CCD_SIMULATE_H
+
+/* hash defines */
+/**
+ * Value of the "ccs.libccd.device" property that selects the real Andor camera (via the Andor SDK).
+ * @see #CCD_Simulate_Configure
+ */
+#define CCD_SIMULATE_DEVICE_ANDOR_STRING	"CCD_INTERFACE_DEVICE_ANDOR"
+/**
+ * Value of the "ccs.libccd.device" property that selects the software simulation of the Andor camera.
+ * @see #CCD_Simulate_Configure
+ */
+#define CCD_SIMULATE_DEVICE_SIMULATE_STRING	"CCD_INTERFACE_DEVICE_SIMULATE"
+
+/* external functions */
+extern int CCD_Simulate_Configure(void);
+extern int CCD_Simulate_Get_Enabled(void);
+extern int CCD_Simulate_Get_Error_Number(void);
+extern void CCD_Simulate_Error(void);
+extern void CCD_Simulate_Error_String(char *error_string);
+
+/* Andor SDK entry points. When the simulation is not enabled these call straight through to the Andor SDK. */
+extern unsigned int CCD_Simulate_GetAvailableCameras(long *total_cameras);
+extern unsigned int CCD_Simulate_GetCameraHandle(long camera_index,long *camera_handle);
+extern unsigned int CCD_Simulate_SetCurrentCamera(long camera_handle);
+extern unsigned int CCD_Simulate_Initialize(char *directory);
+extern unsigned int CCD_Simulate_ShutDown(void);
+extern unsigned int CCD_Simulate_GetDetector(int *xpixels,int *ypixels);
+extern unsigned int CCD_Simulate_SetReadMode(int mode);
+extern unsigned int CCD_Simulate_SetAcquisitionMode(int mode);
+extern unsigned int CCD_Simulate_SetFrameTransferMode(int mode);
+extern unsigned int CCD_Simulate_SetNumberAccumulations(int number);
+extern unsigned int CCD_Simulate_SetImage(int hbin,int vbin,int hstart,int hend,int vstart,int vend);
+extern unsigned int CCD_Simulate_SetExposureTime(float time);
+extern unsigned int CCD_Simulate_SetShutter(int typ,int mode,int closingtime,int openingtime);
+extern unsigned int CCD_Simulate_SetHSSpeed(int type,int index);
+extern unsigned int CCD_Simulate_SetVSSpeed(int index);
+extern unsigned int CCD_Simulate_GetHSSpeed(int channel,int type,int index,float *speed);
+extern unsigned int CCD_Simulate_GetVSSpeed(int index,float *speed);
+extern unsigned int CCD_Simulate_GetAcquisitionTimings(float *exposure,float *accumulate,float *kinetic);
+extern unsigned int CCD_Simulate_SetTemperature(int temperature);
+extern unsigned int CCD_Simulate_GetTemperature(int *temperature);
+extern unsigned int CCD_Simulate_GetTemperatureF(float *temperature);
+extern unsigned int CCD_Simulate_CoolerON(void);
+extern unsigned int CCD_Simulate_CoolerOFF(void);
+extern unsigned int CCD_Simulate_GetStatus(int *status);
+extern unsigned int CCD_Simulate_StartAcquisition(void);
+extern unsigned int CCD_Simulate_AbortAcquisition(void);
+extern unsigned int CCD_Simulate_WaitForAcquisition(void);
+extern unsigned int CCD_Simulate_WaitForAcquisitionTimeOut(int timeout_ms);
+extern unsigned int CCD_Simulate_CancelWait(void);
+extern unsigned int CCD_Simulate_GetTotalNumberImagesAcquired(long *index);
+extern unsigned int CCD_Simulate_GetNumberNewImages(long *first,long *last);
+extern unsigned int CCD_Simulate_GetOldestImage(long *array,unsigned long size);
+extern unsigned int CCD_Simulate_GetOldestImage16(unsigned short *array,unsigned long size);
+extern unsigned int CCD_Simulate_GetAcquiredData(long *array,unsigned long size);
+extern unsigned int CCD_Simulate_FreeInternalMemory(void);
+
+/* When compiled with CCD_SIMULATE, modules that include this header <b>after</b> atmcdLXd.h have their
+** Andor SDK calls routed through the simulation layer, which decides at run time (ccs.libccd.device)
+** whether to call the Andor SDK or the simulated camera. ccd_simulate.c itself defines CCD_SIMULATE_C so that
+** it can call the real Andor SDK routines. */
+#if defined(CCD_SIMULATE) && !defined(CCD_SIMULATE_C)
+#define GetAvailableCameras(c)				CCD_Simulate_GetAvailableCameras(c)
+#define GetCameraHandle(i,h)				CCD_Simulate_GetCameraHandle(i,h)
+#define SetCurrentCamera(h)				CCD_Simulate_SetCurrentCamera(h)
+#define Initialize(d)					CCD_Simulate_Initialize(d)
+#define ShutDown()					CCD_Simulate_ShutDown()
+#define GetDetector(x,y)				CCD_Simulate_GetDetector(x,y)
+#define SetReadMode(m)					CCD_Simulate_SetReadMode(m)
+#define SetAcquisitionMode(m)				CCD_Simulate_SetAcquisitionMode(m)
+#define SetFrameTransferMode(m)				CCD_Simulate_SetFrameTransferMode(m)
+#define SetNumberAccumulations(n)			CCD_Simulate_SetNumberAccumulations(n)
+#define SetImage(hb,vb,hs,he,vs,ve)			CCD_Simulate_SetImage(hb,vb,hs,he,vs,ve)
+#define SetExposureTime(t)				CCD_Simulate_SetExposureTime(t)
+#define SetShutter(t,m,c,o)				CCD_Simulate_SetShutter(t,m,c,o)
+#define SetHSSpeed(t,i)					CCD_Simulate_SetHSSpeed(t,i)
+#define SetVSSpeed(i)					CCD_Simulate_SetVSSpeed(i)
+#define GetHSSpeed(c,t,i,s)				CCD_Simulate_GetHSSpeed(c,t,i,s)
+#define GetVSSpeed(i,s)					CCD_Simulate_GetVSSpeed(i,s)
+#define GetAcquisitionTimings(e,a,k)			CCD_Simulate_GetAcquisitionTimings(e,a,k)
+#define SetTemperature(t)				CCD_Simulate_SetTemperature(t)
+#define GetTemperature(t)				CCD_Simulate_GetTemperature(t)
+#define GetTemperatureF(t)				CCD_Simulate_GetTemperatureF(t)
+#define CoolerON()					CCD_Simulate_CoolerON()
+#define CoolerOFF()					CCD_Simulate_CoolerOFF()
+#define GetStatus(s)					CCD_Simulate_GetStatus(s)
+#define StartAcquisition()				CCD_Simulate_StartAcquisition()
+#define AbortAcquisition()				CCD_Simulate_AbortAcquisition()
+#define WaitForAcquisition()				CCD_Simulate_WaitForAcquisition()
+#define WaitForAcquisitionTimeOut(t)			CCD_Simulate_WaitForAcquisitionTimeOut(t)
+#define CancelWait()					CCD_Simulate_CancelWait()
+#define GetTotalNumberImagesAcquired(i)			CCD_Simulate_GetTotalNumberImagesAcquired(i)
+#define GetNumberNewImages(f,l)				CCD_Simulate_GetNumberNewImages(f,l)
+#define GetOldestImage(a,s)				CCD_Simulate_GetOldestImage(a,s)
+#define GetOldestImage16(a,s)				CCD_Simulate_GetOldestImage16(a,s)
+#define GetAcquiredData(a,s)				CCD_Simulate_GetAcquiredData(a,s)
+#define FreeInternalMemory()				CCD_Simulate_FreeInternalMemory()
+#endif /* CCD_SIMULATE && !CCD_SIMULATE_C */
+
+/*
+** $Log: not supported by cvs2svn $
+*/
+#endif
@@ -0,0 +1,109 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Ccs.
+
+    Ccs is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Ccs is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Ccs; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+/* ccd_timing.h
+** $Header$
+*/
+#ifndef CCD_TIMING_H
+#define CCD_TIMING_H
+#include <time.h>
+
+/* These #define/enum definitions should match with those in CCDLibrary.java */
+/* hash defines */
+/**
+ * The number of frame timing records kept in the ring. The oldest record is overwritten when a new frame starts.
+ */
+#define CCD_TIMING_FRAME_RING_SIZE		(256)
+
+/**
+ * The stages of acquiring a frame that are timestamped. A record's Stage_Time for a stage is zero if the
+ * frame has not (yet) reached that stage, or the stage does not apply (e.g. there is no median for a
+ * single exposure).
+ * <dl>
+ * <dt>CCD_TIMING_FRAME_STAGE_ACQUISITION_START</dt> <dd>The Andor acquisition (StartAcquisition) containing
+ *     the frame was started. This is the same for every frame in a multrun.</dd>
+ * <dt>CCD_TIMING_FRAME_STAGE_FRAME_AVAILABLE</dt> <dd>The frame was first seen to be available in the Andor
+ *     buffer (GetNumberNewImages), or the acquisition finished for a single exposure.</dd>
+ * <dt>CCD_TIMING_FRAME_STAGE_IMAGE_RETRIEVED</dt> <dd>The frame was copied out of the Andor buffer
+ *     (GetOldestImage/GetAcquiredData).</dd>
+ * <dt>CCD_TIMING_FRAME_STAGE_MEDIAN_DONE</dt> <dd>The median of the central pixels was calculated.</dd>
+ * <dt>CCD_TIMING_FRAME_STAGE_FILENAME_RESOLVED</dt> <dd>The FITS filename for the frame was allocated.</dd>
+ * <dt>CCD_TIMING_FRAME_STAGE_SAVE_DONE</dt> <dd>The frame was saved to disk (Multrun_Exposure_Save).</dd>
+ * </dl>
+ */
+enum CCD_TIMING_FRAME_STAGE
+{
+	CCD_TIMING_FRAME_STAGE_ACQUISITION_START=0,CCD_TIMING_FRAME_STAGE_FRAME_AVAILABLE=1,
+	CCD_TIMING_FRAME_STAGE_IMAGE_RETRIEVED=2,CCD_TIMING_FRAME_STAGE_MEDIAN_DONE=3,
+	CCD_TIMING_FRAME_STAGE_FILENAME_RESOLVED=4,CCD_TIMING_FRAME_STAGE_SAVE_DONE=5
+};
+
+/**
+ * The number of stages in CCD_TIMING_FRAME_STAGE.
+ * @see #CCD_TIMING_FRAME_STAGE
+ */
+#define CCD_TIMING_FRAME_STAGE_COUNT		(6)
+
+/**
+ * The state of a frame timing record.
+ * <dl>
+ * <dt>CCD_TIMING_FRAME_STATE_IN_PROGRESS</dt> <dd>The frame is still being acquired or saved.</dd>
+ * <dt>CCD_TIMING_FRAME_STATE_SAVED</dt> <dd>The frame was saved.</dd>
+ * <dt>CCD_TIMING_FRAME_STATE_ABANDONED</dt> <dd>The frame was not saved (aborted, failed, or
+ *     the median was out of range).</dd>
+ * </dl>
+ */
+enum CCD_TIMING_FRAME_STATE
+{
+	CCD_TIMING_FRAME_STATE_IN_PROGRESS=0,CCD_TIMING_FRAME_STATE_SAVED=1,CCD_TIMING_FRAME_STATE_ABANDONED=2
+};
+
+/**
+ * Structure holding the timing record of one frame.
+ * <dl>
+ * <dt>Sequence</dt> <dd>The sequence number of the record, starting at 1 and increasing by one for each frame
+ *     started since the library was loaded.</dd>
+ * <dt>Frame_Number</dt> <dd>The frame's number in it's multrun (the Andor series number), 1 for a single
+ *     exposure.</dd>
+ * <dt>State</dt> <dd>The state of the record.</dd>
+ * <dt>Stage_Time</dt> <dd>The time each stage was reached, in nanoseconds from CLOCK_MONOTONIC, or zero.</dd>
+ * </dl>
+ * @see #CCD_TIMING_FRAME_STATE
+ * @see #CCD_TIMING_FRAME_STAGE
+ */
+struct CCD_Timing_Frame_Struct
+{
+	long Sequence;
+	long Frame_Number;
+	enum CCD_TIMING_FRAME_STATE State;
+	long long Stage_Time[CCD_TIMING_FRAME_STAGE_COUNT];
+};
+
+/* external functions */
+extern void CCD_Timing_Get_Time(struct timespec *time);
+extern long CCD_Timing_Frame_Begin(long frame_number,struct timespec acquisition_start,
+				   struct timespec frame_available);
+extern void CCD_Timing_Frame_Stage(long sequence,enum CCD_TIMING_FRAME_STAGE stage);
+extern void CCD_Timing_Frame_End(long sequence,enum CCD_TIMING_FRAME_STATE state);
+extern int CCD_Timing_Frame_Get_Records(struct CCD_Timing_Frame_Struct *record_list,int record_count);
+
+/*
+** $Log: not supported by cvs2svn $
+*/
+#endif
@@ -0,0 +1,68 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Ccs.
+
+    Ccs is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Ccs is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Ccs; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+/* ccd_writer.h
+** $Header$
+*/
+#ifndef CCD_WRITER_H
+#define CCD_WRITER_H
+#include "ccd_multrun.h"
+
+/* hash defines */
+/**
+ * The default number of image slots in the writer queue, if "ccs.libccd.multrun.writer.slots" is not set.
+ */
+#define CCD_WRITER_DEFAULT_SLOT_COUNT		(4)
+/**
+ * The maximum number of image slots in the writer queue.
+ */
+#define CCD_WRITER_SLOT_COUNT_MAX		(64)
+/**
+ * The default number of writer threads, if "ccs.libccd.multrun.writer.threads" is not set.
+ */
+#define CCD_WRITER_DEFAULT_THREAD_COUNT		(1)
+/**
+ * The maximum number of writer threads.
+ */
+#define CCD_WRITER_THREAD_COUNT_MAX		(8)
+
+/* external functions */
+extern int CCD_Writer_Start(int slot_count,int thread_count,int ncols,int nrows,int pixel_bits);
+extern int CCD_Writer_Slot_Get(int *index,void **data);
+extern int CCD_Writer_Slot_Cancel(int index);
+extern int CCD_Writer_Slot_Queue(int index,char *filename,struct Multrun_Struct *multrun_data,
+				 struct FitsFilename *fits_filename,int median_done);
+extern int CCD_Writer_Get_Failed(void);
+extern void CCD_Writer_Get_Failure(int *error_number,char *error_string);
+extern int CCD_Writer_Drain(void);
+extern int CCD_Writer_Get_Queue_Depth(void);
+extern int CCD_Writer_Get_Queue_Depth_Peak(void);
+extern int CCD_Writer_Get_Latency_Last(void);
+extern int CCD_Writer_Get_Latency_Max(void);
+extern int CCD_Writer_Get_Frame_Count(void);
+extern void CCD_Writer_Reset_Frame_Count(void);
+extern int CCD_Writer_Stop(void);
+extern int CCD_Writer_Get_Error_Number(void);
+extern void CCD_Writer_Error(void);
+extern void CCD_Writer_Error_String(char *error_string);
+
+/*
+** $Log: not supported by cvs2svn $
+*/
+#endif
@@ -0,0 +1,621 @@
+// CCDLibraryBenchmark.java
+// $Header$
+import java.lang.*;
+import java.io.*;
+import java.util.*;
+
+import ngat.rise.ccd.*;
+import ngat.util.logging.*;
+
+/**
+ * This program measures the cost of individual calls through the CCDLibrary JNI layer, so we can decide
+ * which native paths are worth batching or caching, and spot regressions when the JNI glue changes.
+ * It is meant to be run against the simulated camera, so no Andor hardware is needed. The C layer reads
+ * <b>ccs.properties</b> from the current directory when CCDSetupStartup is called, which should contain at least:
+ * <pre>
+ * ccs.libccd.device=CCD_INTERFACE_DEVICE_SIMULATE
+ * ccs.libccd.simulate.ncols=64
+ * ccs.libccd.simulate.nrows=64
+ * </pre>
+ * Each benchmark is run for a number of warm-up rounds (so the JIT has compiled the calling code), and then for a
+ * number of measured rounds, each round timing a loop of calls with System.nanoTime. One result line is printed
+ * per benchmark, of the form:
+ * <pre>
+ * BENCHMARK &lt;name&gt; &lt;calls per round&gt; &lt;min ns/op&gt; &lt;median ns/op&gt; &lt;max ns/op&gt;
+ * </pre>
+ * The multrun benchmarks are only run with the -expose option, as they write FITS images into the
+ * multrun image directory (/icc/tmp).
+ * @author Chris Mottram
+ * @version $Revision$
+ */
+class CCDLibraryBenchmark
+{
+	/**
+	 * Revision Control System id string, showing the version of the Class.
+	 */
+	public final static String RCSID = new String("$Id$");
+	/**
+	 * A CCD X size to pass into the library. This should match the simulated detector size.
+	 */
+	private final static int CCD_X_SIZE 	= 64;
+	/**
+	 * A CCD Y size to pass into the library. This should match the simulated detector size.
+	 */
+	private final static int CCD_Y_SIZE 	= 64;
+	/**
+	 * The number of FITS header values CCDMultrunExpose reads from it's header list.
+	 * The C layer copies fixed indices of the list, so it must be at least this long.
+	 */
+	private final static int MULTRUN_HEADER_COUNT = 52;
+	/**
+	 * The length of each header value in the long header list. This is about the longest FITS string value
+	 * (68 characters).
+	 */
+	private final static int MULTRUN_HEADER_LONG_LENGTH = 68;
+	/**
+	 * The CCDLibrary object that handles communication with the low level librise_ccd library.
+	 */
+	private CCDLibrary libccd = null;
+	/**
+	 * The number of calls made in each round of the fast benchmarks.
+	 */
+	private int iterations = 100000;
+	/**
+	 * The number of calls made in each round of the benchmarks that log (CCDTemperatureGet),
+	 * which are much slower.
+	 */
+	private int slowIterations = 1000;
+	/**
+	 * The number of multruns done in each round of the multrun benchmarks.
+	 */
+	private int exposeIterations = 10;
+	/**
+	 * The exposure length of each multrun benchmark exposure, in milliseconds.
+	 */
+	private int exposureLength = 1;
+	/**
+	 * The number of warm-up rounds, the results of which are discarded.
+	 */
+	private int warmupRounds = 3;
+	/**
+	 * The number of measured rounds.
+	 */
+	private int rounds = 5;
+	/**
+	 * If non-null, only benchmarks whose names start with this string are run.
+	 */
+	private String benchmarkPrefix = null;
+	/**
+	 * Whether to run the multrun benchmarks.
+	 */
+	private boolean doExpose = false;
+	/**
+	 * The benchmarks to run, in order.
+	 * @see Benchmark
+	 */
+	private List benchmarkList = null;
+	/**
+	 * Accumulates values returned from the calls being measured, so the JIT cannot remove them.
+	 * It is printed at the end of the run.
+	 */
+	private long sink = 0L;
+
+	/**
+	 * Initialisation routine. Sets up the libccd library interface, and sets the CCDLibrary logger
+	 * to accept all messages, so the log callback path is exercised. The logger has no handlers,
+	 * so we measure the cost of getting the message into Java rather than of writing it out.
+	 * @exception CCDLibraryNativeException Thrown if the camera setup fails.
+	 * @see #libccd
+	 * @see #setup
+	 */
+	public void init() throws CCDLibraryNativeException
+	{
+		Logger logger = null;
+
+		logger = LogManager.getLogger("ngat.rise.ccd.CCDLibrary");
+		logger.setLogLevel(Logging.ALL);
+		libccd = new CCDLibrary();
+		libccd.CCDInitialise();
+		setup();
+	}
+
+	/**
+	 * Setup the (simulated) camera, so the setup getters return real dimensions and multruns can be taken.
+	 * @exception CCDLibraryNativeException Thrown if CCDSetupStartup or CCDSetupDimensions fails.
+	 * @see #CCD_X_SIZE
+	 * @see #CCD_Y_SIZE
+	 */
+	public void setup() throws CCDLibraryNativeException
+	{
+		CCDLibrarySetupWindow window_list[] = new CCDLibrarySetupWindow[4];
+
+		for(int i=0;i<window_list.length;i++)
+			window_list[i] = new CCDLibrarySetupWindow();
+		libccd.CCDSetupStartup(0.0);
+		libccd.CCDSetupDimensions(CCD_X_SIZE,CCD_Y_SIZE,1,1,0,window_list);
+		System.out.println("CCDLibraryBenchmark:Setup Completed.");
+	}
+
+	/**
+	 * Create the list of benchmarks. Each benchmark times a loop of identical calls, so only the call
+	 * being measured (and the loop) is timed.
+	 * <ul>
+	 * <li><b>MultrunGetExposureStatus</b>, <b>SetupGetNCols</b> The cost of one simple status getter.
+	 * <li><b>StatusGetters</b> Getting all the values in the status snapshot with one getter call per value.
+	 * <li><b>StatusSnapshot</b> Getting the same values with one CCDMultrunGetStatusSnapshot call.
+	 * <li><b>TemperatureGet</b> CCDTemperatureGet, logging directly to the Java logger from the calling thread.
+	 * <li><b>TemperatureGetLogRing</b> CCDTemperatureGet, with the log messages queued in the C log ring.
+	 * <li><b>TimingFrameGetRecords</b> Copying the frame timing ring into Java.
+	 * <li><b>ThrowException</b> A native call failing and throwing a CCDLibraryNativeException,
+	 *     using CCDTimingFrameGetRecords with an array too small for one record.
+	 * <li><b>MultrunExposeShortHeaders</b>, <b>MultrunExposeLongHeaders</b> A one frame multrun with short and
+	 *     long header values. The difference between the two is the cost of passing the header list.
+	 * </ul>
+	 * @see #benchmarkList
+	 * @see #sink
+	 */
+	public void createBenchmarks()
+	{
+		final long snapshot[] = new long[CCDLibrary.CCD_MULTRUN_STATUS_SNAPSHOT_COUNT];
+		final long timingRecordList[] = new long[CCDLibrary.CCD_TIMING_FRAME_RING_SIZE*
+						   CCDLibrary.CCD_TIMING_FRAME_FIELD_COUNT];
+		final long shortRecordList[] = new long[1];
+		final CCDLibraryDouble temperature = new CCDLibraryDouble();
+		final List shortHeaderList = createHeaderList(1);
+		final List longHeaderList = createHeaderList(MULTRUN_HEADER_LONG_LENGTH);
+
+		benchmarkList = new Vector();
+		benchmarkList.add(new Benchmark("MultrunGetExposureStatus",iterations)
+		{
+			public void run(int count) throws Exception
+			{
+				for(int i = 0; i < count; i++)
+					sink += libccd.CCDMultrunGetExposureStatus();
+			}
+		});
+		benchmarkList.add(new Benchmark("SetupGetNCols",iterations)
+		{
+			public void run(int count) throws Exception
+			{
+				for(int i = 0; i < count; i++)
+					sink += libccd.CCDSetupGetNCols();
+			}
+		});
+		benchmarkList.add(new Benchmark("StatusGetters",iterations/10)
+		{
+			public void run(int count) throws Exception
+			{
+				for(int i = 0; i < count; i++)
+				{
+					sink += libccd.CCDMultrunGetExposureStatus();
+					sink += libccd.CCDMultrunGetExposureNumber();
+					sink += libccd.CCDMultrunGetExposureLength();
+					sink += libccd.CCDMultrunGetExposureStartTime();
+					sink += libccd.CCDMultrunGetElapsedExposureTime();
+					sink += libccd.CCDSetupGetNCols();
+					sink += libccd.CCDSetupGetNRows();
+					sink += libccd.CCDSetupGetNSBin();
+					sink += libccd.CCDSetupGetNPBin();
+					sink += libccd.CCDSetupGetWindowFlags();
+					if(libccd.CCDSetupGetSetupComplete())
+						sink++;
+					if(libccd.CCDSetupGetSetupInProgress())
+						sink++;
+					sink += libccd.CCDWriterGetQueueDepth();
+					sink += libccd.CCDWriterGetQueueDepthPeak();
+					sink += libccd.CCDWriterGetLatencyLast();
+					sink += libccd.CCDWriterGetLatencyMax();
+					sink += libccd.CCDWriterGetFrameCount();
+				}
+			}
+		});
+		benchmarkList.add(new Benchmark("StatusSnapshot",iterations/10)
+		{
+			public void run(int count) throws Exception
+			{
+				for(int i = 0; i < count; i++)
+				{
+					libccd.CCDMultrunGetStatusSnapshot(snapshot);
+					sink += snapshot[CCDLibrary.CCD_MULTRUN_STATUS_SNAPSHOT_EXPOSURE_STATUS];
+				}
+			}
+		});
+		benchmarkList.add(new Benchmark("TemperatureGet",slowIterations)
+		{
+			public void run(int count) throws Exception
+			{
+				for(int i = 0; i < count; i++)
+				{
+					libccd.CCDTemperatureGet(temperature);
+					sink += (long)temperature.getValue();
+				}
+			}
+		});
+		benchmarkList.add(new Benchmark("TemperatureGetLogRing",slowIterations)
+		{
+			public void start()
+			{
+				libccd.CCDGlobalLogRingStart(64,10);
+			}
+
+			public void run(int count) throws Exception
+			{
+				for(int i = 0; i < count; i++)
+				{
+					libccd.CCDTemperatureGet(temperature);
+					sink += (long)temperature.getValue();
+				}
+			}
+
+			public void stop()
+			{
+				libccd.CCDGlobalLogRingStop();
+				System.out.println("CCDLibraryBenchmark:TemperatureGetLogRing:Log ring drop count:"+
+						   libccd.CCDGlobalLogRingGetDropCount());
+			}
+		});
+		benchmarkList.add(new Benchmark("TimingFrameGetRecords",iterations/10)
+		{
+			public void run(int count) throws Exception
+			{
+				for(int i = 0; i < count; i++)
+					sink += libccd.CCDTimingFrameGetRecords(timingRecordList);
+			}
+		});
+		benchmarkList.add(new Benchmark("ThrowException",slowIterations)
+		{
+			public void run(int count) throws Exception
+			{
+				for(int i = 0; i < count; i++)
+				{
+					try
+					{
+						sink += libccd.CCDTimingFrameGetRecords(shortRecordList);
+					}
+					catch(CCDLibraryNativeException e)
+					{
+						sink++;
+					}
+				}
+			}
+		});
+		if(doExpose)
+		{
+			benchmarkList.add(new Benchmark("MultrunExposeShortHeaders",exposeIterations)
+			{
+				public void run(int count) throws Exception
+				{
+					for(int i = 0; i < count; i++)
+					{
+						libccd.CCDMultrunExpose(true,-1,exposureLength,1,shortHeaderList);
+						sink += libccd.CCDMultrunGetExposureNumber();
+					}
+				}
+			});
+			benchmarkList.add(new Benchmark("MultrunExposeLongHeaders",exposeIterations)
+			{
+				public void run(int count) throws Exception
+				{
+					for(int i = 0; i < count; i++)
+					{
+						libccd.CCDMultrunExpose(true,-1,exposureLength,1,longHeaderList);
+						sink += libccd.CCDMultrunGetExposureNumber();
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Create a list of header values to pass into CCDMultrunExpose.
+	 * @param length The length of each value.
+	 * @return A list of MULTRUN_HEADER_COUNT strings, each of the specified length.
+	 * @see #MULTRUN_HEADER_COUNT
+	 */
+	protected List createHeaderList(int length)
+	{
+		List headerList = null;
+		StringBuffer value = null;
+
+		value = new StringBuffer();
+		for(int i = 0; i < length; i++)
+			value.append('X');
+		headerList = new Vector();
+		for(int i = 0; i < MULTRUN_HEADER_COUNT; i++)
+			headerList.add(value.toString());
+		return headerList;
+	}
+
+	/**
+	 * Run the benchmarks in benchmarkList, and print a result line for each.
+	 * A benchmark that throws an exception is reported and skipped.
+	 * @see #benchmarkList
+	 * @see #benchmarkPrefix
+	 * @see #runBenchmark
+	 */
+	public void runBenchmarks()
+	{
+		Benchmark benchmark = null;
+
+		System.out.println("CCDLibraryBenchmark:warm-up rounds:"+warmupRounds+":measured rounds:"+rounds+".");
+		for(int i = 0; i < benchmarkList.size(); i++)
+		{
+			benchmark = (Benchmark)(benchmarkList.get(i));
+			if((benchmarkPrefix != null)&&(!benchmark.getName().startsWith(benchmarkPrefix)))
+				continue;
+			try
+			{
+				runBenchmark(benchmark);
+			}
+			catch(Exception e)
+			{
+				System.err.println("CCDLibraryBenchmark:"+benchmark.getName()+" failed:"+e);
+				e.printStackTrace(System.err);
+			}
+		}
+		System.out.println("CCDLibraryBenchmark:sink:"+sink);
+	}
+
+	/**
+	 * Run one benchmark. The warm-up rounds are run and discarded, then each measured round is timed.
+	 * The minimum, median and maximum time per call over the measured rounds are printed.
+	 * @param benchmark The benchmark to run.
+	 * @exception Exception Thrown if the benchmark fails.
+	 * @see #warmupRounds
+	 * @see #rounds
+	 */
+	protected void runBenchmark(Benchmark benchmark) throws Exception
+	{
+		double nsPerOpList[] = null;
+		long startTime;
+		int count;
+
+		count = benchmark.getIterations();
+		if(count < 1)
+			count = 1;
+		nsPerOpList = new double[rounds];
+		benchmark.start();
+		try
+		{
+			for(int i = 0; i < warmupRounds; i++)
+				benchmark.run(count);
+			for(int i = 0; i < rounds; i++)
+			{
+				startTime = System.nanoTime();
+				benchmark.run(count);
+				nsPerOpList[i] = ((double)(System.nanoTime()-startTime))/((double)count);
+			}
+		}
+		finally
+		{
+			benchmark.stop();
+		}
+		Arrays.sort(nsPerOpList);
+		System.out.println("BENCHMARK "+benchmark.getName()+" "+count+" "+
+				   format(nsPerOpList[0])+" "+format(nsPerOpList[nsPerOpList.length/2])+" "+
+				   format(nsPerOpList[nsPerOpList.length-1]));
+	}
+
+	/**
+	 * Format a time per call for printing, to one decimal place.
+	 * @param nsPerOp The time per call, in nanoseconds.
+	 * @return The formatted string.
+	 */
+	protected String format(double nsPerOp)
+	{
+		return Double.toString(Math.rint(nsPerOp*10.0)/10.0);
+	}
+
+	/**
+	 * Routine to close the libccd interface.
+	 */
+	public void close()
+	{
+		try
+		{
+			libccd.CCDSetupShutdown();
+		}
+		catch(CCDLibraryNativeException e)
+		{
+			System.err.println("CCDLibraryBenchmark:CCDSetupShutdown returned:"+e);
+		}
+	}
+
+	/**
+	 * Parse an integer argument, exiting with an error message if it is not a valid positive integer.
+	 * @param option The option the argument is for.
+	 * @param value The argument.
+	 * @return The parsed integer.
+	 */
+	protected int parsePositiveInteger(String option,String value)
+	{
+		int retval = 0;
+
+		try
+		{
+			retval = Integer.parseInt(value);
+		}
+		catch(NumberFormatException e)
+		{
+			retval = 0;
+		}
+		if(retval < 1)
+		{
+			System.err.println(this.getClass().getName()+":"+option+" must be a positive integer:"+value);
+			System.exit(1);
+		}
+		return retval;
+	}
+
+	/**
+	 * Routine to parse arguments.
+	 * @see #iterations
+	 * @see #slowIterations
+	 * @see #exposeIterations
+	 * @see #exposureLength
+	 * @see #warmupRounds
+	 * @see #rounds
+	 * @see #benchmarkPrefix
+	 * @see #doExpose
+	 */
+	public void parseArgs(String []args)
+	{
+		for(int i = 0; i < args.length;i++)
+		{
+			if((args[i].equals("-iterations")||args[i].equals("-i"))&&(i+1 < args.length))
+			{
+				iterations = parsePositiveInteger(args[i],args[i+1]);
+				i++;
+			}
+			else if((args[i].equals("-slow_iterations")||args[i].equals("-s"))&&(i+1 < args.length))
+			{
+				slowIterations = parsePositiveInteger(args[i],args[i+1]);
+				i++;
+			}
+			else if((args[i].equals("-warmup")||args[i].equals("-w"))&&(i+1 < args.length))
+			{
+				warmupRounds = parsePositiveInteger(args[i],args[i+1]);
+				i++;
+			}
+			else if((args[i].equals("-rounds")||args[i].equals("-r"))&&(i+1 < args.length))
+			{
+				rounds = parsePositiveInteger(args[i],args[i+1]);
+				i++;
+			}
+			else if((args[i].equals("-benchmark")||args[i].equals("-b"))&&(i+1 < args.length))
+			{
+				benchmarkPrefix = args[i+1];
+				i++;
+			}
+			else if((args[i].equals("-expose")||args[i].equals("-e"))&&(i+1 < args.length))
+			{
+				doExpose = true;
+				exposeIterations = parsePositiveInteger(args[i],args[i+1]);
+				i++;
+			}
+			else if((args[i].equals("-exposure_length")||args[i].equals("-l"))&&(i+1 < args.length))
+			{
+				exposureLength = parsePositiveInteger(args[i],args[i+1]);
+				i++;
+			}
+			else
+			{
+				System.out.println(this.getClass().getName()+" Help:");
+				System.out.println(this.getClass().getName()+
+						   " measures the cost of calls through the CCDLibrary JNI layer.");
+				System.out.println("java -cp <pathname of classes> "+this.getClass().getName()+
+					" [Options]");
+				System.out.println("Options are:");
+				System.out.println("\t-i[terations] <n> - Calls per round of the fast benchmarks.");
+				System.out.println("\t-s[low_iterations] <n> - Calls per round of the temperature "+
+						   "and exception benchmarks.");
+				System.out.println("\t-w[armup] <n> - Number of warm-up rounds.");
+				System.out.println("\t-r[ounds] <n> - Number of measured rounds.");
+				System.out.println("\t-b[enchmark] <name> - Only run benchmarks starting with name.");
+				System.out.println("\t-e[xpose] <n> - Run the multrun benchmarks, n multruns per round.");
+				System.out.println("\t-l | -exposure_length <ms> - Multrun benchmark exposure length.");
+				System.out.println("\t-h[elp] - display this help.");
+				System.exit(0);
+			}
+		}
+	}
+
+	/**
+	 * Main routine of program. Creates an instance of the benchmark, parses arguments, sets up the camera,
+	 * and runs the benchmarks.
+	 * @see #parseArgs
+	 * @see #init
+	 * @see #createBenchmarks
+	 * @see #runBenchmarks
+	 * @see #close
+	 */
+	public static void main(String[] args)
+	{
+		CCDLibraryBenchmark benchmark = new CCDLibraryBenchmark();
+
+		benchmark.parseArgs(args);
+		try
+		{
+			benchmark.init();
+		}
+		catch(CCDLibraryNativeException e)
+		{
+			System.err.println("CCDLibraryBenchmark:init failed:"+e);
+			System.exit(1);
+		}
+		benchmark.createBenchmarks();
+		benchmark.runBenchmarks();
+		benchmark.close();
+		System.out.println("Finished CCDLibraryBenchmark ...");
+		System.exit(0);
+	}
+
+	/**
+	 * A benchmark, a named loop of calls to time.
+	 */
+	abstract class Benchmark
+	{
+		/**
+		 * The name of the benchmark, printed in the results.
+		 */
+		private String name = null;
+		/**
+		 * The number of calls in each round.
+		 */
+		private int iterations = 0;
+
+		/**
+		 * Constructor.
+		 * @param name The name of the benchmark.
+		 * @param iterations The number of calls in each round.
+		 */
+		public Benchmark(String name,int iterations)
+		{
+			super();
+			this.name = name;
+			this.iterations = iterations;
+		}
+
+		/**
+		 * Get the name of the benchmark.
+		 * @return The name.
+		 */
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * Get the number of calls in each round.
+		 * @return The number of calls.
+		 */
+		public int getIterations()
+		{
+			return iterations;
+		}
+
+		/**
+		 * Called once before the warm-up rounds. By default does nothing.
+		 */
+		public void start()
+		{
+		}
+
+		/**
+		 * Make the calls being measured.
+		 * @param count The number of calls to make.
+		 * @exception Exception Thrown if a call fails.
+		 */
+		public abstract void run(int count) throws Exception;
+
+		/**
+		 * Called once after the measured rounds, even if they failed. By default does nothing.
+		 */
+		public void stop()
+		{
+		}
+	}
+}
+//
+// $Log: not supported by cvs2svn $
+//
@@ -84,6 +84,7 @@ public class CALIBRATEImplementation extends FITSImplementation implements JMSCo
 	 * @return The routine returns a boolean to indicate whether the operation was completed
 	 *  	successfully.
 	 * @see Ccs#sendDpRtCommand
+	 * @see CcsTracer#CATEGORY_REDUCE
 	 */
 	public boolean reduceCalibrate(COMMAND command,COMMAND_DONE done,String filename)
 	{
@@ -91,9 +92,12 @@ public class CALIBRATEImplementation extends FITSImplementation implements JMSCo
 		INST_TO_DP_DONE instToDPDone = null;
 		CALIBRATE_REDUCE_DONE reduceDone = null;
 		CALIBRATE_DONE calibrateDone = null;
+		long spanStartTime;
 
 		reduce.setFilename(filename);
+		spanStartTime = ccs.getTracer().spanStart();
 		instToDPDone = ccs.sendDpRtCommand(reduce,serverConnectionThread);
+		ccs.getTracer().spanEnd(CcsTracer.CATEGORY_REDUCE,"reduceCalibrate",spanStartTime);
 		if(instToDPDone.getSuccessful() == false)
 		{
 			ccs.error(this.getClass().getName()+":reduce:"+
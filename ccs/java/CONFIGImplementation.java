@@ -109,8 +109,8 @@ public class CONFIGImplementation extends SETUPImplementation implements JMSComm
 	 * An object of class CONFIG_DONE is returned. If an error occurs a suitable error message is returned.
 	 * @see #setFocusOffset
 	 * @see ngat.phase2.CCDConfig
-	 * @see CcsStatus#getNumberColumns
-	 * @see CcsStatus#getNumberRows
+	 * @see CcsConfiguration#getNumberColumns
+	 * @see CcsConfiguration#getNumberRows
 	 * @see CcsStatus#getPropertyInteger
 	 * @see CcsStatus#incConfigId
 	 * @see ngat.rise.ccd.CCDLibrary#CCDSetupDimensions
@@ -161,8 +161,8 @@ public class CONFIGImplementation extends SETUPImplementation implements JMSComm
 	// load other required config for dimension configuration from CCS properties file.
 		try
 		{
-			numberColumns = status.getNumberColumns(detector.getXBin());
-			numberRows = status.getNumberRows(detector.getYBin());
+			numberColumns = configuration.getNumberColumns(detector.getXBin());
+			numberRows = configuration.getNumberRows(detector.getYBin());
 		}
 	// CCDLibraryFormatException is caught and re-thrown by this method.
 	// Other exceptions (IllegalArgumentException,NumberFormatException) are not caught here, 
@@ -305,7 +305,7 @@ public class CONFIGImplementation extends SETUPImplementation implements JMSComm
 		focusOffsetCommand = new OFFSET_FOCUS(id);
 		focusOffset = 0.0f;
 	// get default focus offset
-		focusOffset += status.getPropertyDouble("ccs.focus.offset");
+		focusOffset += configuration.getDouble("ccs.focus.offset");
 		ccs.log(Logging.VERBOSITY_TERSE,this.getClass().getName()+":setFocusOffset:Master offset is "+
 			focusOffset+".");
 	// set the commands focus offset
@@ -27,12 +27,16 @@ import java.io.*;
 import java.net.*;
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import ngat.net.*;
 import ngat.util.*;
 import ngat.util.logging.*;
 import ngat.rise.ccd.*;
 import ngat.fits.*;
+import ngat.message.base.COMMAND;
 import ngat.message.ISS_INST.*;
 import ngat.message.INST_DP.*;
 
@@ -59,6 +63,17 @@ public class Ccs
 	 * The maximum port number to send ISS commands on.
 	 */
 	static final int MAXIMUM_PORT_NUMBER = 65535;
+	/**
+	 * The number of ISS client threads used if the "ccs.net.ISS_client_thread_count" property is not set.
+	 * @see #issClient
+	 */
+	static final int DEFAULT_ISS_CLIENT_THREAD_COUNT = 4;
+	/**
+	 * The number of DP(RT) commands in progress at once if the "ccs.net.DP_client_thread_count" property
+	 * is not set.
+	 * @see #dprtClient
+	 */
+	static final int DEFAULT_DP_CLIENT_THREAD_COUNT = 2;
 	/**
 	 * The server class that listens for connections.
 	 */
@@ -89,6 +104,11 @@ public class Ccs
 	 * values/comments/units/fits keyword ordering when writing FITS files.
 	 */
 	private FitsHeaderDefaults fitsHeaderDefaults = null;
+	/**
+	 * The FITS header template, compiled from the FITS header defaults.
+	 * @see #getFitsHeaderTemplate
+	 */
+	private CcsFitsHeaderTemplate fitsHeaderTemplate = null;
 	/**
 	 * This hashtable holds the map between COMMAND sub-class names and their implementations, which
 	 * are stored as the Hashtable data values as class objects of sub-classes of CommandImplementation.
@@ -113,6 +133,46 @@ public class Ccs
 	 * The port number to send iss commands to.
 	 */
 	private int issPortNumber = 0;
+	/**
+	 * The client used to send commands to the ISS.
+	 * @see #sendISSCommand
+	 */
+	private CcsISSClient issClient = null;
+	/**
+	 * The cache of FITS header cards returned by the ISS in reply to GET_FITS.
+	 * @see #getFitsHeaderCache
+	 */
+	private CcsFitsHeaderCache fitsHeaderCache = null;
+	/**
+	 * The collector of system metrics, returned by a FULL level GET_STATUS.
+	 * @see #getSystemMetrics
+	 */
+	private CcsSystemMetrics systemMetrics = null;
+	/**
+	 * The reader of the per-frame stage timing records kept by the C layer.
+	 * @see #getFrameTiming
+	 */
+	private CcsFrameTiming frameTiming = null;
+	/**
+	 * The performance metrics (command, ISS/DP(RT) round trip and frame counters and histograms).
+	 * @see #getMetrics
+	 */
+	private CcsMetrics metrics = null;
+	/**
+	 * The server that returns the performance metrics over HTTP, or null if it is not enabled.
+	 * @see #metrics
+	 * @see #metricsPortNumber
+	 */
+	private CcsMetricsServer metricsServer = null;
+	/**
+	 * The port number the metrics server listens on, or zero if the metrics server is not enabled.
+	 */
+	private int metricsPortNumber = 0;
+	/**
+	 * The ip address the metrics server listens on. This is the loopback address unless configured otherwise,
+	 * as the metrics are not authenticated.
+	 */
+	private InetAddress metricsAddress = null;
 	/**
 	 * The ip address of the machine the DP(RT) is running on, to send Data Pipeline (Real Time) commands to.
 	 */
@@ -121,6 +181,12 @@ public class Ccs
 	 * The port number to send DP(RT) commands to.
 	 */
 	private int dprtPortNumber = 0;
+	/**
+	 * The client (reduction queue) used to send commands to the DP(RT).
+	 * @see #sendDpRtCommand
+	 * @see #queueDpRtCommand
+	 */
+	private CcsDpRtClient dprtClient = null;
 	/**
 	 * The port number to listen for Telescope Image Transfer requests.
 	 */
@@ -133,6 +199,23 @@ public class Ccs
 	 * The error logger.
 	 */
 	protected Logger errorLogger = null;
+	/**
+	 * The dispatcher that passes log and error messages to the loggers on a background thread.
+	 * @see #log
+	 * @see #error
+	 * @see #getLogDispatcher
+	 */
+	private CcsLogDispatcher logDispatcher = null;
+	/**
+	 * The recorder of command and frame lifecycle events.
+	 * @see #getEventRecorder
+	 */
+	private CcsEventRecorder eventRecorder = null;
+	/**
+	 * The tracer of command execution spans.
+	 * @see #getTracer
+	 */
+	private CcsTracer tracer = null;
 	/**
 	 * The thread monitor window.
 	 */
@@ -158,12 +241,18 @@ public class Ccs
 	 * 	is not a valid integer.
 	 * @exception Exception Thrown from FitsFilename.initialise, if the directory listing failed.
 	 * @see #arguments
+	 * @see #synchroniseFitsFilename
 	 * @see #status
 	 * @see #fitsFilename
 	 * @see #libccd
+	 * @see ngat.rise.ccd.CCDLibrary#CCDGlobalLogRingStart
 	 * @see #libngatfits
 	 * @see #fitsHeaderDefaults
+	 * @see #fitsHeaderTemplate
 	 * @see #initLoggers
+	 * @see #logDispatcher
+	 * @see #eventRecorder
+	 * @see #tracer
 	 * @see #implementationList
 	 * @see #initImplementationList
 	 * @see #reInit
@@ -173,12 +262,21 @@ public class Ccs
 	 * @see #dprtPortNumber
 	 * @see #issAddress
 	 * @see #dprtAddress
+	 * @see #issClient
+	 * @see #DEFAULT_ISS_CLIENT_THREAD_COUNT
+	 * @see #fitsHeaderCache
+	 * @see #systemMetrics
+	 * @see #frameTiming
+	 * @see #metrics
+	 * @see #metricsPortNumber
+	 * @see #dprtClient
+	 * @see #DEFAULT_DP_CLIENT_THREAD_COUNT
 	 */
 	private void init() throws FileNotFoundException,IOException,
 		CCDLibraryFormatException,NumberFormatException,CCDLibraryNativeException,Exception
 	{
 		String filename = null;
-		int time;
+		int time,threadCount;
 
 	// create status object and load ccs properties into it
 		status = new CcsStatus();
@@ -202,14 +300,59 @@ public class Ccs
 		}
 	// Logging
 		initLoggers();
+	// now the loggers exist, report any properties that should be numbers but are not
+		reportConfigurationErrors("init");
+	// create the log dispatcher, and start it's dispatch thread if configured
+		logDispatcher = new CcsLogDispatcher(logLogger,errorLogger);
+		try
+		{
+			logDispatcher.loadProperties(status);
+		}
+		catch(Exception e)
+		{
+			error(this.getClass().getName()+":init:initialsing log dispatcher:",e);
+			// don't throw the error - messages are logged on the calling thread if the dispatcher is disabled
+		}
 	// create the fits filename object
 		fitsFilename = new FitsFilename();
 		fitsFilename.setInstrumentCode(status.getProperty("ccs.file.fits.instrument_code"));
 		fitsFilename.setDirectory(status.getProperty("ccs.file.fits.path"));
 		fitsFilename.initialise();
+	// create the event recorder, and start recording if configured
+		eventRecorder = new CcsEventRecorder(this);
+		try
+		{
+			eventRecorder.loadProperties(status);
+		}
+		catch(Exception e)
+		{
+			error(this.getClass().getName()+":init:initialsing event recorder:",e);
+			// don't throw the error - the Ccs runs without recording events
+		}
+	// create the command span tracer, and start tracing if configured
+		tracer = new CcsTracer(this);
+		try
+		{
+			tracer.loadProperties(status);
+		}
+		catch(Exception e)
+		{
+			error(this.getClass().getName()+":init:initialsing tracer:",e);
+			// don't throw the error - the Ccs runs without tracing
+		}
 	// create CCDLibrary control object
 		libccd = new CCDLibrary();
 		libccd.CCDInitialise();
+		libccd.addCallListener(eventRecorder);
+		libccd.addCallListener(tracer);
+	// optionally take C layer logging off the thread reading out the camera
+		if((status.getProperty("ccs.libccd.log.ring.enable") != null)&&
+		   status.getPropertyBoolean("ccs.libccd.log.ring.enable"))
+		{
+			libccd.CCDGlobalLogRingStart(status.getPropertyInteger("ccs.libccd.log.ring.batch_size"),
+						     status.getPropertyInteger("ccs.libccd.log.ring.poll_time"));
+		}
+		synchroniseFitsFilename();
 	// Create instance of the FITS header JNI library.
 		libngatfits = new FitsHeader();
 	// Create instance of FITS header defaults
@@ -234,6 +377,16 @@ public class Ccs
 			error(this.getClass().getName()+":init:loading default FITS header properties:",e);
 			throw e;
 		}
+	// compile the FITS header template from the defaults
+		try
+		{
+			fitsHeaderTemplate = new CcsFitsHeaderTemplate(fitsHeaderDefaults,status);
+		}
+		catch(Exception e)
+		{
+			error(this.getClass().getName()+":init:compiling FITS header template:",e);
+			throw e;
+		}
 	// Create and initialise the implementationList
 		initImplementationList();
 	// initialise port numbers from properties file/ command line arguments
@@ -272,6 +425,82 @@ public class Ccs
 			error(this.getClass().getName()+":illegal internet address:",e);
 			throw e;
 		}
+	// initialise the metrics server port number and address from the properties file,
+	// zero means no metrics server
+		metrics = new CcsMetrics(this);
+		try
+		{
+			if(status.getPropertyBoolean("ccs.net.metrics_enable"))
+			{
+				metricsPortNumber = status.getPropertyInteger("ccs.net.default_metrics_port_number");
+				// getByName(null) is the loopback address
+				metricsAddress = InetAddress.getByName(status.getProperty("ccs.net.metrics_address"));
+			}
+		}
+		catch(Exception e)
+		{
+			error(this.getClass().getName()+":init:initialsing metrics port number:",e);
+			metricsPortNumber = 0;
+			// don't throw the error - the Ccs runs without the metrics server
+		}
+	// create the ISS client, with a pool of threads to send ISS commands on (one connection per command)
+		try
+		{
+			threadCount = status.getPropertyInteger("ccs.net.ISS_client_thread_count");
+		}
+		catch(NumberFormatException e)
+		{
+			error(this.getClass().getName()+":init:initialsing ISS client thread count:",e);
+			threadCount = DEFAULT_ISS_CLIENT_THREAD_COUNT;
+		}
+		issClient = new CcsISSClient(this,issAddress,issPortNumber,threadCount);
+	// create the GET_FITS header cache, and start it's background refresh if configured
+		fitsHeaderCache = new CcsFitsHeaderCache(this);
+		try
+		{
+			fitsHeaderCache.loadProperties(status);
+		}
+		catch(NumberFormatException e)
+		{
+			error(this.getClass().getName()+":init:initialsing FITS header cache:",e);
+			// don't throw the error - GET_FITS is sent for every frame if the cache is disabled
+		}
+	// create the system metrics collector, and start it's background sampling if configured
+		systemMetrics = new CcsSystemMetrics(this);
+		try
+		{
+			systemMetrics.loadProperties(status);
+		}
+		catch(NumberFormatException e)
+		{
+			error(this.getClass().getName()+":init:initialsing system metrics:",e);
+			// don't throw the error - GET_STATUS samples the metrics itself if the sampling is disabled
+		}
+	// create the frame timing reader, and start it's background reading if configured
+		frameTiming = new CcsFrameTiming(this);
+		try
+		{
+			frameTiming.loadProperties(status);
+		}
+		catch(NumberFormatException e)
+		{
+			error(this.getClass().getName()+":init:initialsing frame timing:",e);
+			// don't throw the error - GET_STATUS reads the frame timing itself if the reading is disabled
+		}
+	// create the DP(RT) client, with a queue of commands to send to the DP(RT)
+		try
+		{
+			threadCount = status.getPropertyInteger("ccs.net.DP_client_thread_count");
+		}
+		catch(NumberFormatException e)
+		{
+			error(this.getClass().getName()+":init:initialsing DP(RT) client thread count:",e);
+			threadCount = DEFAULT_DP_CLIENT_THREAD_COUNT;
+		}
+		dprtClient = new CcsDpRtClient(this,dprtAddress,dprtPortNumber,threadCount);
+		if((status.getProperty("ccs.net.DP_simulate") != null)&&
+		   status.getPropertyBoolean("ccs.net.DP_simulate"))
+			dprtClient.setSimulate(true,status.getPropertyInteger("ccs.net.DP_simulate_time"));
 	// initialise default connection response times from properties file
 		try
 		{
@@ -628,17 +857,19 @@ public class Ccs
 	 * This is the re-initialisation routine. This is called on a REDATUM level reboot, and
 	 * does some of the operations in the init routine. It re-loads the Ccs,filter and FITS configuration
 	 * files, but NOT the network one. It resets the FitsFilename directory and instrument code. 
-	 * It re-loads FITS header defaults.
+	 * It re-loads FITS header defaults, and re-compiles the FITS header template.
 	 * It re-initialises default connection response times from properties file.
 	 * The init method must be kept up to date with respect to this method.
 	 * @see #status
 	 * @see #fitsFilename
 	 * @see #fitsHeaderDefaults
+	 * @see #fitsHeaderTemplate
 	 * @see #init
 	 * @exception FileNotFoundException Thrown if the property file cannot be found.
 	 * @exception IOException Thrown if the property file cannot be accessed and the properties cannot
 	 * 	be loaded for some reason.
 	 * @exception Exception Thrown from FitsFilename.initialise, if the directory listing failed.
+	 * @see #synchroniseFitsFilename
 	 */
 	public void reInit() throws FileNotFoundException,IOException,
 		CCDLibraryFormatException,NumberFormatException,CCDLibraryNativeException,Exception
@@ -662,12 +893,14 @@ public class Ccs
 			error(this.getClass().getName()+":reinit:loading properties:",e);
 			throw e;
 		}
+		reportConfigurationErrors("reInit");
 	// don't change errorLogger to files defined in loaded properties
 	// don't change logLogger to files defined in loaded properties
 	// set the fits filename instrument code/directory, and re-initialise runnum etc.
 		fitsFilename.setInstrumentCode(status.getProperty("ccs.file.fits.instrument_code"));
 		fitsFilename.setDirectory(status.getProperty("ccs.file.fits.path"));
 		fitsFilename.initialise();
+		synchroniseFitsFilename();
 	// don't create CCDLibrary control object
 	// don't create instance of FITS header defaults
 	// reload  FITS header defaults from properties file.
@@ -688,9 +921,73 @@ public class Ccs
 			error(this.getClass().getName()+":reinit:loading default FITS header properties:",e);
 			throw e;
 		}
+	// re-compile the FITS header template from the reloaded defaults
+		try
+		{
+			fitsHeaderTemplate = new CcsFitsHeaderTemplate(fitsHeaderDefaults,status);
+		}
+		catch(Exception e)
+		{
+			error(this.getClass().getName()+":reinit:compiling FITS header template:",e);
+			throw e;
+		}
 	// don't create and initialise the implementationList
 	// don't initialise port numbers from properties file
 	// don't initialise address's from properties file
+	// reload the GET_FITS header cache configuration, this also empties the cache
+		try
+		{
+			fitsHeaderCache.loadProperties(status);
+		}
+		catch(NumberFormatException e)
+		{
+			error(this.getClass().getName()+":reinit:initialsing FITS header cache:",e);
+		}
+	// reload the system metrics configuration
+		try
+		{
+			systemMetrics.loadProperties(status);
+		}
+		catch(NumberFormatException e)
+		{
+			error(this.getClass().getName()+":reinit:initialsing system metrics:",e);
+		}
+	// reload the frame timing configuration
+		try
+		{
+			frameTiming.loadProperties(status);
+		}
+		catch(NumberFormatException e)
+		{
+			error(this.getClass().getName()+":reinit:initialsing frame timing:",e);
+		}
+	// reload the log dispatcher configuration, this dispatches any queued messages first
+		try
+		{
+			logDispatcher.loadProperties(status);
+		}
+		catch(Exception e)
+		{
+			error(this.getClass().getName()+":reinit:initialsing log dispatcher:",e);
+		}
+	// reload the event recorder configuration, this switches recording on or off
+		try
+		{
+			eventRecorder.loadProperties(status);
+		}
+		catch(Exception e)
+		{
+			error(this.getClass().getName()+":reinit:initialsing event recorder:",e);
+		}
+	// reload the tracer configuration, this switches tracing on or off
+		try
+		{
+			tracer.loadProperties(status);
+		}
+		catch(Exception e)
+		{
+			error(this.getClass().getName()+":reinit:initialsing tracer:",e);
+		}
 	// initialise default connection response times from properties file
 		try
 		{
@@ -871,10 +1168,13 @@ public class Ccs
 	/**
 	 * This is the run routine. It starts a new server to handle incoming requests, and waits for the
 	 * server to terminate. A thread monitor is also started if it was requested from the command line.
+	 * The metrics server is started if it is enabled.
 	 * @see #server
 	 * @see #ccsPortNumber
 	 * @see #titServer
 	 * @see #titPortNumber
+	 * @see #metricsServer
+	 * @see #metricsPortNumber
 	 * @see #arguments
 	 */
 	private void run()
@@ -912,6 +1212,13 @@ public class Ccs
 		}
 		server.start();
 		titServer.start();
+		if(metricsPortNumber > 0)
+		{
+			metricsServer = new CcsMetricsServer(this,metricsAddress,metricsPortNumber);
+			metricsServer.start();
+			log(Logging.VERBOSITY_VERY_TERSE,this.getClass().getName()+":run:metrics server started on "+
+				metricsAddress.getHostAddress()+" port:"+metricsPortNumber);
+		}
 		try
 		{
 			server.join();
@@ -924,12 +1231,22 @@ public class Ccs
 
 	/**
 	 * Routine to be called at the end of execution of Ccs to close down communications.
-	 * Currently closes CcsTCPServer and TitServer.
+	 * Currently closes CcsTCPServer and TitServer, and stops draining the C layer log ring.
 	 * @see CcsTCPServer#close
 	 * @see #server
 	 * @see TitServer#close
 	 * @see #titServer
 	 * @see #shutdownController
+	 * @see ngat.rise.ccd.CCDLibrary#CCDGlobalLogRingStop
+	 * @see #issClient
+	 * @see #fitsHeaderCache
+	 * @see #systemMetrics
+	 * @see #frameTiming
+	 * @see #dprtClient
+	 * @see #logDispatcher
+	 * @see #metricsServer
+	 * @see #eventRecorder
+	 * @see #tracer
 	 */
 	public void close()
 	{
@@ -943,6 +1260,17 @@ public class Ccs
 		//}
 		server.close();
 		titServer.close();
+		if(metricsServer != null)
+			metricsServer.close();
+		fitsHeaderCache.stop();
+		systemMetrics.stop();
+		frameTiming.stop();
+		issClient.close();
+		dprtClient.close();
+		libccd.CCDGlobalLogRingStop();
+		eventRecorder.stop();
+		tracer.stop();
+		logDispatcher.stop();
 	}
 
 	/**
@@ -954,6 +1282,86 @@ public class Ccs
 		return server;
 	}
 
+	/**
+	 * Get the ISS client instance, e.g. to retrieve ISS command latencies.
+	 * @return The ISS client instance.
+	 * @see #issClient
+	 */
+	public CcsISSClient getISSClient()
+	{
+		return issClient;
+	}
+
+	/**
+	 * Get the cache of FITS header cards returned by the ISS in reply to GET_FITS.
+	 * @return The FITS header cache.
+	 * @see #fitsHeaderCache
+	 */
+	public CcsFitsHeaderCache getFitsHeaderCache()
+	{
+		return fitsHeaderCache;
+	}
+
+	/**
+	 * Get the system metrics collector.
+	 * @return The system metrics collector.
+	 * @see #systemMetrics
+	 */
+	public CcsSystemMetrics getSystemMetrics()
+	{
+		return systemMetrics;
+	}
+
+	/**
+	 * Get the reader of the per-frame stage timing records.
+	 * @return The frame timing reader.
+	 * @see #frameTiming
+	 */
+	public CcsFrameTiming getFrameTiming()
+	{
+		return frameTiming;
+	}
+
+	/**
+	 * Get the performance metrics.
+	 * @return The metrics.
+	 * @see #metrics
+	 */
+	public CcsMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * Get the log dispatcher, e.g. to retrieve the number of dropped messages.
+	 * @return The log dispatcher.
+	 * @see #logDispatcher
+	 */
+	public CcsLogDispatcher getLogDispatcher()
+	{
+		return logDispatcher;
+	}
+
+	/**
+	 * Get the recorder of command and frame lifecycle events.
+	 * @return The event recorder.
+	 * @see #eventRecorder
+	 */
+	public CcsEventRecorder getEventRecorder()
+	{
+		return eventRecorder;
+	}
+
+	/**
+	 * Get the tracer of command execution spans.
+	 * @return The tracer.
+	 * @see #tracer
+	 */
+	public CcsTracer getTracer()
+	{
+		return tracer;
+	}
+
 	/**
 	 * Get Fits filename generation object instance.
 	 * @return The Ccs FitsFilename fitsFilename instance.
@@ -963,6 +1371,24 @@ public class Ccs
 		return fitsFilename;
 	}
 
+	/**
+	 * Bring the multrun number of the fitsFilename instance up to the last multrun number allocated by the
+	 * C layer's FITS filename allocator. The C layer remembers multrun numbers of images that have since
+	 * been moved out of the FITS directory, which FitsFilename.initialise cannot see.
+	 * @exception CCDLibraryNativeException Thrown if the C layer failed to seed its filename allocator.
+	 * @see #fitsFilename
+	 * @see #libccd
+	 * @see ngat.rise.ccd.CCDLibrary#CCDMultrunFilenameGetMultrun
+	 */
+	public void synchroniseFitsFilename() throws CCDLibraryNativeException
+	{
+		int multRunNumber;
+
+		multRunNumber = libccd.CCDMultrunFilenameGetMultrun();
+		while(fitsFilename.getMultRunNumber() < multRunNumber)
+			fitsFilename.nextMultRunNumber();
+	}
+
 	/**
 	 * Get libccd instance.
 	 * @return The libccd instance.
@@ -995,6 +1421,16 @@ public class Ccs
 		return fitsHeaderDefaults;
 	}
 
+	/**
+	 * Get the FITS header template, compiled from the FITS header defaults at startup and on a reboot.
+	 * @return The fitsHeaderTemplate instance.
+	 * @see #fitsHeaderTemplate
+	 */
+	public CcsFitsHeaderTemplate getFitsHeaderTemplate()
+	{
+		return fitsHeaderTemplate;
+	}
+
 	/**
 	 * Get status instance.
 	 * @return The status instance.
@@ -1046,6 +1482,27 @@ public class Ccs
 			return unknownCommandImplementation;
 	}
 
+	/**
+	 * Report (as errors) any properties in the status's configuration that should be numbers but are not valid.
+	 * This is called after the properties are loaded or reloaded, so a bad value is reported then, rather than
+	 * when a command first reads it.
+	 * @param methodName The name of the calling method, used in the error messages.
+	 * @see #status
+	 * @see CcsStatus#getConfiguration
+	 * @see CcsConfiguration#getErrorList
+	 */
+	protected void reportConfigurationErrors(String methodName)
+	{
+		List errorList = null;
+
+		errorList = status.getConfiguration().getErrorList();
+		for(int i = 0; i < errorList.size(); i++)
+		{
+			error(this.getClass().getName()+":"+methodName+":loading properties:"+
+			      (String)(errorList.get(i)));
+		}
+	}
+
 	/**
 	 * Method to set the level of logging .
 	 * @param level An integer, from 0 to 5.
@@ -1069,10 +1526,8 @@ public class Ccs
 	 * @param commandThread The thread the passed in command (and this method) is running on.
 	 * @return The done message returned from te ISS, or an error message created by this routine
 	 * 	if the done was null.
-	 * @see #issAddress
-	 * @see #issPortNumber
+	 * @see #issClient
 	 * @see #sendISSCommand(INST_TO_ISS,CcsTCPServerConnectionThread,boolean)
-	 * @see CcsTCPClientConnectionThread
 	 * @see CcsTCPServerConnectionThread#getAbortProcessCommand
 	 */
 	public INST_TO_ISS_DONE sendISSCommand(INST_TO_ISS command,CcsTCPServerConnectionThread commandThread)
@@ -1081,10 +1536,11 @@ public class Ccs
 	}
 
 	/**
-	 * Routine to send a command from the instrument (this application/CCS) to the ISS. The routine
+	 * Routine to send a command from the instrument (this application/CCS) to the ISS. The command is
+	 * sent on one of the issClient's pool threads, and this routine
 	 * waits until the command's done message has been returned from the ISS and returns this.
-	 * If checkAbort is set and the commandThread is aborted this also stops waiting for the 
-	 * done message to be returned.
+	 * If checkAbort is set, the command's Future is registered with the commandThread, so if the commandThread
+	 * is aborted the wait for the done message to be returned is cancelled immediately.
 	 * @param command The command to send to the ISS.
 	 * @param commandThread The thread the passed in command (and this method) is running on.
 	 * @param checkAbort A boolean, set to true if we want to check for commandThread aborting.
@@ -1092,50 +1548,58 @@ public class Ccs
 	 * 	to an abort occuring.
 	 * @return The done message returned from te ISS, or an error message created by this routine
 	 * 	if the done was null.
-	 * @see #issAddress
-	 * @see #issPortNumber
-	 * @see CcsTCPClientConnectionThread
+	 * @see #issClient
+	 * @see CcsISSClient#sendCommand
+	 * @see CcsTCPServerConnectionThread#setSubCommandFuture
 	 * @see CcsTCPServerConnectionThread#getAbortProcessCommand
+	 * @see #fitsHeaderCache
+	 * @see CcsFitsHeaderCache#invalidate
+	 * @see CcsTracer#CATEGORY_ISS
 	 */
 	public INST_TO_ISS_DONE sendISSCommand(INST_TO_ISS command,CcsTCPServerConnectionThread commandThread,
 		boolean checkAbort)
 	{
-		CcsTCPClientConnectionThread thread = null;
+		Future<INST_TO_ISS_DONE> future = null;
 		INST_TO_ISS_DONE done = null;
-		boolean finished = false;
+		String commandName = null;
+		long spanStartTime;
+		boolean aborted = false;
 
+		spanStartTime = tracer.spanStart();
 		log(Logging.VERBOSITY_TERSE,
 			this.getClass().getName()+":sendISSCommand:"+command.getClass().getName());
-		thread = new CcsTCPClientConnectionThread(issAddress,issPortNumber,command,commandThread);
-		thread.setCcs(this);
-		thread.start();
-		finished = false;
-		while(finished == false)
+		future = issClient.sendCommand(command,commandThread);
+		// If the commandThread is aborted, this cancels the future
+		if(checkAbort)
+			commandThread.setSubCommandFuture(future);
+		try
+		{
+			done = future.get();
+		}
+		catch(CancellationException e)
+		{
+			aborted = true;
+		}
+		catch(ExecutionException e)
+		{
+			error(this.getClass().getName()+":sendISSCommand:"+command.getClass().getName()+
+			      ":sending command failed:",e);
+		}
+		catch(InterruptedException e)
+		{
+			error(this.getClass().getName()+":sendISSCommand:"+command.getClass().getName()+
+			      ":wait interrupted:",e);
+		}
+		finally
 		{
-			try
-			{
-				thread.join(100);// wait 100 millis for the thread to finish
-			}
-			catch(InterruptedException e)
-			{
-				error("run:join interrupted:",e);
-			}
-		// If the thread has finished so has this loop
-			finished = (thread.isAlive() == false);
-		// check if the thread has been aborted, if checkAbort has been set.
 			if(checkAbort)
-			{
-			// If the commandThread has been aborted, stop processing this thread
-				if(commandThread.getAbortProcessCommand())
-					finished = true;
-			}
+				commandThread.setSubCommandFuture(null);
 		}
-		done = (INST_TO_ISS_DONE)thread.getDone();
 		if(done == null)
 		{
-			// one reason the done is null is if we escaped from the loop
+			// one reason the done is null is if the wait was cancelled
 			// because the Ccs server thread was aborted.
-			if(commandThread.getAbortProcessCommand())
+			if(aborted||commandThread.getAbortProcessCommand())
 			{
 				done = new INST_TO_ISS_DONE(command.getId());
 				error(this.getClass().getName()+":sendISSCommand:"+
@@ -1159,56 +1623,102 @@ public class Ccs
 		log(Logging.VERBOSITY_TERSE,
 			"Done:"+done.getClass().getName()+":successful:"+done.getSuccessful()+
 			":error number:"+done.getErrorNum()+":error string:"+done.getErrorString());
+		// any other ISS command (e.g. a focus offset) may change the cards GET_FITS returns
+		if((command instanceof GET_FITS) == false)
+			fitsHeaderCache.invalidate();
+		commandName = command.getClass().getName();
+		tracer.spanEnd(CcsTracer.CATEGORY_ISS,commandName.substring(commandName.lastIndexOf('.')+1),
+			       spanStartTime);
 		return done;
 	}
 
 	/**
-	 * Routine to send a command from the instrument (this application/CCS) to the DP(RT). The routine
+	 * Routine to send a command from the instrument (this application/CCS) to the DP(RT). The command is
+	 * queued on the dprtClient, and this routine
 	 * waits until the command's done message has been returned from the DP(RT) and returns this.
 	 * If the commandThread is aborted this also stops waiting for the done message to be returned.
 	 * @param command The command to send to the DP(RT).
 	 * @param commandThread The thread the passed in command (and this method) is running on.
 	 * @return The done message returned from te DP(RT), or an error message created by this routine
 	 * 	if the done was null.
-	 * @see #dprtAddress
-	 * @see #dprtPortNumber
-	 * @see CcsTCPClientConnectionThread
-	 * @see CcsTCPServerConnectionThread#getAbortProcessCommand
+	 * @see #queueDpRtCommand
+	 * @see #getDpRtDone
 	 */
 	public INST_TO_DP_DONE sendDpRtCommand(INST_TO_DP command,CcsTCPServerConnectionThread commandThread)
 	{
-		CcsTCPClientConnectionThread thread = null;
-		INST_TO_DP_DONE done = null;
-		boolean finished = false;
+		Future<INST_TO_DP_DONE> future = null;
 
+		future = queueDpRtCommand(command,commandThread);
+		return getDpRtDone(command,commandThread,future);
+	}
+
+	/**
+	 * Routine to queue a command from the instrument (this application/CCS) to the DP(RT). The routine
+	 * returns immediately, so the command thread can carry on whilst the DP(RT) processes the command.
+	 * The done message can be retrieved using getDpRtDone.
+	 * @param command The command to send to the DP(RT).
+	 * @param commandThread The thread the passed in command (and this method) is running on.
+	 * @return A Future to pass to getDpRtDone.
+	 * @see #dprtClient
+	 * @see #getDpRtDone
+	 * @see CcsDpRtClient#sendCommand
+	 */
+	public Future<INST_TO_DP_DONE> queueDpRtCommand(INST_TO_DP command,CcsTCPServerConnectionThread commandThread)
+	{
 		log(Logging.VERBOSITY_TERSE,
-			this.getClass().getName()+":sendDpRtCommand:"+command.getClass().getName());
-		thread = new CcsTCPClientConnectionThread(dprtAddress,dprtPortNumber,command,commandThread);
-		thread.setCcs(this);
-		thread.start();
-		finished = false;
-		while(finished == false)
+			this.getClass().getName()+":queueDpRtCommand:"+command.getClass().getName());
+		return dprtClient.sendCommand(command,commandThread);
+	}
+
+	/**
+	 * Routine to wait for the done message of a command queued using queueDpRtCommand.
+	 * If the commandThread is aborted the command is cancelled and this stops waiting for the done message
+	 * to be returned.
+	 * @param command The command sent to the DP(RT), or the command being implemented that queued it.
+	 * 	This is used for the id and error messages of the done message created if the done was null.
+	 * @param commandThread The thread the passed in command (and this method) is running on.
+	 * @param future The Future returned from queueDpRtCommand.
+	 * @return The done message returned from te DP(RT), or an error message created by this routine
+	 * 	if the done was null.
+	 * @see #queueDpRtCommand
+	 * @see CcsTCPServerConnectionThread#setSubCommandFuture
+	 * @see CcsTCPServerConnectionThread#getAbortProcessCommand
+	 */
+	public INST_TO_DP_DONE getDpRtDone(COMMAND command,CcsTCPServerConnectionThread commandThread,
+					   Future<INST_TO_DP_DONE> future)
+	{
+		INST_TO_DP_DONE done = null;
+		boolean aborted = false;
+
+		// If the commandThread is aborted, this cancels the future
+		commandThread.setSubCommandFuture(future);
+		try
 		{
-			try
-			{
-				thread.join(100);// wait 100 millis for the thread to finish
-			}
-			catch(InterruptedException e)
-			{
-				error("run:join interrupted:",e);
-			}
-		// If the thread has finished so has this loop
-			finished = (thread.isAlive() == false);
-		// If the commandThread has been aborted, stop processing this thread
-			if(commandThread.getAbortProcessCommand())
-				finished = true;
+			done = future.get();
+		}
+		catch(CancellationException e)
+		{
+			aborted = true;
+		}
+		catch(ExecutionException e)
+		{
+			error(this.getClass().getName()+":getDpRtDone:"+command.getClass().getName()+
+			      ":sending command failed:",e);
+		}
+		catch(InterruptedException e)
+		{
+			error(this.getClass().getName()+":getDpRtDone:"+command.getClass().getName()+
+			      ":wait interrupted:",e);
+		}
+		finally
+		{
+			commandThread.setSubCommandFuture(null);
 		}
-		done = (INST_TO_DP_DONE)thread.getDone();
 		if(done == null)
 		{
-			// one reason the done is null is if we escaped from the loop
+			// one reason the done is null is if the wait was cancelled
 			// because the Ccs server thread was aborted.
-			if(commandThread.getAbortProcessCommand())
+			if(aborted||commandThread.getAbortProcessCommand())
 			{
 				done = new INST_TO_DP_DONE(command.getId());
 				error(this.getClass().getName()+":sendDpRtCommand:"+
@@ -1236,14 +1746,18 @@ public class Ccs
 	}
 
 	/**
-	 * Routine to write the string to the relevant logger. If the relevant logger has not been
+	 * Routine to write the string to the relevant logger. If the log dispatcher is running, the string
+	 * is queued and written to the logger on the dispatch thread. If the relevant logger has not been
 	 * created yet the error gets written to System.out.
 	 * @param level The level of logging this message belongs to.
 	 * @param s The string to write.
 	 * @see #logLogger
+	 * @see #logDispatcher
 	 */
 	public void log(int level,String s)
 	{
+		if((logDispatcher != null)&&logDispatcher.log(level,s))
+			return;
 		if(logLogger != null)
 			logLogger.log(level,s);
 		else
@@ -1254,13 +1768,17 @@ public class Ccs
 	}
 
 	/**
-	 * Routine to write the string to the relevant logger. If the relevant logger has not been
+	 * Routine to write the string to the relevant logger. If the log dispatcher is running, the string
+	 * is queued and written to the logger on the dispatch thread. If the relevant logger has not been
 	 * created yet the error gets written to System.err.
 	 * @param s The string to write.
 	 * @see #errorLogger
+	 * @see #logDispatcher
 	 */
 	public void error(String s)
 	{
+		if((logDispatcher != null)&&logDispatcher.error(s,null))
+			return;
 		if(errorLogger != null)
 			errorLogger.log(CcsConstants.CCS_LOG_LEVEL_ERROR,s);
 		else
@@ -1268,14 +1786,18 @@ public class Ccs
 	}
 
 	/**
-	 * Routine to write the string to the relevant logger. If the relevant logger has not been
+	 * Routine to write the string to the relevant logger. If the log dispatcher is running, the string
+	 * is queued and written to the logger on the dispatch thread. If the relevant logger has not been
 	 * created yet the error gets written to System.err.
 	 * @param s The string to write.
 	 * @param e An exception that caused the error to occur.
 	 * @see #errorLogger
+	 * @see #logDispatcher
 	 */
 	public void error(String s,Exception e)
 	{
+		if((logDispatcher != null)&&logDispatcher.error(s,e))
+			return;
 		if(errorLogger != null)
 		{
 			errorLogger.log(CcsConstants.CCS_LOG_LEVEL_ERROR,s,e);
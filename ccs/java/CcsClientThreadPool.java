@@ -0,0 +1,273 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Ccs.
+
+    Ccs is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Ccs is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Ccs; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CcsClientThreadPool.java
+// $Header$
+import java.lang.*;
+import java.net.*;
+import java.util.concurrent.*;
+
+import ngat.message.base.*;
+import ngat.util.logging.*;
+
+/**
+ * This class is the base of the Ccs clients that send commands to another system (the ISS and DP(RT))
+ * on a pool of long lived threads, rather than starting a new thread for each command. It is the threads
+ * that are pooled, not connections: each command is sent over a new connection using a
+ * CcsTCPClientConnectionThread's protocol (one command per connection), run on a pool thread.
+ * A Future is returned for each command, that the calling thread can wait on, or cancel when the Ccs
+ * command is aborted.
+ * <p>
+ * The time each command takes is logged, traced and recorded as an event. Subclasses say how the
+ * time is added to the metrics.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see CcsTCPClientConnectionThread
+ * @see CcsISSClient
+ * @see CcsDpRtClient
+ */
+public abstract class CcsClientThreadPool<C extends COMMAND,D extends COMMAND_DONE>
+{
+	/**
+	 * Revision Control System id string, showing the version of the Class.
+	 */
+	public final static String RCSID = new String("$Id$");
+	/**
+	 * The Ccs object.
+	 */
+	protected Ccs ccs = null;
+	/**
+	 * The ip address of the machine the commands are sent to.
+	 */
+	protected InetAddress address = null;
+	/**
+	 * The port number to send commands to.
+	 */
+	protected int portNumber = 0;
+	/**
+	 * The pool of threads the commands are sent on.
+	 */
+	protected ThreadPoolExecutor executor = null;
+	/**
+	 * The name of the system commands are sent to, used to name the trace spans, e.g. 'ISS'.
+	 */
+	private String systemName = null;
+	/**
+	 * The type of event recorded for each command.
+	 * @see CcsEventRecorder
+	 */
+	private String eventType = null;
+
+	/**
+	 * Constructor. Creates and starts the thread pool.
+	 * @param c The Ccs object.
+	 * @param a The ip address of the machine the commands are sent to.
+	 * @param p The port number to send commands to.
+	 * @param s The name of the system commands are sent to, e.g. 'ISS'.
+	 * @param e The type of event recorded for each command.
+	 * @param threadCount The number of pool threads kept running.
+	 * @param maxThreadCount The maximum number of pool threads.
+	 * @param keepAliveTime How long extra pool threads (above threadCount) are kept idle before they
+	 *        terminate, in seconds.
+	 * @param queue The queue commands wait in when all the pool threads are busy.
+	 * @exception IllegalArgumentException Thrown if threadCount is less than one.
+	 * @see #executor
+	 */
+	public CcsClientThreadPool(Ccs c,InetAddress a,int p,String s,String e,int threadCount,int maxThreadCount,
+				   long keepAliveTime,BlockingQueue<Runnable> queue) throws IllegalArgumentException
+	{
+		super();
+		if(threadCount < 1)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":Illegal thread count:"+
+							   threadCount);
+		}
+		ccs = c;
+		address = a;
+		portNumber = p;
+		systemName = s;
+		eventType = e;
+		executor = new ThreadPoolExecutor(threadCount,maxThreadCount,keepAliveTime,TimeUnit.SECONDS,queue,
+						  new ClientThreadFactory(this.getClass().getName()));
+		executor.prestartAllCoreThreads();
+	}
+
+	/**
+	 * Send a command. The command is sent on a pool thread, and this method returns immediately.
+	 * @param command The command to send.
+	 * @param commandThread The thread the Ccs command that caused this command to be sent is running on.
+	 *        Acknowledgements are passed back to the Ccs client through this thread.
+	 *        This can be null if the Ccs is sending the command on its own behalf.
+	 * @return A Future, which returns the done message, or null if the communication failed.
+	 * @exception RejectedExecutionException Thrown if the client has been closed.
+	 * @see #close
+	 * @see CcsClientThreadPool.CommandCallable
+	 */
+	public Future<D> sendCommand(C command,CcsTCPServerConnectionThread commandThread)
+		throws RejectedExecutionException
+	{
+		return executor.submit(new CommandCallable(command,commandThread));
+	}
+
+	/**
+	 * Get the number of commands waiting for a pool thread.
+	 * @return The number of commands in the queue, not including those in progress.
+	 */
+	public int getQueueLength()
+	{
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * Stop the pool threads. Commands in progress are interrupted, and queued commands are not sent.
+	 */
+	public void close()
+	{
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Send a command and wait for the done message, on the calling (pool) thread.
+	 * A CcsTCPClientConnectionThread is created, and its run method called on this thread, rather than
+	 * starting it as a new thread.
+	 * @param command The command to send.
+	 * @param commandThread The thread the Ccs command that caused this command to be sent is running on.
+	 * @return The done message, or null if the communication failed.
+	 * @exception Exception Thrown if the command could not be sent.
+	 */
+	protected D send(C command,CcsTCPServerConnectionThread commandThread) throws Exception
+	{
+		CcsTCPClientConnectionThread thread = null;
+
+		thread = new CcsTCPClientConnectionThread(address,portNumber,command,commandThread);
+		thread.setCcs(ccs);
+		thread.run();
+		return (D)thread.getDone();
+	}
+
+	/**
+	 * Add the time a command took to the metrics.
+	 * @param commandClassName The class name of the command.
+	 * @param time The time the command took, in milliseconds.
+	 */
+	protected abstract void addMetrics(String commandClassName,long time);
+
+	/**
+	 * The task run on a pool thread to send one command.
+	 */
+	protected class CommandCallable implements Callable<D>
+	{
+		/**
+		 * The command to send.
+		 */
+		private C command = null;
+		/**
+		 * The thread the Ccs command that caused this command to be sent is running on.
+		 */
+		private CcsTCPServerConnectionThread commandThread = null;
+
+		/**
+		 * Constructor.
+		 * @param c The command to send.
+		 * @param ct The thread the Ccs command that caused this command to be sent is running on.
+		 */
+		public CommandCallable(C c,CcsTCPServerConnectionThread ct)
+		{
+			super();
+			command = c;
+			commandThread = ct;
+		}
+
+		/**
+		 * Send the command using send. The time taken is traced, logged, added to the metrics and
+		 * recorded as an event.
+		 * @return The done message, or null if the communication failed.
+		 * @exception Exception Thrown if send failed.
+		 * @see #send
+		 * @see #addMetrics
+		 * @see CcsTracer#CATEGORY_CLIENT
+		 */
+		public D call() throws Exception
+		{
+			D done = null;
+			String commandName = null;
+			long startTime,time,spanStartTime;
+
+			commandName = command.getClass().getName();
+			startTime = System.currentTimeMillis();
+			spanStartTime = ccs.getTracer().spanStart();
+			done = send(command,commandThread);
+			time = System.currentTimeMillis()-startTime;
+			ccs.getTracer().spanEnd(CcsTracer.CATEGORY_CLIENT,systemName+":"+
+						commandName.substring(commandName.lastIndexOf('.')+1),spanStartTime);
+			ccs.log(Logging.VERBOSITY_INTERMEDIATE,CcsClientThreadPool.this.getClass().getName()+":call:"+
+				commandName+" took "+time+" ms.");
+			addMetrics(commandName,time);
+			if(ccs.getEventRecorder().isEnabled())
+			{
+				ccs.getEventRecorder().record(eventType,commandName,startTime,time*1000L,
+					"successful="+((done != null)&&done.getSuccessful()));
+			}
+			return done;
+		}
+	}
+
+	/**
+	 * Thread factory for the pool, so the threads have recognisable names.
+	 */
+	protected static class ClientThreadFactory implements ThreadFactory
+	{
+		/**
+		 * The start of each thread's name.
+		 */
+		private String namePrefix = null;
+		/**
+		 * The number of threads created, used to name the threads.
+		 */
+		private int threadNumber = 0;
+
+		/**
+		 * Constructor.
+		 * @param n The start of each thread's name, e.g. the client's class name.
+		 */
+		public ClientThreadFactory(String n)
+		{
+			super();
+			namePrefix = n;
+		}
+
+		/**
+		 * Create a pool thread.
+		 * @param r What the thread should run.
+		 * @return The thread.
+		 */
+		public synchronized Thread newThread(Runnable r)
+		{
+			Thread thread = null;
+
+			thread = new Thread(r,namePrefix+"-"+threadNumber);
+			threadNumber++;
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
+//
+// $Log: not supported by cvs2svn $
+//
@@ -0,0 +1,452 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Ccs.
+
+    Ccs is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Ccs is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Ccs; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CcsConfiguration.java
+// $Header$
+import java.lang.*;
+import java.util.Enumeration;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Properties;
+import java.util.Vector;
+
+/**
+ * This class holds the Ccs configuration (the network, Ccs and filter properties), parsed once when the
+ * properties are loaded. Each property value is parsed into every type (integer, long, double, boolean)
+ * it is valid for, and lookup tables are built for the filter wheels and the binned readout dimensions,
+ * so getting a property does not parse strings or scan property keys.
+ * A configuration is not changed once it has been created. When the properties are reloaded, CcsStatus
+ * creates a new configuration and replaces the old one in a single reference write, so a command that gets
+ * the configuration once sees a consistent set of properties even if a reload happens whilst it is running.
+ * Properties the Ccs reads as numbers (see INTEGER_KEY_PATTERN_LIST and DOUBLE_KEY_PATTERN_LIST) are checked
+ * when the configuration is created, and any that are not valid are listed in the error list, so they
+ * can be reported when the properties are loaded rather than when a command first reads them.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see CcsStatus#getConfiguration
+ */
+public class CcsConfiguration
+{
+	/**
+	 * Revision Control System id string, showing the version of the Class.
+	 */
+	public final static String RCSID = new String("$Id$");
+	/**
+	 * The largest binning factor the readout dimensions lookup tables are built for.
+	 * @see #numberColumnsList
+	 * @see #numberRowsList
+	 */
+	public final static int MAX_BIN = 16;
+	/**
+	 * Regular expressions matching the keys of properties whose values must be valid integers.
+	 * @see #validateValues
+	 */
+	private final static String INTEGER_KEY_PATTERN_LIST[] = {"ccs\\.mirror_fold_position",
+		"ccs\\.get_fits\\.order_number_offset","ccs\\.server_connection\\..*_acknowledge_time",
+		"ccs\\.config\\.ncols\\.[0-9]+","ccs\\.config\\.nrows\\.[0-9]+",
+		"filterwheel\\.count","filterwheel\\.[0-9]+\\.count"};
+	/**
+	 * Regular expressions matching the keys of properties whose values must be valid doubles.
+	 * @see #validateValues
+	 */
+	private final static String DOUBLE_KEY_PATTERN_LIST[] = {"ccs\\.focus\\.offset",
+		"filter\\..*\\.optical_thickness","filter\\..*\\.center"};
+	/**
+	 * The properties. This is a private copy, and is not changed.
+	 */
+	private Properties properties = null;
+	/**
+	 * Table of property values that are valid integers, keyed by property key.
+	 */
+	private Hashtable integerTable = new Hashtable();
+	/**
+	 * Table of property values that are valid longs, keyed by property key.
+	 */
+	private Hashtable longTable = new Hashtable();
+	/**
+	 * Table of property values that are valid doubles, keyed by property key.
+	 */
+	private Hashtable doubleTable = new Hashtable();
+	/**
+	 * Table of filter wheel positions, keyed by filter wheel number and filter type name as
+	 * &quot;&lt;filter wheel number&gt;.&lt;filter type name&gt;&quot;. If a filter type is in a wheel more than
+	 * once, the first position is used.
+	 */
+	private Hashtable filterWheelPositionTable = new Hashtable();
+	/**
+	 * The number of columns to read out for each X binning factor (index), from the 'ccs.config.ncols.&lt;xbin&gt;'
+	 * properties. An entry is -1 if the property was not a valid integer.
+	 */
+	private int numberColumnsList[] = new int[MAX_BIN+1];
+	/**
+	 * The number of rows to read out for each Y binning factor (index), from the 'ccs.config.nrows.&lt;ybin&gt;'
+	 * properties. An entry is -1 if the property was not a valid integer.
+	 */
+	private int numberRowsList[] = new int[MAX_BIN+1];
+	/**
+	 * The list of error messages (Strings) for properties that should be numbers but are not valid.
+	 * @see #validateValues
+	 */
+	private Vector errorList = new Vector();
+
+	/**
+	 * Constructor. The properties are copied, and all the values parsed and lookup tables built.
+	 * @param p The properties.
+	 * @see #properties
+	 * @see #parseValues
+	 * @see #validateValues
+	 * @see #buildFilterWheelTable
+	 * @see #buildReadoutTables
+	 */
+	public CcsConfiguration(Properties p)
+	{
+		super();
+		properties = new Properties();
+		properties.putAll(p);
+		parseValues();
+		validateValues();
+		buildFilterWheelTable();
+		buildReadoutTables();
+	}
+
+	/**
+	 * Get the error messages for properties that should be numbers but are not valid.
+	 * @return An unmodifiable list of error messages (Strings), empty if all the properties are valid.
+	 * @see #errorList
+	 */
+	public List getErrorList()
+	{
+		return Collections.unmodifiableList(errorList);
+	}
+
+	/**
+	 * Get the properties. These should not be changed.
+	 * @return The properties.
+	 * @see #properties
+	 */
+	public Properties getProperties()
+	{
+		return properties;
+	}
+
+	/**
+	 * Return whether the properties contain the specified key.
+	 * @param p The property key.
+	 * @return Whether the property exists.
+	 * @see #properties
+	 */
+	public boolean containsKey(String p)
+	{
+		return properties.containsKey(p);
+	}
+
+	/**
+	 * Get a property value.
+	 * @param p The property key.
+	 * @return The value, or null if the property does not exist.
+	 * @see #properties
+	 */
+	public String getProperty(String p)
+	{
+		return properties.getProperty(p);
+	}
+
+	/**
+	 * Get a property value as an integer.
+	 * @param p The property key.
+	 * @return The value.
+	 * @exception NumberFormatException Thrown if the property does not exist or is not a valid integer.
+	 * @see #integerTable
+	 */
+	public int getInteger(String p) throws NumberFormatException
+	{
+		Integer value = null;
+
+		value = (Integer)(integerTable.get(p));
+		if(value == null)
+		{
+			throw new NumberFormatException(this.getClass().getName()+":getInteger:keyword:"+
+				p+":valueString:"+properties.getProperty(p));
+		}
+		return value.intValue();
+	}
+
+	/**
+	 * Get a property value as a long.
+	 * @param p The property key.
+	 * @return The value.
+	 * @exception NumberFormatException Thrown if the property does not exist or is not a valid long.
+	 * @see #longTable
+	 */
+	public long getLong(String p) throws NumberFormatException
+	{
+		Long value = null;
+
+		value = (Long)(longTable.get(p));
+		if(value == null)
+		{
+			throw new NumberFormatException(this.getClass().getName()+":getLong:keyword:"+
+				p+":valueString:"+properties.getProperty(p));
+		}
+		return value.longValue();
+	}
+
+	/**
+	 * Get a property value as a double.
+	 * @param p The property key.
+	 * @return The value.
+	 * @exception NumberFormatException Thrown if the property does not exist or is not a valid double.
+	 * @see #doubleTable
+	 */
+	public double getDouble(String p) throws NumberFormatException
+	{
+		Double value = null;
+
+		value = (Double)(doubleTable.get(p));
+		if(value == null)
+		{
+			throw new NumberFormatException(this.getClass().getName()+":getDouble:keyword:"+
+				p+":valueString:"+properties.getProperty(p));
+		}
+		return value.doubleValue();
+	}
+
+	/**
+	 * Get a property value as a boolean. The value is true if it is &quot;true&quot; (ignoring case),
+	 * as Boolean.valueOf.
+	 * @param p The property key.
+	 * @return The value.
+	 * @exception NullPointerException Thrown if the property does not exist.
+	 */
+	public boolean getBoolean(String p) throws NullPointerException
+	{
+		String valueString = null;
+
+		valueString = properties.getProperty(p);
+		if(valueString == null)
+		{
+			throw new NullPointerException(this.getClass().getName()+":getBoolean:keyword:"+
+				p+":Value was null.");
+		}
+		return valueString.equalsIgnoreCase("true");
+	}
+
+	/**
+	 * Get the position of a filter type in a filter wheel.
+	 * @param filterWheelNumber The filter wheel number, starting at 0.
+	 * @param filterTypeName The type name of the filter.
+	 * @return The position, or -1 if the filter is not in the wheel.
+	 * @see #filterWheelPositionTable
+	 */
+	public int getFilterWheelPosition(int filterWheelNumber,String filterTypeName)
+	{
+		Integer position = null;
+
+		position = (Integer)(filterWheelPositionTable.get(filterWheelNumber+"."+filterTypeName));
+		if(position == null)
+			return -1;
+		return position.intValue();
+	}
+
+	/**
+	 * Get the number of columns to read out for an X binning factor.
+	 * @param xbin The X binning factor.
+	 * @return The number of columns.
+	 * @exception NumberFormatException Thrown if the 'ccs.config.ncols.&lt;xbin&gt;' property does not exist
+	 *            or is not a valid integer.
+	 * @see #numberColumnsList
+	 */
+	public int getNumberColumns(int xbin) throws NumberFormatException
+	{
+		if((xbin > 0)&&(xbin <= MAX_BIN)&&(numberColumnsList[xbin] >= 0))
+			return numberColumnsList[xbin];
+		return getInteger("ccs.config.ncols."+xbin);
+	}
+
+	/**
+	 * Get the number of rows to read out for a Y binning factor.
+	 * @param ybin The Y binning factor.
+	 * @return The number of rows.
+	 * @exception NumberFormatException Thrown if the 'ccs.config.nrows.&lt;ybin&gt;' property does not exist
+	 *            or is not a valid integer.
+	 * @see #numberRowsList
+	 */
+	public int getNumberRows(int ybin) throws NumberFormatException
+	{
+		if((ybin > 0)&&(ybin <= MAX_BIN)&&(numberRowsList[ybin] >= 0))
+			return numberRowsList[ybin];
+		return getInteger("ccs.config.nrows."+ybin);
+	}
+
+	/**
+	 * Parse every property value into the integer, long and double tables it is valid for.
+	 * Values are parsed as CcsStatus used to parse them on each call, using Integer.parseInt,
+	 * Long.parseLong and Double.valueOf.
+	 * @see #integerTable
+	 * @see #longTable
+	 * @see #doubleTable
+	 */
+	protected void parseValues()
+	{
+		Enumeration keys = null;
+		String key = null;
+		String valueString = null;
+
+		keys = properties.propertyNames();
+		while(keys.hasMoreElements())
+		{
+			key = (String)(keys.nextElement());
+			valueString = properties.getProperty(key);
+			try
+			{
+				integerTable.put(key,new Integer(Integer.parseInt(valueString)));
+			}
+			catch(NumberFormatException e)
+			{
+				// not an integer
+			}
+			try
+			{
+				longTable.put(key,new Long(Long.parseLong(valueString)));
+			}
+			catch(NumberFormatException e)
+			{
+				// not a long
+			}
+			try
+			{
+				doubleTable.put(key,Double.valueOf(valueString));
+			}
+			catch(NumberFormatException e)
+			{
+				// not a double
+			}
+		}
+	}
+
+	/**
+	 * Check that the properties whose keys match INTEGER_KEY_PATTERN_LIST are valid integers, and those
+	 * matching DOUBLE_KEY_PATTERN_LIST are valid doubles. An error message is added to the error list for
+	 * each one that is not.
+	 * @see #INTEGER_KEY_PATTERN_LIST
+	 * @see #DOUBLE_KEY_PATTERN_LIST
+	 * @see #integerTable
+	 * @see #doubleTable
+	 * @see #errorList
+	 */
+	protected void validateValues()
+	{
+		Enumeration keys = null;
+		String key = null;
+
+		keys = properties.propertyNames();
+		while(keys.hasMoreElements())
+		{
+			key = (String)(keys.nextElement());
+			for(int i = 0; i < INTEGER_KEY_PATTERN_LIST.length; i++)
+			{
+				if(key.matches(INTEGER_KEY_PATTERN_LIST[i])&&(integerTable.containsKey(key) == false))
+				{
+					errorList.add(this.getClass().getName()+":validateValues:keyword:"+key+
+						      ":valueString:"+properties.getProperty(key)+":Not a valid integer.");
+				}
+			}
+			for(int i = 0; i < DOUBLE_KEY_PATTERN_LIST.length; i++)
+			{
+				if(key.matches(DOUBLE_KEY_PATTERN_LIST[i])&&(doubleTable.containsKey(key) == false))
+				{
+					errorList.add(this.getClass().getName()+":validateValues:keyword:"+key+
+						      ":valueString:"+properties.getProperty(key)+":Not a valid double.");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Build the filter wheel position table from the 'filterwheel.count', 'filterwheel.&lt;wheel&gt;.count' and
+	 * 'filterwheel.&lt;wheel&gt;.&lt;position&gt;.type' properties. Wheels whose count is not a valid integer
+	 * are left out.
+	 * @see #filterWheelPositionTable
+	 */
+	protected void buildFilterWheelTable()
+	{
+		String key = null;
+		String typeName = null;
+		int filterWheelCount,filterWheelFilterCount;
+
+		try
+		{
+			filterWheelCount = getInteger("filterwheel.count");
+		}
+		catch(NumberFormatException e)
+		{
+			return;
+		}
+		for(int wheel = 0; wheel < filterWheelCount; wheel++)
+		{
+			try
+			{
+				filterWheelFilterCount = getInteger("filterwheel."+wheel+".count");
+			}
+			catch(NumberFormatException e)
+			{
+				continue;
+			}
+			for(int position = 0; position < filterWheelFilterCount; position++)
+			{
+				typeName = properties.getProperty("filterwheel."+wheel+"."+position+".type");
+				if(typeName == null)
+					continue;
+				key = wheel+"."+typeName;
+				if(filterWheelPositionTable.containsKey(key) == false)
+					filterWheelPositionTable.put(key,new Integer(position));
+			}
+		}
+	}
+
+	/**
+	 * Build the readout dimension lookup tables from the 'ccs.config.ncols.&lt;xbin&gt;' and
+	 * 'ccs.config.nrows.&lt;ybin&gt;' properties, for binning factors up to MAX_BIN.
+	 * @see #numberColumnsList
+	 * @see #numberRowsList
+	 * @see #MAX_BIN
+	 */
+	protected void buildReadoutTables()
+	{
+		Integer value = null;
+
+		for(int bin = 0; bin <= MAX_BIN; bin++)
+		{
+			value = (Integer)(integerTable.get("ccs.config.ncols."+bin));
+			if(value != null)
+				numberColumnsList[bin] = value.intValue();
+			else
+				numberColumnsList[bin] = -1;
+			value = (Integer)(integerTable.get("ccs.config.nrows."+bin));
+			if(value != null)
+				numberRowsList[bin] = value.intValue();
+			else
+				numberRowsList[bin] = -1;
+		}
+	}
+}
+//
+// $Log: not supported by cvs2svn $
+//
@@ -0,0 +1,156 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Ccs.
+
+    Ccs is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Ccs is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Ccs; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CcsDpRtClient.java
+// $Header$
+import java.lang.*;
+import java.lang.reflect.*;
+import java.net.*;
+import java.util.concurrent.*;
+
+import ngat.message.INST_DP.*;
+
+/**
+ * This class is a queue of commands (reductions) to send from the Ccs to the DP(RT). The commands are run on
+ * a fixed number of pool threads, so up to that many reductions are in progress at once and the rest
+ * wait in the queue. A Future is returned for each command, so the command thread can carry on (e.g. exposing
+ * the next frame) and collect the result later.
+ * <p>
+ * The client can be set to simulate the DP(RT) (a local stand-in), in which case no network connection is
+ * made. Each command takes the simulate time to complete, and a successful done message of the right class
+ * is returned, with the command's filename copied into it.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see CcsClientThreadPool
+ * @see Ccs#sendDpRtCommand
+ * @see Ccs#queueDpRtCommand
+ */
+public class CcsDpRtClient extends CcsClientThreadPool<INST_TO_DP,INST_TO_DP_DONE>
+{
+	/**
+	 * Revision Control System id string, showing the version of the Class.
+	 */
+	public final static String RCSID = new String("$Id$");
+	/**
+	 * Whether to simulate the DP(RT) rather than send commands to it.
+	 */
+	private volatile boolean simulate = false;
+	/**
+	 * How long a simulated DP(RT) command takes, in milliseconds.
+	 */
+	private volatile int simulateTime = 0;
+
+	/**
+	 * Constructor. Creates and starts the thread pool, of a fixed size with an unbounded queue.
+	 * @param c The Ccs object.
+	 * @param a The ip address of the machine the DP(RT) is running on.
+	 * @param p The port number to send DP(RT) commands to.
+	 * @param threadCount The maximum number of DP(RT) commands in progress at once.
+	 * @exception IllegalArgumentException Thrown if threadCount is less than one.
+	 * @see CcsEventRecorder#EVENT_DPRT_COMMAND
+	 */
+	public CcsDpRtClient(Ccs c,InetAddress a,int p,int threadCount) throws IllegalArgumentException
+	{
+		super(c,a,p,"DpRt",CcsEventRecorder.EVENT_DPRT_COMMAND,threadCount,threadCount,0L,
+		      new LinkedBlockingQueue<Runnable>());
+	}
+
+	/**
+	 * Set whether to simulate the DP(RT), rather than send commands to it.
+	 * @param on Whether to simulate the DP(RT).
+	 * @param time How long each simulated command takes, in milliseconds.
+	 * @see #simulate
+	 * @see #simulateTime
+	 */
+	public void setSimulate(boolean on,int time)
+	{
+		simulate = on;
+		simulateTime = time;
+	}
+
+	/**
+	 * Send a command to the DP(RT), on the calling (pool) thread. If the DP(RT) is being simulated,
+	 * this thread sleeps for the simulate time and simulateDone is called instead.
+	 * @param command The command to send to the DP(RT).
+	 * @param commandThread The thread the Ccs command that caused this command to be sent is running on.
+	 * @return The done message returned from the DP(RT), or null if the communication failed.
+	 * @exception InterruptedException Thrown if the command was cancelled whilst simulating the DP(RT).
+	 * @exception Exception Thrown if simulateDone failed.
+	 * @see #simulateDone
+	 */
+	protected INST_TO_DP_DONE send(INST_TO_DP command,CcsTCPServerConnectionThread commandThread)
+		throws InterruptedException,Exception
+	{
+		if(simulate)
+		{
+			Thread.sleep(simulateTime);
+			return simulateDone(command);
+		}
+		return super.send(command,commandThread);
+	}
+
+	/**
+	 * Add the time a DP(RT) command took to the metrics.
+	 * @param commandClassName The class name of the command.
+	 * @param time The time the command took, in milliseconds.
+	 * @see CcsMetrics#addDpRtCommand
+	 */
+	protected void addMetrics(String commandClassName,long time)
+	{
+		ccs.getMetrics().addDpRtCommand(commandClassName,time);
+	}
+
+	/**
+	 * Create the done message a simulated DP(RT) returns for a command. This is an instance of the class
+	 * with the command's class name with "_DONE" appended. If the command has a filename it is copied into
+	 * the done message.
+	 * @param command The command.
+	 * @return A successful done message.
+	 * @exception Exception Thrown if the done message could not be created.
+	 */
+	protected INST_TO_DP_DONE simulateDone(INST_TO_DP command) throws Exception
+	{
+		INST_TO_DP_DONE done = null;
+		Class doneClass = null;
+		Constructor constructor = null;
+		Method getMethod = null;
+		Method setMethod = null;
+
+		doneClass = Class.forName(command.getClass().getName()+"_DONE");
+		constructor = doneClass.getConstructor(new Class[] {String.class});
+		done = (INST_TO_DP_DONE)(constructor.newInstance(new Object[] {command.getId()}));
+		try
+		{
+			getMethod = command.getClass().getMethod("getFilename",new Class[] {});
+			setMethod = doneClass.getMethod("setFilename",new Class[] {String.class});
+			setMethod.invoke(done,new Object[] {getMethod.invoke(command,new Object[] {})});
+		}
+		catch(NoSuchMethodException e)
+		{
+			// not every DP(RT) command has a filename
+		}
+		done.setErrorNum(CcsConstants.CCS_ERROR_CODE_NO_ERROR);
+		done.setErrorString("");
+		done.setSuccessful(true);
+		return done;
+	}
+}
+//
+// $Log: not supported by cvs2svn $
+//
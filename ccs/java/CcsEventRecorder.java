@@ -0,0 +1,256 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Ccs.
+
+    Ccs is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Ccs is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Ccs; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CcsEventRecorder.java
+// $Header$
+import java.lang.*;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.*;
+
+import ngat.rise.ccd.*;
+
+/**
+ * This class records timed events in the command and frame lifecycle (command start, ACK and done,
+ * ISS and DP(RT) round trips, CCDLibrary native calls and frame stages) to a per-night event file,
+ * so a whole night can be recorded and the time between frames accounted for.
+ * Events are queued and written to the file on a background thread by CcsNightFileRecorder. When recording
+ * is disabled, callers check isEnabled before building an event, so recording costs nothing.
+ * Each line of the event file is tab separated: start time (UTC), event type, name, duration in
+ * microseconds, thread name, and details.
+ * Recording is configured by the 'ccs.event_recorder' properties.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see Ccs#getEventRecorder
+ * @see CcsNightFileRecorder
+ */
+public class CcsEventRecorder extends CcsNightFileRecorder<CcsEventRecorder.Event>
+	implements CCDLibraryCallListener
+{
+	/**
+	 * Revision Control System id string, showing the version of the Class.
+	 */
+	public final static String RCSID = new String("$Id$");
+	/**
+	 * Event type: a Ccs command has been received and is starting.
+	 */
+	public final static String EVENT_COMMAND_START = "CommandStart";
+	/**
+	 * Event type: an ACK has been sent for a Ccs command.
+	 */
+	public final static String EVENT_COMMAND_ACK = "CommandAck";
+	/**
+	 * Event type: a Ccs command has finished. The duration is the time since the command started.
+	 */
+	public final static String EVENT_COMMAND_DONE = "CommandDone";
+	/**
+	 * Event type: a command sent to the ISS has returned. The duration is the round trip time.
+	 */
+	public final static String EVENT_ISS_COMMAND = "ISSCommand";
+	/**
+	 * Event type: a command sent to the DP(RT) has returned. The duration is the round trip time.
+	 */
+	public final static String EVENT_DPRT_COMMAND = "DpRtCommand";
+	/**
+	 * Event type: a long running CCDLibrary native call has returned.
+	 */
+	public final static String EVENT_NATIVE_CALL = "NativeCall";
+	/**
+	 * Event type: a frame has passed through a stage of acquisition (available, retrieved,
+	 * median computed, written, published).
+	 */
+	public final static String EVENT_FRAME_STAGE = "FrameStage";
+	/**
+	 * Constructor.
+	 * @param c The Ccs object.
+	 */
+	public CcsEventRecorder(Ccs c)
+	{
+		super(c,"ccs.event_recorder");
+	}
+
+	/**
+	 * Record an event that started now.
+	 * @param type The event type, one of the EVENT constants.
+	 * @param name The event name, e.g. the command class name.
+	 * @param details Event details, or null.
+	 * @see #record(String,String,long,long,String)
+	 */
+	public void record(String type,String name,String details)
+	{
+		record(type,name,System.currentTimeMillis(),0L,details);
+	}
+
+	/**
+	 * Record an event. If recording is not enabled, or the queue is full, the event is not recorded.
+	 * @param type The event type, one of the EVENT constants.
+	 * @param name The event name, e.g. the command class name.
+	 * @param startTime When the event started, in milliseconds since the epoch.
+	 * @param duration How long the event took, in microseconds.
+	 * @param details Event details, or null.
+	 * @see CcsNightFileRecorder#add
+	 */
+	public void record(String type,String name,long startTime,long duration,String details)
+	{
+		if(isEnabled() == false)
+			return;
+		add(new Event(type,name,startTime,duration,Thread.currentThread().getName(),details));
+	}
+
+	/**
+	 * Called by CCDLibrary when a long running native call has finished. An EVENT_NATIVE_CALL event
+	 * is recorded.
+	 * @param library The CCDLibrary instance that made the call.
+	 * @param methodName The name of the CCDLibrary method that made the call.
+	 * @param startTime When the call started, from System.nanoTime.
+	 * @param duration How long the call took, in nanoseconds.
+	 * @param successful Whether the call was successful.
+	 * @see #EVENT_NATIVE_CALL
+	 * @see ngat.rise.ccd.CCDLibrary#addCallListener
+	 */
+	public void nativeCallDone(CCDLibrary library,String methodName,long startTime,long duration,
+				   boolean successful)
+	{
+		long startTimeMillis;
+
+		if(isEnabled() == false)
+			return;
+		startTimeMillis = System.currentTimeMillis()-((System.nanoTime()-startTime)/1000000L);
+		record(EVENT_NATIVE_CALL,methodName,startTimeMillis,duration/1000L,"successful="+successful);
+	}
+
+	/**
+	 * Create the task run by a new writer thread.
+	 * @param queue The queue to take events from.
+	 * @param d The directory to write the event files to.
+	 * @return A new EventWriterRunnable.
+	 * @see CcsEventRecorder.EventWriterRunnable
+	 */
+	protected WriterRunnable createWriterRunnable(ArrayBlockingQueue<Event> queue,String d)
+	{
+		return new EventWriterRunnable(queue,d);
+	}
+
+	/**
+	 * A recorded event.
+	 */
+	protected static class Event
+	{
+		/**
+		 * The event type.
+		 */
+		String type = null;
+		/**
+		 * The event name.
+		 */
+		String name = null;
+		/**
+		 * When the event started, in milliseconds since the epoch.
+		 */
+		long startTime = 0;
+		/**
+		 * How long the event took, in microseconds.
+		 */
+		long duration = 0;
+		/**
+		 * The name of the thread that recorded the event.
+		 */
+		String threadName = null;
+		/**
+		 * Event details, or null.
+		 */
+		String details = null;
+
+		/**
+		 * Constructor.
+		 * @param t The event type.
+		 * @param n The event name.
+		 * @param st When the event started, in milliseconds since the epoch.
+		 * @param d How long the event took, in microseconds.
+		 * @param tn The name of the thread that recorded the event.
+		 * @param det Event details, or null.
+		 */
+		Event(String t,String n,long st,long d,String tn,String det)
+		{
+			type = t;
+			name = n;
+			startTime = st;
+			duration = d;
+			threadName = tn;
+			details = det;
+		}
+	}
+
+	/**
+	 * Writes events to 'ccs_events_&lt;night&gt;.txt' files, one tab separated line per event.
+	 */
+	protected class EventWriterRunnable extends WriterRunnable
+	{
+		/**
+		 * Formats event start times.
+		 */
+		private SimpleDateFormat timeFormat = null;
+
+		/**
+		 * Constructor.
+		 * @param queue The queue to take events from.
+		 * @param d The directory to write the event files to.
+		 */
+		EventWriterRunnable(ArrayBlockingQueue<Event> queue,String d)
+		{
+			super(queue,d,"ccs_events_",".txt");
+			timeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
+			timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		}
+
+		/**
+		 * Get the time an event started.
+		 * @param event The event.
+		 * @return The event's start time, in milliseconds since the epoch.
+		 */
+		protected long getTime(Event event)
+		{
+			return event.startTime;
+		}
+
+		/**
+		 * Write the column header line whenever an event file is opened.
+		 * @param empty Whether the file was empty.
+		 */
+		protected void opened(boolean empty)
+		{
+			writer.println("# start time (UTC)\ttype\tname\tduration (us)\tthread\tdetails");
+		}
+
+		/**
+		 * Write an event as a tab separated line.
+		 * @param event The event.
+		 */
+		protected void write(Event event)
+		{
+			writer.println(timeFormat.format(new Date(event.startTime))+"\t"+event.type+"\t"+event.name+
+				       "\t"+event.duration+"\t"+event.threadName+"\t"+
+				       ((event.details != null) ? event.details : ""));
+		}
+	}
+}
+//
+// $Log: not supported by cvs2svn $
+//
@@ -0,0 +1,349 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Ccs.
+
+    Ccs is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Ccs is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Ccs; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CcsFitsHeaderCache.java
+// $Header$
+import java.lang.*;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.*;
+
+import ngat.fits.*;
+import ngat.message.ISS_INST.*;
+import ngat.util.logging.*;
+
+/**
+ * This class caches the FITS header cards returned by the ISS in reply to a GET_FITS command, so a frame
+ * does not have to wait for a GET_FITS round trip to the ISS when the cards are still fresh.
+ * The ISS returns every card in reply to GET_FITS, so the cards are cached (and go stale) together:
+ * they are fresh for 'ccs.get_fits.cache.max_age' milliseconds after the GET_FITS that returned them,
+ * after which the next frame sends a GET_FITS itself and the whole cache is updated from the reply.
+ * The cards are refreshed in the background every 'ccs.get_fits.cache.refresh_period' milliseconds.
+ * <p>
+ * The cards are made stale (invalidated) at the start of every command that writes FITS files, as the
+ * telescope may have moved since the last one, and whenever the Ccs sends any other command to the ISS
+ * (e.g. a focus offset), as that may change them. So only the later frames of a command use the cache.
+ * A GET_FITS that was started before the cards were last invalidated may return the old cards, so
+ * the generation is captured before each GET_FITS is sent and a reply from an older generation is ignored.
+ * The cache stores and hands out copies of the cards, as the FITS header changes the cards it is given.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see FITSImplementation#getFitsHeadersFromISS
+ * @see FITSImplementation#init
+ * @see Ccs#sendISSCommand
+ */
+public class CcsFitsHeaderCache
+{
+	/**
+	 * Revision Control System id string, showing the version of the Class.
+	 */
+	public final static String RCSID = new String("$Id$");
+	/**
+	 * The id given to GET_FITS commands sent by the background refresh.
+	 */
+	private final static String REFRESH_COMMAND_ID = "CcsFitsHeaderCache";
+	/**
+	 * The Ccs object.
+	 */
+	private Ccs ccs = null;
+	/**
+	 * Whether the cache is used at all.
+	 */
+	private boolean enable = false;
+	/**
+	 * How long the cards are fresh for, in milliseconds.
+	 */
+	private long maxAge = 0;
+	/**
+	 * How often the background refresh sends a GET_FITS to the ISS, in milliseconds.
+	 * Zero means no background refresh.
+	 */
+	private long refreshPeriod = 0;
+	/**
+	 * The cached cards (FitsHeaderCardImage).
+	 */
+	private Vector cardList = null;
+	/**
+	 * The time the cards were fetched, in milliseconds since the epoch.
+	 * This is reset to zero when the cards are invalidated.
+	 */
+	private long fetchTime = 0;
+	/**
+	 * The cache generation, incremented whenever the cards are invalidated or the cache is cleared.
+	 * @see #getGeneration
+	 * @see #update
+	 */
+	private long generation = 0;
+	/**
+	 * The thread the background refresh is run on, or null if the refresh is not running.
+	 */
+	private ScheduledExecutorService refreshExecutor = null;
+
+	/**
+	 * Constructor.
+	 * @param c The Ccs object.
+	 */
+	public CcsFitsHeaderCache(Ccs c)
+	{
+		super();
+		ccs = c;
+	}
+
+	/**
+	 * Load the cache configuration from the Ccs properties. The cache is emptied, and the background
+	 * refresh is stopped, and restarted if the cache is enabled and the refresh period is greater than zero.
+	 * @param status The status object to get the properties from.
+	 * @exception NumberFormatException Thrown if a numeric property is not a valid number.
+	 * @see #enable
+	 * @see #maxAge
+	 * @see #refreshPeriod
+	 * @see #clear
+	 * @see #stop
+	 * @see #start
+	 */
+	public void loadProperties(CcsStatus status) throws NumberFormatException
+	{
+		stop();
+		clear();
+		enable = false;
+		if(status.getProperty("ccs.get_fits.cache.enable") == null)
+			return;
+		enable = status.getPropertyBoolean("ccs.get_fits.cache.enable");
+		if(enable == false)
+			return;
+		maxAge = (long)(status.getPropertyInteger("ccs.get_fits.cache.max_age"));
+		refreshPeriod = (long)(status.getPropertyInteger("ccs.get_fits.cache.refresh_period"));
+		ccs.log(Logging.VERBOSITY_INTERMEDIATE,this.getClass().getName()+":loadProperties:max age "+maxAge+
+			" ms, refresh period "+refreshPeriod+" ms.");
+		if(refreshPeriod > 0)
+			start();
+	}
+
+	/**
+	 * Return whether the cache is enabled.
+	 * @return Whether the cache is enabled.
+	 * @see #enable
+	 */
+	public boolean getEnable()
+	{
+		return enable;
+	}
+
+	/**
+	 * Get the cache generation. This should be called before sending the GET_FITS whose reply is
+	 * passed to update.
+	 * @return The current generation.
+	 * @see #generation
+	 * @see #update
+	 */
+	public synchronized long getGeneration()
+	{
+		return generation;
+	}
+
+	/**
+	 * Get the cached cards, if they are fresh.
+	 * @return A new list of copies of the cached cards (FitsHeaderCardImage), which the caller can change,
+	 *         or null if the cache is disabled, empty, or the cards are stale.
+	 * @see #cardList
+	 * @see #copyCardList
+	 */
+	public synchronized List getCardList()
+	{
+		Vector list = null;
+		long now;
+
+		if((enable == false)||(cardList == null))
+			return null;
+		now = System.currentTimeMillis();
+		if((now-fetchTime) > maxAge)
+			return null;
+		list = new Vector(cardList.size());
+		copyCardList(cardList,list);
+		return list;
+	}
+
+	/**
+	 * Update the cache with the cards returned by a GET_FITS command, and set the fetch time to now.
+	 * Copies of the cards are cached, so the caller can go on to use (and change) the list it passed in.
+	 * If the cards have been invalidated (or the cache cleared) since fetchGeneration was captured,
+	 * the reply may predate the change and the cache is left as it is.
+	 * @param list The list of cards (FitsHeaderCardImage) returned by GET_FITS.
+	 * @param fetchGeneration The generation returned by getGeneration before the GET_FITS was sent.
+	 * @see #generation
+	 * @see #getGeneration
+	 */
+	public void update(List list,long fetchGeneration)
+	{
+		Vector newCardList = null;
+		long now;
+
+		if((enable == false)||(list == null))
+			return;
+		newCardList = new Vector(list.size());
+		copyCardList(list,newCardList);
+		now = System.currentTimeMillis();
+		synchronized(this)
+		{
+			if(fetchGeneration != generation)
+			{
+				ccs.log(Logging.VERBOSITY_VERBOSE,this.getClass().getName()+":update:Ignoring cards "+
+					"fetched in generation "+fetchGeneration+", cache is now generation "+
+					generation+".");
+				return;
+			}
+			cardList = newCardList;
+			fetchTime = now;
+		}
+	}
+
+	/**
+	 * Make the cards stale, so the next frame sends a GET_FITS to the ISS.
+	 * This is called at the start of each command that writes FITS files, and when the Ccs sends a command
+	 * to the ISS that may change them.
+	 * @see #fetchTime
+	 */
+	public synchronized void invalidate()
+	{
+		fetchTime = 0;
+		generation++;
+	}
+
+	/**
+	 * Empty the cache.
+	 * @see #generation
+	 */
+	public synchronized void clear()
+	{
+		cardList = null;
+		fetchTime = 0;
+		generation++;
+	}
+
+	/**
+	 * Add a copy of each card in a list to another list.
+	 * @param fromList The list of cards (FitsHeaderCardImage) to copy.
+	 * @param toList The list to add the copies to.
+	 * @see #copyCard
+	 */
+	protected void copyCardList(List fromList,List toList)
+	{
+		for(int i = 0; i < fromList.size(); i++)
+			toList.add(copyCard((FitsHeaderCardImage)(fromList.get(i))));
+	}
+
+	/**
+	 * Copy a card.
+	 * @param cardImage The card to copy.
+	 * @return A new card, with the same keyword, value, comment, units and order number.
+	 */
+	protected FitsHeaderCardImage copyCard(FitsHeaderCardImage cardImage)
+	{
+		return new FitsHeaderCardImage(cardImage.getKeyword(),cardImage.getValue(),cardImage.getComment(),
+					       cardImage.getUnits(),cardImage.getOrderNumber());
+	}
+
+	/**
+	 * Start the background refresh, which sends a GET_FITS to the ISS every refresh period.
+	 * @see #refreshExecutor
+	 * @see #refreshPeriod
+	 * @see CcsFitsHeaderCache.RefreshRunnable
+	 */
+	protected synchronized void start()
+	{
+		if(refreshExecutor != null)
+			return;
+		refreshExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = null;
+
+				thread = new Thread(r,"CcsFitsHeaderCache");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		refreshExecutor.scheduleWithFixedDelay(new RefreshRunnable(),0L,refreshPeriod,TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop the background refresh, if it is running.
+	 * @see #refreshExecutor
+	 */
+	public synchronized void stop()
+	{
+		if(refreshExecutor == null)
+			return;
+		refreshExecutor.shutdownNow();
+		refreshExecutor = null;
+	}
+
+	/**
+	 * The task run by the background refresh. This sends a GET_FITS command to the ISS on the ISS client,
+	 * and updates the cache with the returned cards. Failures are logged and the cache is left as it was.
+	 */
+	protected class RefreshRunnable implements Runnable
+	{
+		/**
+		 * Send the GET_FITS command and update the cache.
+		 * @see CcsISSClient#sendCommand
+		 * @see #update
+		 */
+		public void run()
+		{
+			Future<INST_TO_ISS_DONE> future = null;
+			INST_TO_ISS_DONE done = null;
+			long fetchGeneration;
+
+			fetchGeneration = getGeneration();
+			try
+			{
+				future = ccs.getISSClient().sendCommand(new GET_FITS(REFRESH_COMMAND_ID),null);
+				done = future.get();
+			}
+			catch(InterruptedException e)
+			{
+				// the refresh has been stopped
+				return;
+			}
+			catch(Exception e)
+			{
+				ccs.error(this.getClass().getName()+":run:GET_FITS failed:",e);
+				return;
+			}
+			if((done == null)||(done.getSuccessful() == false)||((done instanceof GET_FITS_DONE) == false))
+			{
+				if(done == null)
+					ccs.error(this.getClass().getName()+":run:GET_FITS failed:Getting Done failed.");
+				else
+				{
+					ccs.error(this.getClass().getName()+":run:GET_FITS failed:"+done.getErrorNum()+
+						  ":"+done.getErrorString());
+				}
+				return;
+			}
+			update(((GET_FITS_DONE)done).getFitsHeader(),fetchGeneration);
+			ccs.log(Logging.VERBOSITY_VERY_VERBOSE,this.getClass().getName()+":run:Cache refreshed.");
+		}
+	}
+}
+//
+// $Log: not supported by cvs2svn $
+//
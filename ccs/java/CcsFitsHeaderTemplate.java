@@ -0,0 +1,240 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Ccs.
+
+    Ccs is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Ccs is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Ccs; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CcsFitsHeaderTemplate.java
+// $Header$
+import java.lang.*;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Vector;
+
+import ngat.fits.*;
+
+/**
+ * This class is a FITS header template, compiled from the FITS header defaults (rise.fits.properties)
+ * and the Ccs properties when the Ccs starts (and on a REDATUM level reboot).
+ * Creating the default card images from the defaults uses reflection to create each value, and the
+ * defaults used to calculate some of the per-frame values have to be parsed from the properties. This is
+ * now done once, and setFitsHeaders just copies the card images into the FITS header and fills in the
+ * per-frame values from the typed values held here.
+ * A template is not changed once it has been compiled. A reboot compiles a new one. The FITS header keeps
+ * the card images it is given and setFitsHeaders changes their values, so getCardImageList hands out copies.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see FITSImplementation#setFitsHeaders
+ * @see Ccs#getFitsHeaderTemplate
+ */
+public class CcsFitsHeaderTemplate
+{
+	/**
+	 * Revision Control System id string, showing the version of the Class.
+	 */
+	public final static String RCSID = new String("$Id$");
+	/**
+	 * The list of default card images (FitsHeaderCardImage), in the order returned by the defaults.
+	 * This list is unmodifiable.
+	 */
+	private List cardImageList = null;
+	/**
+	 * Table of the default card images, keyed by keyword.
+	 */
+	private Hashtable cardImageTable = new Hashtable();
+	/**
+	 * The unbinned image X size, the CCDXIMSI default.
+	 */
+	private int ccdXImageSize = 0;
+	/**
+	 * The unbinned image Y size, the CCDYIMSI default.
+	 */
+	private int ccdYImageSize = 0;
+	/**
+	 * The unbinned pixel scale, the CCDSCALE default.
+	 */
+	private double ccdScale = 0.0;
+	/**
+	 * The unbinned default window X size, the CCDWXSIZ default.
+	 */
+	private int ccdWindowXSize = 0;
+	/**
+	 * The unbinned default window Y size, the CCDWYSIZ default.
+	 */
+	private int ccdWindowYSize = 0;
+	/**
+	 * The unbinned rotator centre X position, the ROTCENTX default.
+	 */
+	private int rotCentreX = 0;
+	/**
+	 * The unbinned rotator centre Y position, the ROTCENTY default.
+	 */
+	private int rotCentreY = 0;
+	/**
+	 * The target temperature of the CCD in degrees centigrade, from the 'ccs.config.target_temperature'
+	 * Ccs property.
+	 */
+	private double targetTemperature = 0.0;
+
+	/**
+	 * Constructor. Compiles the template.
+	 * @param defaults The FITS header defaults, which should have been loaded.
+	 * @param status The Ccs status, to get the Ccs properties from.
+	 * @exception Exception Thrown if a default card image or value could not be created, or
+	 *            a property is not a valid number.
+	 * @see ngat.fits.FitsHeaderDefaults#getCardImageList
+	 * @see ngat.fits.FitsHeaderDefaults#getValueInteger
+	 * @see ngat.fits.FitsHeaderDefaults#getValueDouble
+	 */
+	public CcsFitsHeaderTemplate(FitsHeaderDefaults defaults,CcsStatus status) throws Exception
+	{
+		FitsHeaderCardImage cardImage = null;
+
+		cardImageList = Collections.unmodifiableList(defaults.getCardImageList());
+		for(int i = 0; i < cardImageList.size(); i++)
+		{
+			cardImage = (FitsHeaderCardImage)(cardImageList.get(i));
+			cardImageTable.put(cardImage.getKeyword(),cardImage);
+		}
+		ccdXImageSize = defaults.getValueInteger("CCDXIMSI");
+		ccdYImageSize = defaults.getValueInteger("CCDYIMSI");
+		ccdScale = defaults.getValueDouble("CCDSCALE");
+		ccdWindowXSize = defaults.getValueInteger("CCDWXSIZ");
+		ccdWindowYSize = defaults.getValueInteger("CCDWYSIZ");
+		rotCentreX = defaults.getValueInteger("ROTCENTX");
+		rotCentreY = defaults.getValueInteger("ROTCENTY");
+		targetTemperature = status.getPropertyDouble("ccs.config.target_temperature");
+	}
+
+	/**
+	 * Get a copy of the list of default card images, to add to a frame's FITS header with addKeywordValueList.
+	 * Each card image is a new copy, so per-frame values set in the header do not change the template, and
+	 * keywords only set for some frames do not carry over a previous frame's value.
+	 * @return A new list of new card images (FitsHeaderCardImage).
+	 * @see #cardImageList
+	 */
+	public List getCardImageList()
+	{
+		FitsHeaderCardImage cardImage = null;
+		List copyList = null;
+
+		copyList = new Vector(cardImageList.size());
+		for(int i = 0; i < cardImageList.size(); i++)
+		{
+			cardImage = (FitsHeaderCardImage)(cardImageList.get(i));
+			copyList.add(new FitsHeaderCardImage(cardImage.getKeyword(),cardImage.getValue(),
+							     cardImage.getComment(),cardImage.getUnits(),
+							     cardImage.getOrderNumber()));
+		}
+		return copyList;
+	}
+
+	/**
+	 * Get the default card image for a keyword, e.g. to get it's comment, units and order number.
+	 * This should not be changed.
+	 * @param keyword The keyword.
+	 * @return The card image, or null if the keyword has no default.
+	 * @see #cardImageTable
+	 */
+	public FitsHeaderCardImage getCardImage(String keyword)
+	{
+		return (FitsHeaderCardImage)(cardImageTable.get(keyword));
+	}
+
+	/**
+	 * Get the unbinned image X size.
+	 * @return The CCDXIMSI default.
+	 * @see #ccdXImageSize
+	 */
+	public int getCCDXImageSize()
+	{
+		return ccdXImageSize;
+	}
+
+	/**
+	 * Get the unbinned image Y size.
+	 * @return The CCDYIMSI default.
+	 * @see #ccdYImageSize
+	 */
+	public int getCCDYImageSize()
+	{
+		return ccdYImageSize;
+	}
+
+	/**
+	 * Get the unbinned pixel scale.
+	 * @return The CCDSCALE default.
+	 * @see #ccdScale
+	 */
+	public double getCCDScale()
+	{
+		return ccdScale;
+	}
+
+	/**
+	 * Get the unbinned default window X size.
+	 * @return The CCDWXSIZ default.
+	 * @see #ccdWindowXSize
+	 */
+	public int getCCDWindowXSize()
+	{
+		return ccdWindowXSize;
+	}
+
+	/**
+	 * Get the unbinned default window Y size.
+	 * @return The CCDWYSIZ default.
+	 * @see #ccdWindowYSize
+	 */
+	public int getCCDWindowYSize()
+	{
+		return ccdWindowYSize;
+	}
+
+	/**
+	 * Get the unbinned rotator centre X position.
+	 * @return The ROTCENTX default.
+	 * @see #rotCentreX
+	 */
+	public int getRotCentreX()
+	{
+		return rotCentreX;
+	}
+
+	/**
+	 * Get the unbinned rotator centre Y position.
+	 * @return The ROTCENTY default.
+	 * @see #rotCentreY
+	 */
+	public int getRotCentreY()
+	{
+		return rotCentreY;
+	}
+
+	/**
+	 * Get the target temperature of the CCD.
+	 * @return The target temperature in degrees centigrade.
+	 * @see #targetTemperature
+	 */
+	public double getTargetTemperature()
+	{
+		return targetTemperature;
+	}
+}
+//
+// $Log: not supported by cvs2svn $
+//
@@ -0,0 +1,624 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Ccs.
+
+    Ccs is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Ccs is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Ccs; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CcsFrameTiming.java
+// $Header$
+import java.lang.*;
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+import ngat.rise.ccd.*;
+import ngat.util.logging.*;
+
+/**
+ * This class reads the per-frame stage timing records kept by the C layer (ccd_timing.c), and turns them
+ * into the time taken by each stage of acquiring and saving a frame (readout, median, filename, save, and
+ * the gap between frames). The records are copied out of the native ring in one JNI call on a low priority
+ * background thread every 'ccs.frame_timing.interval' milliseconds. Each finished frame is fed to
+ * the frame stage histograms in the Ccs metrics and to the event recorder, and rolling percentiles over the
+ * last 'ccs.frame_timing.window' frames are published in an immutable Snapshot for GET_STATUS.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see ngat.rise.ccd.CCDLibrary#CCDTimingFrameGetRecords
+ * @see CcsFrameTiming.Snapshot
+ * @see GET_STATUSImplementation
+ */
+public class CcsFrameTiming
+{
+	/**
+	 * Revision Control System id string, showing the version of the Class.
+	 */
+	public final static String RCSID = new String("$Id$");
+	/**
+	 * Interval index: from the frame being available in the Andor buffer, to it being retrieved.
+	 */
+	public final static int INTERVAL_READOUT = 0;
+	/**
+	 * Interval index: from the frame being retrieved, to it's median being calculated.
+	 */
+	public final static int INTERVAL_MEDIAN = 1;
+	/**
+	 * Interval index: from the frame being retrieved, to it's FITS filename being allocated.
+	 */
+	public final static int INTERVAL_FILENAME = 2;
+	/**
+	 * Interval index: from the frame's FITS filename being allocated, to the frame being saved.
+	 */
+	public final static int INTERVAL_SAVE = 3;
+	/**
+	 * Interval index: from the frame being available in the Andor buffer, to it being saved.
+	 */
+	public final static int INTERVAL_TOTAL = 4;
+	/**
+	 * Interval index: from the previous frame in the same acquisition being retrieved, to this frame being
+	 * retrieved.
+	 */
+	public final static int INTERVAL_GAP = 5;
+	/**
+	 * The number of intervals.
+	 */
+	public final static int INTERVAL_COUNT = 6;
+	/**
+	 * The name of each interval, used in the GET_STATUS keys, indexed by the INTERVAL constants.
+	 */
+	public final static String INTERVAL_NAME_LIST[] = {"Readout","Median","Filename","Save","Total","Gap"};
+	/**
+	 * The stage label of each interval in the frame stage histogram, indexed by the INTERVAL constants.
+	 * @see CcsMetrics#FRAME_STAGE_DURATION
+	 */
+	private final static String INTERVAL_METRIC_LIST[] = {"readout","median","filename","save","total","gap"};
+	/**
+	 * The stage each interval starts at, indexed by the INTERVAL constants. The gap interval is calculated
+	 * from the previous frame, and is not in this list.
+	 */
+	private final static int INTERVAL_START_STAGE_LIST[] = {CCDLibrary.CCD_TIMING_FRAME_STAGE_FRAME_AVAILABLE,
+		CCDLibrary.CCD_TIMING_FRAME_STAGE_IMAGE_RETRIEVED,CCDLibrary.CCD_TIMING_FRAME_STAGE_IMAGE_RETRIEVED,
+		CCDLibrary.CCD_TIMING_FRAME_STAGE_FILENAME_RESOLVED,CCDLibrary.CCD_TIMING_FRAME_STAGE_FRAME_AVAILABLE};
+	/**
+	 * The stage each interval ends at, indexed by the INTERVAL constants.
+	 */
+	private final static int INTERVAL_END_STAGE_LIST[] = {CCDLibrary.CCD_TIMING_FRAME_STAGE_IMAGE_RETRIEVED,
+		CCDLibrary.CCD_TIMING_FRAME_STAGE_MEDIAN_DONE,CCDLibrary.CCD_TIMING_FRAME_STAGE_FILENAME_RESOLVED,
+		CCDLibrary.CCD_TIMING_FRAME_STAGE_SAVE_DONE,CCDLibrary.CCD_TIMING_FRAME_STAGE_SAVE_DONE};
+	/**
+	 * The name of each stage, used as the event name of frame stage events, indexed by the
+	 * CCDLibrary CCD_TIMING_FRAME_STAGE constants.
+	 * @see CcsEventRecorder#EVENT_FRAME_STAGE
+	 */
+	private final static String STAGE_NAME_LIST[] = {"AcquisitionStart","FrameAvailable","ImageRetrieved",
+							 "MedianDone","FilenameResolved","SaveDone"};
+	/**
+	 * The name of each record state, used in the frame stage event details, indexed by the
+	 * CCDLibrary CCD_TIMING_FRAME_STATE constants.
+	 */
+	private final static String STATE_NAME_LIST[] = {"in progress","saved","abandoned"};
+	/**
+	 * The default number of frames the rolling percentiles are calculated over,
+	 * if the 'ccs.frame_timing.window' property is not set.
+	 */
+	private final static int DEFAULT_WINDOW = 256;
+	/**
+	 * A record still in progress is skipped (rather than waited for), when this many later records have
+	 * been started. The frame has probably been lost by a writer thread, and would otherwise stop
+	 * every later frame being processed.
+	 */
+	private final static int STALE_RECORD_COUNT = 64;
+	/**
+	 * The Ccs object.
+	 */
+	private Ccs ccs = null;
+	/**
+	 * Whether the background reading of the records is enabled.
+	 */
+	private boolean enable = false;
+	/**
+	 * How often to read the records, in milliseconds.
+	 */
+	private long interval = 0;
+	/**
+	 * The number of frames the rolling percentiles are calculated over.
+	 */
+	private int window = DEFAULT_WINDOW;
+	/**
+	 * The array the records are copied into. This is re-used for each read.
+	 * @see ngat.rise.ccd.CCDLibrary#CCDTimingFrameGetRecords
+	 */
+	private long recordList[] = new long[CCDLibrary.CCD_TIMING_FRAME_RING_SIZE*
+					     CCDLibrary.CCD_TIMING_FRAME_FIELD_COUNT];
+	/**
+	 * The sequence number of the last record processed, or zero if none have been processed.
+	 */
+	private long lastSequence = 0;
+	/**
+	 * The acquisition start time of the last record processed, used to calculate the gap between frames.
+	 */
+	private long lastAcquisitionStart = 0;
+	/**
+	 * The image retrieved time of the last record processed, used to calculate the gap between frames.
+	 */
+	private long lastImageRetrieved = 0;
+	/**
+	 * The rolling list of samples for each interval, in nanoseconds, indexed by the INTERVAL constants.
+	 * Each list has window entries.
+	 * @see #window
+	 */
+	private long sampleList[][] = null;
+	/**
+	 * The number of samples added to each interval, indexed by the INTERVAL constants.
+	 */
+	private long sampleCountList[] = new long[INTERVAL_COUNT];
+	/**
+	 * The number of saved frames processed.
+	 */
+	private long savedCount = 0;
+	/**
+	 * The number of abandoned frames processed.
+	 */
+	private long abandonedCount = 0;
+	/**
+	 * The number of records that were not processed, because they had been overwritten in the native ring
+	 * before they were read, or were skipped as stale.
+	 * @see #STALE_RECORD_COUNT
+	 */
+	private long missedCount = 0;
+	/**
+	 * The latest snapshot, or null if the records have not been read (since the background reading was stopped).
+	 */
+	private volatile Snapshot snapshot = null;
+	/**
+	 * The thread the background reading is run on, or null if it is not running.
+	 */
+	private ScheduledExecutorService updateExecutor = null;
+
+	/**
+	 * Constructor.
+	 * @param c The Ccs object.
+	 * @see #sampleList
+	 */
+	public CcsFrameTiming(Ccs c)
+	{
+		super();
+		ccs = c;
+		sampleList = new long[INTERVAL_COUNT][window];
+	}
+
+	/**
+	 * Load the configuration from the Ccs properties. The background reading is stopped, and restarted if
+	 * it is enabled. If the window size changes, the rolling samples are discarded.
+	 * @param status The status object to get the properties from.
+	 * @exception NumberFormatException Thrown if a numeric property is not a valid number.
+	 * @see #enable
+	 * @see #interval
+	 * @see #window
+	 * @see #stop
+	 * @see #start
+	 */
+	public void loadProperties(CcsStatus status) throws NumberFormatException
+	{
+		int newWindow;
+
+		stop();
+		if(status.getProperty("ccs.frame_timing.window") != null)
+			newWindow = status.getPropertyInteger("ccs.frame_timing.window");
+		else
+			newWindow = DEFAULT_WINDOW;
+		if(newWindow < 1)
+		{
+			throw new NumberFormatException(this.getClass().getName()+
+							":loadProperties:Illegal window size:"+newWindow);
+		}
+		synchronized(this)
+		{
+			if(newWindow != window)
+			{
+				window = newWindow;
+				sampleList = new long[INTERVAL_COUNT][window];
+				sampleCountList = new long[INTERVAL_COUNT];
+				snapshot = null;
+			}
+		}
+		enable = false;
+		if(status.getProperty("ccs.frame_timing.enable") != null)
+			enable = status.getPropertyBoolean("ccs.frame_timing.enable");
+		if(enable)
+		{
+			interval = (long)(status.getPropertyInteger("ccs.frame_timing.interval"));
+			start();
+		}
+	}
+
+	/**
+	 * Start the background reading of the records.
+	 * @see #updateExecutor
+	 * @see #interval
+	 * @see #update
+	 */
+	protected synchronized void start()
+	{
+		if(updateExecutor != null)
+			return;
+		updateExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = null;
+
+				thread = new Thread(r,"CcsFrameTiming");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		updateExecutor.scheduleWithFixedDelay(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					update();
+				}
+				catch(Exception e)
+				{
+					ccs.error(this.getClass().getName()+":run:Reading frame timing records failed:",e);
+				}
+			}
+		},0L,interval,TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop the background reading of the records, if it is running. The latest snapshot is discarded, as it
+	 * will no longer be kept up to date.
+	 * @see #updateExecutor
+	 * @see #snapshot
+	 */
+	public synchronized void stop()
+	{
+		if(updateExecutor == null)
+			return;
+		updateExecutor.shutdownNow();
+		updateExecutor = null;
+		snapshot = null;
+	}
+
+	/**
+	 * Get the latest snapshot. If the background reading is running, the latest snapshot it published is
+	 * returned. Otherwise (the background reading is disabled, or has not read the records yet),
+	 * the records are read on the calling thread. If reading them fails, the error is logged and an empty
+	 * snapshot returned.
+	 * @return The latest snapshot.
+	 * @see #snapshot
+	 * @see #updateExecutor
+	 * @see #update
+	 */
+	public Snapshot getSnapshot()
+	{
+		Snapshot s = null;
+		boolean running;
+
+		synchronized(this)
+		{
+			running = (updateExecutor != null);
+		}
+		s = snapshot;
+		if((running == false)||(s == null))
+		{
+			try
+			{
+				s = update();
+			}
+			catch(CCDLibraryNativeException e)
+			{
+				ccs.error(this.getClass().getName()+":getSnapshot:Reading frame timing records failed:",e);
+				s = new Snapshot();
+			}
+		}
+		return s;
+	}
+
+	/**
+	 * Copy the records out of the native ring, and process the records not seen before, in sequence order.
+	 * Processing stops at the first record still in progress (the FITS writer threads can finish frames out
+	 * of order), unless it is stale. A new snapshot is then published.
+	 * @return The new snapshot.
+	 * @exception CCDLibraryNativeException Thrown if copying the records fails.
+	 * @see #recordList
+	 * @see #lastSequence
+	 * @see #STALE_RECORD_COUNT
+	 * @see #processRecord
+	 * @see #createSnapshot
+	 * @see ngat.rise.ccd.CCDLibrary#CCDTimingFrameGetRecords
+	 */
+	protected synchronized Snapshot update() throws CCDLibraryNativeException
+	{
+		Snapshot s = null;
+		long sequence,state,wallClockOffset;
+		int count,index;
+
+		count = ccs.getLibccd().CCDTimingFrameGetRecords(recordList);
+		// the C layer timestamps with CLOCK_MONOTONIC, as does System.nanoTime on Linux
+		wallClockOffset = (System.currentTimeMillis()*1000000L)-System.nanoTime();
+		for(int i = 0; i < count; i++)
+		{
+			index = i*CCDLibrary.CCD_TIMING_FRAME_FIELD_COUNT;
+			sequence = recordList[index+CCDLibrary.CCD_TIMING_FRAME_FIELD_SEQUENCE];
+			if(sequence <= lastSequence)
+				continue;
+			state = recordList[index+CCDLibrary.CCD_TIMING_FRAME_FIELD_STATE];
+			if(state == CCDLibrary.CCD_TIMING_FRAME_STATE_IN_PROGRESS)
+			{
+				if((count-1-i) <= STALE_RECORD_COUNT)
+					break;
+				missedCount++;
+			}
+			else
+				processRecord(index,wallClockOffset);
+			if(lastSequence > 0)
+				missedCount += sequence-lastSequence-1;
+			lastSequence = sequence;
+		}
+		s = createSnapshot();
+		snapshot = s;
+		ccs.log(Logging.VERBOSITY_VERY_VERBOSE,this.getClass().getName()+":update:Read "+count+
+			" records, last sequence "+lastSequence+".");
+		return s;
+	}
+
+	/**
+	 * Process a finished record. The time taken by each interval (where the frame reached both of the
+	 * interval's stages) is added to the rolling samples and the frame stage histograms, and an event is
+	 * recorded for each stage the frame reached, if the event recorder is enabled.
+	 * @param index The index in recordList of the start of the record.
+	 * @param wallClockOffset The offset to add to a stage time to get wall clock time, in nanoseconds.
+	 * @see #recordList
+	 * @see #addSample
+	 * @see CcsMetrics#addFrameStage
+	 * @see CcsEventRecorder#record(String,String,long,long,String)
+	 */
+	protected void processRecord(int index,long wallClockOffset)
+	{
+		CcsEventRecorder eventRecorder = null;
+		String details = null;
+		long stageTime[] = null;
+		long state,startTime,endTime,previousTime;
+
+		stageTime = new long[CCDLibrary.CCD_TIMING_FRAME_STAGE_COUNT];
+		for(int stage = 0; stage < CCDLibrary.CCD_TIMING_FRAME_STAGE_COUNT; stage++)
+			stageTime[stage] = recordList[index+CCDLibrary.CCD_TIMING_FRAME_FIELD_STAGE_TIME+stage];
+		state = recordList[index+CCDLibrary.CCD_TIMING_FRAME_FIELD_STATE];
+		if(state == CCDLibrary.CCD_TIMING_FRAME_STATE_SAVED)
+			savedCount++;
+		else
+			abandonedCount++;
+		for(int i = 0; i < INTERVAL_GAP; i++)
+		{
+			startTime = stageTime[INTERVAL_START_STAGE_LIST[i]];
+			endTime = stageTime[INTERVAL_END_STAGE_LIST[i]];
+			if((startTime > 0)&&(endTime >= startTime))
+				addSample(i,endTime-startTime);
+		}
+		// gap from the previous frame, if it was in the same acquisition
+		endTime = stageTime[CCDLibrary.CCD_TIMING_FRAME_STAGE_IMAGE_RETRIEVED];
+		if((lastImageRetrieved > 0)&&(endTime >= lastImageRetrieved)&&
+		   (stageTime[CCDLibrary.CCD_TIMING_FRAME_STAGE_ACQUISITION_START] == lastAcquisitionStart))
+			addSample(INTERVAL_GAP,endTime-lastImageRetrieved);
+		lastAcquisitionStart = stageTime[CCDLibrary.CCD_TIMING_FRAME_STAGE_ACQUISITION_START];
+		lastImageRetrieved = endTime;
+		// frame stage events
+		eventRecorder = ccs.getEventRecorder();
+		if(eventRecorder.isEnabled())
+		{
+			details = "sequence="+recordList[index+CCDLibrary.CCD_TIMING_FRAME_FIELD_SEQUENCE]+
+				":frame="+recordList[index+CCDLibrary.CCD_TIMING_FRAME_FIELD_FRAME_NUMBER]+
+				":"+STATE_NAME_LIST[(int)state];
+			previousTime = 0;
+			for(int stage = 0; stage < CCDLibrary.CCD_TIMING_FRAME_STAGE_COUNT; stage++)
+			{
+				if(stageTime[stage] == 0)
+					continue;
+				eventRecorder.record(CcsEventRecorder.EVENT_FRAME_STAGE,STAGE_NAME_LIST[stage],
+						     (stageTime[stage]+wallClockOffset)/1000000L,
+						     (previousTime > 0) ? (stageTime[stage]-previousTime)/1000L : 0L,details);
+				previousTime = stageTime[stage];
+			}
+		}
+	}
+
+	/**
+	 * Add a sample to an interval's rolling samples, and to the Ccs metrics frame stage histogram.
+	 * @param interval The interval, one of the INTERVAL constants.
+	 * @param time The time taken, in nanoseconds.
+	 * @see #sampleList
+	 * @see #sampleCountList
+	 * @see CcsMetrics#addFrameStage
+	 */
+	protected void addSample(int interval,long time)
+	{
+		sampleList[interval][(int)(sampleCountList[interval]%window)] = time;
+		sampleCountList[interval]++;
+		ccs.getMetrics().addFrameStage(INTERVAL_METRIC_LIST[interval],time);
+	}
+
+	/**
+	 * Create a snapshot, calculating the percentiles of each interval's rolling samples.
+	 * @return The new snapshot.
+	 * @see #sampleList
+	 * @see #getPercentile
+	 */
+	protected Snapshot createSnapshot()
+	{
+		Snapshot s = null;
+		long sortedList[] = null;
+		int count;
+
+		s = new Snapshot();
+		s.timestamp = System.currentTimeMillis();
+		s.savedCount = savedCount;
+		s.abandonedCount = abandonedCount;
+		s.missedCount = missedCount;
+		for(int i = 0; i < INTERVAL_COUNT; i++)
+		{
+			count = (int)Math.min(sampleCountList[i],(long)window);
+			s.sampleCountList[i] = count;
+			if(count == 0)
+				continue;
+			sortedList = new long[count];
+			System.arraycopy(sampleList[i],0,sortedList,0,count);
+			Arrays.sort(sortedList);
+			s.p50List[i] = getPercentile(sortedList,50);
+			s.p90List[i] = getPercentile(sortedList,90);
+			s.p99List[i] = getPercentile(sortedList,99);
+		}
+		return s;
+	}
+
+	/**
+	 * Get a percentile of a sorted list of samples, using the nearest rank method.
+	 * @param sortedList The samples, in nanoseconds, sorted in ascending order. There must be at least one.
+	 * @param percentile The percentile, from 1 to 100.
+	 * @return The percentile, in milliseconds.
+	 */
+	protected double getPercentile(long sortedList[],int percentile)
+	{
+		int rank;
+
+		rank = (int)Math.ceil((((double)percentile)*((double)sortedList.length))/100.0);
+		if(rank < 1)
+			rank = 1;
+		return ((double)sortedList[rank-1])/1000000.0;
+	}
+
+	/**
+	 * A snapshot of the frame timing percentiles. A snapshot is not changed once it has been published.
+	 */
+	public static class Snapshot
+	{
+		/**
+		 * The time the snapshot was taken, in milliseconds since the epoch.
+		 */
+		long timestamp = 0;
+		/**
+		 * The number of saved frames processed.
+		 */
+		long savedCount = 0;
+		/**
+		 * The number of abandoned frames processed.
+		 */
+		long abandonedCount = 0;
+		/**
+		 * The number of frame timing records that were not processed.
+		 */
+		long missedCount = 0;
+		/**
+		 * The number of samples each interval's percentiles were calculated over, indexed by the
+		 * INTERVAL constants.
+		 */
+		int sampleCountList[] = new int[INTERVAL_COUNT];
+		/**
+		 * The 50th percentile (median) of each interval, in milliseconds, indexed by the INTERVAL constants.
+		 */
+		double p50List[] = new double[INTERVAL_COUNT];
+		/**
+		 * The 90th percentile of each interval, in milliseconds, indexed by the INTERVAL constants.
+		 */
+		double p90List[] = new double[INTERVAL_COUNT];
+		/**
+		 * The 99th percentile of each interval, in milliseconds, indexed by the INTERVAL constants.
+		 */
+		double p99List[] = new double[INTERVAL_COUNT];
+
+		/**
+		 * Get the age of the snapshot.
+		 * @return The time since the snapshot was taken, in milliseconds.
+		 */
+		public long getAge()
+		{
+			return System.currentTimeMillis()-timestamp;
+		}
+
+		/**
+		 * @return The number of saved frames processed.
+		 * @see #savedCount
+		 */
+		public long getSavedCount()
+		{
+			return savedCount;
+		}
+
+		/**
+		 * @return The number of abandoned frames processed.
+		 * @see #abandonedCount
+		 */
+		public long getAbandonedCount()
+		{
+			return abandonedCount;
+		}
+
+		/**
+		 * @return The number of frame timing records that were not processed.
+		 * @see #missedCount
+		 */
+		public long getMissedCount()
+		{
+			return missedCount;
+		}
+
+		/**
+		 * @param interval The interval, one of the INTERVAL constants.
+		 * @return The number of samples the interval's percentiles were calculated over.
+		 * @see #sampleCountList
+		 */
+		public int getSampleCount(int interval)
+		{
+			return sampleCountList[interval];
+		}
+
+		/**
+		 * @param interval The interval, one of the INTERVAL constants.
+		 * @return The 50th percentile of the interval, in milliseconds, or zero if there are no samples.
+		 * @see #p50List
+		 */
+		public double getP50(int interval)
+		{
+			return p50List[interval];
+		}
+
+		/**
+		 * @param interval The interval, one of the INTERVAL constants.
+		 * @return The 90th percentile of the interval, in milliseconds, or zero if there are no samples.
+		 * @see #p90List
+		 */
+		public double getP90(int interval)
+		{
+			return p90List[interval];
+		}
+
+		/**
+		 * @param interval The interval, one of the INTERVAL constants.
+		 * @return The 99th percentile of the interval, in milliseconds, or zero if there are no samples.
+		 * @see #p99List
+		 */
+		public double getP99(int interval)
+		{
+			return p99List[interval];
+		}
+	}
+}
+//
+// $Log: not supported by cvs2svn $
+//
@@ -0,0 +1,220 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Ccs.
+
+    Ccs is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Ccs is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Ccs; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CcsISSClient.java
+// $Header$
+import java.lang.*;
+import java.net.*;
+import java.util.Hashtable;
+import java.util.concurrent.*;
+
+import ngat.message.ISS_INST.*;
+
+/**
+ * This class sends commands from the Ccs to the ISS, on a pool of long lived threads rather than starting
+ * a new thread for each command. Connections are not pooled: the ISS protocol is one command per connection,
+ * so a new connection is opened for each command. If all the pool threads are busy an extra thread is
+ * started, so ISS commands are never queued behind each other. The latency of each command is recorded
+ * against the command's class name.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see CcsClientThreadPool
+ * @see Ccs#sendISSCommand
+ */
+public class CcsISSClient extends CcsClientThreadPool<INST_TO_ISS,INST_TO_ISS_DONE>
+{
+	/**
+	 * Revision Control System id string, showing the version of the Class.
+	 */
+	public final static String RCSID = new String("$Id$");
+	/**
+	 * How long extra pool threads, started when all the core threads are busy, are kept idle before they
+	 * terminate, in seconds.
+	 */
+	private final static long KEEP_ALIVE_TIME = 60;
+	/**
+	 * Table of latency statistics, keyed by command class name.
+	 * @see CcsISSClient.Latency
+	 */
+	private Hashtable latencyTable = new Hashtable();
+
+	/**
+	 * Constructor. Creates and starts the thread pool.
+	 * @param c The Ccs object.
+	 * @param a The ip address of the machine the ISS is running on.
+	 * @param p The port number to send ISS commands to.
+	 * @param threadCount The number of pool threads kept running. If more commands are in progress at once,
+	 *        extra threads are started, which terminate after KEEP_ALIVE_TIME seconds idle.
+	 * @exception IllegalArgumentException Thrown if threadCount is less than one.
+	 * @see #KEEP_ALIVE_TIME
+	 * @see CcsEventRecorder#EVENT_ISS_COMMAND
+	 */
+	public CcsISSClient(Ccs c,InetAddress a,int p,int threadCount) throws IllegalArgumentException
+	{
+		super(c,a,p,"ISS",CcsEventRecorder.EVENT_ISS_COMMAND,threadCount,Integer.MAX_VALUE,KEEP_ALIVE_TIME,
+		      new SynchronousQueue<Runnable>());
+	}
+
+	/**
+	 * Get how long the last command of the specified class took, from sending the command to receiving the
+	 * done message.
+	 * @param commandClassName The class name of the command, e.g. "ngat.message.ISS_INST.GET_FITS".
+	 * @return The latency in milliseconds, or zero if no command of this class has been sent.
+	 * @see #getLatency
+	 */
+	public long getLatencyLast(String commandClassName)
+	{
+		Latency latency = null;
+
+		latency = getLatency(commandClassName);
+		if(latency == null)
+			return 0;
+		synchronized(latency)
+		{
+			return latency.last;
+		}
+	}
+
+	/**
+	 * Get the longest time a command of the specified class took.
+	 * @param commandClassName The class name of the command, e.g. "ngat.message.ISS_INST.GET_FITS".
+	 * @return The latency in milliseconds, or zero if no command of this class has been sent.
+	 * @see #getLatency
+	 */
+	public long getLatencyMax(String commandClassName)
+	{
+		Latency latency = null;
+
+		latency = getLatency(commandClassName);
+		if(latency == null)
+			return 0;
+		synchronized(latency)
+		{
+			return latency.max;
+		}
+	}
+
+	/**
+	 * Get the mean time commands of the specified class took.
+	 * @param commandClassName The class name of the command, e.g. "ngat.message.ISS_INST.GET_FITS".
+	 * @return The latency in milliseconds, or zero if no command of this class has been sent.
+	 * @see #getLatency
+	 */
+	public long getLatencyMean(String commandClassName)
+	{
+		Latency latency = null;
+
+		latency = getLatency(commandClassName);
+		if(latency == null)
+			return 0;
+		synchronized(latency)
+		{
+			if(latency.count == 0)
+				return 0;
+			return latency.total/latency.count;
+		}
+	}
+
+	/**
+	 * Get the number of commands of the specified class that have been sent.
+	 * @param commandClassName The class name of the command, e.g. "ngat.message.ISS_INST.GET_FITS".
+	 * @return The number of commands.
+	 * @see #getLatency
+	 */
+	public int getCommandCount(String commandClassName)
+	{
+		Latency latency = null;
+
+		latency = getLatency(commandClassName);
+		if(latency == null)
+			return 0;
+		synchronized(latency)
+		{
+			return latency.count;
+		}
+	}
+
+	/**
+	 * Get the latency statistics for a command class.
+	 * @param commandClassName The class name of the command.
+	 * @return The latency statistics, or null if no command of this class has been sent.
+	 * @see #latencyTable
+	 */
+	protected Latency getLatency(String commandClassName)
+	{
+		return (Latency)(latencyTable.get(commandClassName));
+	}
+
+	/**
+	 * Add a command's latency to the statistics for its class, and to the metrics.
+	 * @param commandClassName The class name of the command.
+	 * @param time The time the command took, in milliseconds.
+	 * @see #latencyTable
+	 * @see CcsMetrics#addISSCommand
+	 */
+	protected void addMetrics(String commandClassName,long time)
+	{
+		Latency latency = null;
+
+		synchronized(latencyTable)
+		{
+			latency = (Latency)(latencyTable.get(commandClassName));
+			if(latency == null)
+			{
+				latency = new Latency();
+				latencyTable.put(commandClassName,latency);
+			}
+		}
+		synchronized(latency)
+		{
+			latency.last = time;
+			if(time > latency.max)
+				latency.max = time;
+			latency.total += time;
+			latency.count++;
+		}
+		ccs.getMetrics().addISSCommand(commandClassName,time);
+	}
+
+	/**
+	 * Latency statistics for one class of command.
+	 */
+	protected static class Latency
+	{
+		/**
+		 * How long the last command took, in milliseconds.
+		 */
+		long last = 0;
+		/**
+		 * The longest a command took, in milliseconds.
+		 */
+		long max = 0;
+		/**
+		 * The total time the commands took, in milliseconds.
+		 */
+		long total = 0;
+		/**
+		 * The number of commands.
+		 */
+		int count = 0;
+	}
+}
+//
+// $Log: not supported by cvs2svn $
+//
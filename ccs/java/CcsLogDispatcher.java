@@ -0,0 +1,600 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Ccs.
+
+    Ccs is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Ccs is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Ccs; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CcsLogDispatcher.java
+// $Header$
+import java.lang.*;
+import java.util.Vector;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ngat.util.logging.*;
+
+/**
+ * This class passes log and error messages to the Ccs loggers on a background thread, so the handlers
+ * (file, multicast, datagram, console and the multicast relay) format and send the messages without
+ * holding up the thread that logged them (e.g. a command thread in the middle of an exposure).
+ * Log messages the log logger would filter out are discarded before they are queued. Each message is
+ * timestamped when it is logged, not when it is dispatched.
+ * Messages are put into a bounded queue, and the dispatch thread takes them off in batches of up to
+ * 'ccs.log.dispatch.batch_size' messages. When the queue is full, the 'ccs.log.dispatch.overflow_policy'
+ * property decides what happens to a new log message:
+ * <ul>
+ * <li><b>drop</b> The message is dropped.
+ * <li><b>block</b> The logging thread waits for space in the queue.
+ * <li><b>sample</b> One in every 'ccs.log.dispatch.sample_rate' messages replaces the oldest message in
+ *     the queue, the others are dropped.
+ * </ul>
+ * Error messages are never dropped: when the queue is full the error waits for space whatever the policy, and
+ * the sample policy never makes room by discarding a queued error.
+ * If the dispatcher is disabled or stopped, Ccs logs the messages on the calling thread as before.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see Ccs#log
+ * @see Ccs#error
+ */
+public class CcsLogDispatcher
+{
+	/**
+	 * Revision Control System id string, showing the version of the Class.
+	 */
+	public final static String RCSID = new String("$Id$");
+	/**
+	 * Overflow policy: drop the new message when the queue is full.
+	 */
+	public final static int OVERFLOW_POLICY_DROP = 0;
+	/**
+	 * Overflow policy: wait for space in the queue when it is full.
+	 */
+	public final static int OVERFLOW_POLICY_BLOCK = 1;
+	/**
+	 * Overflow policy: when the queue is full, one in every sample rate messages replaces the oldest
+	 * message in the queue, the others are dropped.
+	 */
+	public final static int OVERFLOW_POLICY_SAMPLE = 2;
+	/**
+	 * How long a blocked logging thread (or the dispatch thread) waits before checking whether the
+	 * dispatcher has been stopped, in milliseconds.
+	 */
+	private final static long POLL_TIME = 100;
+	/**
+	 * How long stop waits for the dispatch thread to empty the queue, in milliseconds.
+	 */
+	private final static long STOP_TIME = 5000;
+	/**
+	 * The logger log messages are passed to.
+	 */
+	private Logger logLogger = null;
+	/**
+	 * The logger error messages are passed to.
+	 */
+	private Logger errorLogger = null;
+	/**
+	 * Whether messages are currently being put into the queue.
+	 */
+	private volatile boolean running = false;
+	/**
+	 * The size of the queue, the maximum number of messages waiting to be dispatched.
+	 */
+	private int queueSize = 0;
+	/**
+	 * The maximum number of messages the dispatch thread takes off the queue at once.
+	 */
+	private int batchSize = 1;
+	/**
+	 * What happens to a message when the queue is full.
+	 * @see #OVERFLOW_POLICY_DROP
+	 * @see #OVERFLOW_POLICY_BLOCK
+	 * @see #OVERFLOW_POLICY_SAMPLE
+	 */
+	private int overflowPolicy = OVERFLOW_POLICY_DROP;
+	/**
+	 * For the sample overflow policy, one in this many messages is kept when the queue is full.
+	 */
+	private int sampleRate = 1;
+	/**
+	 * The queue of messages waiting to be dispatched.
+	 */
+	private volatile ArrayBlockingQueue<Message> queue = null;
+	/**
+	 * The thread the messages are dispatched on, or null if the dispatcher is not running.
+	 */
+	private Thread dispatchThread = null;
+	/**
+	 * The number of messages put into the queue.
+	 */
+	private AtomicLong queuedCount = new AtomicLong(0);
+	/**
+	 * The number of messages dropped because the queue was full.
+	 */
+	private AtomicLong droppedCount = new AtomicLong(0);
+	/**
+	 * The number of messages that have overflowed under the sample policy, used to pick which are kept.
+	 */
+	private AtomicLong overflowCount = new AtomicLong(0);
+	/**
+	 * The number of messages passed to the loggers. Only written by the dispatch thread.
+	 */
+	private volatile long dispatchedCount = 0;
+	/**
+	 * The total time spent passing messages to the loggers (and hence their handlers), in nanoseconds.
+	 * Only written by the dispatch thread.
+	 */
+	private volatile long latencyTotal = 0;
+	/**
+	 * The longest time spent passing a message to the loggers, in nanoseconds.
+	 * Only written by the dispatch thread.
+	 */
+	private volatile long latencyMax = 0;
+
+	/**
+	 * Constructor.
+	 * @param log The logger log messages are passed to.
+	 * @param error The logger error messages are passed to.
+	 */
+	public CcsLogDispatcher(Logger log,Logger error)
+	{
+		super();
+		logLogger = log;
+		errorLogger = error;
+	}
+
+	/**
+	 * Load the dispatcher configuration from the Ccs properties. The dispatcher is stopped (dispatching
+	 * any queued messages), and restarted with the new configuration if it is enabled.
+	 * @param status The status object to get the properties from.
+	 * @exception NumberFormatException Thrown if a numeric property is not a valid number.
+	 * @exception IllegalArgumentException Thrown if the overflow policy is not recognised.
+	 * @see #stop
+	 * @see #start
+	 */
+	public void loadProperties(CcsStatus status) throws NumberFormatException,IllegalArgumentException
+	{
+		String s = null;
+
+		stop();
+		if(status.getProperty("ccs.log.dispatch.enable") == null)
+			return;
+		if(status.getPropertyBoolean("ccs.log.dispatch.enable") == false)
+			return;
+		queueSize = status.getPropertyInteger("ccs.log.dispatch.queue_size");
+		batchSize = status.getPropertyInteger("ccs.log.dispatch.batch_size");
+		sampleRate = status.getPropertyInteger("ccs.log.dispatch.sample_rate");
+		if((queueSize < 1)||(batchSize < 1)||(sampleRate < 1))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+
+				":loadProperties:Illegal queue size/batch size/sample rate:"+queueSize+":"+
+				batchSize+":"+sampleRate);
+		}
+		s = status.getProperty("ccs.log.dispatch.overflow_policy");
+		if("drop".equals(s))
+			overflowPolicy = OVERFLOW_POLICY_DROP;
+		else if("block".equals(s))
+			overflowPolicy = OVERFLOW_POLICY_BLOCK;
+		else if("sample".equals(s))
+			overflowPolicy = OVERFLOW_POLICY_SAMPLE;
+		else
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+
+				":loadProperties:Illegal overflow policy:"+s);
+		}
+		start();
+	}
+
+	/**
+	 * Queue a log message. If the log logger's level would filter the message out, it is discarded
+	 * here rather than queued.
+	 * @param level The level of logging this message belongs to.
+	 * @param s The string to log.
+	 * @return true if the message was queued, dropped or filtered out, false if the dispatcher is not
+	 *         running and the caller should log the message itself.
+	 * @see #queueMessage
+	 */
+	public boolean log(int level,String s)
+	{
+		if(running == false)
+			return false;
+		if(level > logLogger.getLogLevel())
+			return true;
+		return queueMessage(new Message(logLogger,level,s,null));
+	}
+
+	/**
+	 * Queue an error message. Error messages are never dropped, they wait for space in the queue if it is full.
+	 * @param s The string to log.
+	 * @param e An exception that caused the error to occur, or null.
+	 * @return true if the message was queued, false if the dispatcher is not running (or stopped, or this
+	 *         thread was interrupted, whilst waiting for space) and the caller should log the message itself.
+	 * @see #queueMessage
+	 */
+	public boolean error(String s,Exception e)
+	{
+		if(running == false)
+			return false;
+		return queueMessage(new Message(errorLogger,CcsConstants.CCS_LOG_LEVEL_ERROR,s,e));
+	}
+
+	/**
+	 * Put a message into the queue, using the overflow policy if the queue is full. Error messages
+	 * always use the block policy.
+	 * @param message The message.
+	 * @return true if the message was queued (or dropped), false if the message was not queued and
+	 *         the caller should log it itself (the dispatcher was stopped whilst waiting for space in the queue,
+	 *         or whilst the message was being queued, or an error message's wait was interrupted).
+	 * @see #queue
+	 * @see #overflowPolicy
+	 * @see #queued
+	 * @see CcsLogDispatcher.Message#isError
+	 */
+	protected boolean queueMessage(Message message)
+	{
+		ArrayBlockingQueue<Message> q = null;
+		Message oldestMessage = null;
+		int policy;
+
+		q = queue;
+		if(q == null)
+			return false;
+		if(q.offer(message))
+			return queued(q,message);
+		if(message.isError())
+			policy = OVERFLOW_POLICY_BLOCK;
+		else
+			policy = overflowPolicy;
+		switch(policy)
+		{
+			case OVERFLOW_POLICY_BLOCK:
+				try
+				{
+					while(q.offer(message,POLL_TIME,TimeUnit.MILLISECONDS) == false)
+					{
+						if(running == false)
+							return false;
+					}
+					return queued(q,message);
+				}
+				catch(InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					if(message.isError())
+						return false;
+					droppedCount.incrementAndGet();
+				}
+				break;
+			case OVERFLOW_POLICY_SAMPLE:
+				if((overflowCount.incrementAndGet() % sampleRate) == 0)
+				{
+					// make room by dropping the oldest message, unless it is an error,
+					// which is dispatched on this thread instead
+					oldestMessage = q.poll();
+					if(oldestMessage != null)
+					{
+						if(oldestMessage.isError())
+							oldestMessage.dispatch();
+						else
+							droppedCount.incrementAndGet();
+					}
+					if(q.offer(message))
+						return queued(q,message);
+					droppedCount.incrementAndGet();
+				}
+				else
+					droppedCount.incrementAndGet();
+				break;
+			case OVERFLOW_POLICY_DROP:
+			default:
+				droppedCount.incrementAndGet();
+				break;
+		}
+		return true;
+	}
+
+	/**
+	 * Called when a message has been put into the queue. If the dispatcher has started stopping, the
+	 * dispatch thread (and stop) may already have emptied the queue for the last time, so the message is
+	 * taken back out. If that succeeds, the caller must log it itself. If it fails, the message has already
+	 * been taken off the queue to be dispatched.
+	 * @param q The queue the message was put into.
+	 * @param message The message.
+	 * @return true if the message will be dispatched, false if the caller should log it itself.
+	 * @see #running
+	 * @see #queuedCount
+	 */
+	protected boolean queued(ArrayBlockingQueue<Message> q,Message message)
+	{
+		if((running == false)&&q.remove(message))
+			return false;
+		queuedCount.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Start the dispatch thread, with a new queue.
+	 * @see #queue
+	 * @see #dispatchThread
+	 * @see CcsLogDispatcher.DispatchRunnable
+	 */
+	protected synchronized void start()
+	{
+		if(dispatchThread != null)
+			return;
+		queue = new ArrayBlockingQueue<Message>(queueSize);
+		running = true;
+		dispatchThread = new Thread(new DispatchRunnable(queue),"CcsLogDispatcher");
+		dispatchThread.setDaemon(true);
+		dispatchThread.start();
+	}
+
+	/**
+	 * Stop the dispatch thread, if it is running. New messages are logged by the caller from now on.
+	 * The dispatch thread is given a short time to dispatch the messages left in the queue. If it has
+	 * exited, any messages queued whilst it was exiting are dispatched on this thread. If it is still
+	 * running (a handler is slow), it is left to dispatch the rest of the queue, so messages are not
+	 * dispatched out of order on two threads at once.
+	 * @see #running
+	 * @see #dispatchThread
+	 * @see #STOP_TIME
+	 * @see #queued
+	 */
+	public synchronized void stop()
+	{
+		ArrayBlockingQueue<Message> q = null;
+		Message message = null;
+
+		if(dispatchThread == null)
+			return;
+		running = false;
+		q = queue;
+		queue = null;
+		try
+		{
+			dispatchThread.join(STOP_TIME);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		if(dispatchThread.isAlive())
+		{
+			System.err.println(this.getClass().getName()+":stop:Dispatch thread still running, leaving it "+
+					   q.size()+" messages to dispatch.");
+		}
+		else
+		{
+			while((message = q.poll()) != null)
+				message.dispatch();
+		}
+		dispatchThread = null;
+	}
+
+	/**
+	 * Get the number of messages currently waiting to be dispatched.
+	 * @return The number of messages in the queue.
+	 * @see #queue
+	 */
+	public int getQueueLength()
+	{
+		ArrayBlockingQueue<Message> q = null;
+
+		q = queue;
+		if(q == null)
+			return 0;
+		return q.size();
+	}
+
+	/**
+	 * Get the number of messages queued since the Ccs started.
+	 * @return The number of messages.
+	 * @see #queuedCount
+	 */
+	public long getQueuedCount()
+	{
+		return queuedCount.get();
+	}
+
+	/**
+	 * Get the number of messages dropped because the queue was full, since the Ccs started.
+	 * @return The number of messages.
+	 * @see #droppedCount
+	 */
+	public long getDroppedCount()
+	{
+		return droppedCount.get();
+	}
+
+	/**
+	 * Get the number of messages passed to the loggers by the dispatch thread, since the Ccs started.
+	 * @return The number of messages.
+	 * @see #dispatchedCount
+	 */
+	public long getDispatchedCount()
+	{
+		return dispatchedCount;
+	}
+
+	/**
+	 * Get the mean time the handlers took to log a message.
+	 * @return The mean time, in milliseconds.
+	 * @see #latencyTotal
+	 * @see #dispatchedCount
+	 */
+	public double getLatencyMean()
+	{
+		long count;
+
+		count = dispatchedCount;
+		if(count == 0)
+			return 0.0;
+		return ((double)latencyTotal)/((double)count)/1000000.0;
+	}
+
+	/**
+	 * Get the longest time the handlers took to log a message.
+	 * @return The longest time, in milliseconds.
+	 * @see #latencyMax
+	 */
+	public double getLatencyMax()
+	{
+		return ((double)latencyMax)/1000000.0;
+	}
+
+	/**
+	 * A message waiting to be dispatched to a logger.
+	 */
+	protected class Message
+	{
+		/**
+		 * The logger to pass the message to.
+		 */
+		Logger logger = null;
+		/**
+		 * The level of logging this message belongs to.
+		 */
+		int level = 0;
+		/**
+		 * The string to log.
+		 */
+		String string = null;
+		/**
+		 * An exception that caused an error, or null.
+		 */
+		Exception exception = null;
+		/**
+		 * The log record passed to the logger. This is created when the message is logged, so it is
+		 * timestamped then rather than when it is dispatched.
+		 */
+		LogRecord record = null;
+
+		/**
+		 * Constructor. The log record is created (and timestamped) here.
+		 * @param l The logger to pass the message to.
+		 * @param lev The level of logging this message belongs to.
+		 * @param s The string to log.
+		 * @param e An exception that caused an error, or null.
+		 * @see #record
+		 */
+		Message(Logger l,int lev,String s,Exception e)
+		{
+			logger = l;
+			level = lev;
+			string = s;
+			exception = e;
+			record = new LogRecord(level,string);
+			if(exception != null)
+				record.setException(exception);
+		}
+
+		/**
+		 * Return whether this is an error message.
+		 * @return true if the message is for the error logger.
+		 * @see #errorLogger
+		 */
+		boolean isError()
+		{
+			return (logger == errorLogger);
+		}
+
+		/**
+		 * Pass the message's log record to the logger, as Ccs.log and Ccs.error do. Any failure is printed
+		 * on System.err, as we cannot log it.
+		 * @see #record
+		 */
+		void dispatch()
+		{
+			try
+			{
+				logger.log(record);
+				if(exception != null)
+					logger.dumpStack(level,exception);
+			}
+			catch(Throwable t)
+			{
+				System.err.println(this.getClass().getName()+":dispatch:"+string+":"+t);
+			}
+		}
+	}
+
+	/**
+	 * The task run by the dispatch thread. This takes batches of messages off the queue and dispatches them,
+	 * timing each one. It finishes when the dispatcher is stopped and the queue is empty.
+	 */
+	protected class DispatchRunnable implements Runnable
+	{
+		/**
+		 * The queue to take messages from.
+		 */
+		private ArrayBlockingQueue<Message> q = null;
+
+		/**
+		 * Constructor.
+		 * @param queue The queue to take messages from.
+		 */
+		DispatchRunnable(ArrayBlockingQueue<Message> queue)
+		{
+			q = queue;
+		}
+
+		/**
+		 * Dispatch messages until the dispatcher is stopped and the queue is empty.
+		 * @see #batchSize
+		 * @see CcsLogDispatcher.Message#dispatch
+		 */
+		public void run()
+		{
+			Vector<Message> batch = null;
+			Message message = null;
+			long startTime,latency;
+
+			batch = new Vector<Message>(batchSize);
+			while(true)
+			{
+				try
+				{
+					message = q.poll(POLL_TIME,TimeUnit.MILLISECONDS);
+				}
+				catch(InterruptedException e)
+				{
+					return;
+				}
+				if(message == null)
+				{
+					if(running == false)
+						return;
+					continue;
+				}
+				batch.clear();
+				batch.add(message);
+				q.drainTo(batch,batchSize-1);
+				for(int i = 0; i < batch.size(); i++)
+				{
+					startTime = System.nanoTime();
+					batch.get(i).dispatch();
+					latency = System.nanoTime()-startTime;
+					latencyTotal += latency;
+					if(latency > latencyMax)
+						latencyMax = latency;
+					dispatchedCount++;
+				}
+			}
+		}
+	}
+}
+//
+// $Log: not supported by cvs2svn $
+//
@@ -0,0 +1,608 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Ccs.
+
+    Ccs is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Ccs is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Ccs; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CcsMetrics.java
+// $Header$
+import java.lang.*;
+import java.lang.management.*;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.Vector;
+
+import ngat.rise.ccd.*;
+
+/**
+ * This class holds the Ccs performance metrics (counters and histograms), and formats them in the
+ * Prometheus text exposition format for the metrics server. The counters and histograms are updated
+ * as commands are processed. Gauges (the FITS writer queue, the log dispatcher and the JVM memory) are
+ * read when the metrics are formatted.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see CcsMetricsServer
+ * @see Ccs#getMetrics
+ */
+public class CcsMetrics
+{
+	/**
+	 * Revision Control System id string, showing the version of the Class.
+	 */
+	public final static String RCSID = new String("$Id$");
+	/**
+	 * Metric family type: a counter.
+	 */
+	public final static String TYPE_COUNTER = "counter";
+	/**
+	 * Metric family type: a histogram.
+	 */
+	public final static String TYPE_HISTOGRAM = "histogram";
+	/**
+	 * Metric family type: a gauge.
+	 */
+	public final static String TYPE_GAUGE = "gauge";
+	/**
+	 * Counter of Ccs commands processed, labelled by command and outcome.
+	 */
+	public final static String COMMANDS = "ccs_commands_total";
+	/**
+	 * Histogram of how long Ccs commands took to process, labelled by command.
+	 */
+	public final static String COMMAND_DURATION = "ccs_command_duration_seconds";
+	/**
+	 * Histogram of ISS command round trip times, labelled by command.
+	 */
+	public final static String ISS_COMMAND_DURATION = "ccs_iss_command_duration_seconds";
+	/**
+	 * Histogram of DP(RT) command round trip times, labelled by command.
+	 */
+	public final static String DPRT_COMMAND_DURATION = "ccs_dprt_command_duration_seconds";
+	/**
+	 * Counter of frames read out of the camera.
+	 */
+	public final static String FRAMES_ACQUIRED = "ccs_frames_acquired_total";
+	/**
+	 * Counter of frames written to disk.
+	 */
+	public final static String FRAMES_WRITTEN = "ccs_frames_written_total";
+	/**
+	 * Counter of frames read out of the camera but not written to disk.
+	 */
+	public final static String FRAMES_DROPPED = "ccs_frames_dropped_total";
+	/**
+	 * Histogram of the time taken by each stage of acquiring and saving a frame, labelled by stage.
+	 * @see CcsFrameTiming
+	 */
+	public final static String FRAME_STAGE_DURATION = "ccs_frame_stage_duration_seconds";
+	/**
+	 * Outcome label value for a command that was successful.
+	 */
+	public final static String OUTCOME_SUCCESS = "success";
+	/**
+	 * Outcome label value for a command that failed.
+	 */
+	public final static String OUTCOME_FAILURE = "failure";
+	/**
+	 * Outcome label value for a command that could not be run, as another command was running.
+	 */
+	public final static String OUTCOME_REJECTED = "rejected";
+	/**
+	 * The histogram bucket upper bounds, in seconds. Ccs commands range from a GET_STATUS to a
+	 * MULTRUN lasting the night.
+	 */
+	private final static double BUCKET_LIST[] = {0.005,0.01,0.025,0.05,0.1,0.25,0.5,1.0,2.5,5.0,10.0,
+						     30.0,60.0,300.0,900.0,3600.0};
+	/**
+	 * The Ccs object.
+	 */
+	private Ccs ccs = null;
+	/**
+	 * The list of metric families, in the order they are formatted.
+	 * @see CcsMetrics.Family
+	 */
+	private Vector familyList = new Vector();
+
+	/**
+	 * Constructor. Creates the metric families.
+	 * @param c The Ccs object.
+	 * @see #addFamily
+	 */
+	public CcsMetrics(Ccs c)
+	{
+		super();
+		ccs = c;
+		addFamily(COMMANDS,TYPE_COUNTER,"Ccs commands processed, by command and outcome.");
+		addFamily(COMMAND_DURATION,TYPE_HISTOGRAM,"Time taken to process Ccs commands.");
+		addFamily(ISS_COMMAND_DURATION,TYPE_HISTOGRAM,"Round trip time of commands sent to the ISS.");
+		addFamily(DPRT_COMMAND_DURATION,TYPE_HISTOGRAM,"Round trip time of commands sent to the DP(RT).");
+		addFamily(FRAMES_ACQUIRED,TYPE_COUNTER,"Frames read out of the camera.");
+		addFamily(FRAMES_WRITTEN,TYPE_COUNTER,"Frames written to disk by the FITS writer.");
+		addFamily(FRAMES_DROPPED,TYPE_COUNTER,"Frames read out of the camera but not written to disk.");
+		addFamily(FRAME_STAGE_DURATION,TYPE_HISTOGRAM,"Time taken by each stage of acquiring and saving a frame.");
+	}
+
+	/**
+	 * Record that a Ccs command has been processed.
+	 * @param commandClassName The class name of the command.
+	 * @param outcome The outcome, one of OUTCOME_SUCCESS, OUTCOME_FAILURE or OUTCOME_REJECTED.
+	 * @param time How long the command took, in milliseconds.
+	 * @see #COMMANDS
+	 * @see #COMMAND_DURATION
+	 */
+	public void addCommand(String commandClassName,String outcome,long time)
+	{
+		String commandLabel = null;
+
+		commandLabel = label("command",shortName(commandClassName));
+		increment(COMMANDS,commandLabel+","+label("outcome",outcome),1);
+		if(outcome.equals(OUTCOME_REJECTED) == false)
+			observe(COMMAND_DURATION,commandLabel,((double)time)/1000.0);
+	}
+
+	/**
+	 * Record the round trip time of a command sent to the ISS.
+	 * @param commandClassName The class name of the command.
+	 * @param time How long the command took, in milliseconds.
+	 * @see #ISS_COMMAND_DURATION
+	 */
+	public void addISSCommand(String commandClassName,long time)
+	{
+		observe(ISS_COMMAND_DURATION,label("command",shortName(commandClassName)),((double)time)/1000.0);
+	}
+
+	/**
+	 * Record the round trip time of a command sent to the DP(RT).
+	 * @param commandClassName The class name of the command.
+	 * @param time How long the command took, in milliseconds.
+	 * @see #DPRT_COMMAND_DURATION
+	 */
+	public void addDpRtCommand(String commandClassName,long time)
+	{
+		observe(DPRT_COMMAND_DURATION,label("command",shortName(commandClassName)),((double)time)/1000.0);
+	}
+
+	/**
+	 * Record the frames acquired and written by a multrun. Frames acquired but not written are counted
+	 * as dropped.
+	 * @param acquired The number of frames read out of the camera.
+	 * @param written The number of frames written to disk.
+	 * @see #FRAMES_ACQUIRED
+	 * @see #FRAMES_WRITTEN
+	 * @see #FRAMES_DROPPED
+	 */
+	public void addFrames(int acquired,int written)
+	{
+		increment(FRAMES_ACQUIRED,"",acquired);
+		increment(FRAMES_WRITTEN,"",written);
+		if(acquired > written)
+			increment(FRAMES_DROPPED,"",acquired-written);
+	}
+
+	/**
+	 * Record the time taken by a stage of acquiring and saving a frame.
+	 * @param stage The stage name, e.g. &quot;readout&quot;.
+	 * @param time How long the stage took, in nanoseconds.
+	 * @see #FRAME_STAGE_DURATION
+	 * @see CcsFrameTiming
+	 */
+	public void addFrameStage(String stage,long time)
+	{
+		observe(FRAME_STAGE_DURATION,label("stage",stage),((double)time)/1000000000.0);
+	}
+
+	/**
+	 * Format all the metrics in the Prometheus text exposition format. The counters and histograms are
+	 * followed by gauges read now from the C layer, the log dispatcher and the JVM.
+	 * @return A string containing the metrics.
+	 * @see #familyList
+	 * @see #appendGauges
+	 */
+	public String getText()
+	{
+		StringBuffer sb = null;
+		Family family = null;
+
+		sb = new StringBuffer();
+		for(int i = 0; i < familyList.size(); i++)
+		{
+			family = (Family)(familyList.get(i));
+			family.append(sb);
+		}
+		appendGauges(sb);
+		return sb.toString();
+	}
+
+	/**
+	 * Add a metric family.
+	 * @param name The metric name.
+	 * @param type The metric type, one of TYPE_COUNTER or TYPE_HISTOGRAM.
+	 * @param help The help text.
+	 * @see #familyList
+	 */
+	protected void addFamily(String name,String type,String help)
+	{
+		familyList.add(new Family(name,type,help));
+	}
+
+	/**
+	 * Get a metric family.
+	 * @param name The metric name.
+	 * @return The family.
+	 * @exception IllegalArgumentException Thrown if there is no family of that name.
+	 * @see #familyList
+	 */
+	protected Family getFamily(String name) throws IllegalArgumentException
+	{
+		Family family = null;
+
+		for(int i = 0; i < familyList.size(); i++)
+		{
+			family = (Family)(familyList.get(i));
+			if(family.name.equals(name))
+				return family;
+		}
+		throw new IllegalArgumentException(this.getClass().getName()+":getFamily:Unknown metric:"+name);
+	}
+
+	/**
+	 * Increment a counter.
+	 * @param name The metric name.
+	 * @param labels The labels, as returned by label and separated by commas, or an empty string.
+	 * @param n How much to increment the counter by.
+	 * @see #getFamily
+	 */
+	protected void increment(String name,String labels,long n)
+	{
+		Family family = null;
+		long value[] = null;
+
+		family = getFamily(name);
+		synchronized(family)
+		{
+			value = (long[])(family.sampleMap.get(labels));
+			if(value == null)
+			{
+				value = new long[1];
+				family.sampleMap.put(labels,value);
+			}
+			value[0] += n;
+		}
+	}
+
+	/**
+	 * Add an observation to a histogram.
+	 * @param name The metric name.
+	 * @param labels The labels, as returned by label and separated by commas, or an empty string.
+	 * @param value The value observed.
+	 * @see #getFamily
+	 * @see CcsMetrics.Histogram
+	 */
+	protected void observe(String name,String labels,double value)
+	{
+		Family family = null;
+		Histogram histogram = null;
+
+		family = getFamily(name);
+		synchronized(family)
+		{
+			histogram = (Histogram)(family.sampleMap.get(labels));
+			if(histogram == null)
+			{
+				histogram = new Histogram();
+				family.sampleMap.put(labels,histogram);
+			}
+			histogram.observe(value);
+		}
+	}
+
+	/**
+	 * Append the gauges: the FITS writer queue (from the C layer status snapshot), the log dispatcher
+	 * and C log ring counters, and the JVM memory, threads and garbage collection.
+	 * @param sb The string buffer to append to.
+	 * @see ngat.rise.ccd.CCDLibrary#CCDMultrunGetStatusSnapshot
+	 * @see Ccs#getLogDispatcher
+	 */
+	protected void appendGauges(StringBuffer sb)
+	{
+		CcsLogDispatcher logDispatcher = null;
+		MemoryUsage memoryUsage = null;
+		List gcList = null;
+		GarbageCollectorMXBean gcBean = null;
+		long snapshot[] = null;
+		long gcCount,gcTime;
+
+		snapshot = new long[CCDLibrary.CCD_MULTRUN_STATUS_SNAPSHOT_COUNT];
+		try
+		{
+			ccs.getLibccd().CCDMultrunGetStatusSnapshot(snapshot);
+			appendSample(sb,"ccs_writer_queue_depth",TYPE_GAUGE,
+				     "Frames waiting to be (or being) written to disk.",
+				     snapshot[CCDLibrary.CCD_MULTRUN_STATUS_SNAPSHOT_WRITER_QUEUE_DEPTH]);
+			appendSample(sb,"ccs_writer_queue_depth_peak",TYPE_GAUGE,
+				     "Largest writer queue depth during the last multrun.",
+				     snapshot[CCDLibrary.CCD_MULTRUN_STATUS_SNAPSHOT_WRITER_QUEUE_DEPTH_PEAK]);
+			appendSample(sb,"ccs_writer_latency_seconds",TYPE_GAUGE,
+				     "Time taken to get the last frame onto disk after it was read out.",
+			    ((double)snapshot[CCDLibrary.CCD_MULTRUN_STATUS_SNAPSHOT_WRITER_LATENCY_LAST])/1000.0);
+			appendSample(sb,"ccs_writer_latency_max_seconds",TYPE_GAUGE,
+				     "Largest writer latency during the last multrun.",
+			    ((double)snapshot[CCDLibrary.CCD_MULTRUN_STATUS_SNAPSHOT_WRITER_LATENCY_MAX])/1000.0);
+		}
+		catch(Exception e)
+		{
+			// leave the writer gauges out, rather than failing the whole scrape
+		}
+		logDispatcher = ccs.getLogDispatcher();
+		if(logDispatcher != null)
+		{
+			appendSample(sb,"ccs_log_queue_length",TYPE_GAUGE,"Log messages waiting to be dispatched.",
+				     logDispatcher.getQueueLength());
+			appendSample(sb,"ccs_log_dropped_total",TYPE_COUNTER,
+				     "Log messages dropped because the dispatch queue was full.",
+				     logDispatcher.getDroppedCount());
+			appendSample(sb,"ccs_log_dispatched_total",TYPE_COUNTER,
+				     "Log messages passed to the log handlers.",logDispatcher.getDispatchedCount());
+			appendSample(sb,"ccs_log_handler_latency_max_seconds",TYPE_GAUGE,
+				     "Longest time the log handlers took to log a message.",
+				     logDispatcher.getLatencyMax()/1000.0);
+		}
+		appendSample(sb,"ccs_native_log_dropped_total",TYPE_COUNTER,
+			     "C layer log messages dropped because the log ring was full.",
+			     ccs.getLibccd().CCDGlobalLogRingGetDropCount());
+		memoryUsage = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		appendSample(sb,"jvm_memory_heap_used_bytes",TYPE_GAUGE,"JVM heap memory used.",memoryUsage.getUsed());
+		appendSample(sb,"jvm_memory_heap_committed_bytes",TYPE_GAUGE,"JVM heap memory committed.",
+			     memoryUsage.getCommitted());
+		appendSample(sb,"jvm_memory_heap_max_bytes",TYPE_GAUGE,"JVM maximum heap memory.",memoryUsage.getMax());
+		memoryUsage = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+		appendSample(sb,"jvm_memory_nonheap_used_bytes",TYPE_GAUGE,"JVM non-heap memory used.",
+			     memoryUsage.getUsed());
+		appendSample(sb,"jvm_threads",TYPE_GAUGE,"JVM live threads.",
+			     ManagementFactory.getThreadMXBean().getThreadCount());
+		gcCount = 0;
+		gcTime = 0;
+		gcList = ManagementFactory.getGarbageCollectorMXBeans();
+		for(int i = 0; i < gcList.size(); i++)
+		{
+			gcBean = (GarbageCollectorMXBean)(gcList.get(i));
+			if(gcBean.getCollectionCount() > 0)
+				gcCount += gcBean.getCollectionCount();
+			if(gcBean.getCollectionTime() > 0)
+				gcTime += gcBean.getCollectionTime();
+		}
+		appendSample(sb,"jvm_gc_collections_total",TYPE_COUNTER,"JVM garbage collections.",gcCount);
+		appendSample(sb,"jvm_gc_time_seconds_total",TYPE_COUNTER,"Time spent in JVM garbage collection.",
+			     ((double)gcTime)/1000.0);
+	}
+
+	/**
+	 * Append a single unlabelled sample, with it's help and type lines.
+	 * @param sb The string buffer to append to.
+	 * @param name The metric name.
+	 * @param type The metric type.
+	 * @param help The help text.
+	 * @param value The value.
+	 */
+	protected static void appendSample(StringBuffer sb,String name,String type,String help,double value)
+	{
+		sb.append("# HELP "+name+" "+help+"\n");
+		sb.append("# TYPE "+name+" "+type+"\n");
+		sb.append(name+" "+formatValue(value)+"\n");
+	}
+
+	/**
+	 * Format a sample value. Whole numbers are formatted without a decimal point.
+	 * @param value The value.
+	 * @return The formatted value.
+	 */
+	protected static String formatValue(double value)
+	{
+		if(Double.isInfinite(value))
+			return (value > 0) ? "+Inf" : "-Inf";
+		if((value == Math.rint(value))&&(Math.abs(value) < 1.0e15))
+			return Long.toString((long)value);
+		return Double.toString(value);
+	}
+
+	/**
+	 * Create a label, escaping the value.
+	 * @param name The label name.
+	 * @param value The label value.
+	 * @return The label, as name="value".
+	 */
+	protected static String label(String name,String value)
+	{
+		StringBuffer sb = null;
+		char ch;
+
+		sb = new StringBuffer();
+		sb.append(name+"=\"");
+		for(int i = 0; i < value.length(); i++)
+		{
+			ch = value.charAt(i);
+			if(ch == '\\')
+				sb.append("\\\\");
+			else if(ch == '"')
+				sb.append("\\\"");
+			else if(ch == '\n')
+				sb.append("\\n");
+			else
+				sb.append(ch);
+		}
+		sb.append("\"");
+		return sb.toString();
+	}
+
+	/**
+	 * Get a class name without it's package, e.g. MULTRUN for ngat.message.ISS_INST.MULTRUN.
+	 * @param className The class name.
+	 * @return The class name without the package.
+	 */
+	protected static String shortName(String className)
+	{
+		int index;
+
+		index = className.lastIndexOf('.');
+		if(index < 0)
+			return className;
+		return className.substring(index+1);
+	}
+
+	/**
+	 * A metric family: the samples with one metric name, keyed by their labels.
+	 * Counter samples are single element long arrays, histogram samples are Histogram objects.
+	 */
+	protected static class Family
+	{
+		/**
+		 * The metric name.
+		 */
+		String name = null;
+		/**
+		 * The metric type.
+		 */
+		String type = null;
+		/**
+		 * The help text.
+		 */
+		String help = null;
+		/**
+		 * The samples, keyed by their labels, sorted so the output is stable.
+		 */
+		TreeMap sampleMap = new TreeMap();
+
+		/**
+		 * Constructor.
+		 * @param n The metric name.
+		 * @param t The metric type.
+		 * @param h The help text.
+		 */
+		Family(String n,String t,String h)
+		{
+			name = n;
+			type = t;
+			help = h;
+		}
+
+		/**
+		 * Append the family's help and type lines, and it's samples. A family with no samples is left out.
+		 * @param sb The string buffer to append to.
+		 */
+		synchronized void append(StringBuffer sb)
+		{
+			Iterator iterator = null;
+			String labels = null;
+			Object sample = null;
+
+			if(sampleMap.size() == 0)
+				return;
+			sb.append("# HELP "+name+" "+help+"\n");
+			sb.append("# TYPE "+name+" "+type+"\n");
+			iterator = sampleMap.keySet().iterator();
+			while(iterator.hasNext())
+			{
+				labels = (String)(iterator.next());
+				sample = sampleMap.get(labels);
+				if(sample instanceof Histogram)
+					((Histogram)sample).append(sb,name,labels);
+				else if(labels.length() > 0)
+					sb.append(name+"{"+labels+"} "+((long[])sample)[0]+"\n");
+				else
+					sb.append(name+" "+((long[])sample)[0]+"\n");
+			}
+		}
+	}
+
+	/**
+	 * A histogram, with the BUCKET_LIST bucket upper bounds. Access is synchronized by the family
+	 * the histogram is in.
+	 * @see #BUCKET_LIST
+	 */
+	protected static class Histogram
+	{
+		/**
+		 * The number of observations in each bucket (not cumulative). The last element is for
+		 * observations larger than all the bucket upper bounds.
+		 */
+		long bucketCountList[] = new long[BUCKET_LIST.length+1];
+		/**
+		 * The sum of the observations.
+		 */
+		double sum = 0.0;
+		/**
+		 * The number of observations.
+		 */
+		long count = 0;
+
+		/**
+		 * Add an observation.
+		 * @param value The value observed.
+		 */
+		void observe(double value)
+		{
+			int i;
+
+			for(i = 0; i < BUCKET_LIST.length; i++)
+			{
+				if(value <= BUCKET_LIST[i])
+					break;
+			}
+			bucketCountList[i]++;
+			sum += value;
+			count++;
+		}
+
+		/**
+		 * Append the histogram's cumulative bucket, sum and count samples.
+		 * @param sb The string buffer to append to.
+		 * @param name The metric name.
+		 * @param labels The histogram's labels, or an empty string.
+		 */
+		void append(StringBuffer sb,String name,String labels)
+		{
+			String prefix = null;
+			long cumulativeCount;
+
+			if(labels.length() > 0)
+				prefix = labels+",";
+			else
+				prefix = "";
+			cumulativeCount = 0;
+			for(int i = 0; i < BUCKET_LIST.length; i++)
+			{
+				cumulativeCount += bucketCountList[i];
+				sb.append(name+"_bucket{"+prefix+"le=\""+formatValue(BUCKET_LIST[i])+"\"} "+
+					  cumulativeCount+"\n");
+			}
+			sb.append(name+"_bucket{"+prefix+"le=\"+Inf\"} "+count+"\n");
+			if(labels.length() > 0)
+			{
+				sb.append(name+"_sum{"+labels+"} "+formatValue(sum)+"\n");
+				sb.append(name+"_count{"+labels+"} "+count+"\n");
+			}
+			else
+			{
+				sb.append(name+"_sum "+formatValue(sum)+"\n");
+				sb.append(name+"_count "+count+"\n");
+			}
+		}
+	}
+}
+//
+// $Log: not supported by cvs2svn $
+//
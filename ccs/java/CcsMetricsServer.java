@@ -0,0 +1,239 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Ccs.
+
+    Ccs is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Ccs is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Ccs; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CcsMetricsServer.java
+// $Header$
+import java.lang.*;
+import java.io.*;
+import java.net.*;
+
+/**
+ * This class is a minimal HTTP server, that returns the Ccs metrics in the Prometheus text exposition format
+ * in reply to a GET request (for any path). Requests are handled one at a time on the server thread,
+ * which runs at minimum priority so scraping the metrics does not interfere with commands.
+ * The metrics are not authenticated, so the server is bound to one address (normally the loopback address)
+ * rather than all interfaces.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see CcsMetrics#getText
+ */
+public class CcsMetricsServer extends Thread
+{
+	/**
+	 * Revision Control System id string, showing the version of the Class.
+	 */
+	public final static String RCSID = new String("$Id$");
+	/**
+	 * How long to wait for a client to send it's request, in milliseconds.
+	 */
+	private final static int SOCKET_TIMEOUT = 5000;
+	/**
+	 * The maximum number of request header lines read.
+	 */
+	private final static int MAX_HEADER_LINES = 100;
+	/**
+	 * How long to wait before accepting another connection after accept fails, in milliseconds,
+	 * so a persistent failure does not spin the server thread.
+	 */
+	private final static long ACCEPT_RETRY_TIME = 1000;
+	/**
+	 * The Ccs object.
+	 */
+	private Ccs ccs = null;
+	/**
+	 * The address to listen on.
+	 */
+	private InetAddress address = null;
+	/**
+	 * The port number to listen on.
+	 */
+	private int portNumber = 0;
+	/**
+	 * The server socket.
+	 */
+	private ServerSocket serverSocket = null;
+	/**
+	 * Set to true when the server should stop.
+	 */
+	private volatile boolean quit = false;
+
+	/**
+	 * Constructor.
+	 * @param c The Ccs object.
+	 * @param a The address to listen on.
+	 * @param p The port number to listen on.
+	 */
+	public CcsMetricsServer(Ccs c,InetAddress a,int p)
+	{
+		super("CcsMetricsServer on port "+p);
+		ccs = c;
+		address = a;
+		portNumber = p;
+		setDaemon(true);
+		setPriority(Thread.MIN_PRIORITY);
+	}
+
+	/**
+	 * The server thread. Opens the server socket, and handles requests until close is called.
+	 * If accept fails the thread exits if the socket has been closed, otherwise it waits ACCEPT_RETRY_TIME
+	 * before trying again.
+	 * @see #serverSocket
+	 * @see #handleConnection
+	 * @see #ACCEPT_RETRY_TIME
+	 */
+	public void run()
+	{
+		Socket socket = null;
+
+		try
+		{
+			serverSocket = new ServerSocket(portNumber,0,address);
+		}
+		catch(IOException e)
+		{
+			ccs.error(this.getClass().getName()+":run:Failed to open server socket on "+address+
+				  " port:"+portNumber+":",e);
+			return;
+		}
+		while(quit == false)
+		{
+			try
+			{
+				socket = serverSocket.accept();
+			}
+			catch(IOException e)
+			{
+				if(quit||serverSocket.isClosed())
+					break;
+				ccs.error(this.getClass().getName()+":run:accept failed:",e);
+				try
+				{
+					Thread.sleep(ACCEPT_RETRY_TIME);
+				}
+				catch(InterruptedException ie)
+				{
+					break;
+				}
+				continue;
+			}
+			try
+			{
+				handleConnection(socket);
+			}
+			catch(Exception e)
+			{
+				ccs.error(this.getClass().getName()+":run:handleConnection failed:",e);
+			}
+			finally
+			{
+				try
+				{
+					socket.close();
+				}
+				catch(IOException e)
+				{
+					// already closed
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stop the server, by closing the server socket.
+	 * @see #quit
+	 * @see #serverSocket
+	 */
+	public void close()
+	{
+		quit = true;
+		try
+		{
+			if(serverSocket != null)
+				serverSocket.close();
+		}
+		catch(IOException e)
+		{
+			ccs.error(this.getClass().getName()+":close:",e);
+		}
+	}
+
+	/**
+	 * Handle one connection. The request line and headers are read, and the metrics returned for a GET
+	 * request. Any other request method gets a 405 reply.
+	 * @param socket The connection socket.
+	 * @exception IOException Thrown if reading the request or writing the reply fails.
+	 * @see CcsMetrics#getText
+	 */
+	protected void handleConnection(Socket socket) throws IOException
+	{
+		BufferedReader reader = null;
+		OutputStream outputStream = null;
+		String requestLine = null;
+		String line = null;
+		String body = null;
+		byte bodyBytes[] = null;
+		int lineCount;
+
+		socket.setSoTimeout(SOCKET_TIMEOUT);
+		reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),"US-ASCII"));
+		requestLine = reader.readLine();
+		if(requestLine == null)
+			return;
+		// skip the request headers
+		lineCount = 0;
+		do
+		{
+			line = reader.readLine();
+			lineCount++;
+		}
+		while((line != null)&&(line.length() > 0)&&(lineCount < MAX_HEADER_LINES));
+		outputStream = socket.getOutputStream();
+		if(requestLine.startsWith("GET ") == false)
+		{
+			writeReply(outputStream,"405 Method Not Allowed","Only GET is supported.\n".getBytes("US-ASCII"));
+			return;
+		}
+		body = ccs.getMetrics().getText();
+		bodyBytes = body.getBytes("UTF-8");
+		writeReply(outputStream,"200 OK",bodyBytes);
+	}
+
+	/**
+	 * Write an HTTP reply.
+	 * @param outputStream The stream to write to.
+	 * @param status The HTTP status code and reason phrase.
+	 * @param bodyBytes The reply body, as plain text.
+	 * @exception IOException Thrown if writing fails.
+	 */
+	protected void writeReply(OutputStream outputStream,String status,byte bodyBytes[]) throws IOException
+	{
+		String header = null;
+
+		header = "HTTP/1.0 "+status+"\r\n"+
+			"Content-Type: text/plain; version=0.0.4; charset=utf-8\r\n"+
+			"Content-Length: "+bodyBytes.length+"\r\n"+
+			"Connection: close\r\n\r\n";
+		outputStream.write(header.getBytes("US-ASCII"));
+		outputStream.write(bodyBytes);
+		outputStream.flush();
+	}
+}
+//
+// $Log: not supported by cvs2svn $
+//
@@ -0,0 +1,405 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Ccs.
+
+    Ccs is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Ccs is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Ccs; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CcsNightFileRecorder.java
+// $Header$
+import java.lang.*;
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ngat.util.logging.*;
+
+/**
+ * This class is the base of the Ccs recorders that write items to a per-night file on a background thread
+ * (CcsEventRecorder and CcsTracer). Items are put onto a bounded queue by the calling thread, and taken off
+ * the queue and written by a low priority writer thread. If the queue is full the item is dropped and counted.
+ * <p>
+ * The file for a night is named after the date the night started (the date 12 hours before the item),
+ * so a night is not split over two files. Files are opened for appending, so they are carried on with
+ * when the Ccs is restarted.
+ * Recording is configured by the '&lt;prefix&gt;.enable', '&lt;prefix&gt;.directory' and
+ * '&lt;prefix&gt;.queue_size' properties, which can be changed at runtime by editing the property file and
+ * sending a REDATUM level REBOOT.
+ * <p>
+ * Subclasses create the items, and format them in a subclass of WriterRunnable.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see CcsEventRecorder
+ * @see CcsTracer
+ */
+public abstract class CcsNightFileRecorder<T>
+{
+	/**
+	 * Revision Control System id string, showing the version of the Class.
+	 */
+	public final static String RCSID = new String("$Id$");
+	/**
+	 * How long the writer thread waits for an item before flushing the file, in milliseconds.
+	 */
+	protected final static long POLL_TIME = 1000;
+	/**
+	 * Half a day in milliseconds, used to work out the night an item belongs to.
+	 */
+	protected final static long HALF_DAY = 12L*60L*60L*1000L;
+	/**
+	 * The Ccs object.
+	 */
+	protected Ccs ccs = null;
+	/**
+	 * The start of the property keywords used to configure the recorder, e.g. 'ccs.tracer'.
+	 */
+	private String propertyPrefix = null;
+	/**
+	 * Whether items are being recorded.
+	 */
+	private volatile boolean enable = false;
+	/**
+	 * The directory the files are written to.
+	 */
+	private String directory = null;
+	/**
+	 * The size of the item queue.
+	 */
+	private int queueSize = 0;
+	/**
+	 * The queue of items waiting to be written.
+	 */
+	private volatile ArrayBlockingQueue<T> queue = null;
+	/**
+	 * The thread the items are written on, or null if recording is not running.
+	 */
+	private Thread writerThread = null;
+	/**
+	 * The number of items recorded.
+	 */
+	private AtomicLong recordedCount = new AtomicLong(0);
+	/**
+	 * The number of items dropped because the queue was full.
+	 */
+	private AtomicLong droppedCount = new AtomicLong(0);
+
+	/**
+	 * Constructor.
+	 * @param c The Ccs object.
+	 * @param p The start of the property keywords used to configure the recorder, e.g. 'ccs.tracer'.
+	 * @see #ccs
+	 * @see #propertyPrefix
+	 */
+	public CcsNightFileRecorder(Ccs c,String p)
+	{
+		super();
+		ccs = c;
+		propertyPrefix = p;
+	}
+
+	/**
+	 * Load the recorder configuration from the Ccs properties. Recording is stopped (writing any queued
+	 * items), and restarted if it is enabled.
+	 * @param status The status object to get the properties from.
+	 * @exception NumberFormatException Thrown if the queue size is not a valid number.
+	 * @exception IllegalArgumentException Thrown if the directory is not set, or the queue size is
+	 *            less than one.
+	 * @see #propertyPrefix
+	 * @see #stop
+	 * @see #start
+	 */
+	public void loadProperties(CcsStatus status) throws NumberFormatException,IllegalArgumentException
+	{
+		stop();
+		if(status.getProperty(propertyPrefix+".enable") == null)
+			return;
+		if(status.getPropertyBoolean(propertyPrefix+".enable") == false)
+			return;
+		directory = status.getProperty(propertyPrefix+".directory");
+		queueSize = status.getPropertyInteger(propertyPrefix+".queue_size");
+		if((directory == null)||(queueSize < 1))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+
+				":loadProperties:Illegal directory/queue size:"+directory+":"+queueSize);
+		}
+		start();
+	}
+
+	/**
+	 * Return whether items are being recorded.
+	 * @return Whether recording is enabled.
+	 * @see #enable
+	 */
+	public boolean isEnabled()
+	{
+		return enable;
+	}
+
+	/**
+	 * Put an item on the queue, counting it as recorded or dropped. Nothing is done if recording is not
+	 * running.
+	 * @param item The item.
+	 * @see #queue
+	 * @see #recordedCount
+	 * @see #droppedCount
+	 */
+	protected void add(T item)
+	{
+		ArrayBlockingQueue<T> q = null;
+
+		q = queue;
+		if(q == null)
+			return;
+		if(q.offer(item))
+			recordedCount.incrementAndGet();
+		else
+			droppedCount.incrementAndGet();
+	}
+
+	/**
+	 * Get the number of items recorded since the Ccs started.
+	 * @return The number of items.
+	 * @see #recordedCount
+	 */
+	public long getRecordedCount()
+	{
+		return recordedCount.get();
+	}
+
+	/**
+	 * Get the number of items dropped because the queue was full, since the Ccs started.
+	 * @return The number of items.
+	 * @see #droppedCount
+	 */
+	public long getDroppedCount()
+	{
+		return droppedCount.get();
+	}
+
+	/**
+	 * Start recording, with a new queue and writer thread. The thread is named after the class.
+	 * @see #queue
+	 * @see #writerThread
+	 * @see #createWriterRunnable
+	 */
+	protected synchronized void start()
+	{
+		if(writerThread != null)
+			return;
+		queue = new ArrayBlockingQueue<T>(queueSize);
+		enable = true;
+		writerThread = new Thread(createWriterRunnable(queue,directory),this.getClass().getName());
+		writerThread.setDaemon(true);
+		writerThread.setPriority(Thread.MIN_PRIORITY);
+		writerThread.start();
+		ccs.log(Logging.VERBOSITY_INTERMEDIATE,this.getClass().getName()+
+			":start:Recording to "+directory+" with a queue of "+queueSize+".");
+	}
+
+	/**
+	 * Stop recording, if it is running. The writer thread writes any queued items and closes the file.
+	 * @see #enable
+	 * @see #writerThread
+	 */
+	public synchronized void stop()
+	{
+		if(writerThread == null)
+			return;
+		enable = false;
+		try
+		{
+			writerThread.join(POLL_TIME*5);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		writerThread = null;
+		queue = null;
+	}
+
+	/**
+	 * Create the task run by a new writer thread.
+	 * @param queue The queue to take items from.
+	 * @param d The directory to write the files to.
+	 * @return A new instance of a subclass of WriterRunnable.
+	 * @see #start
+	 */
+	protected abstract WriterRunnable createWriterRunnable(ArrayBlockingQueue<T> queue,String d);
+
+	/**
+	 * The task run by the writer thread. This takes items off the queue and writes them to the file
+	 * for the night, flushing the file when the queue is empty. It finishes when recording is stopped and
+	 * the queue is empty. Subclasses say which night an item belongs to, and format it.
+	 */
+	protected abstract class WriterRunnable implements Runnable
+	{
+		/**
+		 * The queue to take items from.
+		 */
+		private ArrayBlockingQueue<T> q = null;
+		/**
+		 * The directory to write the files to.
+		 */
+		private String directoryName = null;
+		/**
+		 * The start of each filename, before the night.
+		 */
+		private String filenamePrefix = null;
+		/**
+		 * The end of each filename, after the night.
+		 */
+		private String filenameSuffix = null;
+		/**
+		 * The name of the file currently open, or null.
+		 */
+		private String currentFilename = null;
+		/**
+		 * Formats the night part of filenames.
+		 */
+		private SimpleDateFormat nightDateFormat = null;
+		/**
+		 * The file currently open, or null.
+		 */
+		protected PrintWriter writer = null;
+
+		/**
+		 * Constructor.
+		 * @param queue The queue to take items from.
+		 * @param d The directory to write the files to.
+		 * @param fp The start of each filename, before the night, e.g. 'ccs_trace_'.
+		 * @param fs The end of each filename, after the night, e.g. '.json'.
+		 */
+		protected WriterRunnable(ArrayBlockingQueue<T> queue,String d,String fp,String fs)
+		{
+			q = queue;
+			directoryName = d;
+			filenamePrefix = fp;
+			filenameSuffix = fs;
+			nightDateFormat = new SimpleDateFormat("yyyyMMdd");
+			nightDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		}
+
+		/**
+		 * Write items until recording is stopped and the queue is empty.
+		 * @see #writeItem
+		 */
+		public void run()
+		{
+			T item = null;
+
+			while(true)
+			{
+				try
+				{
+					item = q.poll(POLL_TIME,TimeUnit.MILLISECONDS);
+				}
+				catch(InterruptedException e)
+				{
+					break;
+				}
+				if(item == null)
+				{
+					if(writer != null)
+						writer.flush();
+					if(enable == false)
+						break;
+					continue;
+				}
+				writeItem(item);
+			}
+			if(writer != null)
+				writer.close();
+		}
+
+		/**
+		 * Write an item to the file for the night it belongs to, opening a new file if needed.
+		 * If the file cannot be opened the item is lost.
+		 * @param item The item.
+		 * @see #getTime
+		 * @see #open
+		 * @see #write
+		 */
+		protected void writeItem(T item)
+		{
+			String filename = null;
+
+			filename = directoryName+File.separator+filenamePrefix+
+				nightDateFormat.format(new Date(getTime(item)-HALF_DAY))+filenameSuffix;
+			if(filename.equals(currentFilename) == false)
+				open(filename);
+			if(writer == null)
+				return;
+			write(item);
+		}
+
+		/**
+		 * Open a file for appending, closing the current one. If the file cannot be opened the
+		 * failure is logged, and writer is left null.
+		 * @param filename The filename.
+		 * @see #writer
+		 * @see #opened
+		 */
+		protected void open(String filename)
+		{
+			File file = null;
+			boolean empty;
+
+			if(writer != null)
+				writer.close();
+			writer = null;
+			currentFilename = filename;
+			file = new File(filename);
+			empty = (file.length() == 0);
+			try
+			{
+				writer = new PrintWriter(new BufferedWriter(new FileWriter(file,true)));
+			}
+			catch(IOException e)
+			{
+				ccs.error(this.getClass().getName()+":open:Failed to open file "+filename+":",e);
+				return;
+			}
+			opened(empty);
+		}
+
+		/**
+		 * Get the time an item happened, used to work out which night's file it is written to.
+		 * @param item The item.
+		 * @return The time, in milliseconds since the epoch.
+		 */
+		protected abstract long getTime(T item);
+
+		/**
+		 * Called when a file has been opened, before any items are written to it.
+		 * @param empty Whether the file was empty (new) when it was opened.
+		 * @see #writer
+		 */
+		protected abstract void opened(boolean empty);
+
+		/**
+		 * Write an item to the open file.
+		 * @param item The item.
+		 * @see #writer
+		 */
+		protected abstract void write(T item);
+	}
+}
+//
+// $Log: not supported by cvs2svn $
+//
@@ -22,6 +22,7 @@
 import java.lang.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 import ngat.message.ISS_INST.*;
 import ngat.util.PersistentUniqueInteger;
@@ -30,6 +31,10 @@ import ngat.util.logging.FileLogHandler;
 
 /**
  * This class holds status information for the Ccs program.
+ * The log level, and the current command, thread and exposure state, are held in an immutable Snapshot,
+ * published through an atomic reference. Setting one of them publishes a copy of the current Snapshot with
+ * that value changed and a new version number, so reading them never blocks (e.g. a GET_STATUS whilst the command thread is updating them),
+ * and getSnapshot returns a consistent set of values in a single read.
  * @author Chris Mottram
  * @version $Revision: 1.1 $
  */
@@ -57,39 +62,23 @@ public class CcsStatus
 	private final static String DEFAULT_FILTER_PROPERTY_FILE_NAME = "../../config/filter.properties";
 
 	/**
-	 * The logging level.
+	 * The current log level, command, thread and exposure state, as an immutable snapshot.
+	 * @see CcsStatus.Snapshot
 	 */
-	private int logLevel = CcsConstants.CCS_LOG_LEVEL_NONE;
+	private AtomicReference<Snapshot> snapshot = new AtomicReference<Snapshot>(new Snapshot());
 	/**
-	 * The current thread that the CCD Control System is using to process the
-	 * <a href="#currentCommand">currentCommand</a>. This does not get set for
-	 * commands that can be sent while others are in operation, such as Abort and get status comamnds.
-	 * This can be null when no command is currently being processed.
+	 * The lock held whilst a new snapshot is made from the current one and published, so two setters
+	 * cannot both copy the same snapshot and lose one of the changes. Readers do not take the lock.
+	 * @see #snapshot
 	 */
-	private Thread currentThread = null;
+	private Object snapshotLock = new Object();
 	/**
-	 * The current command that the CCD Control System is working on. This does not get set for
-	 * commands that can be sent while others are in operation, such as Abort and get status comamnds.
-	 * This can be null when no command is currently being processed.
+	 * The configuration, built from the properties held in the property files. This contains configuration
+	 * information in ccs that needs to be changed irregularily. The configuration is replaced (rather than
+	 * changed) when the properties are loaded or reloaded.
+	 * @see CcsConfiguration
 	 */
-	private ISS_TO_INST currentCommand = null;
-	/**
-	 * A list of properties held in the properties file. This contains configuration information in ccs
-	 * that needs to be changed irregularily.
-	 */
-	private Properties properties = null;
-	/**
-	 * The count of the number of exposures needed for the current command to be implemented.
-	 */
-	private int exposureCount = 0;
-	/**
-	 * The number of the current exposure being taken.
-	 */
-	private int exposureNumber = 0;
-	/**
-	 * The filename of the current exposure being taken (if any).
-	 */
-	private String exposureFilename = null;
+	private AtomicReference<CcsConfiguration> configuration = null;
 	/**
 	 * The current unique config ID, held on disc over reboots.
 	 * Incremented each time a new configuration is attained,
@@ -103,7 +92,7 @@ public class CcsStatus
 	 * Initialised to 'UNKNOWN', so that if we try to take a frame before configuring the CCD
 	 * we get an error about setup not being complete, rather than an error about NULL FITS values.
 	 */
-	private String configName = "UNKNOWN";
+	private volatile String configName = "UNKNOWN";
 	/**
 	 * A list of Java longs holding the current time in milliseconds each time a 
 	 * pause exposure command was initiated during an exposure.
@@ -124,21 +113,25 @@ public class CcsStatus
 	private boolean cachedCalibrateAfter = false;
 
 	/**
-	 * Default constructor. Initialises the pause and resume time lists, and the properties.
+	 * Default constructor. Initialises the pause and resume time lists, and the configuration
+	 * (with no properties).
 	 * @see #pauseTimeList
 	 * @see #resumeTimeList
-	 * @see #properties
+	 * @see #configuration
 	 */
 	public CcsStatus()
 	{
 		pauseTimeList = new Vector();
 		resumeTimeList = new Vector();
-		properties = new Properties();
+		configuration = new AtomicReference<CcsConfiguration>(new CcsConfiguration(new Properties()));
 	}
 
 	/**
 	 * The load method for the class. This loads the property file from disc, using the specified
-	 * filename. Any old properties are first cleared.
+	 * filename. Any old properties are first cleared. The properties are loaded into a new properties object,
+	 * which is used to build a new configuration. This replaces the old configuration once all the files
+	 * have been loaded.
+	 * Properties that should be numbers but are not valid are listed in the new configuration's error list.
 	 * The configId unique persistent integer is then initialised, using a filename stored in the properties.
 	 * @param netFilename The filename of a Java property file containing network configuration for the Ccs.
 	 * 	If netFilename is null, DEFAULT_NET_PROPERTY_FILE_NAME is used.
@@ -150,7 +143,7 @@ public class CcsStatus
 	 * @param filterFilename The filename of a Java property file containing filter configuration for the Ccs. 
 	 * 	This is the filter database of filters the LT has.
 	 * 	If filterFilename is null, DEFAULT_FILTER_PROPERTY_FILE_NAME is used. 
-	 * @see #properties
+	 * @see #configuration
 	 * @see #initialiseConfigId
 	 * @see #DEFAULT_NET_PROPERTY_FILE_NAME
 	 * @see #DEFAULT_PROPERTY_FILE_NAME
@@ -162,10 +155,11 @@ public class CcsStatus
 	public void load(String netFilename,String filename,
 		String currentFilterFilename, String filterFilename) throws FileNotFoundException, IOException
 	{
+		Properties properties = null;
 		FileInputStream fileInputStream = null;
 
 	// clear old properties
-		properties.clear();
+		properties = new Properties();
 	// network properties load
 		if(netFilename == null)
 			netFilename = DEFAULT_NET_PROPERTY_FILE_NAME;
@@ -190,6 +184,8 @@ public class CcsStatus
 		fileInputStream = new FileInputStream(filterFilename);
 		properties.load(fileInputStream);
 		fileInputStream.close();
+	// parse the properties and replace the configuration
+		configuration.set(new CcsConfiguration(properties));
 	// initialise configId
 		initialiseConfigId();
 	}
@@ -199,7 +195,10 @@ public class CcsStatus
 	 * The current properties are not cleared, as network properties are not re-loaded, as this would
 	 * involve resetting up the server connection thread which may be in use. If properties have been
 	 * deleted from the loaded files, reload does not clear these properties. Any new properties or
-	 * ones where the values have changed will change.
+	 * ones where the values have changed will change. The properties are loaded into a copy of the current
+	 * properties, which is used to build a new configuration. This replaces the old configuration once all
+	 * the files have been loaded, so a failed reload leaves the old configuration in place.
+	 * Properties that should be numbers but are not valid are listed in the new configuration's error list.
 	 * The configId unique persistent integer is then initialised, using a filename stored in the properties.
 	 * @param filename The filename of a Java property file containing general configuration for the Ccs.
 	 * 	If filename is null, DEFAULT_PROPERTY_FILE_NAME is used.
@@ -209,7 +208,7 @@ public class CcsStatus
 	 * @param filterFilename The filename of a Java property file containing filter configuration for the Ccs.
 	 * 	This is the filter database of filters the LT has.
 	 * 	If filterFilename is null, DEFAULT_FILTER_PROPERTY_FILE_NAME is used.
-	 * @see #properties
+	 * @see #configuration
 	 * @see #initialiseConfigId
 	 * @see #DEFAULT_NET_PROPERTY_FILE_NAME
 	 * @see #DEFAULT_PROPERTY_FILE_NAME
@@ -221,9 +220,12 @@ public class CcsStatus
 	public void reload(String filename,
 		String currentFilterFilename,String filterFilename) throws FileNotFoundException,IOException
 	{
+		Properties properties = null;
 		FileInputStream fileInputStream = null;
 
 	// don't clear old properties, the network properties are not re-loaded
+		properties = new Properties();
+		properties.putAll(configuration.get().getProperties());
 	// normal properties load
 		if(filename == null)
 			filename = DEFAULT_PROPERTY_FILE_NAME;
@@ -242,63 +244,117 @@ public class CcsStatus
 		fileInputStream = new FileInputStream(filterFilename);
 		properties.load(fileInputStream);
 		fileInputStream.close();
+	// parse the properties and replace the configuration
+		configuration.set(new CcsConfiguration(properties));
 	// initialise configId
 		initialiseConfigId();
 	}
 
+	/**
+	 * Get the current configuration. A command that reads several properties should get the configuration
+	 * once and read them all from it, so they are consistent even if the properties are reloaded whilst the
+	 * command is running.
+	 * @return The configuration.
+	 * @see #configuration
+	 */
+	public CcsConfiguration getConfiguration()
+	{
+		return configuration.get();
+	}
+
+	/**
+	 * Get a consistent snapshot of the log level, current command, current thread and exposure state.
+	 * This does not block.
+	 * @return The current snapshot.
+	 * @see #snapshot
+	 */
+	public Snapshot getSnapshot()
+	{
+		return snapshot.get();
+	}
+
 	/**
 	 * Set the logging level for Ccs.
 	 * @param level The level of logging.
+	 * @see #snapshot
 	 */
-	public synchronized void setLogLevel(int level)
+	public void setLogLevel(int level)
 	{
-		logLevel = level;
+		synchronized(snapshotLock)
+		{
+			snapshot.set(snapshot.get().withLogLevel(level));
+		}
 	}
 
 	/**
 	 * Get the logging level for Ccs.
 	 * @return The current log level.
+	 * @see #snapshot
 	 */	
-	public synchronized int getLogLevel()
+	public int getLogLevel()
 	{
-		return logLevel;
+		return snapshot.get().logLevel;
 	}
 
 	/**
 	 * Set the command that is currently executing.
 	 * @param command The command that is currently executing.
+	 * @see #snapshot
+	 */
+	public void setCurrentCommand(ISS_TO_INST command)
+	{
+		synchronized(snapshotLock)
+		{
+			snapshot.set(snapshot.get().withCurrentCommand(command));
+		}
+	}
+
+	/**
+	 * Set the command that is currently executing, and the thread that is executing it, together, so
+	 * a snapshot never has one without the other.
+	 * @param command The command that is currently executing, or null.
+	 * @param thread The thread that is currently executing it, or null.
+	 * @see #snapshot
 	 */
-	public synchronized void setCurrentCommand(ISS_TO_INST command)
+	public void setCurrentCommand(ISS_TO_INST command,Thread thread)
 	{
-		currentCommand = command;
+		synchronized(snapshotLock)
+		{
+			snapshot.set(snapshot.get().withCurrentCommand(command,thread));
+		}
 	}
 
 	/**
 	 * Get the the command the Ccs is currently processing.
 	 * @return The command currently being processed.
+	 * @see #snapshot
 	 */
-	public synchronized ISS_TO_INST getCurrentCommand()
+	public ISS_TO_INST getCurrentCommand()
 	{
-		return currentCommand;
+		return snapshot.get().currentCommand;
 	}
 
 	/**
-	 * Set the thread that is currently executing the <a href="#currentCommand">currentCommand</a>.
+	 * Set the thread that is currently executing the current command.
 	 * @param thread The thread that is currently executing.
+	 * @see #snapshot
 	 */
-	public synchronized void setCurrentThread(Thread thread)
+	public void setCurrentThread(Thread thread)
 	{
-		currentThread = thread;
+		synchronized(snapshotLock)
+		{
+			snapshot.set(snapshot.get().withCurrentThread(thread));
+		}
 	}
 
 	/**
-	 * Get the the thread the Ccs is currently executing to process the 
-	 * <a href="#currentCommand">currentCommand</a>.
+	 * Get the the thread the Ccs is currently executing to process the current command.
 	 * @return The thread currently being executed.
+	 * @see #snapshot
 	 */
-	public synchronized Thread getCurrentThread()
+	public Thread getCurrentThread()
 	{
-		return currentThread;
+		return snapshot.get().currentThread;
 	}
 
 	/**
@@ -309,10 +365,11 @@ public class CcsStatus
 	 * generally allowed to be run, otherwise we couldn't stop execution of exposures mid-exposure.
 	 * @param command The command we want to run.
 	 * @return Whether the command can be run given the current status of the system.
+	 * @see #snapshot
 	 */
-	public synchronized boolean commandCanBeRun(ISS_TO_INST command)
+	public boolean commandCanBeRun(ISS_TO_INST command)
 	{
-		if(currentCommand == null)
+		if(snapshot.get().currentCommand == null)
 			return true;
 		if(command instanceof INTERRUPT)
 			return true;
@@ -322,61 +379,70 @@ public class CcsStatus
 	/**
 	 * Set the number of exposures needed to complete the current command implementation.
 	 * @param c The total number of exposures needed.
-	 * @see #exposureCount
+	 * @see #snapshot
 	 */
-	public synchronized void setExposureCount(int c)
+	public void setExposureCount(int c)
 	{
-		exposureCount = c;
+		synchronized(snapshotLock)
+		{
+			snapshot.set(snapshot.get().withExposureCount(c));
+		}
 	}
 
 	/**
 	 * Get the number of exposures needed to complete the current command implementation.
 	 * @return Returns the number of exposures needed.
-	 * @see #exposureCount
+	 * @see #snapshot
 	 */
-	public synchronized int getExposureCount()
+	public int getExposureCount()
 	{
-		return exposureCount;
+		return snapshot.get().exposureCount;
 	}
 
 	/**
 	 * Set the current exposure number the current command implementation is on.
 	 * @param n The current exposure number.
-	 * @see #exposureNumber
+	 * @see #snapshot
 	 */
-	public synchronized void setExposureNumber(int n)
+	public void setExposureNumber(int n)
 	{
-		exposureNumber = n;
+		synchronized(snapshotLock)
+		{
+			snapshot.set(snapshot.get().withExposureNumber(n));
+		}
 	}
 
 	/**
 	 * Get the current exposure number the current command implementation is on.
 	 * @return Returns the current exposure number.
-	 * @see #exposureNumber
+	 * @see #snapshot
 	 */
-	public synchronized int getExposureNumber()
+	public int getExposureNumber()
 	{
-		return exposureNumber;
+		return snapshot.get().exposureNumber;
 	}
 
 	/**
 	 * Set the current exposure filename being taken.
 	 * @param f The current filename.
-	 * @see #exposureFilename
+	 * @see #snapshot
 	 */
-	public synchronized void setExposureFilename(String f)
+	public void setExposureFilename(String f)
 	{
-		exposureFilename = f;
+		synchronized(snapshotLock)
+		{
+			snapshot.set(snapshot.get().withExposureFilename(f));
+		}
 	}
 
 	/**
 	 * Get the current exposure filename.
 	 * @return Returns the current exposure filename.
-	 * @see #exposureFilename
+	 * @see #snapshot
 	 */
-	public synchronized String getExposureFilename()
+	public String getExposureFilename()
 	{
-		return exposureFilename;
+		return snapshot.get().exposureFilename;
 	}
 
 	/**
@@ -418,7 +484,7 @@ public class CcsStatus
 	 * @param s The string from the configuration object instance.
 	 * @see #configName
 	 */
-	public synchronized void setConfigName(String s)
+	public void setConfigName(String s)
 	{
 		configName = s;
 	}
@@ -430,7 +496,7 @@ public class CcsStatus
 	 * 	since the Ccs started.
 	 * @see #configName
 	 */
-	public synchronized String getConfigName()
+	public String getConfigName()
 	{
 		return configName;
 	}
@@ -561,22 +627,24 @@ public class CcsStatus
 	 * @param p The property key we wish to test exists.
 	 * @return The method returnd true if the specified key is a key in out list of properties,
 	 *         otherwise it returns false.
-	 * @see #properties
+	 * @see #configuration
+	 * @see CcsConfiguration#containsKey
 	 */
 	public boolean propertyContainsKey(String p)
 	{
-		return properties.containsKey(p);
+		return configuration.get().containsKey(p);
 	}
 
 	/**
 	 * Routine to get a properties value, given a key. Just calls the properties object getProperty routine.
 	 * @param p The property key we want the value for.
 	 * @return The properties value, as a string object.
-	 * @see #properties
+	 * @see #configuration
+	 * @see CcsConfiguration#getProperty
 	 */
 	public String getProperty(String p)
 	{
-		return properties.getProperty(p);
+		return configuration.get().getProperty(p);
 	}
 
 	/**
@@ -585,26 +653,13 @@ public class CcsStatus
 	 * @param p The property key we want the value for.
 	 * @return The properties value, as an integer.
 	 * @exception NumberFormatException If the properties value string is not a valid integer, this
-	 * 	exception will be thrown when the Integer.parseInt routine is called.
-	 * @see #properties
+	 * 	exception will be thrown. The value was parsed when the properties were loaded.
+	 * @see #configuration
+	 * @see CcsConfiguration#getInteger
 	 */
 	public int getPropertyInteger(String p) throws NumberFormatException
 	{
-		String valueString = null;
-		int returnValue = 0;
-
-		valueString = properties.getProperty(p);
-		try
-		{
-			returnValue = Integer.parseInt(valueString);
-		}
-		catch(NumberFormatException e)
-		{
-			// re-throw exception with more information e.g. keyword
-			throw new NumberFormatException(this.getClass().getName()+":getPropertyInteger:keyword:"+
-				p+":valueString:"+valueString);
-		}
-		return returnValue;
+		return configuration.get().getInteger(p);
 	}
 
 	/**
@@ -613,26 +668,13 @@ public class CcsStatus
 	 * @param p The property key we want the value for.
 	 * @return The properties value, as a long.
 	 * @exception NumberFormatException If the properties value string is not a valid long, this
-	 * 	exception will be thrown when the Long.parseLong routine is called.
-	 * @see #properties
+	 * 	exception will be thrown. The value was parsed when the properties were loaded.
+	 * @see #configuration
+	 * @see CcsConfiguration#getLong
 	 */
 	public long getPropertyLong(String p) throws NumberFormatException
 	{
-		String valueString = null;
-		long returnValue = 0;
-
-		valueString = properties.getProperty(p);
-		try
-		{
-			returnValue = Long.parseLong(valueString);
-		}
-		catch(NumberFormatException e)
-		{
-			// re-throw exception with more information e.g. keyword
-			throw new NumberFormatException(this.getClass().getName()+":getPropertyLong:keyword:"+
-				p+":valueString:"+valueString);
-		}
-		return returnValue;
+		return configuration.get().getLong(p);
 	}
 
 	/**
@@ -641,26 +683,13 @@ public class CcsStatus
 	 * @param p The property key we want the value for.
 	 * @return The properties value, as an double.
 	 * @exception NumberFormatException If the properties value string is not a valid double, this
-	 * 	exception will be thrown when the Double.valueOf routine is called.
-	 * @see #properties
+	 * 	exception will be thrown. The value was parsed when the properties were loaded.
+	 * @see #configuration
+	 * @see CcsConfiguration#getDouble
 	 */
 	public double getPropertyDouble(String p) throws NumberFormatException
 	{
-		String valueString = null;
-		Double returnValue = null;
-
-		valueString = properties.getProperty(p);
-		try
-		{
-			returnValue = Double.valueOf(valueString);
-		}
-		catch(NumberFormatException e)
-		{
-			// re-throw exception with more information e.g. keyword
-			throw new NumberFormatException(this.getClass().getName()+":getPropertyDouble:keyword:"+
-				p+":valueString:"+valueString);
-		}
-		return returnValue.doubleValue();
+		return configuration.get().getDouble(p);
 	}
 
 	/**
@@ -671,21 +700,12 @@ public class CcsStatus
 	 * @return The properties value, as an boolean.
 	 * @exception NullPointerException If the properties value string is null, this
 	 * 	exception will be thrown.
-	 * @see #properties
+	 * @see #configuration
+	 * @see CcsConfiguration#getBoolean
 	 */
 	public boolean getPropertyBoolean(String p) throws NullPointerException
 	{
-		String valueString = null;
-		Boolean b = null;
-
-		valueString = properties.getProperty(p);
-		if(valueString == null)
-		{
-			throw new NullPointerException(this.getClass().getName()+":getPropertyBoolean:keyword:"+
-				p+":Value was null.");
-		}
-		b = Boolean.valueOf(valueString);
-		return b.booleanValue();
+		return configuration.get().getBoolean(p);
 	}
 
 	/**
@@ -697,14 +717,14 @@ public class CcsStatus
 	 * @exception NullPointerException If the properties value string is null an exception is thrown.
 	 * @exception IllegalArgumentException If the properties value string is not a valid time period,
 	 *            an exception is thrown.
-	 * @see #properties
+	 * @see #getProperty
 	 */
 	public int getPropertyLogHandlerTimePeriod(String p) throws NullPointerException, IllegalArgumentException
 	{
 		String valueString = null;
 		int timePeriod = 0;
  
-		valueString = properties.getProperty(p);
+		valueString = getProperty(p);
 		if(valueString == null)
 		{
 			throw new NullPointerException(this.getClass().getName()+
@@ -738,50 +758,35 @@ public class CcsStatus
 	 * 	property file is not setup correctly.
 	 * @exception NumberFormatException Thrown if some of the properties are not a valid integer when
 	 * 	they should be.
-	 * @see #getPropertyInteger
+	 * @see #configuration
+	 * @see CcsConfiguration#getFilterWheelPosition
 	 */
 	public int getFilterWheelPosition(int filterWheelNumber,String filterTypeName) throws IllegalArgumentException,
 		NumberFormatException
 	{
-		String s = null;
+		CcsConfiguration config = null;
 		int filterWheelCount;
-		int filterWheelFilterCount;
 		int filterWheelFilterIndex;
-		boolean found;
 
+		config = configuration.get();
 	// check filterWheelNumber is legal.
-		filterWheelCount = getPropertyInteger("filterwheel.count");
+		filterWheelCount = config.getInteger("filterwheel.count");
 		if(filterWheelNumber >= filterWheelCount)
 		{
 			throw new IllegalArgumentException(this.getClass().getName()+
 				":getFilterWheelPosition:Illegal filterWheelNumber:"+filterWheelNumber+
 				" of "+filterWheelCount);
 		}
-	// get number of filters in this wheel.
-		filterWheelFilterCount = getPropertyInteger("filterwheel."+filterWheelNumber+".count");
-	// compare type name against filters in wheel. Stop when we find the first match.
-		filterWheelFilterIndex = 0;
-		found = false;
-		while((!found)&&(filterWheelFilterIndex<filterWheelFilterCount))
-		{
-		// get the filter type name at index filterWheelFilterIndex into s
-			s = getProperty("filterwheel."+filterWheelNumber+"."+filterWheelFilterIndex+".type");
-		// is it the right filter?
-			if(s != null)
-				found = s.equals(filterTypeName);
-		// if it isn't try the next filter.
-			if(found == false)
-				filterWheelFilterIndex++;
-		}// end while
-		if(found)
-		{
-			return filterWheelFilterIndex;
-		}
-		else
+	// check the number of filters in this wheel is legal.
+		config.getInteger("filterwheel."+filterWheelNumber+".count");
+	// look up the first position in the wheel with this type name.
+		filterWheelFilterIndex = config.getFilterWheelPosition(filterWheelNumber,filterTypeName);
+		if(filterWheelFilterIndex < 0)
 		{
 			throw new IllegalArgumentException(this.getClass().getName()+
 				":getFilterWheelPosition:Illegal filter:"+filterWheelNumber+":"+filterTypeName);
 		}
+		return filterWheelFilterIndex;
 	}
 
 	/**
@@ -801,12 +806,14 @@ public class CcsStatus
 	public String getFilterTypeName(int filterWheelNumber,int filterWheelPosition) 
 		throws IllegalArgumentException,NumberFormatException
 	{
+		CcsConfiguration config = null;
 		String s = null;
 		int filterWheelCount;
 		int filterWheelFilterCount;
 
+		config = configuration.get();
 	// check filterWheelNumber is legal.
-		filterWheelCount = getPropertyInteger("filterwheel.count");
+		filterWheelCount = config.getInteger("filterwheel.count");
 		if((filterWheelNumber < 0)||(filterWheelNumber >= filterWheelCount))
 		{
 			throw new IllegalArgumentException(this.getClass().getName()+
@@ -814,7 +821,7 @@ public class CcsStatus
 				" of "+filterWheelCount);
 		}
 	// check position is legal
-		filterWheelFilterCount = getPropertyInteger("filterwheel."+filterWheelNumber+".count");
+		filterWheelFilterCount = config.getInteger("filterwheel."+filterWheelNumber+".count");
 		if((filterWheelPosition < 0)||(filterWheelPosition >= filterWheelFilterCount))
 		{
 			throw new IllegalArgumentException(this.getClass().getName()+
@@ -822,7 +829,7 @@ public class CcsStatus
 				" of "+filterWheelFilterCount);
 		}
 	// get the filter type name  into s
-		s = getProperty("filterwheel."+filterWheelNumber+"."+filterWheelPosition+".type");
+		s = config.getProperty("filterwheel."+filterWheelNumber+"."+filterWheelPosition+".type");
 		if(s == null)
 		{
 			throw new IllegalArgumentException(this.getClass().getName()+
@@ -863,20 +870,20 @@ public class CcsStatus
 	 * @exception IllegalArgumentException Thrown if the specified property/filter id cannot be found.
 	 * @exception NumberFormatException Thrown if the property cannot be parsed.
 	 * @see #getFilterIdName
+	 * @see CcsConfiguration#getDouble
 	 */
 	public double getFilterIdOpticalThickness(String filterIdName) throws NumberFormatException
 	{
-		String s = null;
+		CcsConfiguration config = null;
 
-	// get the filter id name into s
-		s = getProperty("filter."+filterIdName+".optical_thickness");
-		if(s == null)
+		config = configuration.get();
+		if(config.getProperty("filter."+filterIdName+".optical_thickness") == null)
 		{
 			throw new IllegalArgumentException(this.getClass().getName()+
 				":getFilterIdOpticalThickness:Property not found/is null:filter."+
 				filterIdName+".optical_thickness");
 		}
-		return Double.parseDouble(s);
+		return config.getDouble("filter."+filterIdName+".optical_thickness");
 	}
 
 	/**
@@ -888,20 +895,20 @@ public class CcsStatus
 	 * @exception IllegalArgumentException Thrown if the specified property/filter id cannot be found.
 	 * @exception NumberFormatException Thrown if the property cannot be parsed into a double.
 	 * @see #getFilterIdName
+	 * @see CcsConfiguration#getDouble
 	 */
 	public double getFilterIdWaveLength(String filterIdName) throws NumberFormatException
 	{
-		String s = null;
+		CcsConfiguration config = null;
 
-	// get the filter id name into s
-		s = getProperty("filter."+filterIdName+".center");
-		if(s == null)
+		config = configuration.get();
+		if(config.getProperty("filter."+filterIdName+".center") == null)
 		{
 			throw new IllegalArgumentException(this.getClass().getName()+
 				":getFilterIdWaveLength:Property not found/is null:filter."+
 				filterIdName+".center");
 		}
-		return Double.parseDouble(s);
+		return config.getDouble("filter."+filterIdName+".center");
 	}
 
 	/**
@@ -913,11 +920,11 @@ public class CcsStatus
 	 * @param xbin The X binning factor to get the number of columns for.
 	 * @return An integer, the number of columns to configure the controller with.
 	 * @exception NumberFormatException Thrown if the property cannot be found, or parsed into a valid int.
-	 * @see #getPropertyInteger
+	 * @see CcsConfiguration#getNumberColumns
 	 */
 	public int getNumberColumns(int xbin) throws NumberFormatException
 	{
-		return getPropertyInteger("ccs.config.ncols."+xbin);
+		return configuration.get().getNumberColumns(xbin);
 	}
 
 	/**
@@ -928,11 +935,11 @@ public class CcsStatus
 	 * @param ybin The Y binning factor to get the number of rows for.
 	 * @return An integer, the number of rows to configure the controller with.
 	 * @exception NumberFormatException Thrown if the property cannot be found, or parsed into a valid int.
-	 * @see #getPropertyInteger
+	 * @see CcsConfiguration#getNumberRows
 	 */
 	public int getNumberRows(int ybin) throws NumberFormatException
 	{
-		return getPropertyInteger("ccs.config.nrows."+ybin);
+		return configuration.get().getNumberRows(ybin);
 	}
 
 	/**
@@ -1055,6 +1062,248 @@ public class CcsStatus
 		configId = new PersistentUniqueInteger(fileName);
 	}
 
+	/**
+	 * An immutable snapshot of the log level, current command, current thread and exposure state.
+	 * Each snapshot published has a version number one greater than the one it replaced.
+	 * A new snapshot is made by one of the 'with' methods, which copy this snapshot with one value changed;
+	 * the fields are not changed once a snapshot has been published.
+	 */
+	public static class Snapshot
+	{
+		/**
+		 * The version number of this snapshot.
+		 */
+		long version;
+		/**
+		 * The logging level.
+		 */
+		int logLevel;
+		/**
+		 * The current command that the CCD Control System is working on. This does not get set for
+		 * commands that can be sent while others are in operation, such as Abort and get status comamnds.
+		 * This can be null when no command is currently being processed.
+		 */
+		ISS_TO_INST currentCommand;
+		/**
+		 * The current thread that the CCD Control System is using to process the currentCommand.
+		 * This can be null when no command is currently being processed.
+		 */
+		Thread currentThread;
+		/**
+		 * The count of the number of exposures needed for the current command to be implemented.
+		 */
+		int exposureCount;
+		/**
+		 * The number of the current exposure being taken.
+		 */
+		int exposureNumber;
+		/**
+		 * The filename of the current exposure being taken (if any).
+		 */
+		String exposureFilename;
+
+		/**
+		 * Constructor for the initial snapshot, with version zero, no log level, command or thread.
+		 */
+		Snapshot()
+		{
+			super();
+			version = 0;
+			logLevel = CcsConstants.CCS_LOG_LEVEL_NONE;
+			currentCommand = null;
+			currentThread = null;
+			exposureCount = 0;
+			exposureNumber = 0;
+			exposureFilename = null;
+		}
+
+		/**
+		 * Constructor for a snapshot replacing a previous one, as a copy of it.
+		 * @param previous The snapshot this replaces. The version is one greater than this snapshot's.
+		 */
+		private Snapshot(Snapshot previous)
+		{
+			super();
+			version = previous.version+1;
+			logLevel = previous.logLevel;
+			currentCommand = previous.currentCommand;
+			currentThread = previous.currentThread;
+			exposureCount = previous.exposureCount;
+			exposureNumber = previous.exposureNumber;
+			exposureFilename = previous.exposureFilename;
+		}
+
+		/**
+		 * Make a snapshot to replace this one, with a new logging level.
+		 * @param level The logging level.
+		 * @return The new snapshot.
+		 * @see #logLevel
+		 */
+		Snapshot withLogLevel(int level)
+		{
+			Snapshot s = new Snapshot(this);
+
+			s.logLevel = level;
+			return s;
+		}
+
+		/**
+		 * Make a snapshot to replace this one, with a new current command.
+		 * @param command The current command, or null.
+		 * @return The new snapshot.
+		 * @see #currentCommand
+		 */
+		Snapshot withCurrentCommand(ISS_TO_INST command)
+		{
+			Snapshot s = new Snapshot(this);
+
+			s.currentCommand = command;
+			return s;
+		}
+
+		/**
+		 * Make a snapshot to replace this one, with a new current command and current thread.
+		 * @param command The current command, or null.
+		 * @param thread The current thread, or null.
+		 * @return The new snapshot.
+		 * @see #currentCommand
+		 * @see #currentThread
+		 */
+		Snapshot withCurrentCommand(ISS_TO_INST command,Thread thread)
+		{
+			Snapshot s = new Snapshot(this);
+
+			s.currentCommand = command;
+			s.currentThread = thread;
+			return s;
+		}
+
+		/**
+		 * Make a snapshot to replace this one, with a new current thread.
+		 * @param thread The current thread, or null.
+		 * @return The new snapshot.
+		 * @see #currentThread
+		 */
+		Snapshot withCurrentThread(Thread thread)
+		{
+			Snapshot s = new Snapshot(this);
+
+			s.currentThread = thread;
+			return s;
+		}
+
+		/**
+		 * Make a snapshot to replace this one, with a new exposure count.
+		 * @param count The exposure count.
+		 * @return The new snapshot.
+		 * @see #exposureCount
+		 */
+		Snapshot withExposureCount(int count)
+		{
+			Snapshot s = new Snapshot(this);
+
+			s.exposureCount = count;
+			return s;
+		}
+
+		/**
+		 * Make a snapshot to replace this one, with a new exposure number.
+		 * @param number The exposure number.
+		 * @return The new snapshot.
+		 * @see #exposureNumber
+		 */
+		Snapshot withExposureNumber(int number)
+		{
+			Snapshot s = new Snapshot(this);
+
+			s.exposureNumber = number;
+			return s;
+		}
+
+		/**
+		 * Make a snapshot to replace this one, with a new exposure filename.
+		 * @param filename The exposure filename, or null.
+		 * @return The new snapshot.
+		 * @see #exposureFilename
+		 */
+		Snapshot withExposureFilename(String filename)
+		{
+			Snapshot s = new Snapshot(this);
+
+			s.exposureFilename = filename;
+			return s;
+		}
+
+		/**
+		 * Get the version number of this snapshot.
+		 * @return The version number.
+		 * @see #version
+		 */
+		public long getVersion()
+		{
+			return version;
+		}
+
+		/**
+		 * Get the logging level.
+		 * @return The log level.
+		 * @see #logLevel
+		 */
+		public int getLogLevel()
+		{
+			return logLevel;
+		}
+
+		/**
+		 * Get the command that was being processed.
+		 * @return The command, or null.
+		 * @see #currentCommand
+		 */
+		public ISS_TO_INST getCurrentCommand()
+		{
+			return currentCommand;
+		}
+
+		/**
+		 * Get the thread that was processing the current command.
+		 * @return The thread, or null.
+		 * @see #currentThread
+		 */
+		public Thread getCurrentThread()
+		{
+			return currentThread;
+		}
+
+		/**
+		 * Get the number of exposures needed to complete the current command implementation.
+		 * @return The exposure count.
+		 * @see #exposureCount
+		 */
+		public int getExposureCount()
+		{
+			return exposureCount;
+		}
+
+		/**
+		 * Get the exposure number the current command implementation was on.
+		 * @return The exposure number.
+		 * @see #exposureNumber
+		 */
+		public int getExposureNumber()
+		{
+			return exposureNumber;
+		}
+
+		/**
+		 * Get the exposure filename.
+		 * @return The exposure filename, or null.
+		 * @see #exposureFilename
+		 */
+		public String getExposureFilename()
+		{
+			return exposureFilename;
+		}
+	}
 }
 
 // $Log: not supported by cvs2svn $
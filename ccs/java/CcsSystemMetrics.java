@@ -0,0 +1,678 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Ccs.
+
+    Ccs is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Ccs is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Ccs; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CcsSystemMetrics.java
+// $Header$
+import java.io.*;
+import java.lang.*;
+import java.lang.management.*;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.Vector;
+import java.util.concurrent.*;
+
+import ngat.util.logging.*;
+
+/**
+ * This class collects system metrics (disk space, process list, CPU, load average, JVM heap, garbage
+ * collection and threads) for the FULL level GET_STATUS. The metrics are sampled on a low priority background
+ * thread every 'ccs.get_status.metrics.interval' milliseconds, using the JVM management beans and
+ * the Linux /proc filesystem, so GET_STATUS does not have to run external processes (df, ps, uptime)
+ * whilst an exposure may be in progress. GET_STATUS returns the latest Snapshot, and it's age.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see GET_STATUSImplementation
+ * @see CcsSystemMetrics.Snapshot
+ */
+public class CcsSystemMetrics
+{
+	/**
+	 * Revision Control System id string, showing the version of the Class.
+	 */
+	public final static String RCSID = new String("$Id$");
+	/**
+	 * The default number of clock ticks per second, used to convert /proc CPU times into seconds,
+	 * if the 'ccs.get_status.metrics.clock_ticks' property is not set.
+	 */
+	private final static int DEFAULT_CLOCK_TICKS = 100;
+	/**
+	 * The Ccs object.
+	 */
+	private Ccs ccs = null;
+	/**
+	 * Whether the background sampling is enabled.
+	 */
+	private boolean enable = false;
+	/**
+	 * How often to sample the metrics, in milliseconds.
+	 */
+	private long interval = 0;
+	/**
+	 * The list of directories (Strings) to report the disk space of.
+	 */
+	private Vector diskPathList = new Vector();
+	/**
+	 * The number of clock ticks per second, used to convert /proc CPU times into seconds.
+	 */
+	private int clockTicks = DEFAULT_CLOCK_TICKS;
+	/**
+	 * The latest snapshot, or null if no sample has been taken (since the background sampling was stopped).
+	 * When the background sampling is disabled, this is only used as the baseline for the next sample's
+	 * process CPU.
+	 */
+	private volatile Snapshot snapshot = null;
+	/**
+	 * The thread the background sampling is run on, or null if it is not running.
+	 */
+	private ScheduledExecutorService sampleExecutor = null;
+
+	/**
+	 * Constructor.
+	 * @param c The Ccs object.
+	 */
+	public CcsSystemMetrics(Ccs c)
+	{
+		super();
+		ccs = c;
+	}
+
+	/**
+	 * Load the configuration from the Ccs properties. The background sampling is stopped, and restarted if
+	 * it is enabled.
+	 * @param status The status object to get the properties from.
+	 * @exception NumberFormatException Thrown if a numeric property is not a valid number.
+	 * @see #enable
+	 * @see #interval
+	 * @see #diskPathList
+	 * @see #clockTicks
+	 * @see #stop
+	 * @see #start
+	 */
+	public void loadProperties(CcsStatus status) throws NumberFormatException
+	{
+		StringTokenizer stringTokenizer = null;
+		String s = null;
+
+		stop();
+		diskPathList = new Vector();
+		s = status.getProperty("ccs.get_status.metrics.disk_paths");
+		if(s == null)
+			s = "/";
+		stringTokenizer = new StringTokenizer(s," ,");
+		while(stringTokenizer.hasMoreTokens())
+			diskPathList.add(stringTokenizer.nextToken());
+		if(status.getProperty("ccs.get_status.metrics.clock_ticks") != null)
+			clockTicks = status.getPropertyInteger("ccs.get_status.metrics.clock_ticks");
+		else
+			clockTicks = DEFAULT_CLOCK_TICKS;
+		enable = false;
+		if(status.getProperty("ccs.get_status.metrics.enable") != null)
+			enable = status.getPropertyBoolean("ccs.get_status.metrics.enable");
+		if(enable)
+		{
+			interval = (long)(status.getPropertyInteger("ccs.get_status.metrics.interval"));
+			start();
+		}
+	}
+
+	/**
+	 * Start the background sampling.
+	 * @see #sampleExecutor
+	 * @see #interval
+	 * @see #sample
+	 */
+	protected synchronized void start()
+	{
+		if(sampleExecutor != null)
+			return;
+		sampleExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = null;
+
+				thread = new Thread(r,"CcsSystemMetrics");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		sampleExecutor.scheduleWithFixedDelay(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					sample();
+				}
+				catch(Exception e)
+				{
+					ccs.error(this.getClass().getName()+":run:Sampling system metrics failed:",e);
+				}
+			}
+		},0L,interval,TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop the background sampling, if it is running. The latest snapshot is discarded, as it will
+	 * no longer be kept up to date.
+	 * @see #sampleExecutor
+	 * @see #snapshot
+	 */
+	public synchronized void stop()
+	{
+		if(sampleExecutor == null)
+			return;
+		sampleExecutor.shutdownNow();
+		sampleExecutor = null;
+		snapshot = null;
+	}
+
+	/**
+	 * Get the latest snapshot. If the background sampling is running, the latest snapshot it took is returned.
+	 * Otherwise (the background sampling is disabled, or has not taken a sample yet),
+	 * a sample is taken on the calling thread. This does not start any external processes.
+	 * @return The latest snapshot.
+	 * @see #snapshot
+	 * @see #sampleExecutor
+	 * @see #sample
+	 */
+	public Snapshot getSnapshot()
+	{
+		Snapshot s = null;
+		boolean running;
+
+		synchronized(this)
+		{
+			running = (sampleExecutor != null);
+		}
+		s = snapshot;
+		if((running == false)||(s == null))
+			s = sample();
+		return s;
+	}
+
+	/**
+	 * Take a sample of the system metrics, and make it the latest snapshot.
+	 * The process CPU is calculated from the difference in this process's CPU time since the last snapshot.
+	 * @return The new snapshot.
+	 * @see #snapshot
+	 * @see #getDiskUsage
+	 * @see #getProcessList
+	 * @see #readProcFile
+	 */
+	protected synchronized Snapshot sample()
+	{
+		Snapshot previous = null;
+		Snapshot s = null;
+		MemoryUsage heapUsage = null;
+		ThreadMXBean threadBean = null;
+		ThreadInfo threadInfoList[] = null;
+		List gcBeanList = null;
+		GarbageCollectorMXBean gcBean = null;
+		StringBuffer sb = null;
+		String statFields[] = null;
+		String line = null;
+		long time;
+
+		previous = snapshot;
+		s = new Snapshot();
+		s.timestamp = System.currentTimeMillis();
+		// disk space
+		s.diskUsage = getDiskUsage();
+		// process list
+		s.processList = getProcessList();
+		// load average and uptime
+		try
+		{
+			line = readProcFile("/proc/loadavg");
+			statFields = line.split("\\s+");
+			s.loadAverage1 = Double.parseDouble(statFields[0]);
+			s.loadAverage5 = Double.parseDouble(statFields[1]);
+			s.loadAverage15 = Double.parseDouble(statFields[2]);
+			line = readProcFile("/proc/uptime");
+			s.uptime = (long)(Double.parseDouble(line.split("\\s+")[0]));
+			s.uptimeString = new String("up "+(s.uptime/86400)+" days, "+((s.uptime%86400)/3600)+":"+
+						    (((s.uptime%3600)/60) < 10 ? "0" : "")+((s.uptime%3600)/60)+
+						    ", load average: "+s.loadAverage1+", "+s.loadAverage5+", "+
+						    s.loadAverage15);
+		}
+		catch(Exception e)
+		{
+			s.uptimeString = e.toString();
+		}
+		// this process's CPU time
+		try
+		{
+			statFields = getProcStatFields(readProcFile("/proc/self/stat"));
+			s.processCPUTicks = Long.parseLong(statFields[11])+Long.parseLong(statFields[12]);
+			if(previous != null)
+			{
+				time = s.timestamp-previous.timestamp;
+				if((time > 0)&&(previous.processCPUTicks >= 0))
+				{
+					s.processCPU = ((double)(s.processCPUTicks-previous.processCPUTicks)*100000.0)/
+						((double)clockTicks*(double)time);
+				}
+			}
+		}
+		catch(Exception e)
+		{
+			ccs.error(this.getClass().getName()+":sample:Getting process CPU failed:",e);
+		}
+		// JVM heap
+		heapUsage = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		s.heapUsed = heapUsage.getUsed();
+		s.heapCommitted = heapUsage.getCommitted();
+		s.heapMax = heapUsage.getMax();
+		// garbage collection
+		gcBeanList = ManagementFactory.getGarbageCollectorMXBeans();
+		for(int i = 0; i < gcBeanList.size(); i++)
+		{
+			gcBean = (GarbageCollectorMXBean)(gcBeanList.get(i));
+			if(gcBean.getCollectionCount() > 0)
+				s.gcCount += gcBean.getCollectionCount();
+			if(gcBean.getCollectionTime() > 0)
+				s.gcTime += gcBean.getCollectionTime();
+		}
+		// threads
+		threadBean = ManagementFactory.getThreadMXBean();
+		s.threadCount = threadBean.getThreadCount();
+		s.peakThreadCount = threadBean.getPeakThreadCount();
+		s.daemonThreadCount = threadBean.getDaemonThreadCount();
+		threadInfoList = threadBean.getThreadInfo(threadBean.getAllThreadIds());
+		sb = new StringBuffer();
+		for(int i = 0; i < threadInfoList.length; i++)
+		{
+			if(threadInfoList[i] != null)
+			{
+				sb.append(threadInfoList[i].getThreadName());
+				sb.append("\n");
+			}
+		}
+		s.threadList = sb.toString();
+		snapshot = s;
+		ccs.log(Logging.VERBOSITY_VERY_VERBOSE,this.getClass().getName()+":sample:Took "+
+			(System.currentTimeMillis()-s.timestamp)+" ms.");
+		return s;
+	}
+
+	/**
+	 * Get the disk space of each directory in the disk path list, in a similar format to &quot;df -k&quot;.
+	 * @return A string, with a line for each directory.
+	 * @see #diskPathList
+	 */
+	protected String getDiskUsage()
+	{
+		StringBuffer sb = null;
+		File file = null;
+		long total,free,available;
+
+		sb = new StringBuffer();
+		sb.append("Directory 1K-blocks Used Available Use%\n");
+		for(int i = 0; i < diskPathList.size(); i++)
+		{
+			file = new File((String)(diskPathList.get(i)));
+			total = file.getTotalSpace()/1024;
+			free = file.getFreeSpace()/1024;
+			available = file.getUsableSpace()/1024;
+			sb.append(file.getPath()+" "+total+" "+(total-free)+" "+available+" ");
+			if(total > 0)
+				sb.append((((total-free)*100)/total)+"%\n");
+			else
+				sb.append("-\n");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Get a list of the processes running on this machine, from the /proc filesystem.
+	 * @return A string, with a line for each process, containing it's pid, state, CPU time (in seconds),
+	 *         virtual memory size (in kilobytes) and name. If the list failed, the exception string.
+	 * @see #clockTicks
+	 */
+	protected String getProcessList()
+	{
+		StringBuffer sb = null;
+		File fileList[] = null;
+		String statFields[] = null;
+		String line = null;
+		String name = null;
+		long cpuTicks;
+
+		sb = new StringBuffer();
+		sb.append("PID S TIME VSZ COMMAND\n");
+		fileList = new File("/proc").listFiles();
+		if(fileList == null)
+			return new String("/proc could not be listed.");
+		for(int i = 0; i < fileList.length; i++)
+		{
+			name = fileList[i].getName();
+			if((name.length() == 0)||(Character.isDigit(name.charAt(0)) == false))
+				continue;
+			try
+			{
+				line = readProcFile(fileList[i].getPath()+"/stat");
+				statFields = getProcStatFields(line);
+				cpuTicks = Long.parseLong(statFields[11])+Long.parseLong(statFields[12]);
+				sb.append(name+" "+statFields[0]+" "+(cpuTicks/clockTicks)+" "+
+					  (Long.parseLong(statFields[20])/1024)+" "+
+					  line.substring(line.indexOf('(')+1,line.lastIndexOf(')'))+"\n");
+			}
+			catch(Exception e)
+			{
+				// the process has probably exited since the directory was listed
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Split a /proc/[pid]/stat line into fields. The process name (field 2) can contain spaces,
+	 * so the fields after it's closing bracket are returned, i.e. index 0 is the state (field 3).
+	 * @param line The line read from the stat file.
+	 * @return An array of fields.
+	 */
+	protected String[] getProcStatFields(String line)
+	{
+		return line.substring(line.lastIndexOf(')')+2).split("\\s+");
+	}
+
+	/**
+	 * Read the first line of a /proc file.
+	 * @param filename The filename.
+	 * @return The first line of the file.
+	 * @exception IOException Thrown if the file could not be read, or was empty.
+	 */
+	protected String readProcFile(String filename) throws IOException
+	{
+		BufferedReader reader = null;
+		String line = null;
+
+		reader = new BufferedReader(new FileReader(filename));
+		try
+		{
+			line = reader.readLine();
+		}
+		finally
+		{
+			reader.close();
+		}
+		if(line == null)
+			throw new IOException(this.getClass().getName()+":readProcFile:"+filename+" was empty.");
+		return line;
+	}
+
+	/**
+	 * A snapshot of the system metrics. A snapshot is not changed once it has been published.
+	 */
+	public static class Snapshot
+	{
+		/**
+		 * The time the snapshot was taken, in milliseconds since the epoch.
+		 */
+		long timestamp = 0;
+		/**
+		 * The disk space, in a similar format to &quot;df -k&quot;.
+		 */
+		String diskUsage = null;
+		/**
+		 * The process list.
+		 */
+		String processList = null;
+		/**
+		 * The time since the machine was booted, and the load averages, in a similar format to &quot;uptime&quot;.
+		 */
+		String uptimeString = null;
+		/**
+		 * The time since the machine was booted, in seconds.
+		 */
+		long uptime = 0;
+		/**
+		 * The 1 minute load average.
+		 */
+		double loadAverage1 = -1.0;
+		/**
+		 * The 5 minute load average.
+		 */
+		double loadAverage5 = -1.0;
+		/**
+		 * The 15 minute load average.
+		 */
+		double loadAverage15 = -1.0;
+		/**
+		 * The CPU time used by this process, in clock ticks, or -1 if it is not known.
+		 */
+		long processCPUTicks = -1;
+		/**
+		 * The percentage of a CPU used by this process since the previous snapshot, or -1 if it is not known.
+		 */
+		double processCPU = -1.0;
+		/**
+		 * The JVM heap memory in use, in bytes.
+		 */
+		long heapUsed = 0;
+		/**
+		 * The JVM heap memory committed, in bytes.
+		 */
+		long heapCommitted = 0;
+		/**
+		 * The maximum JVM heap memory, in bytes, or -1 if it is not defined.
+		 */
+		long heapMax = 0;
+		/**
+		 * The total number of garbage collections.
+		 */
+		long gcCount = 0;
+		/**
+		 * The total time spent garbage collecting, in milliseconds.
+		 */
+		long gcTime = 0;
+		/**
+		 * The number of live threads.
+		 */
+		int threadCount = 0;
+		/**
+		 * The peak number of live threads.
+		 */
+		int peakThreadCount = 0;
+		/**
+		 * The number of live daemon threads.
+		 */
+		int daemonThreadCount = 0;
+		/**
+		 * A list of the names of the live threads, one per line.
+		 */
+		String threadList = null;
+
+		/**
+		 * Get the age of the snapshot.
+		 * @return The time since the snapshot was taken, in milliseconds.
+		 */
+		public long getAge()
+		{
+			return System.currentTimeMillis()-timestamp;
+		}
+
+		/**
+		 * @return The time the snapshot was taken, in milliseconds since the epoch.
+		 * @see #timestamp
+		 */
+		public long getTimestamp()
+		{
+			return timestamp;
+		}
+
+		/**
+		 * @return The disk space, in a similar format to &quot;df -k&quot;.
+		 * @see #diskUsage
+		 */
+		public String getDiskUsage()
+		{
+			return diskUsage;
+		}
+
+		/**
+		 * @return The process list.
+		 * @see #processList
+		 */
+		public String getProcessList()
+		{
+			return processList;
+		}
+
+		/**
+		 * @return The uptime and load averages, in a similar format to &quot;uptime&quot;.
+		 * @see #uptimeString
+		 */
+		public String getUptimeString()
+		{
+			return uptimeString;
+		}
+
+		/**
+		 * @return The time since the machine was booted, in seconds.
+		 * @see #uptime
+		 */
+		public long getUptime()
+		{
+			return uptime;
+		}
+
+		/**
+		 * @return The 1 minute load average.
+		 * @see #loadAverage1
+		 */
+		public double getLoadAverage1()
+		{
+			return loadAverage1;
+		}
+
+		/**
+		 * @return The 5 minute load average.
+		 * @see #loadAverage5
+		 */
+		public double getLoadAverage5()
+		{
+			return loadAverage5;
+		}
+
+		/**
+		 * @return The 15 minute load average.
+		 * @see #loadAverage15
+		 */
+		public double getLoadAverage15()
+		{
+			return loadAverage15;
+		}
+
+		/**
+		 * @return The percentage of a CPU used by this process, or -1 if it is not known.
+		 * @see #processCPU
+		 */
+		public double getProcessCPU()
+		{
+			return processCPU;
+		}
+
+		/**
+		 * @return The JVM heap memory in use, in bytes.
+		 * @see #heapUsed
+		 */
+		public long getHeapUsed()
+		{
+			return heapUsed;
+		}
+
+		/**
+		 * @return The JVM heap memory committed, in bytes.
+		 * @see #heapCommitted
+		 */
+		public long getHeapCommitted()
+		{
+			return heapCommitted;
+		}
+
+		/**
+		 * @return The maximum JVM heap memory, in bytes.
+		 * @see #heapMax
+		 */
+		public long getHeapMax()
+		{
+			return heapMax;
+		}
+
+		/**
+		 * @return The total number of garbage collections.
+		 * @see #gcCount
+		 */
+		public long getGCCount()
+		{
+			return gcCount;
+		}
+
+		/**
+		 * @return The total time spent garbage collecting, in milliseconds.
+		 * @see #gcTime
+		 */
+		public long getGCTime()
+		{
+			return gcTime;
+		}
+
+		/**
+		 * @return The number of live threads.
+		 * @see #threadCount
+		 */
+		public int getThreadCount()
+		{
+			return threadCount;
+		}
+
+		/**
+		 * @return The peak number of live threads.
+		 * @see #peakThreadCount
+		 */
+		public int getPeakThreadCount()
+		{
+			return peakThreadCount;
+		}
+
+		/**
+		 * @return The number of live daemon threads.
+		 * @see #daemonThreadCount
+		 */
+		public int getDaemonThreadCount()
+		{
+			return daemonThreadCount;
+		}
+
+		/**
+		 * @return A list of the names of the live threads, one per line.
+		 * @see #threadList
+		 */
+		public String getThreadList()
+		{
+			return threadList;
+		}
+	}
+}
+//
+// $Log: not supported by cvs2svn $
+//
@@ -33,7 +33,8 @@ import ngat.util.logging.*;
  * The CcsTCPClientConnectionThread extends TCPClientConnectionThread. 
  * It implements the generic ISS/DP(RT) instrument command protocol with multiple acknowledgements. 
  * The CCS starts one of these threads each time
- * it wishes to send a message to the ISS/DP(RT).
+ * it wishes to send a message to the DP(RT). For messages to the ISS, one of these is created for each message
+ * but its run method is called on a CcsISSClient pool thread, rather than starting a new thread.
  * @author Chris Mottram
  * @version $Revision: 1.2 $
  */
@@ -59,7 +60,7 @@ public class CcsTCPClientConnectionThread extends TCPClientConnectionThreadMA
 	 * @param address The internet address to send this command to.
 	 * @param portNumber The port number to send this command to.
 	 * @param c The command to send to the specified address.
-	 * @param ct The Ccs command thread, the implementation of which spawned this command.
+	 * @param ct The Ccs command thread, the implementation of which spawned this command, or null.
 	 */
 	public CcsTCPClientConnectionThread(InetAddress address,int portNumber,COMMAND c,
 		CcsTCPServerConnectionThread ct)
@@ -82,6 +83,8 @@ public class CcsTCPClientConnectionThread extends TCPClientConnectionThreadMA
 	 * prints out a message, giving the time to completion if the acknowledge was not null.
 	 * It sends the acknowledgement to the Ccs client for this sub-command of the command,
 	 * so that the Ccs's client does not time out if,say, a zero is returned.
+	 * No acknowledgement is sent if there is no commandThread (the Ccs sent the command on its own behalf,
+	 * e.g. a background GET_FITS refresh).
 	 * @see CcsTCPServerConnectionThread#sendAcknowledge
 	 * @see #commandThread
 	 */
@@ -97,6 +100,8 @@ public class CcsTCPClientConnectionThread extends TCPClientConnectionThreadMA
 			command.getClass().getName()+" sent ACK with time to complete "+
 			acknowledge.getTimeToComplete()+".");
 	// send acknowledge to Ccs client.
+		if(commandThread == null)
+			return;
 		try
 		{
 			commandThread.sendAcknowledge(acknowledge);
@@ -125,6 +130,8 @@ public class CcsTCPClientConnectionThread extends TCPClientConnectionThreadMA
 	// construct an acknowledgement to sent to the Ccs client to tell it how long to keep waiting
 	// it currently returns the time the Ccs origianally asked for to complete this command
 	// This is because the Ccs assumed zero time for all sub-commands.
+		if(commandThread == null)
+			return;
 		acknowledge = new ACK(command.getId());
 		acknowledge.setTimeToComplete(commandThread.getAcknowledgeTime());
 		try
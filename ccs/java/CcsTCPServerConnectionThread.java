@@ -23,6 +23,7 @@ import java.lang.*;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.Future;
 
 import ngat.net.*;
 import ngat.rise.ccd.*;
@@ -84,6 +85,21 @@ public class CcsTCPServerConnectionThread extends TCPServerConnectionThread
 	 * @see #commandImplementation
 	 */
 	private int acknowledgeTime = 0;
+	/**
+	 * The Future of a sub-command to the ISS this thread is currently waiting for, or null.
+	 * This is cancelled when the thread is aborted, so the wait stops immediately.
+	 * @see #setSubCommandFuture
+	 * @see #setAbortProcessCommand
+	 */
+	private Future subCommandFuture = null;
+	/**
+	 * Lock held whilst an acknowledge is written to the client. In pipelined mode DpRt pool threads
+	 * send ACKs on this thread's connection whilst this thread sends its own, so the writes must not
+	 * interleave. A separate lock is used rather than this object's monitor, so a slow client write
+	 * does not block setAbortProcessCommand.
+	 * @see #sendAcknowledge(ngat.message.base.ACK)
+	 */
+	private Object acknowledgeLock = new Object();
 
 	/**
 	 * Constructor of the thread. This just calls the superclass constructors.
@@ -147,11 +163,29 @@ public class CcsTCPServerConnectionThread extends TCPServerConnectionThread
 	 * operation it has half completed - e.g. switch the autoguider off.
 	 * The rest of this thread's run method should then execute
 	 * to send the DONE message back to the client.
+	 * Any sub-command this thread is waiting for is cancelled.
 	 * @see #abortProcessCommand
+	 * @see #subCommandFuture
 	 */
 	public synchronized void setAbortProcessCommand()
 	{
 		abortProcessCommand = true;
+		if(subCommandFuture != null)
+			subCommandFuture.cancel(true);
+	}
+
+	/**
+	 * Set the Future of the sub-command this thread is waiting for, so it is cancelled if this thread is
+	 * aborted. If this thread has already been aborted, the Future is cancelled straight away.
+	 * @param f The Future, or null when this thread has stopped waiting for it.
+	 * @see #subCommandFuture
+	 * @see #abortProcessCommand
+	 */
+	public synchronized void setSubCommandFuture(Future f)
+	{
+		subCommandFuture = f;
+		if(abortProcessCommand&&(subCommandFuture != null))
+			subCommandFuture.cancel(true);
 	}
 
 	/**
@@ -238,17 +272,24 @@ public class CcsTCPServerConnectionThread extends TCPServerConnectionThread
 	 * <li>The CCS's status is again updated to reflect this command/thread has finished processing. (If it's
 	 * not a sub-class of INTERRUPT again).
 	 * <li>If suitable logging is enabled the command is logged as completed.
+	 * <li>The command start is recorded, and when the command has finished (or been rejected) it's outcome
+	 * and how long it took are recorded, using commandStarted and commandFinished.
 	 * </ul>
 	 * @see CcsStatus#getLogLevel
 	 * @see Ccs#log
 	 * @see CcsStatus#commandCanBeRun
-	 * @see CcsStatus#setCurrentCommand
-	 * @see CcsStatus#setCurrentThread
+	 * @see CcsStatus#setCurrentCommand(ISS_TO_INST,Thread)
 	 * @see #commandImplementation
 	 * @see JMSCommandImplementation#processCommand
+	 * @see #commandStarted
+	 * @see #commandFinished
 	 */
 	protected void processCommand()
 	{
+		long startTime,spanStartTime;
+
+		startTime = System.currentTimeMillis();
+		spanStartTime = ccs.getTracer().spanStart();
 	// setup a generic done object until the command specific one is constructed.
 		done = new COMMAND_DONE(command.getId());
 
@@ -261,6 +302,7 @@ public class CcsTCPServerConnectionThread extends TCPServerConnectionThread
 			return;
 		}
 		ccs.log(Logging.VERBOSITY_TERSE,"Command:"+command.getClass().getName()+" Started.");
+		commandStarted();
 		if(!ccs.getStatus().commandCanBeRun((ISS_TO_INST)command))
 		{
 			// ccs.getStatus().getCurrentCommand() may have been set to null between
@@ -280,14 +322,15 @@ public class CcsTCPServerConnectionThread extends TCPServerConnectionThread
 			done.setErrorString(s);
 			done.setSuccessful(false);
 			ccs.error(s);
+			commandFinished(CcsMetrics.OUTCOME_REJECTED,"rejected:"+currentCommandString,startTime,
+					spanStartTime);
 			return;
 		}
 	// This test says interupt class commands should not become current command.
 	// This class of commands probably want to see what the current command is anyway.
 		if(!(command instanceof INTERRUPT))
 		{
-			ccs.getStatus().setCurrentCommand((ISS_TO_INST)command);
-			ccs.getStatus().setCurrentThread((Thread)this);
+			ccs.getStatus().setCurrentCommand((ISS_TO_INST)command,(Thread)this);
 		}
 	// setup return object.
 		try
@@ -307,14 +350,94 @@ public class CcsTCPServerConnectionThread extends TCPServerConnectionThread
 	// change CCS status once command has been done
 		if(!(command instanceof INTERRUPT))
 		{
-			ccs.getStatus().setCurrentCommand(null);
-			ccs.getStatus().setCurrentThread(null);
+			ccs.getStatus().setCurrentCommand(null,null);
 		}
 	// log command/done
 		ccs.log(Logging.VERBOSITY_TERSE,"Command:"+command.getClass().getName()+" Completed.");
 		ccs.log(Logging.VERBOSITY_TERSE,"Done:"+done.getClass().getName()+
 			":successful:"+done.getSuccessful()+
 			":error number:"+done.getErrorNum()+":error string:"+done.getErrorString());
+		commandFinished(done.getSuccessful() ? CcsMetrics.OUTCOME_SUCCESS : CcsMetrics.OUTCOME_FAILURE,
+				"successful="+done.getSuccessful()+":error number:"+done.getErrorNum(),startTime,
+				spanStartTime);
+	}
+
+	/**
+	 * Record that the command has started, as an event.
+	 * @see CcsEventRecorder#EVENT_COMMAND_START
+	 */
+	protected void commandStarted()
+	{
+		if(ccs.getEventRecorder().isEnabled())
+		{
+			ccs.getEventRecorder().record(CcsEventRecorder.EVENT_COMMAND_START,
+						      command.getClass().getName(),null);
+		}
+	}
+
+	/**
+	 * Record that the command has finished, or been rejected. The command, it's outcome and how long it took
+	 * are added to the Ccs metrics, traced as a span and recorded as an event.
+	 * @param outcome The outcome, one of CcsMetrics' OUTCOME_SUCCESS, OUTCOME_FAILURE or OUTCOME_REJECTED.
+	 * @param details A description of the outcome, recorded with the event.
+	 * @param startTime When processing the command started, in milliseconds since the epoch.
+	 * @param spanStartTime The start time returned by the tracer's spanStart when processing the command
+	 *        started.
+	 * @see CcsMetrics#addCommand
+	 * @see CcsTracer#CATEGORY_COMMAND
+	 * @see CcsEventRecorder#EVENT_COMMAND_DONE
+	 */
+	protected void commandFinished(String outcome,String details,long startTime,long spanStartTime)
+	{
+		String commandName = null;
+		long time;
+
+		commandName = command.getClass().getName();
+		time = System.currentTimeMillis()-startTime;
+		ccs.getMetrics().addCommand(commandName,outcome,time);
+		ccs.getTracer().spanEnd(CcsTracer.CATEGORY_COMMAND,commandName.substring(commandName.lastIndexOf('.')+1),
+					spanStartTime);
+		if(ccs.getEventRecorder().isEnabled())
+		{
+			ccs.getEventRecorder().record(CcsEventRecorder.EVENT_COMMAND_DONE,commandName,startTime,
+						      time*1000L,details);
+		}
+	}
+
+	/**
+	 * Record that an acknowledge has been sent to the client. The time taken to send it is traced as a
+	 * span, and it is recorded as an event.
+	 * @param acknowledge The acknowledge sent.
+	 * @param spanStartTime The start time returned by the tracer's spanStart before it was sent.
+	 * @see CcsTracer#CATEGORY_ACK
+	 * @see CcsEventRecorder#EVENT_COMMAND_ACK
+	 */
+	protected void acknowledgeSent(ACK acknowledge,long spanStartTime)
+	{
+		ccs.getTracer().spanEnd(CcsTracer.CATEGORY_ACK,"sendAcknowledge",spanStartTime);
+		if(ccs.getEventRecorder().isEnabled())
+		{
+			ccs.getEventRecorder().record(CcsEventRecorder.EVENT_COMMAND_ACK,command.getClass().getName(),
+				"time to complete="+acknowledge.getTimeToComplete());
+		}
+	}
+
+	/**
+	 * This routine sends an acknowledge back to the client. The superclass's method is called whilst
+	 * holding acknowledgeLock, so acknowledges sent from DpRt pool threads and this thread are
+	 * written one at a time.
+	 * @param acknowledge The acknowledge object to send back to the client.
+	 * @exception NullPointerException If the acknowledge object is null this exception is thrown.
+	 * @exception IOException If the acknowledge object fails to be sent an IOException results.
+	 * @see #acknowledgeLock
+	 * @see ngat.net.TCPServerConnectionThread#sendAcknowledge
+	 */
+	public void sendAcknowledge(ACK acknowledge) throws IOException
+	{
+		synchronized(acknowledgeLock)
+		{
+			super.sendAcknowledge(acknowledge);
+		}
 	}
 
 	/**
@@ -325,15 +448,20 @@ public class CcsTCPServerConnectionThread extends TCPServerConnectionThread
 	 * @exception NullPointerException If the acknowledge object is null this exception is thrown.
 	 * @exception IOException If the acknowledge object fails to be sent an IOException results.
 	 * @see #acknowledgeTime
-	 * @see ngat.net.TCPServerConnectionThread#sendAcknowledge
+	 * @see #sendAcknowledge(ngat.message.base.ACK)
+	 * @see #acknowledgeSent
 	 */
 	public void sendAcknowledge(ACK acknowledge,boolean setThreadAckTime) throws IOException
 	{
+		long spanStartTime;
+
 		if(setThreadAckTime)
 			acknowledgeTime = acknowledge.getTimeToComplete();
 		ccs.log(Logging.VERBOSITY_VERBOSE,"Command:"+command.getClass().getName()+
 			" sending ACK with time to complete "+acknowledge.getTimeToComplete()+".");
-		super.sendAcknowledge(acknowledge);
+		spanStartTime = ccs.getTracer().spanStart();
+		sendAcknowledge(acknowledge);
+		acknowledgeSent(acknowledge,spanStartTime);
 	}
 
 	/**
@@ -0,0 +1,350 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Ccs.
+
+    Ccs is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Ccs is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Ccs; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CcsTracer.java
+// $Header$
+import java.lang.*;
+import java.util.HashSet;
+import java.util.concurrent.*;
+
+import ngat.rise.ccd.*;
+
+/**
+ * This class records timed spans of command execution (the command itself, ISS commands such as moving
+ * the fold, starting the autoguider and getting FITS headers, setting and saving FITS headers, the
+ * CCDLibrary exposure calls, ISS and DP(RT) round trips, acknowledges and reductions) to a per-night trace file in the Chrome trace event JSON format,
+ * which can be loaded into chrome://tracing or Perfetto (ui.perfetto.dev). Spans are drawn per thread, so
+ * the spans called from within a command are nested inside it, and the serial waits in a long command
+ * (e.g. TWILIGHT_CALIBRATE) can be seen on a timeline.
+ * <p>
+ * A span is timed by calling spanStart, and spanEnd when it has finished. When tracing is disabled
+ * spanStart returns 0 and spanEnd returns immediately. When it is enabled, spanEnd only creates a small
+ * Span object and queues it; the JSON is formatted and written on the background thread of
+ * CcsNightFileRecorder.
+ * <p>
+ * The file is a JSON array of complete (&quot;X&quot;) events, with thread name metadata events.
+ * The closing bracket is not written, so the file can be appended to when the Ccs is restarted;
+ * the trace viewers accept this.
+ * Tracing is configured by the 'ccs.tracer' properties.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see Ccs#getTracer
+ * @see CcsNightFileRecorder
+ */
+public class CcsTracer extends CcsNightFileRecorder<CcsTracer.Span> implements CCDLibraryCallListener
+{
+	/**
+	 * Revision Control System id string, showing the version of the Class.
+	 */
+	public final static String RCSID = new String("$Id$");
+	/**
+	 * Span category: a Ccs command.
+	 */
+	public final static String CATEGORY_COMMAND = "command";
+	/**
+	 * Span category: sending an ACK to the client.
+	 */
+	public final static String CATEGORY_ACK = "ack";
+	/**
+	 * Span category: a command sent to the ISS (e.g. moving the fold, the autoguider, getting FITS headers),
+	 * timed on the thread that waited for it.
+	 */
+	public final static String CATEGORY_ISS = "iss";
+	/**
+	 * Span category: setting or saving FITS headers.
+	 */
+	public final static String CATEGORY_FITS = "fits";
+	/**
+	 * Span category: a long running CCDLibrary native call.
+	 */
+	public final static String CATEGORY_CCD = "ccd";
+	/**
+	 * Span category: a round trip to the ISS or DP(RT).
+	 */
+	public final static String CATEGORY_CLIENT = "client";
+	/**
+	 * Span category: reducing a frame with the DP(RT).
+	 */
+	public final static String CATEGORY_REDUCE = "reduce";
+	/**
+	 * The process id put in the trace events. There is only one Ccs process per trace file.
+	 */
+	private final static int PROCESS_ID = 1;
+	/**
+	 * Constructor.
+	 * @param c The Ccs object.
+	 */
+	public CcsTracer(Ccs c)
+	{
+		super(c,"ccs.tracer");
+	}
+
+	/**
+	 * Get the start time of a span.
+	 * @return The start time, from System.nanoTime, or 0 if tracing is disabled.
+	 * @see #spanEnd
+	 */
+	public long spanStart()
+	{
+		if(isEnabled() == false)
+			return 0L;
+		return System.nanoTime();
+	}
+
+	/**
+	 * Record a span that has just finished, on the calling thread. Nothing is recorded if the start time
+	 * is zero (tracing was disabled when the span started), tracing is disabled, or the queue is full.
+	 * @param category The span category, one of the CATEGORY constants.
+	 * @param name The span name, e.g. the method name.
+	 * @param startTime The start time returned by spanStart.
+	 * @see #spanStart
+	 * @see #record
+	 */
+	public void spanEnd(String category,String name,long startTime)
+	{
+		if((startTime == 0L)||(isEnabled() == false))
+			return;
+		record(category,name,startTime,System.nanoTime()-startTime);
+	}
+
+	/**
+	 * Called by CCDLibrary when a long running native call has finished. A CATEGORY_CCD span is recorded.
+	 * @param library The CCDLibrary instance that made the call.
+	 * @param methodName The name of the CCDLibrary method that made the call.
+	 * @param startTime When the call started, from System.nanoTime.
+	 * @param duration How long the call took, in nanoseconds.
+	 * @param successful Whether the call was successful.
+	 * @see #CATEGORY_CCD
+	 * @see ngat.rise.ccd.CCDLibrary#addCallListener
+	 */
+	public void nativeCallDone(CCDLibrary library,String methodName,long startTime,long duration,
+				   boolean successful)
+	{
+		if(isEnabled() == false)
+			return;
+		record(CATEGORY_CCD,methodName,startTime,duration);
+	}
+
+	/**
+	 * Queue a span recorded on the calling thread.
+	 * @param category The span category.
+	 * @param name The span name.
+	 * @param startTime When the span started, from System.nanoTime.
+	 * @param duration How long the span took, in nanoseconds.
+	 * @see CcsNightFileRecorder#add
+	 */
+	protected void record(String category,String name,long startTime,long duration)
+	{
+		Thread thread = null;
+
+		thread = Thread.currentThread();
+		add(new Span(category,name,startTime,duration,thread.getId(),thread.getName()));
+	}
+
+	/**
+	 * Create the task run by a new writer thread.
+	 * @param queue The queue to take spans from.
+	 * @param d The directory to write the trace files to.
+	 * @return A new TraceWriterRunnable.
+	 * @see CcsTracer.TraceWriterRunnable
+	 */
+	protected WriterRunnable createWriterRunnable(ArrayBlockingQueue<Span> queue,String d)
+	{
+		return new TraceWriterRunnable(queue,d);
+	}
+
+	/**
+	 * A recorded span.
+	 */
+	protected static class Span
+	{
+		/**
+		 * The span category.
+		 */
+		String category = null;
+		/**
+		 * The span name.
+		 */
+		String name = null;
+		/**
+		 * When the span started, from System.nanoTime.
+		 */
+		long startTime = 0;
+		/**
+		 * How long the span took, in nanoseconds.
+		 */
+		long duration = 0;
+		/**
+		 * The id of the thread that recorded the span.
+		 */
+		long threadId = 0;
+		/**
+		 * The name of the thread that recorded the span.
+		 */
+		String threadName = null;
+
+		/**
+		 * Constructor.
+		 * @param c The span category.
+		 * @param n The span name.
+		 * @param st When the span started, from System.nanoTime.
+		 * @param d How long the span took, in nanoseconds.
+		 * @param tid The id of the thread that recorded the span.
+		 * @param tn The name of the thread that recorded the span.
+		 */
+		Span(String c,String n,long st,long d,long tid,String tn)
+		{
+			category = c;
+			name = n;
+			startTime = st;
+			duration = d;
+			threadId = tid;
+			threadName = tn;
+		}
+	}
+
+	/**
+	 * Writes spans to 'ccs_trace_&lt;night&gt;.json' files, as Chrome trace events.
+	 */
+	protected class TraceWriterRunnable extends WriterRunnable
+	{
+		/**
+		 * Whether the next event written is the first in the file (and so is not preceded by a comma).
+		 */
+		private boolean firstEvent = true;
+		/**
+		 * The ids of the threads a thread name event has been written for, in the current file.
+		 */
+		private HashSet<Long> namedThreadSet = new HashSet<Long>();
+		/**
+		 * The offset to add to a System.nanoTime time to get the time since the epoch, in nanoseconds.
+		 */
+		private long wallClockOffset = 0;
+
+		/**
+		 * Constructor.
+		 * @param queue The queue to take spans from.
+		 * @param d The directory to write the trace files to.
+		 */
+		TraceWriterRunnable(ArrayBlockingQueue<Span> queue,String d)
+		{
+			super(queue,d,"ccs_trace_",".json");
+			wallClockOffset = (System.currentTimeMillis()*1000000L)-System.nanoTime();
+		}
+
+		/**
+		 * Get the time a span started.
+		 * @param span The span.
+		 * @return The span's start time, in milliseconds since the epoch.
+		 * @see #wallClockOffset
+		 */
+		protected long getTime(Span span)
+		{
+			return (span.startTime+wallClockOffset)/1000000L;
+		}
+
+		/**
+		 * Start a new (empty) trace file with the opening bracket of the event array, and write a
+		 * process name event.
+		 * @param empty Whether the file was empty.
+		 * @see #firstEvent
+		 * @see #namedThreadSet
+		 */
+		protected void opened(boolean empty)
+		{
+			namedThreadSet.clear();
+			firstEvent = empty;
+			if(firstEvent)
+				writer.println("[");
+			writeEvent("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":"+PROCESS_ID+
+				   ",\"args\":{\"name\":\"Ccs\"}}");
+		}
+
+		/**
+		 * Write a span as a complete event. A thread name event is written before the first span from
+		 * each thread in the file.
+		 * @param span The span.
+		 * @see #writeEvent
+		 */
+		protected void write(Span span)
+		{
+			long startTime;
+
+			// trace event timestamps are microseconds since the epoch
+			startTime = (span.startTime+wallClockOffset)/1000L;
+			if(namedThreadSet.add(new Long(span.threadId)))
+			{
+				writeEvent("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":"+PROCESS_ID+",\"tid\":"+
+					   span.threadId+",\"args\":{\"name\":"+quote(span.threadName)+"}}");
+			}
+			writeEvent("{\"name\":"+quote(span.name)+",\"cat\":"+quote(span.category)+
+				   ",\"ph\":\"X\",\"ts\":"+startTime+",\"dur\":"+(span.duration/1000L)+
+				   ",\"pid\":"+PROCESS_ID+",\"tid\":"+span.threadId+"}");
+		}
+
+		/**
+		 * Write an event to the trace file, preceded by a comma if it is not the first in the file.
+		 * @param event The event, as a JSON object.
+		 * @see #firstEvent
+		 */
+		protected void writeEvent(String event)
+		{
+			if(firstEvent == false)
+				writer.print(",");
+			writer.println(event);
+			firstEvent = false;
+		}
+
+		/**
+		 * Quote a string as a JSON string.
+		 * @param s The string.
+		 * @return The string in double quotes, with quotes, backslashes and control characters escaped.
+		 */
+		protected String quote(String s)
+		{
+			StringBuffer sb = null;
+			char ch;
+
+			sb = new StringBuffer();
+			sb.append('"');
+			for(int i = 0; i < s.length(); i++)
+			{
+				ch = s.charAt(i);
+				if((ch == '"')||(ch == '\\'))
+				{
+					sb.append('\\');
+					sb.append(ch);
+				}
+				else if(ch < ' ')
+				{
+					sb.append("\\u00");
+					sb.append(Character.forDigit(ch/16,16));
+					sb.append(Character.forDigit(ch%16,16));
+				}
+				else
+					sb.append(ch);
+			}
+			sb.append('"');
+			return sb.toString();
+		}
+	}
+}
+//
+// $Log: not supported by cvs2svn $
+//
@@ -83,6 +83,7 @@ public class EXPOSEImplementation extends FITSImplementation implements JMSComma
 	 * @return The routine returns a boolean to indicate whether the operation was completed
 	 *  	successfully.
 	 * @see Ccs#sendDpRtCommand
+	 * @see CcsTracer#CATEGORY_REDUCE
 	 */
 	public boolean reduceExpose(COMMAND command,COMMAND_DONE done,String filename)
 	{
@@ -90,9 +91,12 @@ public class EXPOSEImplementation extends FITSImplementation implements JMSComma
 		INST_TO_DP_DONE instToDPDone = null;
 		EXPOSE_REDUCE_DONE reduceDone = null;
 		EXPOSE_DONE exposeDone = null;
+		long spanStartTime;
 
 		reduce.setFilename(filename);
+		spanStartTime = ccs.getTracer().spanStart();
 		instToDPDone = ccs.sendDpRtCommand(reduce,serverConnectionThread);
+		ccs.getTracer().spanEnd(CcsTracer.CATEGORY_REDUCE,"reduceExpose",spanStartTime);
 		if(instToDPDone.getSuccessful() == false)
 		{
 			ccs.error(this.getClass().getName()+":reduce:"+
@@ -49,6 +49,12 @@ public class FITSImplementation extends CCDLibraryImplementation implements JMSC
 	 * A reference to the CcsStatus class instance that holds status information for the Ccs.
 	 */
 	protected CcsStatus status = null;
+	/**
+	 * The Ccs configuration, got from the status once when the command is initialised. The command reads its
+	 * properties from this, so they are consistent even if the properties are reloaded whilst it runs.
+	 * @see CcsStatus#getConfiguration
+	 */
+	protected CcsConfiguration configuration = null;
 	/**
 	 * A reference to the FitsFilename class instance used to generate unique FITS filenames.
 	 */
@@ -64,6 +70,11 @@ public class FITSImplementation extends CCDLibraryImplementation implements JMSC
 	 * units and comments for FITS header card images.
 	 */
 	protected FitsHeaderDefaults ccsFitsHeaderDefaults = null;
+	/**
+	 * A local reference to the FITS header template held in the Ccs, compiled from the FITS header defaults.
+	 * This supplies the default card images and the typed default values used in setFitsHeaders.
+	 */
+	protected CcsFitsHeaderTemplate ccsFitsHeaderTemplate = null;
 	/**
 	 * Internal constant used when converting temperatures in centigrade (from the CCD controller/CCS
 	 * configuration file) to Kelvin (used in FITS file). Used in setFitsHeaders.
@@ -80,15 +91,22 @@ public class FITSImplementation extends CCDLibraryImplementation implements JMSC
 	/**
 	 * This method calls the super-classes method, and tries to fill in the reference to the
 	 * FITS filename object, the FITS header object and the FITS default value object.
+	 * The FITS header cache is invalidated, as the telescope may have moved since the last command
+	 * (without the Ccs sending the ISS a command), so the first frame of each command gets fresh cards.
 	 * @param command The command to be implemented.
+	 * @see CcsFitsHeaderCache#invalidate
 	 * @see #status
 	 * @see Ccs#getStatus
+	 * @see #configuration
+	 * @see CcsStatus#getConfiguration
 	 * @see #ccsFilename
 	 * @see Ccs#getFitsFilename
 	 * @see #ccsFitsHeader
 	 * @see Ccs#getFitsHeader
 	 * @see #ccsFitsHeaderDefaults
 	 * @see Ccs#getFitsHeaderDefaults
+	 * @see #ccsFitsHeaderTemplate
+	 * @see Ccs#getFitsHeaderTemplate
 	 */
 	public void init(COMMAND command)
 	{
@@ -96,9 +114,12 @@ public class FITSImplementation extends CCDLibraryImplementation implements JMSC
 		if(ccs != null)
 		{
 			status = ccs.getStatus();
+			configuration = status.getConfiguration();
 			ccsFilename = ccs.getFitsFilename();
 			ccsFitsHeader = ccs.getFitsHeader();
 			ccsFitsHeaderDefaults = ccs.getFitsHeaderDefaults();
+			ccsFitsHeaderTemplate = ccs.getFitsHeaderTemplate();
+			ccs.getFitsHeaderCache().invalidate();
 		}
 	}
 
@@ -124,6 +145,26 @@ public class FITSImplementation extends CCDLibraryImplementation implements JMSC
 		return super.processCommand(command);
 	}
 
+	/**
+	 * Bring the multrun number of ccsFilename up to the last multrun number allocated by the C layer
+	 * (which names the FITS files written during CCDMultrunExpose/CCDMultflatExpose itself), so the next
+	 * filename generated by the Java layer does not re-use it. Failure is logged, not returned, as the
+	 * multrun has already been done.
+	 * @param command The command being implemented. This is used for error logging.
+	 * @see Ccs#synchroniseFitsFilename
+	 */
+	protected void synchroniseFilename(COMMAND command)
+	{
+		try
+		{
+			ccs.synchroniseFitsFilename();
+		}
+		catch(CCDLibraryNativeException e)
+		{
+			ccs.error(this.getClass().getName()+":synchroniseFilename:"+command+":"+e,e);
+		}
+	}
+
 	/**
 	 * This routine tries to move the mirror fold to a certain location, by issuing a MOVE_FOLD command
 	 * to the ISS. The position to move the fold to is specified by the ccs property file.
@@ -134,7 +175,7 @@ public class FITSImplementation extends CCDLibraryImplementation implements JMSC
 	 * 	error occurs the relevant fields are filled in with the error.
 	 * @return The routine returns a boolean to indicate whether the operation was completed
 	 *  	successfully.
-	 * @see CcsStatus#getPropertyInteger
+	 * @see CcsConfiguration#getInteger
 	 * @see Ccs#sendISSCommand
 	 */
 	public boolean moveFold(COMMAND command,COMMAND_DONE done)
@@ -146,7 +187,7 @@ public class FITSImplementation extends CCDLibraryImplementation implements JMSC
 		moveFold = new MOVE_FOLD(command.getId());
 		try
 		{
-			mirrorFoldPosition = status.getPropertyInteger("ccs.mirror_fold_position");
+			mirrorFoldPosition = configuration.getInteger("ccs.mirror_fold_position");
 		}
 		catch(NumberFormatException e)
 		{
@@ -269,7 +310,8 @@ public class FITSImplementation extends CCDLibraryImplementation implements JMSC
 	 * <p>The following mandatory keywords are filled in: SIMPLE,BITPIX,NAXIS,NAXIS1,NAXIS2. Note NAXIS1 and
 	 * NAXIS2 are retrieved from libccd, assuming the library has previously been setup with a 
 	 * configuration.</p>
-	 * <p> A complete list of keywords is constructed from the Ccs FITS defaults file. Some of the values of
+	 * <p> A complete list of keywords is copied from the FITS header template, compiled from the Ccs FITS
+	 * defaults file when the Ccs started. Some of the values of
 	 * these keywords are overwritten by real data obtained from the camera controller, or internal Ccs status.
 	 * These are:
 	 * OBSTYPE, RUNNUM, EXPNUM, EXPTOTAL, DATE, DATE-OBS, UTSTART, MJD, EXPTIME, 
@@ -291,32 +333,34 @@ public class FITSImplementation extends CCDLibraryImplementation implements JMSC
 	 * @return The routine returns a boolean to indicate whether the operation was completed
 	 *  	successfully.
 	 * @see #ccsFitsHeader
-	 * @see #ccsFitsHeaderDefaults
+	 * @see #ccsFitsHeaderTemplate
 	 * @see #CENTIGRADE_TO_KELVIN
+	 * @see CcsTracer#CATEGORY_FITS
 	 * @see CCDLibraryImplementation#libccd
 	 * @see CcsStatus#getNumberColumns
 	 * @see CcsStatus#getNumberRows
 	 */
 	public boolean setFitsHeaders(COMMAND command,COMMAND_DONE done,String obsTypeString,
-				      int exposureTime,int exposureCount)
+					   int exposureTime,int exposureCount)
 	{
 		CCDLibraryDouble actualTemperature = null;
 		CCDLibrarySetupWindow window = null;
 		FitsHeaderCardImage cardImage = null;
 		Date date = null;
-		Vector defaultFitsHeaderList = null;
 		int filterWheelPosition;
 		double doubleValue = 0.0;
 		int windowFlags;
 		int windowNumber,xbin,ybin;
 		int preScan=0,postScan=0;
+		long spanStartTime;
 
 		ccs.log(Logging.VERBOSITY_VERBOSE,this.getClass().getName()+":setFitsHeaders:Started.");
+		spanStartTime = ccs.getTracer().spanStart();
 		try
 		{
-		// load all the FITS header defaults and put them into the ccsFitsHeader object
-			defaultFitsHeaderList = ccsFitsHeaderDefaults.getCardImageList();
-			ccsFitsHeader.addKeywordValueList(defaultFitsHeaderList,0);
+		// put fresh copies of all the FITS header defaults, from the template compiled at startup,
+		// into the ccsFitsHeader object, replacing the last frame's cards
+			ccsFitsHeader.addKeywordValueList(ccsFitsHeaderTemplate.getCardImageList(),0);
 
 		// get current binning for later
 			xbin = libccd.CCDSetupGetNSBin();
@@ -397,14 +441,14 @@ public class FITSImplementation extends CCDLibraryImplementation implements JMSC
 	//cardImage.setValue(new Integer(postScan));
 		// CCDXIMSI
 			cardImage = ccsFitsHeader.get("CCDXIMSI");
-			cardImage.setValue(new Integer(ccsFitsHeaderDefaults.getValueInteger("CCDXIMSI")/xbin));
+			cardImage.setValue(new Integer(ccsFitsHeaderTemplate.getCCDXImageSize()/xbin));
 		// CCDYIMSI
 			cardImage = ccsFitsHeader.get("CCDYIMSI");
-			cardImage.setValue(new Integer(ccsFitsHeaderDefaults.getValueInteger("CCDYIMSI")/ybin));
+			cardImage.setValue(new Integer(ccsFitsHeaderTemplate.getCCDYImageSize()/ybin));
 		// CCDSCALE
 			cardImage = ccsFitsHeader.get("CCDSCALE");
 			// note this next line assumes xbin == ybin e.g. CCDSCALE is constant in both axes
-			cardImage.setValue(new Double(ccsFitsHeaderDefaults.getValueDouble("CCDSCALE")*xbin));
+			cardImage.setValue(new Double(ccsFitsHeaderTemplate.getCCDScale()*xbin));
 		// CCDXBIN
 			cardImage = ccsFitsHeader.get("CCDXBIN");
 			cardImage.setValue(new Integer(xbin));
@@ -412,8 +456,7 @@ public class FITSImplementation extends CCDLibraryImplementation implements JMSC
 			cardImage = ccsFitsHeader.get("CCDYBIN");
 			cardImage.setValue(new Integer(ybin));
 		// CCDSTEMP
-			doubleValue = status.getPropertyDouble("ccs.config.target_temperature")+
-				CENTIGRADE_TO_KELVIN;
+			doubleValue = ccsFitsHeaderTemplate.getTargetTemperature()+CENTIGRADE_TO_KELVIN;
 			cardImage = ccsFitsHeader.get("CCDSTEMP");
 			cardImage.setValue(new Integer((int)doubleValue));
 		// CCDATEMP
@@ -440,15 +483,15 @@ public class FITSImplementation extends CCDLibraryImplementation implements JMSC
 			{
 				ccs.log(Logging.VERBOSITY_VERBOSE,this.getClass().getName()+
 					":setFitsHeaders:Default window X size = "+
-					ccsFitsHeaderDefaults.getValueInteger("CCDWXSIZ")+" / "+xbin+" = "+
-					(ccsFitsHeaderDefaults.getValueInteger("CCDWXSIZ")/xbin)+".");
+					ccsFitsHeaderTemplate.getCCDWindowXSize()+" / "+xbin+" = "+
+					(ccsFitsHeaderTemplate.getCCDWindowXSize()/xbin)+".");
 				ccs.log(Logging.VERBOSITY_VERBOSE,this.getClass().getName()+
 					":setFitsHeaders:Default window Y size = "+
-					ccsFitsHeaderDefaults.getValueInteger("CCDWYSIZ")+" / "+ybin+" = "+
-					(ccsFitsHeaderDefaults.getValueInteger("CCDWYSIZ")/ybin)+".");
+					ccsFitsHeaderTemplate.getCCDWindowYSize()+" / "+ybin+" = "+
+					(ccsFitsHeaderTemplate.getCCDWindowYSize()/ybin)+".");
 				window = new CCDLibrarySetupWindow(0,0,
-				       ccsFitsHeaderDefaults.getValueInteger("CCDWXSIZ")/xbin,
-				       ccsFitsHeaderDefaults.getValueInteger("CCDWYSIZ")/ybin);
+				       ccsFitsHeaderTemplate.getCCDWindowXSize()/xbin,
+				       ccsFitsHeaderTemplate.getCCDWindowYSize()/ybin);
 				ccs.log(Logging.VERBOSITY_VERBOSE,this.getClass().getName()+
 					":setFitsHeaders:Using default window : "+window+".");
 			}
@@ -479,14 +522,14 @@ public class FITSImplementation extends CCDLibraryImplementation implements JMSC
 		// ROTCENTX
 		// Value specified in config file is unbinned without bias offsets added
 			cardImage = ccsFitsHeader.get("ROTCENTX");
-			cardImage.setValue(new Integer((ccsFitsHeaderDefaults.getValueInteger("ROTCENTX")/xbin)+
+			cardImage.setValue(new Integer((ccsFitsHeaderTemplate.getRotCentreX()/xbin)+
 					   preScan));
 		// ROTCENTY
 		// Value specified in config file is unbinned 
 			cardImage = ccsFitsHeader.get("ROTCENTY");
-			cardImage.setValue(new Integer(ccsFitsHeaderDefaults.getValueInteger("ROTCENTY")/ybin));
+			cardImage.setValue(new Integer(ccsFitsHeaderTemplate.getRotCentreY()/ybin));
 		}// end try
-		// ngat.fits.FitsHeaderException thrown by ccsFitsHeaderDefaults.getValue
+		// NullPointerException thrown if a keyword has no default in the template
 		// ngat.util.FileUtilitiesNativeException thrown by CcsStatus.getConfigId
 		// IllegalArgumentException thrown by CcsStatus.getFilterWheelName/getCCDRDOUTValue
 		// NumberFormatException thrown by CcsStatus.getFilterWheelName/CcsStatus.getConfigId
@@ -501,6 +544,10 @@ public class FITSImplementation extends CCDLibraryImplementation implements JMSC
 			done.setSuccessful(false);
 			return false;
 		}
+		finally
+		{
+			ccs.getTracer().spanEnd(CcsTracer.CATEGORY_FITS,"setFitsHeaders",spanStartTime);
+		}
 		return true;
 	}
 
@@ -510,6 +557,9 @@ public class FITSImplementation extends CCDLibraryImplementation implements JMSC
 	 * If an error occurs the done objects field's can be set to record the error.
 	 * The order numbers returned from the ISS are incremented by the order number offset
 	 * defined in the Ccs 'ccs.get_fits.order_number_offset' property.
+	 * If the Ccs's FITS header cache is enabled and all it's cards are fresh, the cached cards are used
+	 * and no GET_FITS command is sent. Otherwise the cards returned by GET_FITS are put into the cache,
+	 * unless the cache was invalidated whilst the GET_FITS was in progress.
 	 * @param command The command being implemented that made this call to the ISS. This is used
 	 * 	for error logging.
 	 * @param done A COMMAND_DONE subclass specific to the command being implemented. If an
@@ -518,32 +568,52 @@ public class FITSImplementation extends CCDLibraryImplementation implements JMSC
 	 *  	successfully.
 	 * @see Ccs#sendISSCommand
 	 * @see Ccs#getStatus
-	 * @see CcsStatus#getPropertyInteger
+	 * @see CcsConfiguration#getInteger
 	 * @see #ccsFitsHeader
 	 * @see #DEFAULT_ORDER_NUMBER_OFFSET
+	 * @see Ccs#getFitsHeaderCache
+	 * @see CcsFitsHeaderCache#getCardList
+	 * @see CcsFitsHeaderCache#getGeneration
+	 * @see CcsFitsHeaderCache#update
 	 */
 	public boolean getFitsHeadersFromISS(COMMAND command,COMMAND_DONE done)
 	{
+		CcsFitsHeaderCache fitsHeaderCache = null;
 		INST_TO_ISS_DONE instToISSDone = null;
 		GET_FITS_DONE getFitsDone = null;
+		List cardList = null;
 		int orderNumberOffset;
+		long fetchGeneration;
 
-		instToISSDone = ccs.sendISSCommand(new GET_FITS(command.getId()),serverConnectionThread);
-		if(instToISSDone.getSuccessful() == false)
+		fitsHeaderCache = ccs.getFitsHeaderCache();
+		cardList = fitsHeaderCache.getCardList();
+		if(cardList != null)
 		{
-			ccs.error(this.getClass().getName()+":getFitsHeadersFromISS:"+
-				command.getClass().getName()+":"+instToISSDone.getErrorString());
-			done.setErrorNum(CcsConstants.CCS_ERROR_CODE_BASE+305);
-			done.setErrorString(instToISSDone.getErrorString());
-			done.setSuccessful(false);
-			return false;
+			ccs.log(Logging.VERBOSITY_VERBOSE,this.getClass().getName()+":getFitsHeadersFromISS:"+
+				command.getClass().getName()+":Using "+cardList.size()+" cached cards.");
+		}
+		else
+		{
+			fetchGeneration = fitsHeaderCache.getGeneration();
+			instToISSDone = ccs.sendISSCommand(new GET_FITS(command.getId()),serverConnectionThread);
+			if(instToISSDone.getSuccessful() == false)
+			{
+				ccs.error(this.getClass().getName()+":getFitsHeadersFromISS:"+
+					command.getClass().getName()+":"+instToISSDone.getErrorString());
+				done.setErrorNum(CcsConstants.CCS_ERROR_CODE_BASE+305);
+				done.setErrorString(instToISSDone.getErrorString());
+				done.setSuccessful(false);
+				return false;
+			}
+		// Get the returned FITS header information into the FitsHeader object.
+			getFitsDone = (GET_FITS_DONE)instToISSDone;
+			cardList = getFitsDone.getFitsHeader();
+			fitsHeaderCache.update(cardList,fetchGeneration);
 		}
-	// Get the returned FITS header information into the FitsHeader object.
-		getFitsDone = (GET_FITS_DONE)instToISSDone;
 	// get the order number offset
 		try
 		{
-			orderNumberOffset = status.getPropertyInteger("ccs.get_fits.order_number_offset");
+			orderNumberOffset = configuration.getInteger("ccs.get_fits.order_number_offset");
 		}
 		catch(NumberFormatException e)
 		{
@@ -551,7 +621,7 @@ public class FITSImplementation extends CCDLibraryImplementation implements JMSC
 			ccs.error(this.getClass().getName()+
 				":getFitsHeadersFromISS:Getting order number offset failed.",e);
 		}
-		ccsFitsHeader.addKeywordValueList(getFitsDone.getFitsHeader(),orderNumberOffset);
+		ccsFitsHeader.addKeywordValueList(cardList,orderNumberOffset);
 		return true;
 	}
 
@@ -569,10 +639,12 @@ public class FITSImplementation extends CCDLibraryImplementation implements JMSC
 	 * @return The routine returns a boolean to indicate whether the operation was completed
 	 *  	successfully.
 	 * @see #ccsFitsHeader
+	 * @see #ccsFitsHeaderTemplate
 	 * @see #ccsFilename
 	 * @see ngat.fits.FitsFilename#getMultRunNumber
 	 * @see ngat.fits.FitsFilename#getRunNumber
 	 * @see ngat.util.LockFile2
+	 * @see #writeFitsHeader
 	 */
 	public boolean saveFitsHeaders(COMMAND command,COMMAND_DONE done,String filename)
 	{
@@ -581,20 +653,15 @@ public class FITSImplementation extends CCDLibraryImplementation implements JMSC
 		try
 		{
 			ccsFitsHeader.add("RUNNUM",new Integer(ccsFilename.getMultRunNumber()),
-				ccsFitsHeaderDefaults.getComment("RUNNUM"),
-				ccsFitsHeaderDefaults.getUnits("RUNNUM"),
-				ccsFitsHeaderDefaults.getOrderNumber("RUNNUM"));
+				ccsFitsHeaderTemplate.getCardImage("RUNNUM").getComment(),
+				ccsFitsHeaderTemplate.getCardImage("RUNNUM").getUnits(),
+				ccsFitsHeaderTemplate.getCardImage("RUNNUM").getOrderNumber());
 			ccsFitsHeader.add("EXPNUM",new Integer(ccsFilename.getRunNumber()),
-				ccsFitsHeaderDefaults.getComment("EXPNUM"),
-				ccsFitsHeaderDefaults.getUnits("EXPNUM"),
-				ccsFitsHeaderDefaults.getOrderNumber("EXPNUM"));
+				ccsFitsHeaderTemplate.getCardImage("EXPNUM").getComment(),
+				ccsFitsHeaderTemplate.getCardImage("EXPNUM").getUnits(),
+				ccsFitsHeaderTemplate.getCardImage("EXPNUM").getOrderNumber());
 		}
-		// FitsHeaderException thrown by ccsFitsHeaderDefaults.getValue
-		// IllegalAccessException thrown by ccsFitsHeaderDefaults.getValue
-		// InvocationTargetException thrown by ccsFitsHeaderDefaults.getValue
-		// NoSuchMethodException thrown by ccsFitsHeaderDefaults.getValue
-		// InstantiationException thrown by ccsFitsHeaderDefaults.getValue
-		// ClassNotFoundException thrown by ccsFitsHeaderDefaults.getValue
+		// NullPointerException thrown if RUNNUM/EXPNUM have no default in the template
 		catch(Exception e)
 		{
 			String s = new String("Command "+command.getClass().getName()+
@@ -624,7 +691,7 @@ public class FITSImplementation extends CCDLibraryImplementation implements JMSC
 		// write FITS header to FITS filename
 		try
 		{
-			ccsFitsHeader.writeFitsHeader(filename);
+			writeFitsHeader(filename);
 		}
 		catch(FitsHeaderException e)
 		{
@@ -639,6 +706,28 @@ public class FITSImplementation extends CCDLibraryImplementation implements JMSC
 		return true;
 	}
 
+	/**
+	 * Write the FITS headers to a file, timed as a CATEGORY_FITS span.
+	 * @param filename The filename to write the headers to.
+	 * @exception FitsHeaderException Thrown if writing the headers failed.
+	 * @see #ccsFitsHeader
+	 * @see CcsTracer#CATEGORY_FITS
+	 */
+	protected void writeFitsHeader(String filename) throws FitsHeaderException
+	{
+		long spanStartTime;
+
+		spanStartTime = ccs.getTracer().spanStart();
+		try
+		{
+			ccsFitsHeader.writeFitsHeader(filename);
+		}
+		finally
+		{
+			ccs.getTracer().spanEnd(CcsTracer.CATEGORY_FITS,"saveFitsHeaders",spanStartTime);
+		}
+	}
+
 	/**
 	 * This method tries to unlock the FITS filename.
 	 * It first checks the lock file exists and only attempts to unlock locked files. This is because
@@ -695,6 +784,7 @@ public class FITSImplementation extends CCDLibraryImplementation implements JMSC
 	 * @see #ccsFilename
 	 * @see ngat.fits.FitsFilename#getMultRunNumber
 	 * @see ngat.fits.FitsFilename#getRunNumber
+	 * @see #writeFitsHeader
 	 */
 	public boolean saveFitsHeaders(COMMAND command,COMMAND_DONE done,List filenameList)
 	{
@@ -761,15 +851,15 @@ public class FITSImplementation extends CCDLibraryImplementation implements JMSC
 					ybin = libccd.CCDSetupGetNPBin();
 					ccs.log(Logging.VERBOSITY_VERBOSE,this.getClass().getName()+
 						":saveFitsHeaders:Default window X size = "+
-						ccsFitsHeaderDefaults.getValueInteger("CCDWXSIZ")+" / "+xbin+" = "+
-						(ccsFitsHeaderDefaults.getValueInteger("CCDWXSIZ")/xbin)+".");
+						ccsFitsHeaderTemplate.getCCDWindowXSize()+" / "+xbin+" = "+
+						(ccsFitsHeaderTemplate.getCCDWindowXSize()/xbin)+".");
 					ccs.log(Logging.VERBOSITY_VERBOSE,this.getClass().getName()+
 						":saveFitsHeaders:Default window Y size = "+
-						ccsFitsHeaderDefaults.getValueInteger("CCDWYSIZ")+" / "+ybin+" = "+
-						(ccsFitsHeaderDefaults.getValueInteger("CCDWYSIZ")/ybin)+".");
+						ccsFitsHeaderTemplate.getCCDWindowYSize()+" / "+ybin+" = "+
+						(ccsFitsHeaderTemplate.getCCDWindowYSize()/ybin)+".");
 					window = new CCDLibrarySetupWindow(0,0,
-							  ccsFitsHeaderDefaults.getValueInteger("CCDWXSIZ")/xbin,
-							  ccsFitsHeaderDefaults.getValueInteger("CCDWYSIZ")/ybin);
+							  ccsFitsHeaderTemplate.getCCDWindowXSize()/xbin,
+							  ccsFitsHeaderTemplate.getCCDWindowYSize()/ybin);
 					ccs.log(Logging.VERBOSITY_VERBOSE,this.getClass().getName()+
 						":saveFitsHeaders:Using default window : "+window+".");
 					ccsFilename.setWindowNumber(1);
@@ -785,13 +875,13 @@ public class FITSImplementation extends CCDLibraryImplementation implements JMSC
 				cardImage.setValue(new Integer(nrows));
 				// RUNNUM/EXPNUM
 				ccsFitsHeader.add("RUNNUM",new Integer(ccsFilename.getMultRunNumber()),
-						  ccsFitsHeaderDefaults.getComment("RUNNUM"),
-						  ccsFitsHeaderDefaults.getUnits("RUNNUM"),
-						  ccsFitsHeaderDefaults.getOrderNumber("RUNNUM"));
+						  ccsFitsHeaderTemplate.getCardImage("RUNNUM").getComment(),
+						  ccsFitsHeaderTemplate.getCardImage("RUNNUM").getUnits(),
+						  ccsFitsHeaderTemplate.getCardImage("RUNNUM").getOrderNumber());
 				ccsFitsHeader.add("EXPNUM",new Integer(ccsFilename.getRunNumber()),
-						  ccsFitsHeaderDefaults.getComment("EXPNUM"),
-						  ccsFitsHeaderDefaults.getUnits("EXPNUM"),
-						  ccsFitsHeaderDefaults.getOrderNumber("EXPNUM"));
+						  ccsFitsHeaderTemplate.getCardImage("EXPNUM").getComment(),
+						  ccsFitsHeaderTemplate.getCardImage("EXPNUM").getUnits(),
+						  ccsFitsHeaderTemplate.getCardImage("EXPNUM").getOrderNumber());
 				// CCDWXOFF
 				cardImage = ccsFitsHeader.get("CCDWXOFF");
 				cardImage.setValue(new Integer(window.getXStart()));
@@ -806,12 +896,7 @@ public class FITSImplementation extends CCDLibraryImplementation implements JMSC
 				cardImage.setValue(new Integer(window.getYEnd()-window.getYStart()));
 			}//end try
 			// CCDLibraryNativeException thrown by CCDSetupGetWindow
-			// FitsHeaderException thrown by ccsFitsHeaderDefaults.getValue
-			// IllegalAccessException thrown by ccsFitsHeaderDefaults.getValue
-			// InvocationTargetException thrown by ccsFitsHeaderDefaults.getValue
-			// NoSuchMethodException thrown by ccsFitsHeaderDefaults.getValue
-			// InstantiationException thrown by ccsFitsHeaderDefaults.getValue
-			// ClassNotFoundException thrown by ccsFitsHeaderDefaults.getValue
+			// NullPointerException thrown if RUNNUM/EXPNUM have no default in the template
 			catch(Exception e)
 			{
 				String s = new String("Command "+command.getClass().getName()+
@@ -841,7 +926,7 @@ public class FITSImplementation extends CCDLibraryImplementation implements JMSC
 			// actually write FITS header
 			try
 			{
-				ccsFitsHeader.writeFitsHeader(filename);
+				writeFitsHeader(filename);
 				filenameList.add(filename);
 			}
 			catch(FitsHeaderException e)
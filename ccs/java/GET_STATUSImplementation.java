@@ -28,7 +28,6 @@ import ngat.message.base.*;
 import ngat.message.ISS_INST.ISS_TO_INST;
 import ngat.message.ISS_INST.GET_STATUS;
 import ngat.message.ISS_INST.GET_STATUS_DONE;
-import ngat.util.ExecuteCommand;  
 import ngat.util.logging.*;
 
 /**
@@ -60,13 +59,22 @@ public class GET_STATUSImplementation extends INTERRUPTImplementation implements
 	 * and is returned in the GET_STATUS_DONE object.
 	 */
 	private Hashtable hashTable = null;
+	/**
+	 * Array the libccd status data is copied into, in one native call, at the start of processCommand.
+	 * Re-used between commands.
+	 * @see CCDLibrary#CCDMultrunGetStatusSnapshot
+	 * @see CCDLibrary#CCD_MULTRUN_STATUS_SNAPSHOT_COUNT
+	 */
+	private long statusSnapshot[] = null;
 
 	/**
-	 * Constructor. 
+	 * Constructor. Creates the status snapshot array.
+	 * @see #statusSnapshot
 	 */
 	public GET_STATUSImplementation()
 	{
 		super();
+		statusSnapshot = new long[CCDLibrary.CCD_MULTRUN_STATUS_SNAPSHOT_COUNT];
 	}
 
 	/**
@@ -99,6 +107,8 @@ public class GET_STATUSImplementation extends INTERRUPTImplementation implements
 	/**
 	 * This method implements the GET_STATUS command. 
 	 * The local hashTable is setup (returned in the done object) and a local copy of status setup.
+	 * The libccd status data is copied into statusSnapshot in one native call, so the values returned are
+	 * consistent with each other.
 	 * The current mode of the camera is returned by calling getCurrentMode.
 	 * The following data is put into the hashTable:
 	 * <ul>
@@ -124,21 +134,12 @@ public class GET_STATUSImplementation extends INTERRUPTImplementation implements
 	 * An object of class GET_STATUS_DONE is returned, with the information retrieved.
 	 * @see #status
 	 * @see #hashTable
+	 * @see #statusSnapshot
 	 * @see #getCurrentMode
 	 * @see #getIntermediateStatus
 	 * @see #getFullStatus
-	 * @see CcsStatus#getCurrentCommand
-	 * @see CCDLibrary#CCDExposureGetExposureStatus
-	 * @see CCDLibrary#CCDMultrunGetExposureLength
-	 * @see CCDLibrary#CCDMultrunGetExposureStartTime
-	 * @see CCDLibrary#CCDMultrunGetExposureNumber
-	 * @see CCDLibrary#CCDSetupGetNCols
-	 * @see CCDLibrary#CCDSetupGetNRows
-	 * @see CCDLibrary#CCDSetupGetNSBin
-	 * @see CCDLibrary#CCDSetupGetNPBin
-	 * @see CCDLibrary#CCDSetupGetWindowFlags
-	 * @see CCDLibrary#CCDSetupGetSetupComplete
-	 * @see CcsStatus#getExposureCount
+	 * @see CcsStatus#getSnapshot
+	 * @see CCDLibrary#CCDMultrunGetStatusSnapshot
 	 * @see CcsStatus#getProperty
 	 * @see CcsStatus#getPropertyInteger
 	 * @see CcsStatus#getPropertyBoolean
@@ -148,6 +149,7 @@ public class GET_STATUSImplementation extends INTERRUPTImplementation implements
 	{
 		GET_STATUS getStatusCommand = (GET_STATUS)command;
 		GET_STATUS_DONE getStatusDone = new GET_STATUS_DONE(command.getId());
+		CcsStatus.Snapshot ccsStatusSnapshot = null;
 		ISS_TO_INST currentCommand = null;
 		int currentMode;
 
@@ -155,28 +157,47 @@ public class GET_STATUSImplementation extends INTERRUPTImplementation implements
 		hashTable = new Hashtable();
 	// get local reference to CcsStatus object.
 		status = ccs.getStatus();
+	// copy the libccd status data in one go
+		try
+		{
+			libccd.CCDMultrunGetStatusSnapshot(statusSnapshot);
+		}
+		catch(CCDLibraryNativeException e)
+		{
+			ccs.error(this.getClass().getName()+":processCommand:Getting status snapshot failed.",e);
+			getStatusDone.setErrorNum(CcsConstants.CCS_ERROR_CODE_BASE+2500);
+			getStatusDone.setErrorString(e.toString());
+			getStatusDone.setSuccessful(false);
+			return getStatusDone;
+		}
 	// current mode
 		currentMode = getCurrentMode();
 		getStatusDone.setCurrentMode(currentMode);
 	// What instrument is this?
 		hashTable.put("Instrument",status.getProperty("ccs.get_status.instrument_name"));
-	// current command
-		currentCommand = status.getCurrentCommand();
+	// current command, from a single status snapshot
+		ccsStatusSnapshot = status.getSnapshot();
+		currentCommand = ccsStatusSnapshot.getCurrentCommand();
 		if(currentCommand == null)
 			hashTable.put("currentCommand","");
 		else
 			hashTable.put("currentCommand",currentCommand.getClass().getName());
 	// Currently, we query libccd setup stored settings, not hardware.
-		hashTable.put("NCols",new Integer(libccd.CCDSetupGetNCols()));
-		hashTable.put("NRows",new Integer(libccd.CCDSetupGetNRows()));
-		hashTable.put("NSBin",new Integer(libccd.CCDSetupGetNSBin()));
-		hashTable.put("NPBin",new Integer(libccd.CCDSetupGetNPBin()));
-		hashTable.put("Window Flags",new Integer(libccd.CCDSetupGetWindowFlags()));
-		hashTable.put("Setup Status",new Boolean(libccd.CCDSetupGetSetupComplete()));
-		hashTable.put("Exposure Length",new Integer(libccd.CCDMultrunGetExposureLength()));
-		hashTable.put("Exposure Start Time",new Long(libccd.CCDMultrunGetExposureStartTime()));
-		hashTable.put("Exposure Count",new Integer(status.getExposureCount()));
-		hashTable.put("Exposure Number",new Integer(libccd.CCDMultrunGetExposureNumber()));
+		hashTable.put("NCols",new Integer(getSnapshotInt(CCDLibrary.CCD_MULTRUN_STATUS_SNAPSHOT_NCOLS)));
+		hashTable.put("NRows",new Integer(getSnapshotInt(CCDLibrary.CCD_MULTRUN_STATUS_SNAPSHOT_NROWS)));
+		hashTable.put("NSBin",new Integer(getSnapshotInt(CCDLibrary.CCD_MULTRUN_STATUS_SNAPSHOT_NSBIN)));
+		hashTable.put("NPBin",new Integer(getSnapshotInt(CCDLibrary.CCD_MULTRUN_STATUS_SNAPSHOT_NPBIN)));
+		hashTable.put("Window Flags",
+			      new Integer(getSnapshotInt(CCDLibrary.CCD_MULTRUN_STATUS_SNAPSHOT_WINDOW_FLAGS)));
+		hashTable.put("Setup Status",
+			      new Boolean(getSnapshotInt(CCDLibrary.CCD_MULTRUN_STATUS_SNAPSHOT_SETUP_COMPLETE) != 0));
+		hashTable.put("Exposure Length",
+			      new Integer(getSnapshotInt(CCDLibrary.CCD_MULTRUN_STATUS_SNAPSHOT_EXPOSURE_LENGTH)));
+		hashTable.put("Exposure Start Time",
+			      new Long(statusSnapshot[CCDLibrary.CCD_MULTRUN_STATUS_SNAPSHOT_EXPOSURE_START_TIME]));
+		hashTable.put("Exposure Count",new Integer(ccsStatusSnapshot.getExposureCount()));
+		hashTable.put("Exposure Number",
+			      new Integer(getSnapshotInt(CCDLibrary.CCD_MULTRUN_STATUS_SNAPSHOT_EXPOSURE_NUMBER)));
 	// intermediate level information - basic plus controller calls.
 		if(getStatusCommand.getLevel() >= GET_STATUS.LEVEL_INTERMEDIATE)
 		{
@@ -196,19 +217,31 @@ public class GET_STATUSImplementation extends INTERRUPTImplementation implements
 		return getStatusDone;
 	}
 
+	/**
+	 * Internal method to get an integer value from the status snapshot.
+	 * @param index Which value to get, one of the CCD_MULTRUN_STATUS_SNAPSHOT constants.
+	 * @return The value.
+	 * @see #statusSnapshot
+	 */
+	private int getSnapshotInt(int index)
+	{
+		return (int)(statusSnapshot[index]);
+	}
+
 	/**
 	 * Internal method to get the current mode, the GET_STATUS command will return.
-	 * @see #libccd
+	 * This uses the status snapshot taken in processCommand.
+	 * @see #statusSnapshot
 	 */
 	private int getCurrentMode()
 	{
 		int currentMode;
 
 		currentMode = GET_STATUS_DONE.MODE_IDLE;
-		switch(libccd.CCDMultrunGetExposureStatus())
+		switch(getSnapshotInt(CCDLibrary.CCD_MULTRUN_STATUS_SNAPSHOT_EXPOSURE_STATUS))
 		{
 			case CCDLibrary.CCD_EXPOSURE_STATUS_NONE:
-				if(libccd.CCDSetupGetSetupInProgress())
+				if(getSnapshotInt(CCDLibrary.CCD_MULTRUN_STATUS_SNAPSHOT_SETUP_IN_PROGRESS) != 0)
 					currentMode = GET_STATUS_DONE.MODE_CONFIGURING;
 				break;
 			case CCDLibrary.CCD_EXPOSURE_STATUS_CLEAR:
@@ -243,7 +276,27 @@ public class GET_STATUSImplementation extends INTERRUPTImplementation implements
 	 * The following data is put into the hashTable:
 	 * <ul>
 	 * <li><b>Elapsed Exposure Time</b> The Elapsed Exposure Time, this is read from the controller.
+	 * <li><b>Writer Queue Depth</b> The number of images waiting to be (or being) written to disk.
+	 * <li><b>Writer Queue Depth Peak</b> The largest writer queue depth during the last multrun.
+	 * <li><b>Writer Latency</b> The time taken to get the last image onto disk after it was read out, in ms.
+	 * <li><b>Writer Latency Max</b> The largest writer latency during the last multrun, in ms.
+	 * <li><b>Frame Readout P50, Frame Readout P90, Frame Readout P99</b> Percentiles of the time from a
+	 * 	frame being available in the camera to it being retrieved, in ms.
+	 * <li><b>Frame Median P50, Frame Median P90, Frame Median P99</b> Percentiles of the time from a
+	 * 	frame being retrieved to it's median being calculated, in ms.
+	 * <li><b>Frame Filename P50, Frame Filename P90, Frame Filename P99</b> Percentiles of the time from a
+	 * 	frame being retrieved to it's FITS filename being allocated, in ms.
+	 * <li><b>Frame Save P50, Frame Save P90, Frame Save P99</b> Percentiles of the time from a
+	 * 	frame's FITS filename being allocated to it being saved, in ms.
+	 * <li><b>Frame Total P50, Frame Total P90, Frame Total P99</b> Percentiles of the time from a
+	 * 	frame being available in the camera to it being saved, in ms.
+	 * <li><b>Frame Gap P50, Frame Gap P90, Frame Gap P99</b> Percentiles of the time between successive
+	 * 	frames of a multrun being retrieved, in ms.
+	 * <li><b>Frame Timing Saved Count, Frame Timing Abandoned Count</b> The number of saved and abandoned
+	 * 	frames the frame timing has processed.
 	 * </ul>
+	 * The frame timing percentiles are over the most recent frames, from the latest snapshot taken by the
+	 * Ccs's frame timing reader.
 	 * If the <i>ccs.get_status.temperature</i> boolean property is TRUE, 
 	 * the following data is put into the hashTable:
 	 * <ul>
@@ -272,19 +325,43 @@ public class GET_STATUSImplementation extends INTERRUPTImplementation implements
 	 * @see #status
 	 * @see #hashTable
 	 * @see #CENTIGRADE_TO_KELVIN
-	 * @see CCDLibrary#CCDMultrunGetElapsedExposureTime
+	 * @see #statusSnapshot
 	 * @see CCDLibrary#CCDTemperatureGet
 	 * @see CcsStatus#getPropertyBoolean
+	 * @see Ccs#getFrameTiming
+	 * @see CcsFrameTiming#getSnapshot
 	 */
 	private void getIntermediateStatus()
 	{
+		CcsFrameTiming.Snapshot frameTimingSnapshot = null;
 		CCDLibraryDouble ccdTemperature = null;
+		String key = null;
 		int elapsedExposureTime,adu;
 		double dvalue;
 
-		elapsedExposureTime = libccd.CCDMultrunGetElapsedExposureTime();
+		elapsedExposureTime = getSnapshotInt(CCDLibrary.CCD_MULTRUN_STATUS_SNAPSHOT_ELAPSED_EXPOSURE_TIME);
 		// Always add the exposure time, if we are reading out it has been set to 0
 		hashTable.put("Elapsed Exposure Time",new Integer(elapsedExposureTime));
+		// FITS writer queue, to see whether the disk is keeping up with the camera
+		hashTable.put("Writer Queue Depth",
+			      new Integer(getSnapshotInt(CCDLibrary.CCD_MULTRUN_STATUS_SNAPSHOT_WRITER_QUEUE_DEPTH)));
+		hashTable.put("Writer Queue Depth Peak",
+			   new Integer(getSnapshotInt(CCDLibrary.CCD_MULTRUN_STATUS_SNAPSHOT_WRITER_QUEUE_DEPTH_PEAK)));
+		hashTable.put("Writer Latency",
+			      new Integer(getSnapshotInt(CCDLibrary.CCD_MULTRUN_STATUS_SNAPSHOT_WRITER_LATENCY_LAST)));
+		hashTable.put("Writer Latency Max",
+			      new Integer(getSnapshotInt(CCDLibrary.CCD_MULTRUN_STATUS_SNAPSHOT_WRITER_LATENCY_MAX)));
+		// per-frame stage timing percentiles, to see where the dead time between frames goes
+		frameTimingSnapshot = ccs.getFrameTiming().getSnapshot();
+		for(int i = 0; i < CcsFrameTiming.INTERVAL_COUNT; i++)
+		{
+			key = "Frame "+CcsFrameTiming.INTERVAL_NAME_LIST[i];
+			hashTable.put(key+" P50",new Double(frameTimingSnapshot.getP50(i)));
+			hashTable.put(key+" P90",new Double(frameTimingSnapshot.getP90(i)));
+			hashTable.put(key+" P99",new Double(frameTimingSnapshot.getP99(i)));
+		}
+		hashTable.put("Frame Timing Saved Count",new Long(frameTimingSnapshot.getSavedCount()));
+		hashTable.put("Frame Timing Abandoned Count",new Long(frameTimingSnapshot.getAbandonedCount()));
 		if(status.getPropertyBoolean("ccs.get_status.temperature"))
 		{
 			// CCD temperature
@@ -317,11 +394,20 @@ public class GET_STATUSImplementation extends INTERRUPTImplementation implements
 	 * The following data is put into the hashTable:
 	 * <ul>
 	 * <li><b>Log Level</b> The current log level used by the Ccs.
-	 * <li><b>Disk Usage</b> The results of running a &quot;df -k&quot;, to get the disk usage.
-	 * <li><b>Process List</b> The results of running a &quot;ps -e -o pid,pcpu,vsz,ruser,stime,time,args&quot;, 
-	 * 	to get the processes running on this machine.
-	 * <li><b>Uptime</b> The results of running a &quot;uptime&quot;, 
-	 * 	to get system load and time since last reboot.
+	 * <li><b>Disk Usage</b> The disk usage, in a similar format to &quot;df -k&quot;.
+	 * <li><b>Process List</b> The processes running on this machine.
+	 * <li><b>Uptime</b> The system load and time since last reboot, in a similar format to &quot;uptime&quot;.
+	 * <li><b>Load Average 1, Load Average 5, Load Average 15</b> The system load averages.
+	 * <li><b>Process CPU</b> The percentage of a CPU used by the Ccs process.
+	 * <li><b>Heap Used, Heap Committed, Heap Max</b> The Java virtual machine heap memory, in bytes.
+	 * <li><b>GC Count, GC Time</b> The number of garbage collections, and the time spent in them
+	 * 	in milliseconds.
+	 * <li><b>Thread Count, Peak Thread Count, Daemon Thread Count</b> The Java virtual machine threads.
+	 * <li><b>System Metrics Age</b> How old the above system metrics are, in milliseconds.
+	 * <li><b>Log Queue Length, Log Queued Count, Log Dropped Count, Log Dispatched Count</b> The log
+	 * 	dispatcher queue, and how many messages have been queued, dropped and passed to the loggers.
+	 * <li><b>Log Latency, Log Latency Max</b> The mean and longest time the log handlers took to log
+	 * 	a message, in milliseconds.
 	 * <li><b>Total Memory, Free Memory</b> The total and free memory in the Java virtual machine.
 	 * <li><b>java.version, java.vendor, java.home, java.vm.version, java.vm.vendor, java.class.path</b> 
 	 * 	Java virtual machine version, classpath and type.
@@ -329,42 +415,49 @@ public class GET_STATUSImplementation extends INTERRUPTImplementation implements
 	 * <li><b>user.name, user.home, user.dir</b> Data about the user the process is running as.
 	 * <li><b>thread.list</b> A list of threads the Ccs process is running.
 	 * </ul>
-	 * @see #serverConnectionThread
+	 * The system metrics are the latest snapshot taken by the Ccs's system metrics collector,
+	 * so no external processes are run here.
 	 * @see #hashTable
-	 * @see ExecuteCommand#run
+	 * @see Ccs#getSystemMetrics
+	 * @see CcsSystemMetrics#getSnapshot
+	 * @see Ccs#getLogDispatcher
 	 * @see CcsStatus#getLogLevel
 	 */
 	private void getFullStatus()
 	{
-		ExecuteCommand executeCommand = null;
+		CcsSystemMetrics.Snapshot snapshot = null;
+		CcsLogDispatcher logDispatcher = null;
 		Runtime runtime = null;
-		StringBuffer sb = null;
-		Thread threadList[] = null;
-		int threadCount;
 
 		// log level
 		hashTable.put("Log Level",new Integer(status.getLogLevel()));
-		// execute 'df -k' on instrument computer
-		executeCommand = new ExecuteCommand("df -k");
-		executeCommand.run();
-		if(executeCommand.getException() == null)
-			hashTable.put("Disk Usage",new String(executeCommand.getOutputString()));
-		else
-			hashTable.put("Disk Usage",new String(executeCommand.getException().toString()));
-		// execute "ps -e -o pid,pcpu,vsz,ruser,stime,time,args" on instrument computer
-		executeCommand = new ExecuteCommand("ps -e -o pid,pcpu,vsz,ruser,stime,time,args");
-		executeCommand.run();
-		if(executeCommand.getException() == null)
-			hashTable.put("Process List",new String(executeCommand.getOutputString()));
-		else
-			hashTable.put("Process List",new String(executeCommand.getException().toString()));
-		// execute "uptime" on instrument computer
-		executeCommand = new ExecuteCommand("uptime");
-		executeCommand.run();
-		if(executeCommand.getException() == null)
-			hashTable.put("Uptime",new String(executeCommand.getOutputString()));
-		else
-			hashTable.put("Uptime",new String(executeCommand.getException().toString()));
+		// latest system metrics
+		snapshot = ccs.getSystemMetrics().getSnapshot();
+		hashTable.put("Disk Usage",snapshot.getDiskUsage());
+		hashTable.put("Process List",snapshot.getProcessList());
+		hashTable.put("Uptime",snapshot.getUptimeString());
+		hashTable.put("Load Average 1",new Double(snapshot.getLoadAverage1()));
+		hashTable.put("Load Average 5",new Double(snapshot.getLoadAverage5()));
+		hashTable.put("Load Average 15",new Double(snapshot.getLoadAverage15()));
+		hashTable.put("Process CPU",new Double(snapshot.getProcessCPU()));
+		hashTable.put("Heap Used",new Long(snapshot.getHeapUsed()));
+		hashTable.put("Heap Committed",new Long(snapshot.getHeapCommitted()));
+		hashTable.put("Heap Max",new Long(snapshot.getHeapMax()));
+		hashTable.put("GC Count",new Long(snapshot.getGCCount()));
+		hashTable.put("GC Time",new Long(snapshot.getGCTime()));
+		hashTable.put("Thread Count",new Integer(snapshot.getThreadCount()));
+		hashTable.put("Peak Thread Count",new Integer(snapshot.getPeakThreadCount()));
+		hashTable.put("Daemon Thread Count",new Integer(snapshot.getDaemonThreadCount()));
+		hashTable.put("thread.list",snapshot.getThreadList());
+		hashTable.put("System Metrics Age",new Long(snapshot.getAge()));
+		// log dispatcher counters
+		logDispatcher = ccs.getLogDispatcher();
+		hashTable.put("Log Queue Length",new Integer(logDispatcher.getQueueLength()));
+		hashTable.put("Log Queued Count",new Long(logDispatcher.getQueuedCount()));
+		hashTable.put("Log Dropped Count",new Long(logDispatcher.getDroppedCount()));
+		hashTable.put("Log Dispatched Count",new Long(logDispatcher.getDispatchedCount()));
+		hashTable.put("Log Latency",new Double(logDispatcher.getLatencyMean()));
+		hashTable.put("Log Latency Max",new Double(logDispatcher.getLatencyMax()));
 		// get vm memory situation
 		runtime = Runtime.getRuntime();
 		hashTable.put("Free Memory",new Long(runtime.freeMemory()));
@@ -382,20 +475,6 @@ public class GET_STATUSImplementation extends INTERRUPTImplementation implements
 		hashTable.put("user.name",new String(System.getProperty("user.name")));
 		hashTable.put("user.home",new String(System.getProperty("user.home")));
 		hashTable.put("user.dir",new String(System.getProperty("user.dir")));
-		// get a list of threads running in the vm
-		threadCount = serverConnectionThread.activeCount();
-		threadList = new Thread[threadCount];
-		serverConnectionThread.enumerate(threadList);
-		sb = new StringBuffer();
-		for(int i = 0;i< threadCount;i++)
-		{
-			if(threadList[i] != null)
-			{
-				sb.append(threadList[i].getName());
-				sb.append("\n");
-			}
-		}
-		hashTable.put("thread.list",sb.toString());
 	}
 }
 
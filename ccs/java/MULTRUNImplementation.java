@@ -85,7 +85,7 @@ public class MULTRUNImplementation extends EXPOSEImplementation implements JMSCo
 		int time;
 
 		acknowledge = new ACK(command.getId());
-		time = status.getPropertyInteger("ccs.server_connection.multrun_acknowledge_time");
+		time = configuration.getInteger("ccs.server_connection.multrun_acknowledge_time");
 		acknowledge.setTimeToComplete(multRunCommand.getExposureTime()+
 			time);
 		return acknowledge;
@@ -117,6 +117,7 @@ public class MULTRUNImplementation extends EXPOSEImplementation implements JMSCo
 	 * @see FITSImplementation#saveFitsHeaders
 	 * @see ngat.rise.ccd.CCDLibrary#CCDExposureExpose
 	 * @see EXPOSEImplementation#reduceExpose
+	 * @see CcsMetrics#addFrames
 	 */
 	public COMMAND_DONE processCommand(COMMAND command)
 	{
@@ -322,6 +323,8 @@ public class MULTRUNImplementation extends EXPOSEImplementation implements JMSCo
 
 			//for(int i=0; i<10; i++) { System.out.println(selectedHeaders.elementAt(i));}
 
+			// use the same multrun number in the C layer's FITS filenames
+			libccd.CCDMultrunFilenameSetMultrun(ccsFilename.getMultRunNumber());
 			try {
 			  if(multRunCommand.getStandard()) {	
 				//Here, standard means "take a flat" - for now! 
@@ -388,6 +391,16 @@ public class MULTRUNImplementation extends EXPOSEImplementation implements JMSCo
 				autoguiderStop(multRunCommand,multRunDone,false);
 				return multRunDone;
 			} 
+			finally
+			{
+				synchroniseFilename(command);
+			// add the frames read out and written during this multrun to the metrics.
+			// libccd resets both counts on entry to CCDMultrunExpose/CCDMultflatExpose, so a multrun
+			// that fails before acquiring adds nothing. Frames that failed to save are not in the
+			// writer's count, so they are counted as dropped.
+				ccs.getMetrics().addFrames(libccd.CCDMultrunGetExposureNumber(),
+							   libccd.CCDWriterGetFrameCount());
+			}
 		// send acknowledge to say frame is completed.
 			multRunAck = new MULTRUN_ACK(command.getId());
 			multRunAck.setTimeToComplete(multRunCommand.getExposureTime()+
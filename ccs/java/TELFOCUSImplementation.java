@@ -24,6 +24,7 @@ import java.lang.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.Vector;
+import java.util.concurrent.Future;
 import ngat.rise.ccd.*;
 import ngat.fits.FitsHeaderDefaults;
 import ngat.math.QuadraticFit;
@@ -92,6 +93,12 @@ public class TELFOCUSImplementation extends SETUPImplementation implements JMSCo
 	 * acknowledgements with the correct time to complete.
 	 */
 	private int reduceOverhead = 0;
+	/**
+	 * Whether to reduce each frame whilst the next frame is being exposed. This is loaded from the
+	 * <b>&quot;ccs.telfocus.reduce.pipeline&quot;</b> property in the <i>init</i> method. If false,
+	 * all the frames are exposed before any are reduced.
+	 */
+	private boolean pipelineReduce = false;
 
 	/**
 	 * Constructor.
@@ -118,6 +125,7 @@ public class TELFOCUSImplementation extends SETUPImplementation implements JMSCo
 	 * <li>It calls the superclass's init method.
 	 * <li>It copies the command parameters.
 	 * <li>It initialises perExposureOverhead and reduceOverhead by querying the Ccs status for them.
+	 * <li>It initialises pipelineReduce by querying the Ccs status for it.
 	 * </ul>
 	 * @param command The command to be implemented.
 	 * @see #startFocus
@@ -126,6 +134,7 @@ public class TELFOCUSImplementation extends SETUPImplementation implements JMSCo
 	 * @see #exposureTime
 	 * @see #perExposureOverhead
 	 * @see #reduceOverhead
+	 * @see #pipelineReduce
 	 */
 	public void init(COMMAND command)
 	{
@@ -161,6 +170,18 @@ public class TELFOCUSImplementation extends SETUPImplementation implements JMSCo
 				"getting reduce overhead failed:"+
 				"using default value:"+reduceOverhead+"\n\t"+e);
 		}
+	// Whether to reduce each frame whilst the next is exposed
+		try
+		{
+			pipelineReduce = status.getPropertyBoolean("ccs.telfocus.reduce.pipeline");
+		}
+		catch (Exception e)
+		{
+			pipelineReduce = false;
+			ccs.error(this.getClass().getName()+":init:"+
+				"getting reduce pipeline failed:"+
+				"using default value:"+pipelineReduce+"\n\t"+e);
+		}
 	}
 
 	/**
@@ -204,12 +225,16 @@ public class TELFOCUSImplementation extends SETUPImplementation implements JMSCo
 	 *     <li>setFocus is called to drive the telescope to the required focus.
 	 *     <li>An exposure is taken, using exposeFrame.
 	 *     <li>An acknowledgement is sent back to the client, using sendFrameAcknowledge.
+	 *     <li>If pipelineReduce is true, the frame is queued to the real time data pipeline using
+	 * 		queueReduceFrame, so it is reduced whilst the next frame is exposed. The results of any frames
+	 * 		whose reductions have already finished are processed, and data pipeline acknowledgements sent.
 	 *     </ul>
 	 * <li>The autoguider is switched off.
-	 * <li>A loop is entered, for each filename to reduce.
+	 * <li>A loop is entered, for each filename not yet reduced.
 	 *     <ul>
 	 *     <li>reduceFrame is called for each filename, which sends each filename to the real, time data
-	 * 		pipeline to be reduced, and saves the returned parameters in the list of frame parameters.
+	 * 		pipeline to be reduced (or waits for the queued reduction to finish if pipelineReduce is true),
+	 * 		and saves the returned parameters in the list of frame parameters.
 	 *     <li>An acknowledgement is sent back to the client, using sendDpAcknowledge, with the returned
 	 * 		data.
 	 *     </ul>
@@ -229,7 +254,10 @@ public class TELFOCUSImplementation extends SETUPImplementation implements JMSCo
 	 * @see #setFocus
 	 * @see #exposeFrame
 	 * @see #sendFrameAcknowledge
+	 * @see #pipelineReduce
+	 * @see #queueReduceFrame
 	 * @see #reduceFrame
+	 * @see #cancelReduceFrames
 	 * @see #sendDpAcknowledge
 	 * @see #quadraticFit
 	 */
@@ -239,7 +267,9 @@ public class TELFOCUSImplementation extends SETUPImplementation implements JMSCo
 		TELFOCUS_DONE telFocusDone = new TELFOCUS_DONE(command.getId());
 		TELFOCUSFrameParameters frameParameters = null;
 		Vector list = null;
-		int exposureNumber;
+		Vector<Future<INST_TO_DP_DONE>> futureList = new Vector<Future<INST_TO_DP_DONE>>();
+		int exposureNumber,reducedCount;
+		boolean reduced;
 
 		try
 		{
@@ -262,6 +292,7 @@ public class TELFOCUSImplementation extends SETUPImplementation implements JMSCo
 			}
 		// setup exposure status/directory
 			exposureNumber = 0;
+			reducedCount = 0;
 			status.setExposureCount((int)((endFocus-startFocus)/step));
 			list = new Vector();
 		// move the fold mirror to the correct location
@@ -291,6 +322,7 @@ public class TELFOCUSImplementation extends SETUPImplementation implements JMSCo
 			// send ISS SET_FOCUS command.
 				if(setFocus(telFocusCommand,telFocusDone,focus) == false)
 				{
+					cancelReduceFrames(futureList);
 					autoguiderStop(telFocusCommand,telFocusDone,false);
 					return telFocusDone;
 				}
@@ -298,6 +330,7 @@ public class TELFOCUSImplementation extends SETUPImplementation implements JMSCo
 			// do exposure to telFocusN.fits
 				if(exposeFrame(telFocusCommand,telFocusDone,exposureNumber,frameParameters) == false)
 				{
+					cancelReduceFrames(futureList);
 					autoguiderStop(telFocusCommand,telFocusDone,false);
 					return telFocusDone;
 				}
@@ -305,20 +338,44 @@ public class TELFOCUSImplementation extends SETUPImplementation implements JMSCo
 				if(sendFrameAcknowledge(telFocusCommand,telFocusDone,
 							frameParameters.getFilename()) == false)
 				{
+					cancelReduceFrames(futureList);
 					autoguiderStop(telFocusCommand,telFocusDone,false);
 					return telFocusDone;
 				}
+			// reduce this frame whilst the next frame is exposed
+				if(pipelineReduce)
+				{
+					futureList.add(queueReduceFrame(telFocusCommand,frameParameters));
+				// send data pipeline acknowledges for frames that have already been reduced, in order
+					while((reducedCount < futureList.size())&&futureList.get(reducedCount).isDone())
+					{
+						frameParameters = (TELFOCUSFrameParameters)list.get(reducedCount);
+						if((reduceFrame(telFocusCommand,telFocusDone,frameParameters,
+								futureList.get(reducedCount)) == false)||
+						   (sendDpAcknowledge(telFocusCommand,telFocusDone,frameParameters) == false))
+						{
+							cancelReduceFrames(futureList);
+							autoguiderStop(telFocusCommand,telFocusDone,false);
+							return telFocusDone;
+						}
+						reducedCount++;
+					}
+				}
 			// increment frame number.
 				exposureNumber++;
 			}// end for on focus
 		// autoguider off - are we sure?
 			if(autoguiderStop(telFocusCommand,telFocusDone,true) == false)
+			{
+				cancelReduceFrames(futureList);
 				return telFocusDone;
+			}
 		}// end try
 	// Other exceptions (IllegalArgumentException,NumberFormatException) are not caught here, 
 	// but by the calling method catch(Exception e)
 		catch(CCDLibraryNativeException e)
 		{
+			cancelReduceFrames(futureList);
 			autoguiderStop(telFocusCommand,telFocusDone,false);
 			ccs.error(this.getClass().getName()+":processCommand:"+e);
 			telFocusDone.setSeeing(0.0f);
@@ -332,20 +389,36 @@ public class TELFOCUSImplementation extends SETUPImplementation implements JMSCo
 			telFocusDone.setSuccessful(false);
 			return telFocusDone;
 		}
-	// reduce data
-		for(int i = 0; i < list.size(); i++)
+	// reduce data not already reduced
+		for(int i = reducedCount; i < list.size(); i++)
 		{
 			frameParameters = (TELFOCUSFrameParameters)list.get(i);
 			if(testAbort(telFocusCommand,telFocusDone) == true)
+			{
+				cancelReduceFrames(futureList);
 				return telFocusDone;
-		// call pipeline
-			if(reduceFrame(telFocusCommand,telFocusDone,frameParameters) == false)
+			}
+		// call pipeline, or wait for the reduction queued after the exposure
+			if(pipelineReduce)
+				reduced = reduceFrame(telFocusCommand,telFocusDone,frameParameters,futureList.get(i));
+			else
+				reduced = reduceFrame(telFocusCommand,telFocusDone,frameParameters);
+			if(reduced == false)
+			{
+				cancelReduceFrames(futureList);
 				return telFocusDone;
+			}
 			if(testAbort(telFocusCommand,telFocusDone) == true)
+			{
+				cancelReduceFrames(futureList);
 				return telFocusDone;
+			}
 		// send data pipeline acknowledge
 			if(sendDpAcknowledge(telFocusCommand,telFocusDone,frameParameters) == false)
+			{
+				cancelReduceFrames(futureList);
 				return telFocusDone;
+			}
 		}// end for on exposures
 	// calculate seeing / optimum focus from list of frameParameters, using a quadratic fit
 		if(quadraticFit(telFocusCommand,telFocusDone,list) == false)
@@ -567,19 +640,94 @@ public class TELFOCUSImplementation extends SETUPImplementation implements JMSCo
 	 * @return The method returns true if the reduction was successfull. Otherwise it returns false,
 	 * 	and telFocusDone's error fields are set.
 	 * @see Ccs#sendDpRtCommand
-	 * @see #testAbort
+	 * @see #reduceFrameDone
 	 * @see ngat.message.INST_DP.EXPOSE_REDUCE
 	 */
 	private boolean reduceFrame(TELFOCUS telFocusCommand,TELFOCUS_DONE telFocusDone,
 		TELFOCUSFrameParameters frameParameters)
 	{
 		EXPOSE_REDUCE reduceCommand = null;
-		EXPOSE_REDUCE_DONE reduceDone = null;
 		INST_TO_DP_DONE instToDPDone = null;
 
 		reduceCommand = new EXPOSE_REDUCE(telFocusCommand.getId());
 		reduceCommand.setFilename(frameParameters.getFilename());
 		instToDPDone = ccs.sendDpRtCommand(reduceCommand,serverConnectionThread);
+		return reduceFrameDone(telFocusCommand,telFocusDone,frameParameters,instToDPDone);
+	}
+
+	/**
+	 * Method to queue a frame to be reduced, whilst the next frame is exposed.
+	 * @param telFocusCommand The TELFOCUS command that is caused the frame reduction to occur. The Id is used
+	 * 	as the EXPOSE_REDUCE command's id.
+	 * @param frameParameters The frame parameters for this frame. The filename to reduce is retrieved from this.
+	 * @return A Future to pass to reduceFrame(TELFOCUS,TELFOCUS_DONE,TELFOCUSFrameParameters,Future).
+	 * @see Ccs#queueDpRtCommand
+	 * @see ngat.message.INST_DP.EXPOSE_REDUCE
+	 */
+	private Future<INST_TO_DP_DONE> queueReduceFrame(TELFOCUS telFocusCommand,
+							 TELFOCUSFrameParameters frameParameters)
+	{
+		EXPOSE_REDUCE reduceCommand = null;
+
+		reduceCommand = new EXPOSE_REDUCE(telFocusCommand.getId());
+		reduceCommand.setFilename(frameParameters.getFilename());
+		return ccs.queueDpRtCommand(reduceCommand,serverConnectionThread);
+	}
+
+	/**
+	 * Method to wait for the reduction of a frame queued using queueReduceFrame.
+	 * @param telFocusCommand The TELFOCUS command that is caused the frame reduction to occur.
+	 * @param telFocusDone The instance of TELFOCUS_DONE. This is filled in with an error message if the
+	 * 	EXPOSE_REDUCE fails.
+	 * @param frameParameters The frame parameters for this frame. It's parameters are set 
+	 * 	(including reducedFlename) with the EXPOSE_REDUCE return values.
+	 * @param future The Future returned by queueReduceFrame for this frame.
+	 * @return The method returns true if the reduction was successfull. Otherwise it returns false,
+	 * 	and telFocusDone's error fields are set.
+	 * @see #queueReduceFrame
+	 * @see Ccs#getDpRtDone
+	 * @see #reduceFrameDone
+	 */
+	private boolean reduceFrame(TELFOCUS telFocusCommand,TELFOCUS_DONE telFocusDone,
+		TELFOCUSFrameParameters frameParameters,Future<INST_TO_DP_DONE> future)
+	{
+		INST_TO_DP_DONE instToDPDone = null;
+
+		instToDPDone = ccs.getDpRtDone(telFocusCommand,serverConnectionThread,future);
+		return reduceFrameDone(telFocusCommand,telFocusDone,frameParameters,instToDPDone);
+	}
+
+	/**
+	 * Method to cancel any frame reductions queued by queueReduceFrame that have not finished.
+	 * Called when the TELFOCUS fails or is aborted.
+	 * @param futureList The list of Futures returned by queueReduceFrame.
+	 * @see #queueReduceFrame
+	 */
+	private void cancelReduceFrames(Vector<Future<INST_TO_DP_DONE>> futureList)
+	{
+		for(int i = 0; i < futureList.size(); i++)
+			futureList.get(i).cancel(true);
+	}
+
+	/**
+	 * Method to process the done message returned by the DP(RT) for a frame reduction.
+	 * @param telFocusCommand The TELFOCUS command that is caused the frame reduction to occur.
+	 * @param telFocusDone The instance of TELFOCUS_DONE. This is filled in with an error message if the
+	 * 	EXPOSE_REDUCE failed.
+	 * @param frameParameters The frame parameters for this frame. It's parameters are set 
+	 * 	(including reducedFlename) with the EXPOSE_REDUCE return values.
+	 * @param instToDPDone The done message returned by the DP(RT).
+	 * @return The method returns true if the reduction was successfull. Otherwise it returns false,
+	 * 	and telFocusDone's error fields are set.
+	 * @see #testAbort
+	 */
+	private boolean reduceFrameDone(TELFOCUS telFocusCommand,TELFOCUS_DONE telFocusDone,
+		TELFOCUSFrameParameters frameParameters,INST_TO_DP_DONE instToDPDone)
+	{
+		EXPOSE_REDUCE_DONE reduceDone = null;
+		String reduceCommand = null;
+
+		reduceCommand = new String("EXPOSE_REDUCE:"+frameParameters.getFilename());
 		if(instToDPDone.getSuccessful() == false)
 		{
 			ccs.error(this.getClass().getName()+":reduceFrame:"+reduceCommand+":"+
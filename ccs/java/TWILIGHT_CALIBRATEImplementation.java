@@ -317,7 +317,7 @@ public class TWILIGHT_CALIBRATEImplementation extends CALIBRATEImplementation im
 		int time;
 
 		acknowledge = new ACK(command.getId());
-		time = status.getPropertyInteger("ccs.server_connection.twilight_calibrate_acknowledge_time");
+		time = configuration.getInteger("ccs.server_connection.twilight_calibrate_acknowledge_time");
 		acknowledge.setTimeToComplete(time+serverConnectionThread.getDefaultAcknowledgeTime());
 		return acknowledge;
 	}
@@ -562,6 +562,7 @@ public class TWILIGHT_CALIBRATEImplementation extends CALIBRATEImplementation im
 
 	// Start the exposure
 	// twilightCalibrateCommand.getTimeToComplete() is used as a 'Number of frames' for now!
+			libccd.CCDMultrunFilenameSetMultrun(ccsFilename.getMultRunNumber());
 			try {
 			 ccs.error(this.getClass().getName()+" Running CCDMultflatExpose for " + 
 				twilightCalibrateCommand.getTimeToComplete() + " ms");
@@ -572,6 +573,7 @@ public class TWILIGHT_CALIBRATEImplementation extends CALIBRATEImplementation im
 				":CCDMultflatExpose failed.");
 			 ccs.error(this.getClass().getName()+":"+errorString,e);
 			}
+			synchroniseFilename(command);
 			
 
 	// return done
@@ -22,6 +22,8 @@
 package ngat.rise.ccd;
 
 import java.lang.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.List;
 import java.util.Vector;
 import ngat.util.logging.*;
@@ -116,6 +118,189 @@ public class CCDLibrary
 	public final static int CCD_SETUP_WINDOW_ALL =			(CCD_SETUP_WINDOW_ONE|CCD_SETUP_WINDOW_TWO|
 								CCD_SETUP_WINDOW_THREE|CCD_SETUP_WINDOW_FOUR);
 
+// ccd_multrun.h
+	/* The native status snapshot code uses these constants (via the generated JNI header) */
+	/**
+	 * Index in the status snapshot array of the exposure status, one of the CCD_EXPOSURE_STATUS constants.
+	 * @see #CCDMultrunGetStatusSnapshot
+	 */
+	public final static int CCD_MULTRUN_STATUS_SNAPSHOT_EXPOSURE_STATUS = 0;
+	/**
+	 * Index in the status snapshot array of the exposure in the multrun we are currently taking.
+	 * @see #CCDMultrunGetStatusSnapshot
+	 */
+	public final static int CCD_MULTRUN_STATUS_SNAPSHOT_EXPOSURE_NUMBER = 1;
+	/**
+	 * Index in the status snapshot array of the exposure length of each frame of the multrun, in milliseconds.
+	 * @see #CCDMultrunGetStatusSnapshot
+	 */
+	public final static int CCD_MULTRUN_STATUS_SNAPSHOT_EXPOSURE_LENGTH = 2;
+	/**
+	 * Index in the status snapshot array of the start time of the current frame of the multrun,
+	 * in milliseconds since the EPOCH.
+	 * @see #CCDMultrunGetStatusSnapshot
+	 */
+	public final static int CCD_MULTRUN_STATUS_SNAPSHOT_EXPOSURE_START_TIME = 3;
+	/**
+	 * Index in the status snapshot array of the time the current exposure has been underway, in milliseconds.
+	 * @see #CCDMultrunGetStatusSnapshot
+	 */
+	public final static int CCD_MULTRUN_STATUS_SNAPSHOT_ELAPSED_EXPOSURE_TIME = 4;
+	/**
+	 * Index in the status snapshot array of the number of unbinned columns setup on the CCD.
+	 * @see #CCDMultrunGetStatusSnapshot
+	 */
+	public final static int CCD_MULTRUN_STATUS_SNAPSHOT_NCOLS = 5;
+	/**
+	 * Index in the status snapshot array of the number of unbinned rows setup on the CCD.
+	 * @see #CCDMultrunGetStatusSnapshot
+	 */
+	public final static int CCD_MULTRUN_STATUS_SNAPSHOT_NROWS = 6;
+	/**
+	 * Index in the status snapshot array of the column binning factor.
+	 * @see #CCDMultrunGetStatusSnapshot
+	 */
+	public final static int CCD_MULTRUN_STATUS_SNAPSHOT_NSBIN = 7;
+	/**
+	 * Index in the status snapshot array of the row binning factor.
+	 * @see #CCDMultrunGetStatusSnapshot
+	 */
+	public final static int CCD_MULTRUN_STATUS_SNAPSHOT_NPBIN = 8;
+	/**
+	 * Index in the status snapshot array of the window flags, which windows are in effect.
+	 * @see #CCDMultrunGetStatusSnapshot
+	 */
+	public final static int CCD_MULTRUN_STATUS_SNAPSHOT_WINDOW_FLAGS = 9;
+	/**
+	 * Index in the status snapshot array of whether the CCD has been setup sufficiently for exposures
+	 * to be taken (1) or not (0).
+	 * @see #CCDMultrunGetStatusSnapshot
+	 */
+	public final static int CCD_MULTRUN_STATUS_SNAPSHOT_SETUP_COMPLETE = 10;
+	/**
+	 * Index in the status snapshot array of whether a setup operation is underway (1) or not (0).
+	 * @see #CCDMultrunGetStatusSnapshot
+	 */
+	public final static int CCD_MULTRUN_STATUS_SNAPSHOT_SETUP_IN_PROGRESS = 11;
+	/**
+	 * Index in the status snapshot array of the number of images waiting to be (or being) written to disk.
+	 * @see #CCDMultrunGetStatusSnapshot
+	 */
+	public final static int CCD_MULTRUN_STATUS_SNAPSHOT_WRITER_QUEUE_DEPTH = 12;
+	/**
+	 * Index in the status snapshot array of the largest writer queue depth during the last multrun.
+	 * @see #CCDMultrunGetStatusSnapshot
+	 */
+	public final static int CCD_MULTRUN_STATUS_SNAPSHOT_WRITER_QUEUE_DEPTH_PEAK = 13;
+	/**
+	 * Index in the status snapshot array of the time taken to get the last image onto disk after it was
+	 * read out, in milliseconds.
+	 * @see #CCDMultrunGetStatusSnapshot
+	 */
+	public final static int CCD_MULTRUN_STATUS_SNAPSHOT_WRITER_LATENCY_LAST = 14;
+	/**
+	 * Index in the status snapshot array of the largest writer latency during the last multrun, in milliseconds.
+	 * @see #CCDMultrunGetStatusSnapshot
+	 */
+	public final static int CCD_MULTRUN_STATUS_SNAPSHOT_WRITER_LATENCY_MAX = 15;
+	/**
+	 * Index in the status snapshot array of the number of images written by the FITS writer threads
+	 * during the last multrun.
+	 * @see #CCDMultrunGetStatusSnapshot
+	 */
+	public final static int CCD_MULTRUN_STATUS_SNAPSHOT_WRITER_FRAME_COUNT = 16;
+	/**
+	 * The length of the status snapshot array.
+	 * @see #CCDMultrunGetStatusSnapshot
+	 */
+	public final static int CCD_MULTRUN_STATUS_SNAPSHOT_COUNT = 17;
+
+// ccd_timing.h
+	/* The native frame timing code uses these constants (via the generated JNI header) */
+	/**
+	 * The number of frame timing records kept by the C layer. This must match CCD_TIMING_FRAME_RING_SIZE
+	 * in ccd_timing.h.
+	 * @see #CCDTimingFrameGetRecords
+	 */
+	public final static int CCD_TIMING_FRAME_RING_SIZE = 256;
+	/**
+	 * Frame stage: the Andor acquisition containing the frame was started.
+	 * This must match CCD_TIMING_FRAME_STAGE_ACQUISITION_START in ccd_timing.h.
+	 */
+	public final static int CCD_TIMING_FRAME_STAGE_ACQUISITION_START = 0;
+	/**
+	 * Frame stage: the frame was first seen to be available in the Andor buffer.
+	 * This must match CCD_TIMING_FRAME_STAGE_FRAME_AVAILABLE in ccd_timing.h.
+	 */
+	public final static int CCD_TIMING_FRAME_STAGE_FRAME_AVAILABLE = 1;
+	/**
+	 * Frame stage: the frame was copied out of the Andor buffer.
+	 * This must match CCD_TIMING_FRAME_STAGE_IMAGE_RETRIEVED in ccd_timing.h.
+	 */
+	public final static int CCD_TIMING_FRAME_STAGE_IMAGE_RETRIEVED = 2;
+	/**
+	 * Frame stage: the median of the central pixels was calculated.
+	 * This must match CCD_TIMING_FRAME_STAGE_MEDIAN_DONE in ccd_timing.h.
+	 */
+	public final static int CCD_TIMING_FRAME_STAGE_MEDIAN_DONE = 3;
+	/**
+	 * Frame stage: the FITS filename for the frame was allocated.
+	 * This must match CCD_TIMING_FRAME_STAGE_FILENAME_RESOLVED in ccd_timing.h.
+	 */
+	public final static int CCD_TIMING_FRAME_STAGE_FILENAME_RESOLVED = 4;
+	/**
+	 * Frame stage: the frame was saved to disk.
+	 * This must match CCD_TIMING_FRAME_STAGE_SAVE_DONE in ccd_timing.h.
+	 */
+	public final static int CCD_TIMING_FRAME_STAGE_SAVE_DONE = 5;
+	/**
+	 * The number of frame stages. This must match CCD_TIMING_FRAME_STAGE_COUNT in ccd_timing.h.
+	 */
+	public final static int CCD_TIMING_FRAME_STAGE_COUNT = 6;
+	/**
+	 * Frame timing record state: the frame is still being acquired or saved.
+	 * This must match CCD_TIMING_FRAME_STATE_IN_PROGRESS in ccd_timing.h.
+	 */
+	public final static int CCD_TIMING_FRAME_STATE_IN_PROGRESS = 0;
+	/**
+	 * Frame timing record state: the frame was saved.
+	 * This must match CCD_TIMING_FRAME_STATE_SAVED in ccd_timing.h.
+	 */
+	public final static int CCD_TIMING_FRAME_STATE_SAVED = 1;
+	/**
+	 * Frame timing record state: the frame was not saved.
+	 * This must match CCD_TIMING_FRAME_STATE_ABANDONED in ccd_timing.h.
+	 */
+	public final static int CCD_TIMING_FRAME_STATE_ABANDONED = 2;
+	/**
+	 * Index in a frame timing record of the record's sequence number.
+	 * @see #CCDTimingFrameGetRecords
+	 */
+	public final static int CCD_TIMING_FRAME_FIELD_SEQUENCE = 0;
+	/**
+	 * Index in a frame timing record of the frame's number in it's multrun.
+	 * @see #CCDTimingFrameGetRecords
+	 */
+	public final static int CCD_TIMING_FRAME_FIELD_FRAME_NUMBER = 1;
+	/**
+	 * Index in a frame timing record of the record's state, one of the CCD_TIMING_FRAME_STATE constants.
+	 * @see #CCDTimingFrameGetRecords
+	 */
+	public final static int CCD_TIMING_FRAME_FIELD_STATE = 2;
+	/**
+	 * Index in a frame timing record of the first stage time. The time of stage n (one of the
+	 * CCD_TIMING_FRAME_STAGE constants) is at CCD_TIMING_FRAME_FIELD_STAGE_TIME+n, in nanoseconds from the
+	 * C layer's CLOCK_MONOTONIC, or zero if the frame has not reached the stage.
+	 * @see #CCDTimingFrameGetRecords
+	 */
+	public final static int CCD_TIMING_FRAME_FIELD_STAGE_TIME = 3;
+	/**
+	 * The number of longs in each frame timing record.
+	 * @see #CCDTimingFrameGetRecords
+	 */
+	public final static int CCD_TIMING_FRAME_FIELD_COUNT = CCD_TIMING_FRAME_FIELD_STAGE_TIME+
+		CCD_TIMING_FRAME_STAGE_COUNT;
+
 // ccd_exposure.h
 	private native void CCD_Exposure_Expose(boolean open_shutter,
 		long startTime,int exposureTime,List filenameList) throws CCDLibraryNativeException;
@@ -187,6 +372,19 @@ public class CCDLibrary
 	 * Native wrapper to libccd routine that gets error values into a string.
 	 */
 	private native String CCD_Global_Error_String();
+	/**
+	 * Native wrapper to select whether C layer log messages are queued in the C log ring (true), or logged
+	 * directly to the logger (false).
+	 */
+	private native void CCD_Global_Log_Ring_Enable(boolean enable);
+	/**
+	 * Native wrapper to take a batch of messages from the C log ring.
+	 */
+	private native int CCD_Global_Log_Ring_Drain(int levelList[],String messageList[]);
+	/**
+	 * Native wrapper to return the number of messages dropped because the C log ring was full.
+	 */
+	private native long CCD_Global_Log_Ring_Get_Drop_Count();
 
 // ccd_multrun.h
 	/**
@@ -197,6 +395,13 @@ public class CCDLibrary
 		int exposureTime,long exposures, List headers) throws CCDLibraryNativeException;
   	private native void CCD_Multflat_Expose(boolean open_shutter,long startTime, 
 		int exposureTime,long exposures, List headers) throws CCDLibraryNativeException;
+	/**
+	 * Native wrapper to librise_ccd routine that does a multrun, delivering frames into the registered
+	 * frame buffers.
+	 * @exception CCDLibraryNativeException This routine throws a CCDLibraryNativeException if it failed.
+	 */
+	private native void CCD_Multrun_Expose_Frames(boolean open_shutter,int exposureTime,long exposures)
+		throws CCDLibraryNativeException;
 	/**
 	 * Native wrapper to librise_ccd routine thats returns whether an exposure is currently in progress.
 	 */
@@ -218,6 +423,38 @@ public class CCDLibrary
 	 * Native wrapper to librise_ccd routine thats returns the elapsed exposure time in milliseconds.
 	 */
 	private native int CCD_Multrun_Get_Elapsed_Exposure_Time();
+	/**
+	 * Native wrapper to librise_ccd routine that copies the status data GET_STATUS reports into an array,
+	 * in one call.
+	 * @exception CCDLibraryNativeException This routine throws a CCDLibraryNativeException if it failed.
+	 */
+	private native void CCD_Multrun_Get_Status_Snapshot(long snapshot[]) throws CCDLibraryNativeException;
+	/**
+	 * Native wrapper to librise_ccd routine that sets the multrun number allocated by the Java layer for
+	 * the next multrun.
+	 */
+	private native void CCD_Multrun_Filename_Set_Multrun(int multrunNumber);
+	/**
+	 * Native wrapper to librise_ccd routine that returns the last multrun number allocated by the C layer.
+	 * @exception CCDLibraryNativeException This routine throws a CCDLibraryNativeException if it failed.
+	 */
+	private native int CCD_Multrun_Filename_Get_Multrun() throws CCDLibraryNativeException;
+
+// ccd_frame.h
+	/**
+	 * Native wrapper to librise_ccd routine that registers a list of direct byte buffers as frame buffers.
+	 * @exception CCDLibraryNativeException This routine throws a CCDLibraryNativeException if it failed.
+	 */
+	private native void CCD_Frame_Buffer_Register(ByteBuffer buffers[]) throws CCDLibraryNativeException;
+	/**
+	 * Native wrapper to librise_ccd routine that releases a frame buffer for re-use.
+	 * @exception CCDLibraryNativeException This routine throws a CCDLibraryNativeException if it failed.
+	 */
+	private native void CCD_Frame_Buffer_Release(int index) throws CCDLibraryNativeException;
+	/**
+	 * Native wrapper to return ccd_frame's error number.
+	 */
+	private native int CCD_Frame_Get_Error_Number();
 
 // ccd_setup.h
 	/**
@@ -311,6 +548,39 @@ public class CCDLibrary
 	 */
 	private native int CCD_Temperature_Get_Error_Number();
 
+// ccd_timing.h
+	/**
+	 * Native wrapper to libccd routine that copies the most recent frame timing records.
+	 * @exception CCDLibraryNativeException This method throws a CCDLibraryNativeException if it failed.
+	 */
+	private native int CCD_Timing_Frame_Get_Records(long recordList[]) throws CCDLibraryNativeException;
+
+// ccd_writer.h
+	/**
+	 * Native wrapper to return the number of images currently queued or being written by the FITS writer threads.
+	 */
+	private native int CCD_Writer_Get_Queue_Depth();
+	/**
+	 * Native wrapper to return the largest number of images queued or being written at once during the last multrun.
+	 */
+	private native int CCD_Writer_Get_Queue_Depth_Peak();
+	/**
+	 * Native wrapper to return the time between queueing and being saved to disk of the last image written.
+	 */
+	private native int CCD_Writer_Get_Latency_Last();
+	/**
+	 * Native wrapper to return the largest time between queueing and being saved to disk during the last multrun.
+	 */
+	private native int CCD_Writer_Get_Latency_Max();
+	/**
+	 * Native wrapper to return the number of images written by the FITS writer threads during the last multrun.
+	 */
+	private native int CCD_Writer_Get_Frame_Count();
+	/**
+	 * Native wrapper to return ccd_writer's error number.
+	 */
+	private native int CCD_Writer_Get_Error_Number();
+
 //internal C layer initialisation
 	/**
 	 * Native method that allows the JNI layer to store a reference to this Class's logger.
@@ -327,6 +597,33 @@ public class CCDLibrary
 	 * The logger to log messages to.
 	 */
 	protected Logger logger = null;
+	/**
+	 * The list of direct byte buffers registered with the C layer as frame buffers.
+	 * @see #CCDFrameBufferRegister
+	 */
+	protected ByteBuffer frameBufferList[] = null;
+	/**
+	 * The listener frames are delivered to during CCDMultrunExposeFrames.
+	 * @see #CCDMultrunExposeFrames
+	 */
+	protected CCDLibraryFrameListener frameListener = null;
+	/**
+	 * The size of the frames being delivered by CCDMultrunExposeFrames, in bytes.
+	 */
+	protected int frameByteCount = 0;
+	/**
+	 * The thread draining the C log ring into the logger, or null if the C layer logs directly to the logger.
+	 * @see #CCDGlobalLogRingStart
+	 */
+	protected CCDLibraryLogThread logThread = null;
+	/**
+	 * The listeners told how long each long running native call took. The list is replaced (rather than
+	 * changed) when a listener is added or removed, so it can be read without locking.
+	 * @see #addCallListener
+	 * @see #removeCallListener
+	 * @see #callDone
+	 */
+	protected volatile CCDLibraryCallListener callListenerList[] = new CCDLibraryCallListener[0];
 
 // static code block
 	/**
@@ -361,6 +658,91 @@ public class CCDLibrary
 		finaliseLoggerReference();
 	}
 
+	/**
+	 * Add a listener to be told how long each native call on the frame path (exposures, bias frames,
+	 * readouts and multruns) took.
+	 * @param l The listener.
+	 * @see #callListenerList
+	 */
+	public synchronized void addCallListener(CCDLibraryCallListener l)
+	{
+		CCDLibraryCallListener newList[] = null;
+
+		newList = new CCDLibraryCallListener[callListenerList.length+1];
+		System.arraycopy(callListenerList,0,newList,0,callListenerList.length);
+		newList[callListenerList.length] = l;
+		callListenerList = newList;
+	}
+
+	/**
+	 * Remove a call listener. Nothing is done if the listener was not added.
+	 * @param l The listener.
+	 * @see #callListenerList
+	 */
+	public synchronized void removeCallListener(CCDLibraryCallListener l)
+	{
+		CCDLibraryCallListener newList[] = null;
+		int index;
+
+		for(index = 0; index < callListenerList.length; index++)
+		{
+			if(callListenerList[index] == l)
+				break;
+		}
+		if(index == callListenerList.length)
+			return;
+		newList = new CCDLibraryCallListener[callListenerList.length-1];
+		System.arraycopy(callListenerList,0,newList,0,index);
+		System.arraycopy(callListenerList,index+1,newList,index,callListenerList.length-index-1);
+		callListenerList = newList;
+	}
+
+	/**
+	 * Get the start time of a native call, if there are any call listeners.
+	 * @return The start time, from System.nanoTime, or 0 if there are no call listeners.
+	 * @see #callListenerList
+	 * @see #callDone
+	 */
+	protected long callStart()
+	{
+		if(callListenerList.length == 0)
+			return 0;
+		return System.nanoTime();
+	}
+
+	/**
+	 * Tell the call listeners (if any) that a native call has finished. Exceptions thrown by a listener
+	 * are logged and ignored.
+	 * @param methodName The name of the CCDLibrary method that made the call.
+	 * @param startTime The start time returned by callStart.
+	 * @param successful Whether the call was successful (did not throw).
+	 * @see #callListenerList
+	 * @see #callStart
+	 * @see CCDLibraryCallListener#nativeCallDone
+	 */
+	protected void callDone(String methodName,long startTime,boolean successful)
+	{
+		CCDLibraryCallListener listenerList[] = null;
+		long duration;
+
+		listenerList = callListenerList;
+		if((listenerList.length == 0)||(startTime == 0))
+			return;
+		duration = System.nanoTime()-startTime;
+		for(int i = 0; i < listenerList.length; i++)
+		{
+			try
+			{
+				listenerList[i].nativeCallDone(this,methodName,startTime,duration,successful);
+			}
+			catch(Throwable t)
+			{
+				logger.log(1,this.getClass().getName()+":callDone:"+methodName+
+					   ":Call listener failed:"+t);
+			}
+		}
+	}
+
 // ccd_exposure.h
 	/**
 	 * Routine to perform an exposure.
@@ -382,7 +764,7 @@ public class CCDLibrary
 
 		filenameList = new Vector();
 		filenameList.add(filename);
-		CCD_Exposure_Expose(open_shutter,startTime,exposureTime,filenameList);
+		CCDExposureExpose(open_shutter,startTime,exposureTime,filenameList);
 	}
 
 	/**
@@ -396,11 +778,24 @@ public class CCDLibrary
 	 * @exception CCDLibraryNativeException This routine throws a CCDLibraryNativeException if 
 	 * CCD_Exposure_Expose  failed.
 	 * @see #CCD_Exposure_Expose
+	 * @see #callDone
 	 */
 	public void CCDExposureExpose(boolean open_shutter,long startTime,int exposureTime,List filenameList) 
 		throws CCDLibraryNativeException
 	{
-		CCD_Exposure_Expose(open_shutter,startTime,exposureTime,filenameList);
+		long callStartTime;
+		boolean successful = false;
+
+		callStartTime = callStart();
+		try
+		{
+			CCD_Exposure_Expose(open_shutter,startTime,exposureTime,filenameList);
+			successful = true;
+		}
+		finally
+		{
+			callDone("CCDExposureExpose",callStartTime,successful);
+		}
 	}
 
 	/**
@@ -411,10 +806,23 @@ public class CCDLibrary
 	 * @param filename The filename to save the read out data into.
 	 * @exception CCDLibraryNativeException This routine throws a CCDLibraryNativeException if it fails.
 	 * @see #CCD_Exposure_Bias
+	 * @see #callDone
 	 */
 	public void CCDExposureBias(String filename) throws CCDLibraryNativeException
 	{
-		CCD_Exposure_Bias(filename);
+		long callStartTime;
+		boolean successful = false;
+
+		callStartTime = callStart();
+		try
+		{
+			CCD_Exposure_Bias(filename);
+			successful = true;
+		}
+		finally
+		{
+			callDone("CCDExposureBias",callStartTime,successful);
+		}
 	}
 
 	/**
@@ -422,10 +830,23 @@ public class CCDLibrary
 	 * @param filename The filename to save the read out data into.
 	 * @exception CCDLibraryNativeException This routine throws a CCDLibraryNativeException if it fails.
 	 * @see #CCD_Exposure_Read_Out_CCD
+	 * @see #callDone
 	 */
 	public void CCDExposureReadOutCCD(String filename) throws CCDLibraryNativeException
 	{
-		CCD_Exposure_Read_Out_CCD(filename);
+		long callStartTime;
+		boolean successful = false;
+
+		callStartTime = callStart();
+		try
+		{
+			CCD_Exposure_Read_Out_CCD(filename);
+			successful = true;
+		}
+		finally
+		{
+			callDone("CCDExposureReadOutCCD",callStartTime,successful);
+		}
 	}
 
 	/**
@@ -549,6 +970,73 @@ public class CCDLibrary
 		CCD_Global_Error();
 	}
 
+	/**
+	 * Start logging C layer log messages through the C log ring. A CCDLibraryLogThread is started to drain the
+	 * ring into the logger, and the C layer is then switched to queueing messages in the ring, so it never
+	 * waits for the Java log handlers. Does nothing if the ring is already in use.
+	 * @param batchSize The maximum number of messages to drain from the ring at once.
+	 * @param pollTime How long the draining thread sleeps when the ring is empty, in milliseconds.
+	 * @exception IllegalArgumentException Thrown if batchSize or pollTime are less than one.
+	 * @see #logThread
+	 * @see #CCD_Global_Log_Ring_Enable
+	 * @see #CCDGlobalLogRingStop
+	 */
+	public synchronized void CCDGlobalLogRingStart(int batchSize,int pollTime) throws IllegalArgumentException
+	{
+		if(logThread != null)
+			return;
+		logThread = new CCDLibraryLogThread(this,logger,batchSize,pollTime);
+		logThread.setDaemon(true);
+		logThread.start();
+		CCD_Global_Log_Ring_Enable(true);
+	}
+
+	/**
+	 * Stop logging C layer log messages through the C log ring. The C layer is switched back to logging
+	 * directly to the logger, and the draining thread is stopped once it has drained the ring.
+	 * Does nothing if the ring is not in use.
+	 * @see #logThread
+	 * @see #CCD_Global_Log_Ring_Enable
+	 * @see #CCDGlobalLogRingStart
+	 */
+	public synchronized void CCDGlobalLogRingStop()
+	{
+		if(logThread == null)
+			return;
+		CCD_Global_Log_Ring_Enable(false);
+		logThread.quit();
+		try
+		{
+			logThread.join();
+		}
+		catch(InterruptedException e)
+		{
+		}
+		logThread = null;
+	}
+
+	/**
+	 * Take a batch of messages from the C log ring. This should only be called from the thread draining the ring.
+	 * @param levelList An array, filled on return with the log levels of the messages taken.
+	 * @param messageList An array the same length as levelList, filled on return with the messages taken.
+	 * @return The number of messages taken, between zero (the ring was empty) and the length of the arrays.
+	 * @see #CCD_Global_Log_Ring_Drain
+	 */
+	public int CCDGlobalLogRingDrain(int levelList[],String messageList[])
+	{
+		return CCD_Global_Log_Ring_Drain(levelList,messageList);
+	}
+
+	/**
+	 * Returns the number of C layer log messages dropped because the C log ring was full.
+	 * @return The number of messages dropped since the library was loaded.
+	 * @see #CCD_Global_Log_Ring_Get_Drop_Count
+	 */
+	public long CCDGlobalLogRingGetDropCount()
+	{
+		return CCD_Global_Log_Ring_Get_Drop_Count();
+	}
+
 	/**
 	 * Error routine. Should be called whenever another library routine has failed. 
 	 * Returns in a string any error messages outstanding in any of the modules that
@@ -575,17 +1063,42 @@ public class CCDLibrary
 	 * @exception CCDLibraryNativeException This routine throws a CCDLibraryNativeException if CCD_Multrun_Expose  
 	 *            failed.
 	 * @see #CCD_Multrun_Expose
+	 * @see #callDone
 	 */
 	public void CCDMultrunExpose(boolean open_shutter,long startTime,int exposureTime,long exposures,List headers)
 		throws CCDLibraryNativeException
 	{
-		CCD_Multrun_Expose(open_shutter,startTime,exposureTime,exposures, headers);
+		long callStartTime;
+		boolean successful = false;
+
+		callStartTime = callStart();
+		try
+		{
+			CCD_Multrun_Expose(open_shutter,startTime,exposureTime,exposures, headers);
+			successful = true;
+		}
+		finally
+		{
+			callDone("CCDMultrunExpose",callStartTime,successful);
+		}
 	}
 
 	public void CCDMultflatExpose(boolean open_shutter,long startTime,int exposureTime,long exposures,List headers)
 		throws CCDLibraryNativeException
 	{
-		CCD_Multflat_Expose(open_shutter,startTime,exposureTime,exposures, headers);
+		long callStartTime;
+		boolean successful = false;
+
+		callStartTime = callStart();
+		try
+		{
+			CCD_Multflat_Expose(open_shutter,startTime,exposureTime,exposures, headers);
+			successful = true;
+		}
+		finally
+		{
+			callDone("CCDMultflatExpose",callStartTime,successful);
+		}
 	}
 
 	/**
@@ -637,6 +1150,86 @@ public class CCDLibrary
 		return CCD_Multrun_Get_Exposure_Start_Time();
 	}
 
+	/**
+	 * Routine to perform a multrun, delivering each frame into one of the frame buffers registered with
+	 * CCDFrameBufferRegister rather than writing it to disk. The listener's frameReady method is called
+	 * (in this thread) as each frame is read out, and must arrange for CCDFrameBufferRelease to be called
+	 * once it has finished with the buffer. This method returns when all the frames have been delivered.
+	 * @param open_shutter Determines whether the shutter should be opened to do the exposure.
+	 * @param exposureTime The number of milliseconds to expose the CCD for each frame.
+	 * @param exposures The number of frames to take.
+	 * @param listener The object to deliver the frames to.
+	 * @exception CCDLibraryNativeException This routine throws a CCDLibraryNativeException if 
+	 *            CCD_Multrun_Expose_Frames failed, or no frame buffers big enough for a frame are registered.
+	 * @see #CCD_Multrun_Expose_Frames
+	 * @see #CCDFrameBufferRegister
+	 * @see #CCDFrameBufferRelease
+	 * @see #frameListener
+	 * @see #frameByteCount
+	 * @see #frameReady
+	 * @see #callDone
+	 */
+	public void CCDMultrunExposeFrames(boolean open_shutter,int exposureTime,long exposures,
+					   CCDLibraryFrameListener listener) throws CCDLibraryNativeException
+	{
+		long callStartTime;
+		boolean successful = false;
+
+		frameListener = listener;
+		frameByteCount = CCDSetupGetNCols()*CCDSetupGetNRows()*2;
+		callStartTime = callStart();
+		try
+		{
+			CCD_Multrun_Expose_Frames(open_shutter,exposureTime,exposures);
+			successful = true;
+		}
+		finally
+		{
+			frameListener = null;
+			callDone("CCDMultrunExposeFrames",callStartTime,successful);
+		}
+	}
+
+	/**
+	 * Method called from the C layer (CCDLibrary_Frame_Ready_Handler), when a frame has been read out into
+	 * a frame buffer during CCDMultrunExposeFrames. The buffer is rewound and passed to the frame listener.
+	 * If there is no listener, or it throws, the buffer is released straight away.
+	 * @param index The index of the frame buffer.
+	 * @param frameNumber The number of the frame in the multrun, starting from one.
+	 * @param startTime The exposure start time of the frame, in milliseconds since the epoch.
+	 * @see #frameListener
+	 * @see #frameBufferList
+	 * @see #CCDMultrunExposeFrames
+	 */
+	private void frameReady(int index,long frameNumber,long startTime)
+	{
+		ByteBuffer buffer = null;
+
+		try
+		{
+			buffer = frameBufferList[index];
+			buffer.clear();
+			buffer.limit(frameByteCount);
+			if(frameListener == null)
+				throw new NullPointerException("No frame listener.");
+			frameListener.frameReady(this,index,buffer,frameNumber,startTime);
+		}
+		catch(Throwable t)
+		{
+			logger.log(1,this.getClass().getName()+":frameReady:Frame "+frameNumber+" in buffer "+
+				   index+" failed:"+t);
+			try
+			{
+				CCD_Frame_Buffer_Release(index);
+			}
+			catch(CCDLibraryNativeException e)
+			{
+				logger.log(1,this.getClass().getName()+":frameReady:Releasing buffer "+index+
+					   " failed:"+e);
+			}
+		}
+	}
+
 	/**
 	 * Returns how long since the last multrun exposure was started in milliseconds.
 	 * @return The elapsed exposure time in milliseconds.
@@ -648,6 +1241,118 @@ public class CCDLibrary
 		return CCD_Multrun_Get_Elapsed_Exposure_Time();
 	}
 
+	/**
+	 * Get the multrun, setup and FITS writer status data in one native call, rather than one call per value.
+	 * The exposure number and exposure start time in the snapshot are always from the same frame.
+	 * The array can be re-used between calls.
+	 * @param snapshot An array of at least CCD_MULTRUN_STATUS_SNAPSHOT_COUNT longs, to fill with the status data.
+	 *        Use the CCD_MULTRUN_STATUS_SNAPSHOT constants to index it.
+	 * @exception CCDLibraryNativeException Thrown if the array is too small.
+	 * @see #CCD_MULTRUN_STATUS_SNAPSHOT_COUNT
+	 * @see #CCD_Multrun_Get_Status_Snapshot
+	 */
+	public void CCDMultrunGetStatusSnapshot(long snapshot[]) throws CCDLibraryNativeException
+	{
+		CCD_Multrun_Get_Status_Snapshot(snapshot);
+	}
+
+	/**
+	 * Tell the C layer the multrun number the Java layer (ngat.fits.FitsFilename) has allocated for the next
+	 * multrun, so the FITS filenames written by the next CCDMultrunExpose/CCDMultflatExpose use the same number.
+	 * The C layer uses a larger number if it has already used this one.
+	 * @param multrunNumber The multrun number.
+	 * @see #CCD_Multrun_Filename_Set_Multrun
+	 * @see #CCDMultrunFilenameGetMultrun
+	 */
+	public void CCDMultrunFilenameSetMultrun(int multrunNumber)
+	{
+		CCD_Multrun_Filename_Set_Multrun(multrunNumber);
+	}
+
+	/**
+	 * Get the last multrun number allocated by the C layer's FITS filename allocator, for tonight's date.
+	 * @return The multrun number.
+	 * @exception CCDLibraryNativeException Thrown if the C layer failed to seed its filename allocator.
+	 * @see #CCD_Multrun_Filename_Get_Multrun
+	 * @see #CCDMultrunFilenameSetMultrun
+	 */
+	public int CCDMultrunFilenameGetMultrun() throws CCDLibraryNativeException
+	{
+		return CCD_Multrun_Filename_Get_Multrun();
+	}
+
+// ccd_frame.h
+	/**
+	 * Create a list of direct byte buffers, each big enough to hold a frame of the current dimensions
+	 * (CCDSetupGetNCols x CCDSetupGetNRows unsigned 16 bit pixels), in native byte order, and register them as
+	 * frame buffers.
+	 * @param count The number of buffers to create.
+	 * @return The list of buffers.
+	 * @exception CCDLibraryNativeException Thrown if the buffers could not be registered.
+	 * @see #CCDFrameBufferRegister
+	 */
+	public ByteBuffer[] CCDFrameBufferAllocate(int count) throws CCDLibraryNativeException
+	{
+		ByteBuffer buffers[] = null;
+
+		buffers = new ByteBuffer[count];
+		for(int i = 0; i < count; i++)
+		{
+			buffers[i] = ByteBuffer.allocateDirect(CCDSetupGetNCols()*CCDSetupGetNRows()*2);
+			buffers[i].order(ByteOrder.nativeOrder());
+		}
+		CCDFrameBufferRegister(buffers);
+		return buffers;
+	}
+
+	/**
+	 * Register a list of direct byte buffers as frame buffers. Any previously registered buffers are
+	 * deregistered (this fails if any of them are still held by a frame listener). Each buffer must be a direct
+	 * buffer, big enough to hold a frame, and should have native byte order.
+	 * @param buffers The list of buffers, or null to deregister all the buffers.
+	 * @exception CCDLibraryNativeException Thrown if a buffer is not direct, or the buffers could not be 
+	 *            registered.
+	 * @see #CCD_Frame_Buffer_Register
+	 * @see #frameBufferList
+	 */
+	public void CCDFrameBufferRegister(ByteBuffer buffers[]) throws CCDLibraryNativeException
+	{
+		if(buffers != null)
+		{
+			for(int i = 0; i < buffers.length; i++)
+			{
+				if((buffers[i] == null)||(buffers[i].isDirect() == false))
+				{
+					throw new CCDLibraryNativeException(this.getClass().getName()+
+						":CCDFrameBufferRegister:Buffer "+i+" is not a direct buffer.");
+				}
+			}
+		}
+		CCD_Frame_Buffer_Register(buffers);
+		frameBufferList = buffers;
+	}
+
+	/**
+	 * Release a frame buffer delivered to a frame listener, so it can be re-used for another frame.
+	 * @param index The index of the frame buffer, as passed to the listener's frameReady method.
+	 * @exception CCDLibraryNativeException Thrown if the index is illegal.
+	 * @see #CCD_Frame_Buffer_Release
+	 */
+	public void CCDFrameBufferRelease(int index) throws CCDLibraryNativeException
+	{
+		CCD_Frame_Buffer_Release(index);
+	}
+
+	/**
+	 * Returns the current error number from this module of the library. A zero means there is no error.
+	 * @return Returns an error number.
+	 * @see #CCD_Frame_Get_Error_Number
+	 */
+	public int CCDFrameGetErrorNumber()
+	{
+		return CCD_Frame_Get_Error_Number();
+	}
+
 // ccd_setup.h
 	/**
 	 * This routine sets up the Andor CCD Controller. 
@@ -912,6 +1617,87 @@ public class CCDLibrary
 	{
 		return CCD_Temperature_Get_Error_Number();
 	}
+
+// ccd_timing.h
+	/**
+	 * Copy the most recent frame timing records from the C layer, in one native call. Each record is
+	 * CCD_TIMING_FRAME_FIELD_COUNT longs, indexed by the CCD_TIMING_FRAME_FIELD constants, oldest record first.
+	 * As many records are copied as will fit in the array, up to CCD_TIMING_FRAME_RING_SIZE.
+	 * The array can be re-used between calls.
+	 * @param recordList An array of at least CCD_TIMING_FRAME_FIELD_COUNT longs, to fill with the records.
+	 * @return The number of records copied.
+	 * @exception CCDLibraryNativeException Thrown if the array is too small for one record.
+	 * @see #CCD_TIMING_FRAME_FIELD_COUNT
+	 * @see #CCD_TIMING_FRAME_RING_SIZE
+	 * @see #CCD_Timing_Frame_Get_Records
+	 */
+	public int CCDTimingFrameGetRecords(long recordList[]) throws CCDLibraryNativeException
+	{
+		return CCD_Timing_Frame_Get_Records(recordList);
+	}
+
+// ccd_writer.h
+	/**
+	 * Returns the number of images currently queued or being written by the FITS writer threads.
+	 * @return The queue depth.
+	 * @see #CCD_Writer_Get_Queue_Depth
+	 */
+	public int CCDWriterGetQueueDepth()
+	{
+		return CCD_Writer_Get_Queue_Depth();
+	}
+
+	/**
+	 * Returns the largest number of images queued or being written at once during the last multrun.
+	 * If this reaches the number of writer slots, the multrun has been waiting on the disk.
+	 * @return The peak queue depth.
+	 * @see #CCD_Writer_Get_Queue_Depth_Peak
+	 */
+	public int CCDWriterGetQueueDepthPeak()
+	{
+		return CCD_Writer_Get_Queue_Depth_Peak();
+	}
+
+	/**
+	 * Returns the time between queueing and being saved to disk of the last image written.
+	 * @return The latency in milliseconds.
+	 * @see #CCD_Writer_Get_Latency_Last
+	 */
+	public int CCDWriterGetLatencyLast()
+	{
+		return CCD_Writer_Get_Latency_Last();
+	}
+
+	/**
+	 * Returns the largest time between queueing and being saved to disk during the last multrun.
+	 * @return The latency in milliseconds.
+	 * @see #CCD_Writer_Get_Latency_Max
+	 */
+	public int CCDWriterGetLatencyMax()
+	{
+		return CCD_Writer_Get_Latency_Max();
+	}
+
+	/**
+	 * Returns the number of images saved successfully by the FITS writer threads during the last multrun.
+	 * Images that failed to save are not counted.
+	 * @return The number of images.
+	 * @see #CCD_Writer_Get_Frame_Count
+	 */
+	public int CCDWriterGetFrameCount()
+	{
+		return CCD_Writer_Get_Frame_Count();
+	}
+
+	/**
+	 * Returns the current error number from this module of the library. A zero means there is no error.
+	 * @return Returns an error number.
+	 * @see #CCD_Writer_Get_Error_Number
+	 */
+	public int CCDWriterGetErrorNumber()
+	{
+		return CCD_Writer_Get_Error_Number();
+	}
 }
  
 //
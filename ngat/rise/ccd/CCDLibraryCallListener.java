@@ -0,0 +1,48 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Rise.
+
+    NGAT is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    NGAT is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with NGAT; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CCDLibraryCallListener.java
+// $Header$
+package ngat.rise.ccd;
+
+/**
+ * Interface implemented by objects that want to know how long the CCDLibrary native calls on the frame path
+ * (exposures, bias frames, readouts and multruns) take, e.g. to record them as events.
+ * The listener is called on the thread that made the call, after the call has returned (or thrown),
+ * so it should not block.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see CCDLibrary#addCallListener
+ */
+public interface CCDLibraryCallListener
+{
+	/**
+	 * Method called when a native call has finished.
+	 * @param library The CCDLibrary instance that made the call.
+	 * @param methodName The name of the CCDLibrary method that made the call, e.g. "CCDMultrunExpose".
+	 * @param startTime When the call started, from System.nanoTime.
+	 * @param duration How long the call took, in nanoseconds.
+	 * @param successful Whether the call was successful (did not throw a CCDLibraryNativeException).
+	 */
+	public void nativeCallDone(CCDLibrary library,String methodName,long startTime,long duration,
+				   boolean successful);
+}
+//
+// $Log: not supported by cvs2svn $
+//
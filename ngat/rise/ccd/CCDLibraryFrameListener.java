@@ -0,0 +1,55 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Rise.
+
+    NGAT is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    NGAT is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with NGAT; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CCDLibraryFrameListener.java
+// $Header$
+package ngat.rise.ccd;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Interface implemented by objects that want to receive frames read out by
+ * CCDLibrary.CCDMultrunExposeFrames. The frame is delivered in one of the frame buffers registered with
+ * CCDLibrary.CCDFrameBufferRegister, and remains owned by the listener until it calls
+ * CCDLibrary.CCDFrameBufferRelease with the buffer index. Frame buffers that are not released are not re-used,
+ * and the multrun will stall once all of them are held.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see CCDLibrary#CCDMultrunExposeFrames
+ * @see CCDLibrary#CCDFrameBufferRegister
+ * @see CCDLibrary#CCDFrameBufferRelease
+ */
+public interface CCDLibraryFrameListener
+{
+	/**
+	 * Method called (from the thread calling CCDMultrunExposeFrames) when a frame is ready.
+	 * @param library The CCDLibrary instance that read out the frame.
+	 * @param bufferIndex The index of the frame buffer holding the frame, to pass to CCDFrameBufferRelease.
+	 * @param buffer The frame buffer. The frame is stored as ncols x nrows (binned) unsigned 16 bit pixels,
+	 *        in native byte order, starting at position 0. The buffer's position is 0 and limit the size of the
+	 *        frame in bytes.
+	 * @param frameNumber The number of the frame in the multrun, starting from one.
+	 * @param exposureStartTime The time the exposure of the frame started, in milliseconds since the epoch.
+	 */
+	public void frameReady(CCDLibrary library,int bufferIndex,ByteBuffer buffer,long frameNumber,
+			       long exposureStartTime);
+}
+//
+// $Log: not supported by cvs2svn $
+//
@@ -0,0 +1,168 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of Rise.
+
+    NGAT is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    NGAT is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with NGAT; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CCDLibraryLogThread.java
+// $Header$
+package ngat.rise.ccd;
+
+import java.lang.*;
+import ngat.util.logging.*;
+
+/**
+ * This thread drains the C layer's log ring into CCDLibrary's logger. Whilst it is running, the C layer
+ * queues log messages in the ring rather than calling the logger itself, so the (possibly slow) Java log handlers
+ * are run on this thread rather than on the thread reading out the camera. Messages are taken in batches.
+ * When the ring is empty the thread sleeps for the poll time. Any messages the C layer dropped because the ring
+ * was full are reported.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see CCDLibrary#CCDGlobalLogRingStart
+ * @see CCDLibrary#CCDGlobalLogRingStop
+ */
+public class CCDLibraryLogThread extends Thread
+{
+	/**
+	 * Revision Control System id string, showing the version of the Class.
+	 */
+	public final static String RCSID = new String("$Id$");
+	/**
+	 * The library to drain the log ring of.
+	 */
+	private CCDLibrary library = null;
+	/**
+	 * The logger to log the drained messages to.
+	 */
+	private Logger logger = null;
+	/**
+	 * The log levels of the current batch of messages.
+	 */
+	private int levelList[] = null;
+	/**
+	 * The current batch of messages.
+	 */
+	private String messageList[] = null;
+	/**
+	 * How long to sleep when the log ring is empty, in milliseconds.
+	 */
+	private int pollTime = 0;
+	/**
+	 * The number of messages the C layer had dropped when we last looked.
+	 */
+	private long dropCount = 0;
+	/**
+	 * Set to true to tell the thread to drain the ring one last time and stop.
+	 */
+	private volatile boolean quit = false;
+
+	/**
+	 * Constructor.
+	 * @param l The library to drain the log ring of.
+	 * @param lg The logger to log the drained messages to.
+	 * @param batchSize The maximum number of messages to take from the log ring at once.
+	 * @param pollTime How long to sleep when the log ring is empty, in milliseconds.
+	 * @exception IllegalArgumentException Thrown if batchSize or pollTime are less than one.
+	 */
+	public CCDLibraryLogThread(CCDLibrary l,Logger lg,int batchSize,int pollTime) throws IllegalArgumentException
+	{
+		super("CCDLibraryLogThread");
+		if(batchSize < 1)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":Illegal batch size:"+
+							   batchSize);
+		}
+		if(pollTime < 1)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":Illegal poll time:"+pollTime);
+		}
+		library = l;
+		logger = lg;
+		levelList = new int[batchSize];
+		messageList = new String[batchSize];
+		this.pollTime = pollTime;
+	}
+
+	/**
+	 * Run method. Drains the log ring until quit is called, sleeping for pollTime milliseconds whenever it
+	 * is empty. Once quit has been called, the ring is drained until it is empty.
+	 * @see #drain
+	 * @see #quit
+	 */
+	public void run()
+	{
+		boolean done = false;
+
+		while(done == false)
+		{
+			// read quit before draining, so anything logged before quit was called is drained
+			done = quit;
+			if((drain() < levelList.length)&&(done == false))
+			{
+				try
+				{
+					Thread.sleep(pollTime);
+				}
+				catch(InterruptedException e)
+				{
+				}
+			}
+		}
+		// drain any full batches left
+		while(drain() == levelList.length)
+			;
+	}
+
+	/**
+	 * Tell the thread to drain the ring one last time and stop.
+	 * @see #quit
+	 */
+	public void quit()
+	{
+		quit = true;
+	}
+
+	/**
+	 * Take one batch of messages from the log ring and log them. Any new dropped messages are reported.
+	 * @return The number of messages taken.
+	 * @see CCDLibrary#CCDGlobalLogRingDrain
+	 * @see CCDLibrary#CCDGlobalLogRingGetDropCount
+	 */
+	protected int drain()
+	{
+		long newDropCount;
+		int count;
+
+		count = library.CCDGlobalLogRingDrain(levelList,messageList);
+		for(int i = 0; i < count; i++)
+		{
+			logger.log(levelList[i],messageList[i]);
+			messageList[i] = null;
+		}
+		newDropCount = library.CCDGlobalLogRingGetDropCount();
+		if(newDropCount != dropCount)
+		{
+			logger.log(1,this.getClass().getName()+":drain:"+(newDropCount-dropCount)+
+				   " C layer log messages dropped, the log ring was full.");
+			dropCount = newDropCount;
+		}
+		return count;
+	}
+}
+//
+// $Log: not supported by cvs2svn $
+//